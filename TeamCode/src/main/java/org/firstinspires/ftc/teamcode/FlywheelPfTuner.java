@@ -5,11 +5,19 @@ import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 import com.qualcomm.robotcore.hardware.DcMotorEx;
 import com.qualcomm.robotcore.hardware.PIDFCoefficients;
 import com.qualcomm.robotcore.hardware.DcMotorSimple;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+
+import org.firstinspires.ftc.teamcode.hardware.ActuatorCache;
 
 @TeleOp(name = "FlywheelPfTuner", group = "Tuning")
 public class FlywheelPfTuner extends OpMode {
 
     public DcMotorEx flywheelMotor;
+    private VoltageSensor voltageSensor;
+
+    // Only sends the PIDF and velocity commands when they change
+    private final ActuatorCache actuators = new ActuatorCache();
+    private ActuatorCache.CachedMotor flywheel;
 
     // Target velocities (ticks/second or RPM depending on your units)
     public double highVelocity = 4200.0;
@@ -24,7 +32,15 @@ public class FlywheelPfTuner extends OpMode {
     public double[] stepSizes = new double[] {10.0, 1.0, 0.1, 0.01, 0.001};
     public int stepIndex = 1;   // start at 1.0 steps
 
-    // Edge-detected gamepad state handled by SDK (wasJustPressed-style in latest SDK)
+    // Autotune (X): step test plus relay oscillation, results saved to the robot.
+    // A switches kP/kF to the saved gains; until then the ones above (or set in Panels) are used.
+    private final FlywheelAutotuner autotuner = new FlywheelAutotuner();
+    private final FlywheelGainStore gainStore = FlywheelGainStore.onRobot();
+    private boolean savedGainsLoaded;
+    private boolean useSavedGains;
+    private String savedGainsStatus;
+    private int loops;
+
     @Override
     public void init() {
         flywheelMotor = hardwareMap.get(DcMotorEx.class, "flywheel");
@@ -33,50 +49,94 @@ public class FlywheelPfTuner extends OpMode {
 
         PIDFCoefficients pf = new PIDFCoefficients(kP, 0.0, 0.0, kF);
         flywheelMotor.setPIDFCoefficients(DcMotorEx.RunMode.RUN_USING_ENCODER, pf);
+        flywheel = actuators.motor(flywheelMotor);
+        voltageSensor = hardwareMap.voltageSensor.iterator().next();
+
+        // Read the last autotune, if there is one, but keep the gains set by hand until A is pressed
+        savedGainsLoaded = gainStore.load();
+        if (savedGainsLoaded) {
+            savedGainsStatus = "available, press A to use";
+        } else if (gainStore.exists()) {
+            savedGainsStatus = "could not load " + gainStore.getFile().getName() + ", see the robot log";
+        } else {
+            savedGainsStatus = "none yet, press X to autotune";
+        }
 
+        telemetry.addData("Saved gains", savedGainsStatus);
         telemetry.addLine("Init complete");
     }
 
     @Override
     public void loop() {
+        // Start or cancel the autotune with X
+        if (gamepad1.xWasPressed()) {
+            if (autotuner.isRunning()) {
+                autotuner.cancel();
+                setAutotuneMode(false);
+            } else {
+                autotuner.lowTarget = lowVelocity;
+                autotuner.highTarget = highVelocity;
+                autotuner.start(nanoTime());
+                setAutotuneMode(true);
+            }
+        }
+        if (autotuner.isRunning()) {
+            autotuneLoop();
+            return;
+        }
+
         // Toggle between low and high velocity with Y
-        if (gamepad1.y) {    // replace with wasJustPressed if using new input API
+        if (gamepad1.yWasPressed()) {
             if (curTargetVelocity == highVelocity) {
                 curTargetVelocity = lowVelocity;
             } else {
                 curTargetVelocity = highVelocity;
             }
+            if (useSavedGains) {
+                applySavedGains();
+            }
+        }
+
+        // Switch to the saved gains for the current target with A
+        if (gamepad1.aWasPressed() && savedGainsLoaded) {
+            useSavedGains = true;
+            applySavedGains();
+            savedGainsStatus = "in use";
         }
 
         // Cycle step size with B
-        if (gamepad1.b) {
+        if (gamepad1.bWasPressed()) {
             stepIndex = (stepIndex + 1) % stepSizes.length;
         }
 
         double step = stepSizes[stepIndex];
 
         // Tune F with D-pad left/right
-        if (gamepad1.dpad_left) {
+        if (gamepad1.dpadLeftWasPressed()) {
             kF -= step;
+            tunedByHand();
         }
-        if (gamepad1.dpad_right) {
+        if (gamepad1.dpadRightWasPressed()) {
             kF += step;
+            tunedByHand();
         }
 
         // Tune P with D-pad up/down
-        if (gamepad1.dpad_up) {
+        if (gamepad1.dpadUpWasPressed()) {
             kP += step;
+            tunedByHand();
         }
-        if (gamepad1.dpad_down) {
+        if (gamepad1.dpadDownWasPressed()) {
             kP -= step;
+            tunedByHand();
         }
 
-        // Apply new coefficients each loop
-        PIDFCoefficients pf = new PIDFCoefficients(kP, 0.0, 0.0, kF);
-        flywheelMotor.setPIDFCoefficients(DcMotorEx.RunMode.RUN_USING_ENCODER, pf);
+        // Apply new coefficients each loop (only sent when they change)
+        flywheel.setPIDFCoefficients(DcMotorEx.RunMode.RUN_USING_ENCODER, kP, 0.0, 0.0, kF);
 
         // Command velocity
-        flywheelMotor.setVelocity(curTargetVelocity);
+        flywheel.setVelocity(curTargetVelocity);
+        actuators.flush();
 
         // Telemetry
         double curVelocity = flywheelMotor.getVelocity();
@@ -88,6 +148,64 @@ public class FlywheelPfTuner extends OpMode {
         telemetry.addData("kP", kP);
         telemetry.addData("kF", kF);
         telemetry.addData("Step size", step);
+        telemetry.addData("Writes saved/s", actuators.getSavedPerSecond());
+        telemetry.addData("Autotune (X)", autotuner.getStatus());
+        telemetry.addData("Saved gains (A)", savedGainsStatus);
         telemetry.update();
     }
+
+    private void autotuneLoop() {
+        double voltage = loops++ % 20 == 0 ? voltageSensor.getVoltage() : Double.NaN;
+        double velocity = flywheelMotor.getVelocity();
+        flywheel.setPower(autotuner.update(velocity, voltage, nanoTime()));
+        actuators.flush();
+
+        if (autotuner.getPhase() == FlywheelAutotuner.Phase.DONE) {
+            gainStore.lowTarget = lowVelocity;
+            gainStore.highTarget = highVelocity;
+            gainStore.low = autotuner.getLowGains();
+            gainStore.high = autotuner.getHighGains();
+            gainStore.lowHubP = FlywheelAutotuner.getHubP(gainStore.low);
+            gainStore.lowHubF = autotuner.getHubF(lowVelocity);
+            gainStore.highHubP = FlywheelAutotuner.getHubP(gainStore.high);
+            gainStore.highHubF = autotuner.getHubF(highVelocity);
+            savedGainsLoaded = true;
+            useSavedGains = true;
+            savedGainsStatus = gainStore.save() ? "in use, from this autotune"
+                    : "in use, but could not save " + gainStore.getFile().getName();
+            applySavedGains();
+            setAutotuneMode(false);
+        } else if (autotuner.getPhase() == FlywheelAutotuner.Phase.FAILED) {
+            setAutotuneMode(false);
+        }
+
+        telemetry.addData("Autotune", autotuner.getStatus());
+        telemetry.addData("Velocity", velocity);
+        telemetry.addLine("Press X to cancel");
+        telemetry.update();
+    }
+
+    /** Open loop while the autotuner drives the wheel, the hub's velocity PIDF otherwise. */
+    private void setAutotuneMode(boolean autotune) {
+        flywheelMotor.setMode(autotune ? DcMotorEx.RunMode.RUN_WITHOUT_ENCODER : DcMotorEx.RunMode.RUN_USING_ENCODER);
+        actuators.invalidate();
+    }
+
+    /** Once kP or kF is changed by hand, changing target no longer swaps in the saved gains. */
+    private void tunedByHand() {
+        if (!useSavedGains) return;
+        useSavedGains = false;
+        savedGainsStatus = "available, press A to use";
+    }
+
+    private void applySavedGains() {
+        boolean high = curTargetVelocity == highVelocity;
+        kP = high ? gainStore.highHubP : gainStore.lowHubP;
+        kF = high ? gainStore.highHubF : gainStore.lowHubF;
+    }
+
+    /** The autotuner's clock. The simulator overrides this to run on simulated time. */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
 }
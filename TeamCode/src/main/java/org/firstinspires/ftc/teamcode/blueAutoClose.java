@@ -4,13 +4,36 @@ import com.bylazar.configurables.annotations.Configurable;
 import com.bylazar.telemetry.PanelsTelemetry;
 import com.bylazar.telemetry.TelemetryManager;
 import com.pedropathing.follower.Follower;
+import com.pedropathing.ftc.localization.localizers.PinpointLocalizer;
 import com.pedropathing.geometry.BezierLine;
 import com.pedropathing.geometry.Pose;
+import com.pedropathing.localization.Localizer;
 import com.pedropathing.paths.PathChain;
+import com.pedropathing.paths.PathConstraints;
 import com.pedropathing.util.Timer;
 import com.qualcomm.robotcore.eventloop.opmode.Autonomous;
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.robotcore.util.RobotLog;
+import android.os.Environment;
+import org.firstinspires.ftc.teamcode.hardware.CommandedPowerMotor;
+import org.firstinspires.ftc.teamcode.hardware.SensorReader;
+import org.firstinspires.ftc.teamcode.localization.FusedLocalizer;
+import org.firstinspires.ftc.teamcode.localization.ThreadedPinpointLocalizer;
 import org.firstinspires.ftc.teamcode.pedroPathing.Constants;
+import org.firstinspires.ftc.teamcode.recording.FlightRecorder;
+import org.firstinspires.ftc.teamcode.util.LoopProfiler;
+import org.firstinspires.ftc.teamcode.vision.AprilTagFusion;
+import org.firstinspires.ftc.teamcode.vision.ExposureTuner;
+import org.firstinspires.ftc.teamcode.vision.MotionGate;
+import org.firstinspires.ftc.teamcode.vision.RoiAprilTagProcessor;
+import org.firstinspires.ftc.teamcode.vision.VisionScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 @Autonomous(name = "blueAutoClose", group = "Autonomous")
 @Configurable // Panels
@@ -20,43 +43,116 @@ public class blueAutoClose extends OpMode {
     public Follower follower; // Pedro Pathing follower instance
     private int pathState; // Current autonomous path state (state machine)
     private Paths paths; // Paths defined in the Paths class
+    private int currentPath = -1; // Index into Paths.NAMES of the chain being followed
     private Timer pathTimer, opmodeTimer;
 
+    public static Plan PLAN = new Plan(); // Tunable from Panels
+    protected Plan plan = PLAN; // The plan this instance runs
+
+    public static boolean THREADED_SENSORS = false; // Read the Pinpoint on a background thread
+    private SensorReader sensors;
+    private ThreadedPinpointLocalizer threadedLocalizer;
+
+    public static boolean FUSE_APRILTAGS = false; // Correct Pinpoint drift with AprilTag poses
+    public static boolean APRILTAG_ROI = true; // Only scan where the fused pose says tags should be
+    public static double VISION_BUDGET_CORES = 1.0; // CPU the tag processor may use; 0 to run it unscheduled
+    private FusedLocalizer fusedLocalizer;
+    private AprilTagFusion aprilTags;
+    private VisionScheduler vision;
+    public static boolean MOTION_GATE = true; // Skip tag frames taken while turning fast
+    public static double TAG_DROP_TURN_DEG = 180; // deg/s; faster than this drops the frame, half this decimates it
+    public static boolean TUNE_EXPOSURE = true; // Find the shortest exposure that sees the tags during init; Y re-runs it
+    private ExposureTuner exposure;
+
+    public static boolean FLIGHT_RECORDER = false; // Log every loop to FIRST/data/flightlogs (about 4 MB a run)
+    private FlightRecorder recorder;
+
+    // Loop phases timed by the profiler
+    private static final int FOLLOWER = 0, STATE_MACHINE = 1, RECORDER = 2, TELEMETRY = 3;
+    private final LoopProfiler profiler =
+            new LoopProfiler("blueAutoClose", "Follower", "State machine", "Recorder", "Telemetry");
+
     @Override
     public void init() {
-        panelsTelemetry = PanelsTelemetry.INSTANCE.getTelemetry();
-        pathTimer = new Timer();
-        opmodeTimer = new Timer();
+        panelsTelemetry = newTelemetry();
+        pathTimer = newTimer();
+        opmodeTimer = newTimer();
         opmodeTimer.resetTimer();
 
-        follower = Constants.createFollower(hardwareMap);
-        follower.setStartingPose(new Pose(72, 8, Math.toRadians(90)));
+        boolean record = recordsFlight();
+        if (record) {
+            // Before the follower looks the drive motors up, so their powers go through the wrappers.
+            for (String motor : driveMotorNames()) {
+                CommandedPowerMotor.install(hardwareMap, motor);
+            }
+        }
+
+        follower = newFollower();
+        follower.setStartingPose(plan.startPose);
 
-        paths = new Paths(follower); // Build all paths
+        paths = new Paths(follower, plan); // Build all paths
+
+        if (record) {
+            recorder = newFlightRecorder();
+        }
 
         // Initialize state machine
         pathState = 0;
 
+        if (aprilTags != null && TUNE_EXPOSURE) {
+            exposure = new ExposureTuner(aprilTags.getVisionPortal(), aprilTags.getProcessor());
+            exposure.start();
+        }
+
         panelsTelemetry.debug("Status", "Initialized");
         panelsTelemetry.update(telemetry);
     }
 
+    @Override
+    public void init_loop() {
+        if (exposure == null) return;
+        // Re-tune when the lighting changes, with the tags in view.
+        if (gamepad1.yWasPressed()) exposure.start();
+        exposure.update();
+        panelsTelemetry.debug("Exposure", exposure.getStatus());
+        panelsTelemetry.update(telemetry);
+    }
+
     @Override
     public void start() {
         super.start();
+        if (exposure != null) {
+            exposure.cancel(); // Keep the best setting found if PLAY comes mid-search
+        }
         // Reset the path timer exactly when PLAY is pressed
         pathTimer.resetTimer();
         // Start the first path (shoot preload)
-        follower.followPath(paths.shootPreload, true);
+        follow(paths.shootPreload, true);
     }
 
     @Override
     public void loop() {
+        profiler.startLoop();
         // TODO: Start intake, shooter, and transfer wheel here if needed at the beginning
         // e.g. robot.intake.start(); robot.shooter.start(); etc.
 
+        if (aprilTags != null) {
+            aprilTags.update(fusedLocalizer); // Queued; applied in follower.update()
+        }
+        if (vision != null) {
+            vision.update();
+        }
         follower.update(); // Must be called every loop for Pedro Pathing to drive
+        profiler.lap(FOLLOWER);
         pathState = autonomousPathUpdate(); // Advance state machine
+        profiler.lap(STATE_MACHINE);
+
+        if (recorder != null && recorder.begin(nanoTime())) {
+            recorder.follower(follower);
+            recorder.path(currentPath, pathState);
+            recorder.commit();
+        }
+        profiler.lap(RECORDER);
 
         // Telemetry logging
         panelsTelemetry.debug("Path State", pathState);
@@ -64,7 +160,188 @@ public class blueAutoClose extends OpMode {
         panelsTelemetry.debug("Y", follower.getPose().getY());
         panelsTelemetry.debug("Heading (deg)", Math.toDegrees(follower.getPose().getHeading()));
         panelsTelemetry.debug("Timer (s)", pathTimer.getElapsedTimeSeconds());
+        if (threadedLocalizer != null) {
+            panelsTelemetry.debug("Sensor age (ms)", threadedLocalizer.getSnapshot().getAgeMillis());
+        }
+        if (fusedLocalizer != null) {
+            panelsTelemetry.debug("Pose sigma (in)", fusedLocalizer.getPositionSigma());
+            panelsTelemetry.debug("Tags accepted/rejected", fusedLocalizer.getAcceptedCount() + "/" + fusedLocalizer.getRejectedCount());
+            RoiAprilTagProcessor roi = aprilTags.getRoiProcessor();
+            if (roi != null) {
+                panelsTelemetry.debug("Camera FPS", roi.getFps());
+                panelsTelemetry.debug("Tag frames roi/full/skipped", roi.getRoiFrameCount() + "/"
+                        + roi.getFullFrameCount() + "/" + roi.getSkippedFrameCount());
+                panelsTelemetry.debug("Tag decimation", roi.getDecimation());
+            }
+        }
+        MotionGate gate = aprilTags != null ? aprilTags.getMotionGate() : null;
+        if (gate != null) {
+            panelsTelemetry.debug("Tag frames gated dropped/decimated", gate.getDroppedCount() + "/" + gate.getDecimatedCount());
+            panelsTelemetry.debug("Gate CPU saved (ms), poses rejected", String.format(Locale.US, "%.0f, %d",
+                    gate.getSavedMillis(), gate.getRejectedPoseCount()));
+        }
+        if (vision != null) {
+            panelsTelemetry.debug("Vision phase", vision.getPhase());
+            panelsTelemetry.debug("Vision cores planned/used", String.format(Locale.US, "%.2f / %.2f",
+                    vision.getPlannedCores(), vision.getMeasuredCores()));
+            panelsTelemetry.debug("Vision", vision.describe());
+        }
+        profiler.publish(panelsTelemetry);
         panelsTelemetry.update(telemetry);
+        profiler.lap(TELEMETRY);
+    }
+
+    @Override
+    public void stop() {
+        if (sensors != null) {
+            sensors.stop();
+        }
+        if (aprilTags != null) {
+            aprilTags.close();
+        }
+        profiler.dump(); // Loop timing table goes to the robot log
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    /**
+     * Builds the follower on the Pinpoint, read on a background thread if THREADED_SENSORS is set
+     * and fused with AprilTag poses if FUSE_APRILTAGS is. Log replay overrides this to feed the
+     * follower recorded poses instead.
+     */
+    protected Follower newFollower() {
+        Localizer odometry = null;
+        if (THREADED_SENSORS) {
+            sensors = new SensorReader(hardwareMap).pinpoint(Constants.localizerConstants.hardwareMapName);
+            threadedLocalizer = new ThreadedPinpointLocalizer(sensors, Constants.localizerConstants);
+            sensors.start();
+            odometry = threadedLocalizer;
+        }
+        if (FUSE_APRILTAGS) {
+            if (odometry == null) {
+                odometry = new PinpointLocalizer(hardwareMap, Constants.localizerConstants);
+            }
+            fusedLocalizer = new FusedLocalizer(odometry);
+            if (VISION_BUDGET_CORES > 0) {
+                vision = new VisionScheduler();
+                vision.budgetCores = VISION_BUDGET_CORES;
+            }
+            aprilTags = AprilTagFusion.create(hardwareMap, "Webcam 1", APRILTAG_ROI, vision, MOTION_GATE);
+            MotionGate gate = aprilTags.getMotionGate();
+            if (gate != null) {
+                gate.dropOmega = Math.toRadians(TAG_DROP_TURN_DEG);
+                gate.decimateOmega = gate.dropOmega / 2;
+            }
+            if (vision != null) {
+                // Tags matter most lining up to score; while intaking odometry alone is close enough.
+                VisionScheduler.Task tags = aprilTags.getSchedulerTask();
+                vision.phase("score").run(tags, 30, 1);
+                vision.phase("intake").run(tags, 10, 1);
+                vision.phase("park").run(tags, 5, 1);
+                vision.setPhase(visionPhase(0));
+            }
+            odometry = fusedLocalizer;
+        }
+        if (odometry != null) {
+            return Constants.createFollower(hardwareMap, plan.pathConstraints, odometry);
+        }
+        return Constants.createFollower(hardwareMap, plan.pathConstraints);
+    }
+
+    /** Whether this run keeps a flight log. The simulators override this rather than set FLIGHT_RECORDER. */
+    protected boolean recordsFlight() {
+        return FLIGHT_RECORDER;
+    }
+
+    /**
+     * Opens the flight log for this run, with the drive motors and battery, or returns null if it
+     * can't be created. The simulator overrides this to log somewhere else.
+     */
+    protected FlightRecorder newFlightRecorder() {
+        File storage = Environment.getExternalStorageDirectory();
+        if (storage == null) {
+            return null; // Not on a robot
+        }
+        String name = "blueAutoClose-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".bin";
+        return openFlightRecorder(new File(storage, "FIRST/data/flightlogs/" + name));
+    }
+
+    protected FlightRecorder openFlightRecorder(File file) {
+        // The recorder reads the drive encoders; AUTO caching makes that one bulk read per hub.
+        // With THREADED_SENSORS the reader has already put the hubs in MANUAL.
+        if (sensors == null) {
+            for (LynxModule hub : hardwareMap.getAll(LynxModule.class)) {
+                hub.setBulkCachingMode(LynxModule.BulkCachingMode.AUTO);
+            }
+        }
+        FlightRecorder recorder = new FlightRecorder(file, 36000) // 3 minutes at 200 Hz
+                .tag("blueAutoClose")
+                .pathNames(Paths.NAMES);
+        for (String motor : driveMotorNames()) {
+            recorder.addMotor(motor, CommandedPowerMotor.install(hardwareMap, motor));
+        }
+        if (hardwareMap.voltageSensor.iterator().hasNext()) {
+            recorder.voltageSensor(hardwareMap.voltageSensor.iterator().next());
+        }
+        try {
+            return recorder.open();
+        } catch (IOException e) {
+            RobotLog.ee("blueAutoClose", e, "Flight recorder disabled");
+            return null;
+        }
+    }
+
+    private static String[] driveMotorNames() {
+        return new String[] {Constants.driveConstants.leftFrontMotorName,
+                Constants.driveConstants.leftRearMotorName, Constants.driveConstants.rightFrontMotorName,
+                Constants.driveConstants.rightRearMotorName};
+    }
+
+    /**
+     * Everything about this autonomous that we tune: waypoints, heading interpolation endpoints,
+     * shooting dwell times and the follower's path constraints. Live-editable from Panels through
+     * PLAN; the simulator hands each OpMode instance its own copy.
+     */
+    public static class Plan {
+        public Pose startPose = new Pose(72, 8, Math.toRadians(90));
+
+        public Pose preloadStart = new Pose(24.772, 125.069);
+        public Pose score = new Pose(55.586, 94.255);
+        public Pose lineup1 = new Pose(44.509, 85.796);
+        public Pose intake1 = new Pose(15.910, 85.997);
+        public Pose lineup2 = new Pose(40.683, 60.420);
+        public Pose intake2 = new Pose(15.105, 60.218);
+        public Pose score2 = new Pose(55.787, 94.456);
+        public Pose park = new Pose(56.996, 115.401);
+
+        public double scoreHeadingDeg = 137;
+        public double intakeHeadingDeg = 180;
+
+        /** Seconds after a scoring path starts before we fire, and before we move on. */
+        public double shootStartSeconds = 8.0;
+        public double shootEndSeconds = 13.0;
+
+        public PathConstraints pathConstraints = Constants.pathConstraints;
+
+        public Plan copy() {
+            Plan copy = new Plan();
+            copy.startPose = startPose;
+            copy.preloadStart = preloadStart;
+            copy.score = score;
+            copy.lineup1 = lineup1;
+            copy.intake1 = intake1;
+            copy.lineup2 = lineup2;
+            copy.intake2 = intake2;
+            copy.score2 = score2;
+            copy.park = park;
+            copy.scoreHeadingDeg = scoreHeadingDeg;
+            copy.intakeHeadingDeg = intakeHeadingDeg;
+            copy.shootStartSeconds = shootStartSeconds;
+            copy.shootEndSeconds = shootEndSeconds;
+            copy.pathConstraints = pathConstraints;
+            return copy;
+        }
     }
 
     public static class Paths {
@@ -72,55 +349,80 @@ public class blueAutoClose extends OpMode {
         public PathChain shootPreload, lineupField1, intakeField1, shootField1,
                 lineupField2, intakeField2, shootField2, strafeOffLine;
 
+        /** Names of the chains in {@link #all()} order, for logs. */
+        public static final String[] NAMES = {"shootPreload", "lineupField1", "intakeField1",
+                "shootField1", "lineupField2", "intakeField2", "shootField2", "strafeOffLine"};
+
         public Paths(Follower follower) {
+            this(follower, PLAN);
+        }
+
+        public Paths(Follower follower, Plan plan) {
+            double scoreHeading = Math.toRadians(plan.scoreHeadingDeg);
+            double intakeHeading = Math.toRadians(plan.intakeHeadingDeg);
+
             shootPreload = follower
                     .pathBuilder()
-                    .addPath(new BezierLine(new Pose(24.772, 125.069), new Pose(55.586, 94.255)))
-                    .setLinearHeadingInterpolation(Math.toRadians(137), Math.toRadians(137))
+                    .addPath(new BezierLine(plan.preloadStart, plan.score))
+                    .setLinearHeadingInterpolation(scoreHeading, scoreHeading)
                     .build();
 
             lineupField1 = follower
                     .pathBuilder()
-                    .addPath(new BezierLine(new Pose(55.586, 94.255), new Pose(44.509, 85.796)))
-                    .setLinearHeadingInterpolation(Math.toRadians(137), Math.toRadians(180))
+                    .addPath(new BezierLine(plan.score, plan.lineup1))
+                    .setLinearHeadingInterpolation(scoreHeading, intakeHeading)
                     .build();
 
             intakeField1 = follower
                     .pathBuilder()
-                    .addPath(new BezierLine(new Pose(44.509, 85.796), new Pose(15.910, 85.997)))
-                    .setLinearHeadingInterpolation(Math.toRadians(180), Math.toRadians(180))
+                    .addPath(new BezierLine(plan.lineup1, plan.intake1))
+                    .setLinearHeadingInterpolation(intakeHeading, intakeHeading)
                     .build();
 
             shootField1 = follower
                     .pathBuilder()
-                    .addPath(new BezierLine(new Pose(15.910, 85.997), new Pose(55.586, 94.255)))
-                    .setLinearHeadingInterpolation(Math.toRadians(180), Math.toRadians(137))
+                    .addPath(new BezierLine(plan.intake1, plan.score))
+                    .setLinearHeadingInterpolation(intakeHeading, scoreHeading)
                     .build();
 
             lineupField2 = follower
                     .pathBuilder()
-                    .addPath(new BezierLine(new Pose(55.586, 94.255), new Pose(40.683, 60.420)))
-                    .setLinearHeadingInterpolation(Math.toRadians(137), Math.toRadians(180))
+                    .addPath(new BezierLine(plan.score, plan.lineup2))
+                    .setLinearHeadingInterpolation(scoreHeading, intakeHeading)
                     .build();
 
             intakeField2 = follower
                     .pathBuilder()
-                    .addPath(new BezierLine(new Pose(40.683, 60.420), new Pose(15.105, 60.218)))
-                    .setLinearHeadingInterpolation(Math.toRadians(180), Math.toRadians(180))
+                    .addPath(new BezierLine(plan.lineup2, plan.intake2))
+                    .setLinearHeadingInterpolation(intakeHeading, intakeHeading)
                     .build();
 
             shootField2 = follower
                     .pathBuilder()
-                    .addPath(new BezierLine(new Pose(15.105, 60.218), new Pose(55.787, 94.456)))
-                    .setLinearHeadingInterpolation(Math.toRadians(180), Math.toRadians(137))
+                    .addPath(new BezierLine(plan.intake2, plan.score2))
+                    .setLinearHeadingInterpolation(intakeHeading, scoreHeading)
                     .build();
 
             strafeOffLine = follower
                     .pathBuilder()
-                    .addPath(new BezierLine(new Pose(55.787, 94.456), new Pose(56.996, 115.401)))
-                    .setLinearHeadingInterpolation(Math.toRadians(137), Math.toRadians(137))
+                    .addPath(new BezierLine(plan.score2, plan.park))
+                    .setLinearHeadingInterpolation(scoreHeading, scoreHeading)
                     .build();
         }
+
+        public PathChain[] all() {
+            return new PathChain[] {shootPreload, lineupField1, intakeField1, shootField1,
+                    lineupField2, intakeField2, shootField2, strafeOffLine};
+        }
+
+        /** Index of the chain in {@link #all()} and NAMES, or -1. */
+        public int indexOf(PathChain chain) {
+            PathChain[] all = all();
+            for (int i = 0; i < all.length; i++) {
+                if (all[i] == chain) return i;
+            }
+            return -1;
+        }
     }
 
     /**
@@ -131,10 +433,10 @@ public class blueAutoClose extends OpMode {
         switch (pathState) {
             case 0: // Following shootPreload (started in start())
                 // Timed shooting of preload while holding at scoring pose
-                if (pathTimer.getElapsedTimeSeconds() > 8.0) {
+                if (pathTimer.getElapsedTimeSeconds() > plan.shootStartSeconds) {
                     // TODO: Shoot the preload here (e.g. transferWheel.reverse() or servo release)
                 }
-                if (pathTimer.getElapsedTimeSeconds() > 13.0) {
+                if (pathTimer.getElapsedTimeSeconds() > plan.shootEndSeconds) {
                     // TODO: Stop shooting mechanism
                     setPathState(1);
                 }
@@ -142,68 +444,74 @@ public class blueAutoClose extends OpMode {
 
             case 1:
                 if (!follower.isBusy()) {
-                    follower.followPath(paths.lineupField1);
+                    follow(paths.lineupField1);
                     setPathState(2);
                 }
                 break;
 
             case 2:
                 if (!follower.isBusy()) {
-                    follower.followPath(paths.intakeField1);
+                    follow(paths.intakeField1);
                     setPathState(3);
                 }
                 break;
 
             case 3: // Back to scoring pose for first field sample
                 if (!follower.isBusy()) {
-                    follower.followPath(paths.shootField1);
-                    pathTimer.resetTimer(); // Reset for next shooting sequence
+                    follow(paths.shootField1);
+                    setPathState(4); // Resets the timer for the shooting sequence
                 }
-                if (pathTimer.getElapsedTimeSeconds() > 8.0) {
+                break;
+
+            case 4: // Following shootField1
+                if (pathTimer.getElapsedTimeSeconds() > plan.shootStartSeconds) {
                     // TODO: Shoot first field sample
                 }
-                if (pathTimer.getElapsedTimeSeconds() > 13.0) {
+                if (pathTimer.getElapsedTimeSeconds() > plan.shootEndSeconds) {
                     // TODO: Stop shooting
-                    setPathState(4);
+                    setPathState(5);
                 }
                 break;
 
-            case 4:
+            case 5:
                 if (!follower.isBusy()) {
-                    follower.followPath(paths.lineupField2);
-                    setPathState(5);
+                    follow(paths.lineupField2);
+                    setPathState(6);
                 }
                 break;
 
-            case 5:
+            case 6:
                 if (!follower.isBusy()) {
-                    follower.followPath(paths.intakeField2);
-                    setPathState(6);
+                    follow(paths.intakeField2);
+                    setPathState(7);
                 }
                 break;
 
-            case 6: // Back to scoring pose for second field sample
+            case 7: // Back to scoring pose for second field sample
                 if (!follower.isBusy()) {
-                    follower.followPath(paths.shootField2);
-                    pathTimer.resetTimer();
+                    follow(paths.shootField2);
+                    setPathState(8);
                 }
-                if (pathTimer.getElapsedTimeSeconds() > 8.0) {
+                break;
+
+            case 8: // Following shootField2
+                if (pathTimer.getElapsedTimeSeconds() > plan.shootStartSeconds) {
                     // TODO: Shoot second field sample
                 }
-                if (pathTimer.getElapsedTimeSeconds() > 13.0) {
+                if (pathTimer.getElapsedTimeSeconds() > plan.shootEndSeconds) {
                     // TODO: Stop shooting
-                    setPathState(7);
+                    setPathState(9);
                 }
                 break;
 
-            case 7:
+            case 9:
                 if (!follower.isBusy()) {
-                    follower.followPath(paths.strafeOffLine);
-                    setPathState(8);
+                    follow(paths.strafeOffLine);
+                    setPathState(10);
                 }
                 break;
 
-            case 8: // Parking complete
+            case 10: // Parking complete
                 if (!follower.isBusy()) {
                     requestOpModeStop();
                 }
@@ -212,11 +520,58 @@ public class blueAutoClose extends OpMode {
         return pathState;
     }
 
+    /**
+     * The Panels telemetry to write to. There is one per process, so the simulators, which run many
+     * of these OpModes at once, override this with one of their own.
+     */
+    protected TelemetryManager newTelemetry() {
+        return PanelsTelemetry.INSTANCE.getTelemetry();
+    }
+
+    /**
+     * Creates the timers used by the state machine. The headless simulator overrides this so the
+     * dwell times run on simulated time.
+     */
+    protected Timer newTimer() {
+        return new Timer();
+    }
+
+    /** Timestamps for the flight log. The simulator overrides this with simulated time. */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /** Starts following a chain and remembers which one, for the flight log. */
+    private void follow(PathChain chain) {
+        currentPath = paths.indexOf(chain);
+        follower.followPath(chain);
+    }
+
+    private void follow(PathChain chain, boolean holdEnd) {
+        currentPath = paths.indexOf(chain);
+        follower.followPath(chain, holdEnd);
+    }
+
     /**
      * Helper method to advance the state machine and reset the timer.
      */
     private void setPathState(int newState) {
         pathState = newState;
         pathTimer.resetTimer();
+        if (vision != null) {
+            vision.setPhase(visionPhase(newState));
+        }
+    }
+
+    /** The vision scheduler phase for a path state. */
+    private static String visionPhase(int state) {
+        switch (state) {
+            case 1: case 2: case 5: case 6: // Lining up and intaking
+                return "intake";
+            case 9: case 10:
+                return "park";
+            default: // Driving to and shooting from the scoring pose
+                return "score";
+        }
     }
 }
@@ -0,0 +1,182 @@
+package org.firstinspires.ftc.teamcode.flywheel;
+
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.DcMotorEx;
+import com.qualcomm.robotcore.hardware.DcMotorSimple;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.teamcode.hardware.SensorReader;
+import org.firstinspires.ftc.teamcode.hardware.SensorSnapshot;
+
+import java.util.List;
+
+/**
+ * This is the Flywheel class. It drives the shooter motor open loop with a
+ * {@link FlywheelController} computed on the phone.
+ *
+ * Call {@link #update()} every loop, or {@link #start()} to run the controller on its own thread
+ * at periodMillis; the hub's bulk read of the wheel velocity is then the only thing it waits on,
+ * and it no longer depends on how long the rest of the OpMode loop takes. Battery voltage is read
+ * every voltageEvery updates.
+ *
+ * The velocity is read from the motor, which needs the hubs in AUTO or OFF bulk caching: in
+ * MANUAL nothing on this thread clears the cache and the velocity would freeze, so update() and
+ * start() refuse to run that way. With a {@link SensorReader} running, which puts the hubs in
+ * MANUAL, hand it to {@link #setSensorReader} and the velocity comes from its snapshots instead.
+ */
+public class Flywheel implements Runnable {
+    private final DcMotorEx motor;
+    private final VoltageSensor voltageSensor;
+    public final FlywheelController controller = new FlywheelController();
+
+    public long periodMillis = 5;
+    public int voltageEvery = 20;
+    /** Power changes smaller than this are not sent. */
+    public double powerEpsilon = 0.002;
+
+    private volatile double velocity;
+    private double sentPower = Double.NaN;
+    private int updates;
+    private volatile Thread thread;
+
+    private final LynxModule[] hubs;
+    private SensorReader reader;
+    private SensorSnapshot snapshot;
+    private int readerIndex;
+    private long lastSequence;
+
+    public Flywheel(HardwareMap hardwareMap, String name, DcMotorSimple.Direction direction) {
+        List<LynxModule> all = hardwareMap.getAll(LynxModule.class);
+        hubs = all.toArray(new LynxModule[all.size()]);
+        motor = hardwareMap.get(DcMotorEx.class, name);
+        motor.setDirection(direction);
+        motor.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
+        motor.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.FLOAT);
+        voltageSensor = hardwareMap.voltageSensor.iterator().next();
+    }
+
+    public DcMotorEx getMotor() {
+        return motor;
+    }
+
+    /**
+     * Takes the wheel velocity from the reader's snapshots instead of the motor.
+     *
+     * @param index the flywheel motor's position among the motors added to the reader
+     */
+    public synchronized Flywheel setSensorReader(SensorReader reader, int index) {
+        this.reader = reader;
+        readerIndex = index;
+        snapshot = reader.newSnapshot();
+        lastSequence = 0;
+        return this;
+    }
+
+    /** Target velocity in ticks/s. Safe to call from any thread. */
+    public synchronized void setTarget(double target) {
+        controller.setTarget(target);
+    }
+
+    public double getVelocity() {
+        return velocity;
+    }
+
+    public boolean isReady() {
+        return controller.isReady();
+    }
+
+    /**
+     * Reads the wheel, runs the controller and sends the power if it changed. With a sensor reader,
+     * does nothing until it has published a new snapshot.
+     */
+    public synchronized void update() {
+        if (reader != null) {
+            long sequence = reader.copyLatest(snapshot);
+            if (sequence == 0 || sequence == lastSequence) return;
+            lastSequence = sequence;
+            velocity = snapshot.velocities[readerIndex];
+        } else {
+            checkCachingMode();
+            velocity = motor.getVelocity();
+        }
+        double voltage = updates++ % voltageEvery == 0 ? voltageSensor.getVoltage() : Double.NaN;
+        double power = controller.calculate(velocity, voltage, nanoTime());
+        if (Double.isNaN(sentPower) || Math.abs(power - sentPower) > powerEpsilon || (power == 0 && sentPower != 0)) {
+            motor.setPower(power);
+            sentPower = power;
+        }
+    }
+
+    /** Runs update() on a background thread until stop(). */
+    public synchronized void start() {
+        if (thread != null) return;
+        if (reader == null) checkCachingMode();
+        thread = new Thread(this, "Flywheel");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /** Stops the thread, if any, and the motor. */
+    public void stop() {
+        Thread t = thread;
+        thread = null;
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        setTarget(0);
+        motor.setPower(0);
+        sentPower = 0;
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (thread == Thread.currentThread()) {
+            try {
+                update();
+            } catch (IllegalStateException e) {
+                RobotLog.ee("Flywheel", e, "Flywheel stopped");
+                motor.setPower(0);
+                sentPower = 0;
+                return;
+            } catch (RuntimeException e) {
+                RobotLog.ee("Flywheel", e, "Flywheel update failed");
+            }
+            next += periodMillis * 1_000_000L;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } else {
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    /** Runs every update(), so it walks an array rather than allocating an iterator. */
+    private void checkCachingMode() {
+        for (int i = 0; i < hubs.length; i++) {
+            LynxModule hub = hubs[i];
+            if (hub.getBulkCachingMode() == LynxModule.BulkCachingMode.MANUAL) {
+                throw new IllegalStateException("Flywheel needs AUTO or OFF bulk caching, or a SensorReader; "
+                        + hub.getDeviceName() + " is in MANUAL");
+            }
+        }
+    }
+
+    /** The controller's clock. The simulator overrides this to run on simulated time. */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,372 @@
+package org.firstinspires.ftc.teamcode.flywheel;
+
+import java.util.Locale;
+
+/**
+ * This is the FlywheelAutotuner class. It identifies the flywheel and works out its gains in a few
+ * seconds, in place of stepping kP and kF by hand.
+ *
+ * It runs in four phases, each driven by {@link #update(double, double, long)} once per loop:
+ * <ol>
+ * <li>Low step: hold lowStepPower until the wheel settles.</li>
+ * <li>High step: jump to highStepPower and record the response. The two steady states give kS
+ * and kV. The step response gives a first-order-plus-dead-time (FOPDT) model: gain, time constant
+ * from the 28% and 63% rise times, and dead time.</li>
+ * <li>Relay low: hold lowTarget by switching the power between feedforward plus and minus
+ * relayAmplitude each time the velocity crosses the target (with hysteresis). The oscillation's
+ * amplitude and period give the ultimate gain and frequency, which refine the FOPDT time constant
+ * and dead time at that speed.</li>
+ * <li>Relay high: the same at highTarget.</li>
+ * </ol>
+ * Gains follow from the model. kA = kV * tau. kP uses the SIMC rule with closed-loop time constant
+ * max(deadTime, tau * closedLoopFraction). The equivalent hub RUN_USING_ENCODER P and F are
+ * computed too, for FlywheelPfTuner.
+ *
+ * Like {@link FlywheelController}, this does no I/O. Velocities are ticks/s and the gains use the
+ * same units as {@link FlywheelController.Gains}.
+ */
+public class FlywheelAutotuner {
+    private static final int MAX_SAMPLES = 4096;
+    private static final int RELAY_SKIP = 2;
+    private static final double HUB_SCALE = 32767;
+
+    public enum Phase { IDLE, LOW_STEP, HIGH_STEP, RELAY_LOW, RELAY_HIGH, DONE, FAILED }
+
+    public double lowTarget = 900;
+    public double highTarget = 4200;
+    public double lowStepPower = 0.3;
+    public double highStepPower = 0.8;
+    /** Settled when the velocity changes by less than this fraction over settleSeconds. */
+    public double settleTolerance = 0.01;
+    public double settleSeconds = 0.3;
+    public double stepTimeoutSeconds = 5;
+    /** Relay output swing either side of the feedforward, in power. */
+    public double relayAmplitude = 0.1;
+    /** Relay hysteresis, ticks/s. */
+    public double relayHysteresis = 15;
+    /** Relay cycles to average, after the first RELAY_SKIP are discarded. */
+    public int relayCycles = 6;
+    public double relayTimeoutSeconds = 6;
+    /** SIMC closed-loop time constant as a fraction of tau, when larger than the dead time. */
+    public double closedLoopFraction = 0.2;
+
+    /** The model for one target speed. */
+    public static class Model {
+        /** Ticks/s per volt. */
+        public double gain;
+        public double timeConstant;
+        public double deadTime;
+        /** Relay results: ultimate gain (volts per tick/s) and period (s). NaN if not measured. */
+        public double ultimateGain = Double.NaN;
+        public double ultimatePeriod = Double.NaN;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "K %.1f  tau %.3f s  L %.3f s  Ku %.4f  Pu %.3f s",
+                    gain, timeConstant, deadTime, ultimateGain, ultimatePeriod);
+        }
+    }
+
+    private Phase phase = Phase.IDLE;
+    private String failure = "";
+    private long phaseStartNanos;
+    private double power;
+
+    // Sample history for the settle check and the step fit.
+    private final double[] times = new double[MAX_SAMPLES];
+    private final double[] velocities = new double[MAX_SAMPLES];
+    private int sampleCount;
+    private double voltageSum;
+    private int voltageCount;
+    private double voltage = Double.NaN;
+
+    private double lowVolts, lowVelocity;
+    private double highVolts, highVelocity;
+
+    // Relay state
+    private boolean relayHigh;
+    private int relaySwitches;
+    private double lastSwitchTime;
+    private double periodSum;
+    private double cycleMax, cycleMin;
+    private double amplitudeSum;
+    private int cyclesCounted;
+
+    private double kS, kV, kA;
+    private final Model stepModel = new Model();
+    private final Model lowModel = new Model();
+    private final Model highModel = new Model();
+    private FlywheelController.Gains lowGains, highGains;
+
+    public void start(long nanos) {
+        failure = "";
+        lowGains = highGains = null;
+        enter(Phase.LOW_STEP, nanos);
+    }
+
+    public void cancel() {
+        phase = Phase.IDLE;
+        power = 0;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public boolean isRunning() {
+        return phase != Phase.IDLE && phase != Phase.DONE && phase != Phase.FAILED;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * Advances the test and returns the power to apply this cycle.
+     *
+     * @param velocity measured wheel velocity, ticks/s
+     * @param voltage  battery voltage, or NaN to reuse the last one
+     * @param nanos    the current time
+     */
+    public double update(double velocity, double voltage, long nanos) {
+        if (!Double.isNaN(voltage) && voltage > 1) {
+            this.voltage = voltage;
+            voltageSum += voltage;
+            voltageCount++;
+        }
+        double t = (nanos - phaseStartNanos) / 1e9;
+
+        switch (phase) {
+            case LOW_STEP:
+                power = lowStepPower;
+                record(t, velocity);
+                if (settled(t)) {
+                    lowVolts = lowStepPower * meanVoltage();
+                    lowVelocity = velocity;
+                    enter(Phase.HIGH_STEP, nanos);
+                } else if (t > stepTimeoutSeconds) {
+                    fail("Wheel did not settle at low power");
+                }
+                break;
+
+            case HIGH_STEP:
+                power = highStepPower;
+                record(t, velocity);
+                if (settled(t)) {
+                    highVolts = highStepPower * meanVoltage();
+                    highVelocity = velocity;
+                    if (!fitStep()) break;
+                    startRelay(Phase.RELAY_LOW, velocity, nanos);
+                } else if (t > stepTimeoutSeconds) {
+                    fail("Wheel did not settle at high power");
+                }
+                break;
+
+            case RELAY_LOW:
+            case RELAY_HIGH:
+                relay(t, velocity, nanos);
+                break;
+
+            default:
+                power = 0;
+        }
+        return power;
+    }
+
+    /** Gains for the low target, or null until DONE. */
+    public FlywheelController.Gains getLowGains() {
+        return lowGains;
+    }
+
+    public FlywheelController.Gains getHighGains() {
+        return highGains;
+    }
+
+    public Model getLowModel() {
+        return lowModel;
+    }
+
+    public Model getHighModel() {
+        return highModel;
+    }
+
+    /** Hub RUN_USING_ENCODER F that gives the feedforward power at the given target on 12 V. */
+    public double getHubF(double target) {
+        return HUB_SCALE * (kS / target + kV) / 12;
+    }
+
+    /** Hub RUN_USING_ENCODER P equivalent to the given gains' kP on 12 V. */
+    public static double getHubP(FlywheelController.Gains gains) {
+        return HUB_SCALE * gains.kP / 12;
+    }
+
+    /** A one-line progress or result summary for telemetry. */
+    public String getStatus() {
+        switch (phase) {
+            case DONE:
+                return String.format(Locale.US, "Done. low: %s | high: %s", lowGains, highGains);
+            case FAILED:
+                return "Failed: " + failure;
+            case RELAY_LOW:
+            case RELAY_HIGH:
+                return String.format(Locale.US, "%s, %d/%d cycles", phase, cyclesCounted, relayCycles);
+            default:
+                return phase.toString();
+        }
+    }
+
+    private void enter(Phase next, long nanos) {
+        phase = next;
+        phaseStartNanos = nanos;
+        sampleCount = 0;
+        voltageSum = 0;
+        voltageCount = 0;
+    }
+
+    private void fail(String reason) {
+        failure = reason;
+        phase = Phase.FAILED;
+        power = 0;
+    }
+
+    private void record(double t, double velocity) {
+        if (sampleCount < MAX_SAMPLES) {
+            times[sampleCount] = t;
+            velocities[sampleCount] = velocity;
+            sampleCount++;
+        }
+    }
+
+    private double meanVoltage() {
+        if (voltageCount > 0) return voltageSum / voltageCount;
+        return Double.isNaN(voltage) ? 12 : voltage;
+    }
+
+    /** True once the velocity has moved less than settleTolerance over the last settleSeconds. */
+    private boolean settled(double t) {
+        if (t < settleSeconds * 2 || sampleCount < 2) return false;
+        double now = velocities[sampleCount - 1];
+        int i = sampleCount - 1;
+        while (i > 0 && times[i] > t - settleSeconds) i--;
+        double then = velocities[i];
+        return Math.abs(now - then) <= settleTolerance * Math.max(Math.abs(now), 100);
+    }
+
+    /** Fits kS, kV and the FOPDT model from the two steps. False (and FAILED) if they make no sense. */
+    private boolean fitStep() {
+        if (highVelocity - lowVelocity < 50) {
+            fail("Wheel barely sped up between the steps; check the motor and direction");
+            return false;
+        }
+        kV = (highVolts - lowVolts) / (highVelocity - lowVelocity);
+        kS = Math.max(0, lowVolts - kV * lowVelocity);
+        stepModel.gain = 1 / kV;
+
+        double delta = highVelocity - lowVelocity;
+        double t28 = crossing(lowVelocity + 0.283 * delta);
+        double t63 = crossing(lowVelocity + 0.632 * delta);
+        if (Double.isNaN(t28) || Double.isNaN(t63) || t63 <= t28) {
+            fail("Could not fit the step response");
+            return false;
+        }
+        // Smith's two-point method
+        stepModel.timeConstant = 1.5 * (t63 - t28);
+        stepModel.deadTime = Math.max(0, t63 - stepModel.timeConstant);
+        kA = kV * stepModel.timeConstant;
+        return true;
+    }
+
+    /** First time the recorded velocity reaches the given level, interpolated. NaN if never. */
+    private double crossing(double level) {
+        for (int i = 1; i < sampleCount; i++) {
+            if (velocities[i] >= level && velocities[i - 1] < level) {
+                double f = (level - velocities[i - 1]) / (velocities[i] - velocities[i - 1]);
+                return times[i - 1] + f * (times[i] - times[i - 1]);
+            }
+        }
+        return Double.NaN;
+    }
+
+    private void startRelay(Phase next, double velocity, long nanos) {
+        enter(next, nanos);
+        relayHigh = velocity < relayTarget();
+        relaySwitches = 0;
+        periodSum = 0;
+        amplitudeSum = 0;
+        cyclesCounted = 0;
+        cycleMax = Double.NEGATIVE_INFINITY;
+        cycleMin = Double.POSITIVE_INFINITY;
+    }
+
+    private double relayTarget() {
+        return phase == Phase.RELAY_LOW ? lowTarget : highTarget;
+    }
+
+    private void relay(double t, double velocity, long nanos) {
+        double target = relayTarget();
+        double volts = meanVoltage();
+        double bias = (kS + kV * target) / volts;
+        if (bias + relayAmplitude > 1 || bias - relayAmplitude < 0) {
+            fail(String.format(Locale.US, "Target %.0f needs %.2f power, too close to the limits", target, bias));
+            return;
+        }
+
+        cycleMax = Math.max(cycleMax, velocity);
+        cycleMin = Math.min(cycleMin, velocity);
+        boolean switchDown = relayHigh && velocity > target + relayHysteresis;
+        boolean switchUp = !relayHigh && velocity < target - relayHysteresis;
+        if (switchDown || switchUp) {
+            relayHigh = !relayHigh;
+            relaySwitches++;
+            // One cycle per downward switch
+            if (switchDown) {
+                if (relaySwitches > 2 * RELAY_SKIP) {
+                    periodSum += t - lastSwitchTime;
+                    amplitudeSum += (cycleMax - cycleMin) / 2;
+                    cyclesCounted++;
+                }
+                lastSwitchTime = t;
+                cycleMax = Double.NEGATIVE_INFINITY;
+                cycleMin = Double.POSITIVE_INFINITY;
+            }
+        }
+        power = bias + (relayHigh ? relayAmplitude : -relayAmplitude);
+
+        if (cyclesCounted >= relayCycles) {
+            Model model = phase == Phase.RELAY_LOW ? lowModel : highModel;
+            finishRelay(model, periodSum / cyclesCounted, amplitudeSum / cyclesCounted, volts);
+            if (phase == Phase.RELAY_LOW) {
+                lowGains = gainsFor(model);
+                startRelay(Phase.RELAY_HIGH, velocity, nanos);
+            } else {
+                highGains = gainsFor(model);
+                phase = Phase.DONE;
+                power = 0;
+            }
+        } else if (t > relayTimeoutSeconds) {
+            fail("Relay did not oscillate at " + Math.round(target) + " ticks/s");
+        }
+    }
+
+    private void finishRelay(Model model, double period, double amplitude, double volts) {
+        model.gain = stepModel.gain;
+        model.timeConstant = stepModel.timeConstant;
+        model.deadTime = stepModel.deadTime;
+        model.ultimatePeriod = period;
+        model.ultimateGain = 4 * relayAmplitude * volts / (Math.PI * amplitude);
+
+        // FOPDT at the ultimate frequency: K Ku / sqrt(1 + (w tau)^2) = 1 and w L + atan(w tau) = pi.
+        double w = 2 * Math.PI / period;
+        double loopGain = model.gain * model.ultimateGain;
+        if (loopGain > 1) {
+            model.timeConstant = Math.sqrt(loopGain * loopGain - 1) / w;
+            model.deadTime = Math.max(0, (Math.PI - Math.atan(w * model.timeConstant)) / w);
+        }
+    }
+
+    private FlywheelController.Gains gainsFor(Model model) {
+        double closedLoop = Math.max(model.deadTime, model.timeConstant * closedLoopFraction);
+        double kP = model.timeConstant / (model.gain * (closedLoop + model.deadTime));
+        return new FlywheelController.Gains(kS, kV, kA, kP);
+    }
+}
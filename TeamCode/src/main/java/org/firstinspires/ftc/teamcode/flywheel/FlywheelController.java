@@ -0,0 +1,199 @@
+package org.firstinspires.ftc.teamcode.flywheel;
+
+import java.util.Locale;
+
+/**
+ * This is the FlywheelController class. It turns a measured flywheel velocity and battery voltage
+ * into a motor power, in place of the hub's RUN_USING_ENCODER PIDF.
+ *
+ * Near the target it applies kS/kV/kA feedforward plus a proportional term, all in volts and
+ * divided by a low-pass filtered battery voltage, so the same gains hold from a fresh battery to
+ * the end of a match. Far below the target (spin-up, or the dip after a shot) it switches to full
+ * power, and far above it coasts; that bang-bang band is what makes recovery fast.
+ *
+ * It also reports when the wheel is ready to fire (within readyTolerance for readySettleSeconds),
+ * counts shots from the velocity dips, and times spin-up and recovery.
+ *
+ * The controller does no I/O, so it can run on the robot, in a thread or in the simulator.
+ * Velocities are encoder ticks per second.
+ */
+public class FlywheelController {
+
+    /** Feedforward and feedback gains. Units are volts per tick/s (and per tick/s^2 for kA). */
+    public static class Gains {
+        public double kS = 0.25;
+        public double kV = 0.0042;
+        public double kA = 0.0004;
+        public double kP = 0.008;
+
+        public Gains() {
+        }
+
+        public Gains(double kS, double kV, double kA, double kP) {
+            this.kS = kS;
+            this.kV = kV;
+            this.kA = kA;
+            this.kP = kP;
+        }
+
+        public Gains copy() {
+            return new Gains(kS, kV, kA, kP);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "kS %.4f  kV %.6f  kA %.6f  kP %.5f", kS, kV, kA, kP);
+        }
+    }
+
+    public volatile Gains gains = new Gains();
+
+    /** Below target by more than this, run full power. */
+    public double bangBangBand = 150;
+    /** Above target by more than this, cut power. */
+    public double overshootBand = 150;
+    /** How fast the feedforward setpoint ramps toward a new target, ticks/s^2. */
+    public double maxSetpointAcceleration = 6000;
+    /** Ready when within this of the target... */
+    public double readyTolerance = 40;
+    /** ...for this long. */
+    public double readySettleSeconds = 0.08;
+    /** A drop this far below target while ready counts as a shot. */
+    public double shotDropThreshold = 120;
+    /** Battery voltage filter time constant, s. */
+    public double voltageTimeConstant = 0.5;
+    public double nominalVoltage = 12;
+
+    private double target;
+    private double setpoint;
+    private double filteredVoltage = Double.NaN;
+    private long lastNanos;
+    private long withinToleranceSince = -1;
+    private long targetChangedNanos = -1;
+    private long shotNanos = -1;
+    private boolean spinningUp;
+
+    private volatile boolean ready;
+    private volatile int shots;
+    private volatile double lastSpinUpSeconds = Double.NaN;
+    private volatile double lastRecoverySeconds = Double.NaN;
+    private volatile double lastPower;
+
+    /** Sets the target velocity. Zero lets the wheel coast down. */
+    public void setTarget(double target) {
+        if (target != this.target) {
+            this.target = target;
+            targetChangedNanos = -1;
+            spinningUp = true;
+            ready = false;
+            withinToleranceSince = -1;
+            shotNanos = -1;
+        }
+    }
+
+    public double getTarget() {
+        return target;
+    }
+
+    /**
+     * Computes the motor power for this cycle.
+     *
+     * @param velocity measured wheel velocity, ticks/s
+     * @param voltage  battery voltage, or NaN to reuse the last one
+     * @param nanos    the current time, System.nanoTime() or equivalent
+     */
+    public double calculate(double velocity, double voltage, long nanos) {
+        double dt = lastNanos == 0 ? 0 : (nanos - lastNanos) / 1e9;
+        lastNanos = nanos;
+        if (spinningUp && targetChangedNanos < 0) targetChangedNanos = nanos;
+
+        if (!Double.isNaN(voltage) && voltage > 1) {
+            if (Double.isNaN(filteredVoltage)) {
+                filteredVoltage = voltage;
+            } else {
+                filteredVoltage += (voltage - filteredVoltage) * dt / (voltageTimeConstant + dt);
+            }
+        }
+        double batteryVoltage = Double.isNaN(filteredVoltage) ? nominalVoltage : filteredVoltage;
+
+        // Ramp the feedforward setpoint so kA sees a finite acceleration.
+        double step = maxSetpointAcceleration * dt;
+        double previousSetpoint = setpoint;
+        setpoint += Math.max(-step, Math.min(step, target - setpoint));
+        double acceleration = dt > 0 ? (setpoint - previousSetpoint) / dt : 0;
+
+        double error = target - velocity;
+        double power;
+        if (target == 0) {
+            power = 0;
+        } else if (error > bangBangBand) {
+            power = 1;
+        } else if (error < -overshootBand) {
+            power = 0;
+        } else {
+            double volts = gains.kS * Math.signum(target) + gains.kV * target + gains.kA * acceleration
+                    + gains.kP * error;
+            power = Math.max(-1, Math.min(1, volts / batteryVoltage));
+        }
+
+        updateReady(error, nanos);
+        lastPower = power;
+        return power;
+    }
+
+    private void updateReady(double error, long nanos) {
+        if (target == 0) {
+            ready = false;
+            return;
+        }
+        if (ready && error > shotDropThreshold) {
+            shots++;
+            shotNanos = nanos;
+            ready = false;
+            withinToleranceSince = -1;
+        }
+        if (Math.abs(error) <= readyTolerance) {
+            if (withinToleranceSince < 0) withinToleranceSince = nanos;
+            if (!ready && (nanos - withinToleranceSince) / 1e9 >= readySettleSeconds) {
+                ready = true;
+                if (shotNanos >= 0) {
+                    lastRecoverySeconds = (nanos - shotNanos) / 1e9;
+                    shotNanos = -1;
+                } else if (spinningUp) {
+                    lastSpinUpSeconds = (nanos - targetChangedNanos) / 1e9;
+                    spinningUp = false;
+                }
+            }
+        } else {
+            withinToleranceSince = -1;
+            // Drifting out of tolerance without a shot-sized dip does not clear "ready".
+        }
+    }
+
+    /** True once the wheel has settled at the target. Cleared by a shot or a new target. */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getShotCount() {
+        return shots;
+    }
+
+    /** Seconds from the last target change to ready, or NaN. */
+    public double getLastSpinUpSeconds() {
+        return lastSpinUpSeconds;
+    }
+
+    /** Seconds from the last shot to ready again, or NaN. */
+    public double getLastRecoverySeconds() {
+        return lastRecoverySeconds;
+    }
+
+    public double getLastPower() {
+        return lastPower;
+    }
+
+    public double getFilteredVoltage() {
+        return filteredVoltage;
+    }
+}
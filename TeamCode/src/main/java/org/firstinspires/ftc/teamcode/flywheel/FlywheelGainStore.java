@@ -0,0 +1,134 @@
+package org.firstinspires.ftc.teamcode.flywheel;
+
+import android.os.Environment;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * This is the FlywheelGainStore class. It saves the autotuned flywheel gains for the low and high
+ * targets to a properties file on the Control Hub, so they survive restarts, and hands back the
+ * gains for any target in between by interpolating kP.
+ */
+public class FlywheelGainStore {
+    private final File file;
+
+    public double lowTarget = 900, highTarget = 4200;
+    public FlywheelController.Gains low = new FlywheelController.Gains();
+    public FlywheelController.Gains high = new FlywheelController.Gains();
+    /** Hub RUN_USING_ENCODER equivalents, for FlywheelPfTuner. */
+    public double lowHubP, lowHubF, highHubP, highHubF;
+
+    public FlywheelGainStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The store in the robot's data directory, /sdcard/FIRST/data. Built from Environment rather
+     * than AppUtil so it also works off-robot.
+     */
+    public static FlywheelGainStore onRobot() {
+        return new FlywheelGainStore(new File(Environment.getExternalStorageDirectory(),
+                "FIRST/data/flywheel_gains.properties"));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Loads the saved gains. Returns false, leaving every field as it was, if there is no file or
+     * any value in it is missing or unreadable.
+     */
+    public boolean load() {
+        if (!file.exists()) return false;
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            double lowTarget = get(properties, "low.target");
+            double highTarget = get(properties, "high.target");
+            FlywheelController.Gains low = getGains(properties, "low.");
+            FlywheelController.Gains high = getGains(properties, "high.");
+            double lowHubP = get(properties, "low.hubP");
+            double lowHubF = get(properties, "low.hubF");
+            double highHubP = get(properties, "high.hubP");
+            double highHubF = get(properties, "high.hubF");
+            this.lowTarget = lowTarget;
+            this.highTarget = highTarget;
+            this.low = low;
+            this.high = high;
+            this.lowHubP = lowHubP;
+            this.lowHubF = lowHubF;
+            this.highHubP = highHubP;
+            this.highHubF = highHubF;
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            RobotLog.ee("FlywheelGainStore", e, "Could not load %s", file);
+            return false;
+        }
+    }
+
+    public boolean save() {
+        Properties properties = new Properties();
+        properties.setProperty("low.target", Double.toString(lowTarget));
+        properties.setProperty("high.target", Double.toString(highTarget));
+        putGains(properties, "low.", low);
+        putGains(properties, "high.", high);
+        properties.setProperty("low.hubP", Double.toString(lowHubP));
+        properties.setProperty("low.hubF", Double.toString(lowHubF));
+        properties.setProperty("high.hubP", Double.toString(highHubP));
+        properties.setProperty("high.hubF", Double.toString(highHubF));
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            RobotLog.ee("FlywheelGainStore", "Could not create %s", parent);
+            return false;
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "Flywheel gains from FlywheelAutotuner");
+            return true;
+        } catch (IOException e) {
+            RobotLog.ee("FlywheelGainStore", e, "Could not save %s", file);
+            return false;
+        }
+    }
+
+    /** Gains for the given target: the shared feedforward with kP interpolated between the two. */
+    public FlywheelController.Gains forTarget(double target) {
+        double f = highTarget == lowTarget ? 0 : (target - lowTarget) / (highTarget - lowTarget);
+        f = Math.max(0, Math.min(1, f));
+        FlywheelController.Gains gains = high.copy();
+        gains.kP = low.kP + f * (high.kP - low.kP);
+        return gains;
+    }
+
+    private static double get(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) throw new NumberFormatException("Missing " + key);
+        return Double.parseDouble(value);
+    }
+
+    private static FlywheelController.Gains getGains(Properties properties, String prefix) {
+        return new FlywheelController.Gains(
+                get(properties, prefix + "kS"), get(properties, prefix + "kV"),
+                get(properties, prefix + "kA"), get(properties, prefix + "kP"));
+    }
+
+    private static void putGains(Properties properties, String prefix, FlywheelController.Gains gains) {
+        properties.setProperty(prefix + "kS", Double.toString(gains.kS));
+        properties.setProperty(prefix + "kV", Double.toString(gains.kV));
+        properties.setProperty(prefix + "kA", Double.toString(gains.kA));
+        properties.setProperty(prefix + "kP", Double.toString(gains.kP));
+    }
+}
@@ -0,0 +1,88 @@
+package org.firstinspires.ftc.teamcode.flywheel;
+
+import com.bylazar.configurables.annotations.Configurable;
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import com.qualcomm.robotcore.hardware.DcMotorSimple;
+
+/**
+ * Spins the flywheel with the phone-side {@link FlywheelController} and reports spin-up time,
+ * post-shot recovery time and whether it is ready to fire. Y toggles between the high and low
+ * velocities, A stops the wheel. Gains come from the last FlywheelPfTuner autotune if there is
+ * one, otherwise from GAINS, which is editable in Panels.
+ */
+@TeleOp(name = "FlywheelVelocityTest", group = "Tuning")
+@Configurable // Panels
+public class FlywheelVelocityTest extends OpMode {
+    public static double highVelocity = 4200.0;
+    public static double lowVelocity = 900.0;
+    public static boolean USE_THREAD = true; // Run the controller on its own thread
+    public static FlywheelController.Gains GAINS = new FlywheelController.Gains();
+
+    protected Flywheel flywheel;
+    protected FlywheelGainStore gainStore;
+    private double target = highVelocity;
+
+    @Override
+    public void init() {
+        flywheel = newFlywheel();
+        gainStore = newGainStore();
+        if (!gainStore.load()) {
+            gainStore = null;
+        }
+        telemetry.addData("Gains", gainStore != null ? "autotuned" : "GAINS (Panels)");
+        telemetry.addLine("Y: toggle high/low  A: stop");
+    }
+
+    @Override
+    public void start() {
+        setTarget(target);
+        if (USE_THREAD) {
+            flywheel.start();
+        }
+    }
+
+    @Override
+    public void loop() {
+        if (gamepad1.yWasPressed()) {
+            setTarget(target == highVelocity ? lowVelocity : highVelocity);
+        }
+        if (gamepad1.aWasPressed()) {
+            setTarget(0);
+        }
+        if (!USE_THREAD) {
+            flywheel.update();
+        }
+
+        FlywheelController controller = flywheel.controller;
+        telemetry.addData("Target vel", target);
+        telemetry.addData("Actual vel", flywheel.getVelocity());
+        telemetry.addData("Ready", controller.isReady());
+        telemetry.addData("Power", controller.getLastPower());
+        telemetry.addData("Battery (V)", controller.getFilteredVoltage());
+        telemetry.addData("Shots", controller.getShotCount());
+        telemetry.addData("Spin-up (s)", controller.getLastSpinUpSeconds());
+        telemetry.addData("Recovery (s)", controller.getLastRecoverySeconds());
+        telemetry.update();
+    }
+
+    @Override
+    public void stop() {
+        flywheel.stop();
+    }
+
+    private void setTarget(double target) {
+        this.target = target;
+        flywheel.controller.gains = gainStore != null ? gainStore.forTarget(target) : GAINS;
+        flywheel.setTarget(target);
+    }
+
+    /** Builds the flywheel. The simulator overrides this to put it on simulated time. */
+    protected Flywheel newFlywheel() {
+        return new Flywheel(hardwareMap, "flywheel", DcMotorSimple.Direction.REVERSE);
+    }
+
+    protected FlywheelGainStore newGainStore() {
+        return FlywheelGainStore.onRobot();
+    }
+}
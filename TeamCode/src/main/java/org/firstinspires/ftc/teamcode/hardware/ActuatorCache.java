@@ -0,0 +1,271 @@
+package org.firstinspires.ftc.teamcode.hardware;
+
+import com.qualcomm.robotcore.hardware.CRServo;
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.DcMotorEx;
+import com.qualcomm.robotcore.hardware.PIDFCoefficients;
+import com.qualcomm.robotcore.hardware.Servo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is the ActuatorCache class. It sits between our code and the motors and servos and drops
+ * writes that would not change anything. Every setPower, setVelocity, setPosition and
+ * setPIDFCoefficients is a Lynx command on the wire, and loop code tends to repeat them every
+ * cycle whether or not the value moved.
+ *
+ * Calls on the wrappers only record the value. {@link #flush()}, called once at the end of the
+ * loop, sends each one that differs from what was last sent by more than its epsilon. Several
+ * calls in one loop therefore cost at most one command. The counters report how many commands
+ * were asked for and how many actually went out.
+ *
+ * <pre>
+ * ActuatorCache actuators = new ActuatorCache();
+ * ActuatorCache.CachedMotor flywheel = actuators.motor(flywheelMotor);
+ * ...
+ * flywheel.setVelocity(target);
+ * actuators.flush();
+ * </pre>
+ */
+public class ActuatorCache {
+    private final List<Actuator> actuators = new ArrayList<>();
+
+    /** Changes smaller than these are not sent. */
+    public double powerEpsilon = 0.005;
+    public double velocityEpsilon = 1; // ticks per second
+    public double positionEpsilon = 0.001;
+    public double coefficientEpsilon = 1e-6;
+
+    private long requested, written;
+    private long windowStart, windowRequested, windowWritten;
+    private double requestedPerSecond, savedPerSecond;
+
+    public CachedMotor motor(DcMotorEx motor) {
+        CachedMotor wrapper = new CachedMotor(motor);
+        actuators.add(wrapper);
+        return wrapper;
+    }
+
+    public CachedServo servo(Servo servo) {
+        CachedServo wrapper = new CachedServo(servo);
+        actuators.add(wrapper);
+        return wrapper;
+    }
+
+    public CachedCRServo crServo(CRServo servo) {
+        CachedCRServo wrapper = new CachedCRServo(servo);
+        actuators.add(wrapper);
+        return wrapper;
+    }
+
+    /** Sends every pending value that changed. Call once per loop, after all the set calls. */
+    public void flush() {
+        for (int i = 0; i < actuators.size(); i++) {
+            actuators.get(i).flush();
+        }
+
+        long now = System.nanoTime();
+        if (windowStart == 0) windowStart = now;
+        long elapsed = now - windowStart;
+        if (elapsed >= 1_000_000_000L) {
+            double seconds = elapsed / 1e9;
+            requestedPerSecond = (requested - windowRequested) / seconds;
+            savedPerSecond = requestedPerSecond - (written - windowWritten) / seconds;
+            windowStart = now;
+            windowRequested = requested;
+            windowWritten = written;
+        }
+    }
+
+    /** Forgets what was last sent, so the next flush sends everything. Use after a hub reset. */
+    public void invalidate() {
+        for (Actuator actuator : actuators) {
+            actuator.invalidate();
+        }
+    }
+
+    /** Commands asked for so far. */
+    public long getRequestedCount() {
+        return requested;
+    }
+
+    /** Commands actually sent so far. */
+    public long getWrittenCount() {
+        return written;
+    }
+
+    public long getSavedCount() {
+        return requested - written;
+    }
+
+    /** Commands not sent per second, over the last full second. */
+    public double getSavedPerSecond() {
+        return savedPerSecond;
+    }
+
+    public double getRequestedPerSecond() {
+        return requestedPerSecond;
+    }
+
+    private static boolean changed(double sent, double value, double epsilon) {
+        return Double.isNaN(sent) || Math.abs(value - sent) > epsilon;
+    }
+
+    private interface Actuator {
+        void flush();
+
+        void invalidate();
+    }
+
+    /** A DcMotorEx whose power, velocity and PIDF coefficients are cached. */
+    public class CachedMotor implements Actuator {
+        private final DcMotorEx motor;
+
+        // Power and velocity share the motor, so whichever was set last is the target.
+        private boolean velocityControl;
+        private double target = Double.NaN;
+        private double sentTarget = Double.NaN;
+        private boolean sentVelocityControl;
+
+        private DcMotor.RunMode pidfMode;
+        private final double[] pidf = {Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+        private final double[] sentPidf = {Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+
+        CachedMotor(DcMotorEx motor) {
+            this.motor = motor;
+        }
+
+        /** The motor itself, for reads and settings that are not cached. */
+        public DcMotorEx getMotor() {
+            return motor;
+        }
+
+        public void setPower(double power) {
+            requested++;
+            velocityControl = false;
+            target = power;
+        }
+
+        /** Ticks per second. */
+        public void setVelocity(double velocity) {
+            requested++;
+            velocityControl = true;
+            target = velocity;
+        }
+
+        public void setPIDFCoefficients(DcMotor.RunMode mode, double p, double i, double d, double f) {
+            requested++;
+            pidfMode = mode;
+            pidf[0] = p;
+            pidf[1] = i;
+            pidf[2] = d;
+            pidf[3] = f;
+        }
+
+        @Override
+        public void flush() {
+            if (pidfMode != null) {
+                boolean dirty = false;
+                for (int k = 0; k < 4; k++) {
+                    dirty |= changed(sentPidf[k], pidf[k], coefficientEpsilon);
+                }
+                if (dirty) {
+                    motor.setPIDFCoefficients(pidfMode, new PIDFCoefficients(pidf[0], pidf[1], pidf[2], pidf[3]));
+                    System.arraycopy(pidf, 0, sentPidf, 0, 4);
+                    written++;
+                }
+            }
+
+            if (Double.isNaN(target)) return;
+            double epsilon = velocityControl ? velocityEpsilon : powerEpsilon;
+            // Zero is always sent exactly, so "stop" never gets lost inside the epsilon.
+            boolean exactZero = target == 0 && sentTarget != 0;
+            if (velocityControl != sentVelocityControl || exactZero || changed(sentTarget, target, epsilon)) {
+                if (velocityControl) {
+                    motor.setVelocity(target);
+                } else {
+                    motor.setPower(target);
+                }
+                sentTarget = target;
+                sentVelocityControl = velocityControl;
+                written++;
+            }
+        }
+
+        @Override
+        public void invalidate() {
+            sentTarget = Double.NaN;
+            for (int k = 0; k < 4; k++) sentPidf[k] = Double.NaN;
+        }
+    }
+
+    /** A Servo whose position is cached. */
+    public class CachedServo implements Actuator {
+        private final Servo servo;
+        private double position = Double.NaN;
+        private double sentPosition = Double.NaN;
+
+        CachedServo(Servo servo) {
+            this.servo = servo;
+        }
+
+        public Servo getServo() {
+            return servo;
+        }
+
+        public void setPosition(double position) {
+            requested++;
+            this.position = position;
+        }
+
+        @Override
+        public void flush() {
+            if (!Double.isNaN(position) && changed(sentPosition, position, positionEpsilon)) {
+                servo.setPosition(position);
+                sentPosition = position;
+                written++;
+            }
+        }
+
+        @Override
+        public void invalidate() {
+            sentPosition = Double.NaN;
+        }
+    }
+
+    /** A CRServo whose power is cached. */
+    public class CachedCRServo implements Actuator {
+        private final CRServo servo;
+        private double power = Double.NaN;
+        private double sentPower = Double.NaN;
+
+        CachedCRServo(CRServo servo) {
+            this.servo = servo;
+        }
+
+        public CRServo getServo() {
+            return servo;
+        }
+
+        public void setPower(double power) {
+            requested++;
+            this.power = power;
+        }
+
+        @Override
+        public void flush() {
+            boolean exactZero = power == 0 && sentPower != 0;
+            if (!Double.isNaN(power) && (exactZero || changed(sentPower, power, powerEpsilon))) {
+                servo.setPower(power);
+                sentPower = power;
+                written++;
+            }
+        }
+
+        @Override
+        public void invalidate() {
+            sentPower = Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.firstinspires.ftc.teamcode.hardware;
+
+import com.qualcomm.robotcore.hardware.DcMotorController;
+import com.qualcomm.robotcore.hardware.DcMotorEx;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.hardware.PIDCoefficients;
+import com.qualcomm.robotcore.hardware.PIDFCoefficients;
+import com.qualcomm.robotcore.hardware.configuration.typecontainers.MotorConfigurationType;
+import com.qualcomm.robotcore.util.Range;
+
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.CurrentUnit;
+
+/**
+ * This is the CommandedPowerMotor class. It wraps a DcMotorEx and remembers the last power set
+ * through it, so code that wants to know what a motor was told (the flight recorder, Pedro's own
+ * write caching) gets it without a Lynx transaction. On a hub, getPower() is a command and a wait
+ * for the reply.
+ *
+ * Everything else goes straight to the wrapped motor. Code that builds its own motors from the
+ * hardware map, such as Pedro's drivetrain, only goes through the wrapper if it is installed in
+ * the map first with {@link #install}.
+ */
+public class CommandedPowerMotor implements DcMotorEx {
+    private final DcMotorEx motor;
+    private double power;
+    private boolean velocityControl;
+
+    public CommandedPowerMotor(DcMotorEx motor) {
+        this.motor = motor;
+    }
+
+    /**
+     * Puts a wrapper in the hardware map in place of the named motor and returns it, or returns the
+     * one already there. Call before anything looks the motor up.
+     */
+    public static CommandedPowerMotor install(HardwareMap hardwareMap, String name) {
+        DcMotorEx motor = hardwareMap.get(DcMotorEx.class, name);
+        if (motor instanceof CommandedPowerMotor) return (CommandedPowerMotor) motor;
+        CommandedPowerMotor wrapper = new CommandedPowerMotor(motor);
+        hardwareMap.dcMotor.put(name, wrapper); // Replaces the motor in the map's name table too
+        return wrapper;
+    }
+
+    public DcMotorEx getMotor() {
+        return motor;
+    }
+
+    /** The last power set, or NaN while the motor runs under velocity control. No transaction. */
+    public double getCommandedPower() {
+        return velocityControl ? Double.NaN : power;
+    }
+
+    @Override
+    public void setPower(double power) {
+        motor.setPower(power);
+        this.power = Range.clip(power, -1, 1);
+        velocityControl = false;
+    }
+
+    /** The last power set; under velocity control the hub has to be asked. */
+    @Override
+    public double getPower() {
+        return velocityControl ? motor.getPower() : power;
+    }
+
+    @Override
+    public void setVelocity(double angularRate) {
+        motor.setVelocity(angularRate);
+        velocityControl = true;
+    }
+
+    @Override
+    public void setVelocity(double angularRate, AngleUnit unit) {
+        motor.setVelocity(angularRate, unit);
+        velocityControl = true;
+    }
+
+    @Override
+    @Deprecated
+    public void setPowerFloat() {
+        motor.setPowerFloat();
+        power = 0;
+        velocityControl = false;
+    }
+
+    @Override
+    public boolean getPowerFloat() {
+        return motor.getPowerFloat();
+    }
+
+    @Override
+    public void setMotorEnable() {
+        motor.setMotorEnable();
+    }
+
+    @Override
+    public void setMotorDisable() {
+        motor.setMotorDisable();
+    }
+
+    @Override
+    public boolean isMotorEnabled() {
+        return motor.isMotorEnabled();
+    }
+
+    @Override
+    public double getVelocity() {
+        return motor.getVelocity();
+    }
+
+    @Override
+    public double getVelocity(AngleUnit unit) {
+        return motor.getVelocity(unit);
+    }
+
+    @Override
+    @Deprecated
+    public void setPIDCoefficients(RunMode mode, PIDCoefficients pidCoefficients) {
+        motor.setPIDCoefficients(mode, pidCoefficients);
+    }
+
+    @Override
+    public void setPIDFCoefficients(RunMode mode, PIDFCoefficients pidfCoefficients) {
+        motor.setPIDFCoefficients(mode, pidfCoefficients);
+    }
+
+    @Override
+    public void setVelocityPIDFCoefficients(double p, double i, double d, double f) {
+        motor.setVelocityPIDFCoefficients(p, i, d, f);
+    }
+
+    @Override
+    public void setPositionPIDFCoefficients(double p) {
+        motor.setPositionPIDFCoefficients(p);
+    }
+
+    @Override
+    @Deprecated
+    public PIDCoefficients getPIDCoefficients(RunMode mode) {
+        return motor.getPIDCoefficients(mode);
+    }
+
+    @Override
+    public PIDFCoefficients getPIDFCoefficients(RunMode mode) {
+        return motor.getPIDFCoefficients(mode);
+    }
+
+    @Override
+    public void setTargetPositionTolerance(int tolerance) {
+        motor.setTargetPositionTolerance(tolerance);
+    }
+
+    @Override
+    public int getTargetPositionTolerance() {
+        return motor.getTargetPositionTolerance();
+    }
+
+    @Override
+    public double getCurrent(CurrentUnit unit) {
+        return motor.getCurrent(unit);
+    }
+
+    @Override
+    public double getCurrentAlert(CurrentUnit unit) {
+        return motor.getCurrentAlert(unit);
+    }
+
+    @Override
+    public void setCurrentAlert(double current, CurrentUnit unit) {
+        motor.setCurrentAlert(current, unit);
+    }
+
+    @Override
+    public boolean isOverCurrent() {
+        return motor.isOverCurrent();
+    }
+
+    @Override
+    public MotorConfigurationType getMotorType() {
+        return motor.getMotorType();
+    }
+
+    @Override
+    public void setMotorType(MotorConfigurationType motorType) {
+        motor.setMotorType(motorType);
+    }
+
+    @Override
+    public DcMotorController getController() {
+        return motor.getController();
+    }
+
+    @Override
+    public int getPortNumber() {
+        return motor.getPortNumber();
+    }
+
+    @Override
+    public void setZeroPowerBehavior(ZeroPowerBehavior zeroPowerBehavior) {
+        motor.setZeroPowerBehavior(zeroPowerBehavior);
+    }
+
+    @Override
+    public ZeroPowerBehavior getZeroPowerBehavior() {
+        return motor.getZeroPowerBehavior();
+    }
+
+    @Override
+    public void setTargetPosition(int position) {
+        motor.setTargetPosition(position);
+    }
+
+    @Override
+    public int getTargetPosition() {
+        return motor.getTargetPosition();
+    }
+
+    @Override
+    public boolean isBusy() {
+        return motor.isBusy();
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return motor.getCurrentPosition();
+    }
+
+    @Override
+    public void setMode(RunMode mode) {
+        motor.setMode(mode);
+    }
+
+    @Override
+    public RunMode getMode() {
+        return motor.getMode();
+    }
+
+    @Override
+    public void setDirection(Direction direction) {
+        motor.setDirection(direction);
+    }
+
+    @Override
+    public Direction getDirection() {
+        return motor.getDirection();
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return motor.getManufacturer();
+    }
+
+    @Override
+    public String getDeviceName() {
+        return motor.getDeviceName();
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return motor.getConnectionInfo();
+    }
+
+    @Override
+    public int getVersion() {
+        return motor.getVersion();
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+        motor.resetDeviceConfigurationForOpMode();
+        power = 0;
+        velocityControl = false;
+    }
+
+    @Override
+    public void close() {
+        motor.close();
+    }
+}
@@ -0,0 +1,272 @@
+package org.firstinspires.ftc.teamcode.hardware;
+
+import com.qualcomm.hardware.gobilda.GoBildaPinpointDriver;
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.robotcore.hardware.DcMotorEx;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.hardware.IMU;
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.UnnormalizedAngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.VoltageUnit;
+import org.firstinspires.ftc.teamcode.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This is the SensorReader class. It moves our blocking sensor reads onto a background thread, as
+ * ConceptMotorBulkRead suggests for MANUAL bulk caching: at a fixed rate it clears the bulk cache
+ * on every hub, reads the motor encoders and velocities, the Pinpoint, the IMU and (less often) the
+ * battery voltage, and publishes the results as a {@link SensorSnapshot}.
+ *
+ * The OpMode thread calls {@link #copyLatest(SensorSnapshot)} to get the newest complete snapshot.
+ * It never waits on a USB or I2C transaction, and never waits on the reader thread either: the
+ * reader fills one of two preallocated buffers while the other stays published, and a sequence
+ * number on each buffer lets the copy detect that it raced with a write and retry.
+ *
+ * Writes (setPower and friends) still go straight to the hubs from the OpMode thread. The hub
+ * serializes them with our reads, so a write can wait for a bulk read that is in flight. Commands
+ * for an I2C device the reader owns, like recalibrating the Pinpoint, must not land in the middle
+ * of its multi-register reads, so they go through {@link #runOnReader(Runnable)} instead.
+ *
+ * <pre>
+ * SensorReader sensors = new SensorReader(hardwareMap)
+ *         .addMotor("flywheel")
+ *         .pinpoint("pinpoint");
+ * sensors.start();
+ * ...
+ * sensors.copyLatest(snapshot);
+ * </pre>
+ */
+public class SensorReader implements Runnable {
+    private final HardwareMap hardwareMap;
+    private final List<LynxModule> hubs;
+    private final List<DcMotorEx> motors = new ArrayList<>();
+    private GoBildaPinpointDriver pinpoint;
+    private IMU imu;
+
+    private SensorSnapshot[] buffers;
+    /** Per-buffer version: odd while the reader thread is writing it. */
+    private final AtomicLongArray versions = new AtomicLongArray(2);
+    private volatile int published = -1;
+    private long sequence;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final LatencyHistogram readTimes = new LatencyHistogram();
+    private volatile int errorCount;
+
+    /** Time between the starts of two reads, ms. Reads that take longer simply run back to back. */
+    public long periodMillis = 5;
+    /** Voltage is a separate transaction per read, so only refresh it every this many reads. */
+    public int voltageEvery = 10;
+
+    public SensorReader(HardwareMap hardwareMap) {
+        this.hardwareMap = hardwareMap;
+        hubs = hardwareMap.getAll(LynxModule.class);
+    }
+
+    public SensorReader addMotor(String name) {
+        checkNotStarted();
+        motors.add(hardwareMap.get(DcMotorEx.class, name));
+        return this;
+    }
+
+    public SensorReader pinpoint(String name) {
+        checkNotStarted();
+        pinpoint = hardwareMap.get(GoBildaPinpointDriver.class, name);
+        return this;
+    }
+
+    public SensorReader imu(String name) {
+        checkNotStarted();
+        imu = hardwareMap.get(IMU.class, name);
+        return this;
+    }
+
+    /** The Pinpoint being read, or null. Configure it before start(). */
+    public GoBildaPinpointDriver getPinpoint() {
+        return pinpoint;
+    }
+
+    /** A snapshot sized for this reader, to copy into. */
+    public SensorSnapshot newSnapshot() {
+        return new SensorSnapshot(motors.size());
+    }
+
+    /** Switches the hubs to MANUAL caching and starts the reader thread. */
+    public synchronized void start() {
+        if (thread != null) return;
+        for (LynxModule hub : hubs) {
+            hub.setBulkCachingMode(LynxModule.BulkCachingMode.MANUAL);
+        }
+        buffers = new SensorSnapshot[] {newSnapshot(), newSnapshot()};
+        running = true;
+        thread = new Thread(this, "SensorReader");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the reader thread and waits for it to finish its current read. It only returns once the
+     * thread has exited, so a start() right after can't put two readers on the bus. Commands still
+     * queued are then run here.
+     */
+    public synchronized void stop() {
+        Thread t = thread;
+        if (t == null) return;
+        running = false;
+        t.interrupt();
+        boolean interrupted = false;
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        thread = null;
+        runCommands();
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Runs a command against the devices this reader reads on its thread, between two reads, so it
+     * can't interleave with them. If the reader isn't running it runs right away on the caller's
+     * thread. Either way it doesn't wait for the command to run.
+     */
+    public synchronized void runOnReader(Runnable command) {
+        if (thread == null) {
+            command.run();
+        } else {
+            commands.add(command);
+        }
+    }
+
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                errorCount++;
+                RobotLog.ee("SensorReader", e, "Sensor command failed");
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Copies the newest published snapshot into the given one and returns its sequence number, or
+     * returns 0 and leaves it untouched if nothing has been published yet.
+     */
+    public long copyLatest(SensorSnapshot into) {
+        while (true) {
+            int index = published;
+            if (index < 0) return 0;
+            long before = versions.get(index);
+            if ((before & 1) != 0) continue; // The writer lapped us; pick up the newer buffer
+            into.copyFrom(buffers[index]);
+            // The compare-and-set is a full fence, so it both orders the copy before the check and
+            // tells us whether the writer touched the buffer while we were copying.
+            if (versions.compareAndSet(index, before, before)) {
+                return into.sequence;
+            }
+        }
+    }
+
+    /** Durations of the reader's reads. Updated by the reader thread, so values may be slightly stale. */
+    public LatencyHistogram getReadTimes() {
+        return readTimes;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (running && !Thread.currentThread().isInterrupted()) {
+            runCommands();
+            try {
+                read();
+            } catch (RuntimeException e) {
+                errorCount++;
+                RobotLog.ee("SensorReader", e, "Sensor read failed");
+            }
+            next += periodMillis * 1_000_000L;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                } catch (InterruptedException e) {
+                    break;
+                }
+            } else {
+                next = System.nanoTime(); // Overran; don't try to catch up
+            }
+        }
+        running = false;
+    }
+
+    private void read() {
+        int previous = published;
+        int back = previous == 0 ? 1 : 0;
+        SensorSnapshot target = buffers[back];
+        long next = sequence + 1;
+
+        // Odd while writing. incrementAndGet is a full fence, so none of the writes below can be
+        // seen before it.
+        versions.incrementAndGet(back);
+
+        long start = System.nanoTime();
+        target.timestampNanos = start;
+        for (LynxModule hub : hubs) {
+            hub.clearBulkCache();
+        }
+        for (int i = 0; i < motors.size(); i++) {
+            DcMotorEx motor = motors.get(i);
+            target.positions[i] = motor.getCurrentPosition();
+            target.velocities[i] = motor.getVelocity();
+        }
+        if (pinpoint != null) {
+            pinpoint.update();
+            target.pinpointX = pinpoint.getPosX(DistanceUnit.INCH);
+            target.pinpointY = pinpoint.getPosY(DistanceUnit.INCH);
+            target.pinpointHeading = pinpoint.getHeading(AngleUnit.RADIANS);
+            target.pinpointVelX = pinpoint.getVelX(DistanceUnit.INCH);
+            target.pinpointVelY = pinpoint.getVelY(DistanceUnit.INCH);
+            target.pinpointOmega = pinpoint.getHeadingVelocity(UnnormalizedAngleUnit.RADIANS);
+        }
+        if (imu != null) {
+            target.imuYaw = imu.getRobotYawPitchRollAngles().getYaw(AngleUnit.RADIANS);
+            target.imuYawRate = imu.getRobotAngularVelocity(AngleUnit.RADIANS).zRotationRate;
+        }
+        if (!hubs.isEmpty() && (next % voltageEvery == 1 || voltageEvery <= 1)) {
+            target.voltage = hubs.get(0).getInputVoltage(VoltageUnit.VOLTS);
+        } else if (previous >= 0) {
+            target.voltage = buffers[previous].voltage;
+        }
+        target.readNanos = System.nanoTime() - start;
+        readTimes.record(target.readNanos);
+
+        target.sequence = next;
+        versions.incrementAndGet(back);
+        sequence = next;
+        published = back;
+    }
+
+    private void checkNotStarted() {
+        if (thread != null) throw new IllegalStateException("Add devices before start()");
+    }
+}
@@ -0,0 +1,61 @@
+package org.firstinspires.ftc.teamcode.hardware;
+
+/**
+ * This is the SensorSnapshot class. It holds one consistent set of sensor readings taken by a
+ * {@link SensorReader}. Snapshots are allocated once and copied into, never created per loop.
+ *
+ * Distances are inches, angles radians, encoder velocities ticks per second and voltage volts,
+ * whatever units the devices were configured with.
+ */
+public class SensorSnapshot {
+    /** Incremented by the reader for every snapshot it publishes. Zero means no data yet. */
+    public long sequence;
+    /** System.nanoTime() when the reads for this snapshot started. */
+    public long timestampNanos;
+    /** How long the reads took, ns. */
+    public long readNanos;
+
+    /** Motor encoders, in the order the motors were added to the reader. */
+    public final int[] positions;
+    public final double[] velocities;
+
+    /** Pinpoint pose and field-frame velocity, in its own frame (zero where it was last reset). */
+    public double pinpointX, pinpointY, pinpointHeading;
+    public double pinpointVelX, pinpointVelY, pinpointOmega;
+
+    /** IMU yaw and yaw rate. */
+    public double imuYaw, imuYawRate;
+
+    public double voltage;
+
+    public SensorSnapshot(int motorCount) {
+        positions = new int[motorCount];
+        velocities = new double[motorCount];
+    }
+
+    /** Nanoseconds since this snapshot's reads started. */
+    public long getAgeNanos() {
+        return System.nanoTime() - timestampNanos;
+    }
+
+    public double getAgeMillis() {
+        return getAgeNanos() / 1e6;
+    }
+
+    public void copyFrom(SensorSnapshot other) {
+        sequence = other.sequence;
+        timestampNanos = other.timestampNanos;
+        readNanos = other.readNanos;
+        System.arraycopy(other.positions, 0, positions, 0, positions.length);
+        System.arraycopy(other.velocities, 0, velocities, 0, velocities.length);
+        pinpointX = other.pinpointX;
+        pinpointY = other.pinpointY;
+        pinpointHeading = other.pinpointHeading;
+        pinpointVelX = other.pinpointVelX;
+        pinpointVelY = other.pinpointVelY;
+        pinpointOmega = other.pinpointOmega;
+        imuYaw = other.imuYaw;
+        imuYawRate = other.imuYawRate;
+        voltage = other.voltage;
+    }
+}
@@ -0,0 +1,520 @@
+package org.firstinspires.ftc.teamcode.localization;
+
+import com.pedropathing.geometry.Pose;
+import com.pedropathing.localization.Localizer;
+import com.pedropathing.math.Vector;
+
+/**
+ * This is the FusedLocalizer class. It is a Pedro Localizer that runs an extended Kalman filter
+ * over the robot's field pose (x, y, heading): every update() it predicts from the change in an
+ * odometry localizer's pose (the Pinpoint, threaded or not), and whenever a vision system reports
+ * a robot pose (AprilTags through the VisionPortal, a Limelight botpose) it corrects towards it,
+ * weighted by how much the two are trusted at that moment.
+ *
+ * Vision poses describe where the robot was when the frame was captured, often 30 to 100 ms
+ * earlier. The filter keeps a short history of its own states and odometry steps, so a late
+ * measurement is applied at its capture time and the odometry since then is replayed on top,
+ * rather than dragging the current pose towards a stale one. Measurements whose Mahalanobis
+ * distance from the prediction is beyond the gate (a misread tag, a reflection) are rejected.
+ *
+ * Vision threads call {@link #addPoseMeasurement} at any time; measurements are queued and
+ * applied on the next update(), so the filter itself only runs on the OpMode thread.
+ *
+ * <pre>
+ * FusedLocalizer localizer = new FusedLocalizer(new PinpointLocalizer(hardwareMap, Constants.localizerConstants));
+ * Follower follower = Constants.createFollower(hardwareMap, Constants.pathConstraints, localizer);
+ * </pre>
+ */
+public class FusedLocalizer implements Localizer {
+    private static final int HISTORY = 256;
+    private static final int QUEUE = 16;
+
+    /** Odometry translation error, as a fraction of distance travelled (1 sigma). */
+    public double translationNoise = 0.02;
+    /** Odometry heading error, as a fraction of the angle turned (1 sigma). */
+    public double rotationNoise = 0.01;
+    /** Slow drift added every second regardless of motion: inches and radians (1 sigma). */
+    public double translationDriftPerSecond = 0.05, headingDriftPerSecond = Math.toRadians(0.1);
+    /** Chi-squared gate on the squared Mahalanobis distance. 11.34 keeps 99% of good 3-DOF readings. */
+    public double gate = 11.34;
+    /**
+     * After this many rejections in a row, the odometry is more likely wrong than the vision (a
+     * bump, wheel slip), so the next measurement is applied without the gate.
+     */
+    public int maxConsecutiveRejections = 8;
+
+    private final Localizer odometry;
+
+    // Current state and covariance (row-major 3x3).
+    private double x, y, heading;
+    private final double[] p = new double[9];
+
+    // History ring: time, odometry step taken to reach it (robot frame), posterior state and
+    // covariance, and any measurement applied there.
+    private final long[] hNanos = new long[HISTORY];
+    private final double[] hStep = new double[HISTORY * 3];
+    private final double[] hState = new double[HISTORY * 3];
+    private final double[] hP = new double[HISTORY * 9];
+    private final double[] hZ = new double[HISTORY * 3];
+    private final double[] hR = new double[HISTORY * 9];
+    private final boolean[] hHasZ = new boolean[HISTORY];
+    private int hHead, hSize;
+
+    // Measurements waiting for update(), guarded by queueLock.
+    private final Object queueLock = new Object();
+    private final long[] qNanos = new long[QUEUE];
+    private final double[] qZ = new double[QUEUE * 3];
+    private final double[] qR = new double[QUEUE * 9];
+    private int qSize;
+    private final long[] pendingNanos = new long[QUEUE];
+    private final double[] pendingZ = new double[QUEUE * 3];
+    private final double[] pendingR = new double[QUEUE * 9];
+
+    // Scratch
+    private final double[] s = new double[9], sInv = new double[9], k = new double[9];
+    private final double[] t1 = new double[9], t2 = new double[9];
+    private final double[] innovation = new double[3], combined = new double[3];
+
+    private Pose previousOdometry;
+    private Pose pose = new Pose();
+    private Pose velocity = new Pose();
+    private double totalHeading, previousHeading;
+    private final PoseHistoryBuffer poseHistory = new PoseHistoryBuffer(HISTORY);
+
+    private int accepted, rejected, tooOld, consecutiveRejections;
+    private double lastMahalanobis = Double.NaN, mahalanobis2;
+
+    public FusedLocalizer(Localizer odometry) {
+        this.odometry = odometry;
+        resetCovariance();
+    }
+
+    /**
+     * Queues a robot pose measured at captureNanos (System.nanoTime()), in Pedro field
+     * coordinates, with its standard deviations. Safe to call from any thread.
+     */
+    public void addPoseMeasurement(long captureNanos, double x, double y, double heading,
+                                   double sigmaXY, double sigmaHeading) {
+        double vXY = sigmaXY * sigmaXY, vH = sigmaHeading * sigmaHeading;
+        addPoseMeasurement(captureNanos, x, y, heading, vXY, 0, 0, 0, vXY, 0, 0, 0, vH);
+    }
+
+    /** Queues a measurement with a full covariance, row-major over (x, y, heading). */
+    public void addPoseMeasurement(long captureNanos, double x, double y, double heading,
+                                   double c00, double c01, double c02,
+                                   double c10, double c11, double c12,
+                                   double c20, double c21, double c22) {
+        synchronized (queueLock) {
+            if (qSize == QUEUE) {
+                // Drop the oldest; a burst this long means update() isn't keeping up anyway.
+                System.arraycopy(qNanos, 1, qNanos, 0, QUEUE - 1);
+                System.arraycopy(qZ, 3, qZ, 0, (QUEUE - 1) * 3);
+                System.arraycopy(qR, 9, qR, 0, (QUEUE - 1) * 9);
+                qSize--;
+            }
+            int i = qSize++;
+            qNanos[i] = captureNanos;
+            qZ[i * 3] = x;
+            qZ[i * 3 + 1] = y;
+            qZ[i * 3 + 2] = heading;
+            double[] r = qR;
+            int o = i * 9;
+            r[o] = c00; r[o + 1] = c01; r[o + 2] = c02;
+            r[o + 3] = c10; r[o + 4] = c11; r[o + 5] = c12;
+            r[o + 6] = c20; r[o + 7] = c21; r[o + 8] = c22;
+        }
+    }
+
+    @Override
+    public void update() {
+        odometry.update();
+        long now = odometryNanos();
+        Pose current = odometry.getPose();
+
+        double dx = 0, dy = 0, dTheta = 0;
+        if (previousOdometry != null) {
+            double c = Math.cos(previousOdometry.getHeading()), sn = Math.sin(previousOdometry.getHeading());
+            double dxField = current.getX() - previousOdometry.getX();
+            double dyField = current.getY() - previousOdometry.getY();
+            dx = c * dxField + sn * dyField;
+            dy = -sn * dxField + c * dyField;
+            dTheta = wrap(current.getHeading() - previousOdometry.getHeading());
+            double dt = hSize == 0 ? 0 : Math.max(0, (now - hNanos[slot(hSize - 1)]) / 1e9);
+            predict(dx, dy, dTheta, dt);
+        }
+        previousOdometry = current;
+        push(now, dx, dy, dTheta);
+
+        applyQueuedMeasurements();
+
+        // The odometry's velocity is in its own field frame; turn it into ours.
+        Pose odometryVelocity = odometry.getVelocity();
+        double rotation = heading - current.getHeading();
+        double c = Math.cos(rotation), sn = Math.sin(rotation);
+        pose = new Pose(x, y, heading);
+        velocity = new Pose(
+                odometryVelocity.getX() * c - odometryVelocity.getY() * sn,
+                odometryVelocity.getX() * sn + odometryVelocity.getY() * c,
+                odometryVelocity.getHeading());
+        totalHeading += wrap(heading - previousHeading);
+        previousHeading = heading;
+        poseHistory.add(now, x, y, heading, velocity.getX(), velocity.getY(), velocity.getHeading());
+    }
+
+    /** When the odometry reading we just took was made. */
+    private long odometryNanos() {
+        if (odometry instanceof ThreadedPinpointLocalizer) {
+            long stamp = ((ThreadedPinpointLocalizer) odometry).getSnapshot().timestampNanos;
+            if (stamp != 0) return stamp;
+        }
+        return nanoTime();
+    }
+
+    /** Clock for odometry steps. The simulator overrides this. */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /** Moves the state by a robot-frame step and grows the covariance. */
+    private void predict(double dx, double dy, double dTheta, double dt) {
+        double c = Math.cos(heading), sn = Math.sin(heading);
+        x += c * dx - sn * dy;
+        y += sn * dx + c * dy;
+        heading += dTheta;
+
+        // F = [[1, 0, a], [0, 1, b], [0, 0, 1]]
+        double a = -sn * dx - c * dy, b = c * dx - sn * dy;
+        double p00 = p[0], p01 = p[1], p02 = p[2], p11 = p[4], p12 = p[5], p22 = p[8];
+        double n00 = p00 + 2 * a * p02 + a * a * p22;
+        double n01 = p01 + a * p12 + b * p02 + a * b * p22;
+        double n02 = p02 + a * p22;
+        double n11 = p11 + 2 * b * p12 + b * b * p22;
+        double n12 = p12 + b * p22;
+
+        double distance = Math.hypot(dx, dy);
+        double sigmaT = translationNoise * distance + translationDriftPerSecond * dt;
+        double sigmaH = rotationNoise * Math.abs(dTheta) + headingDriftPerSecond * dt;
+        set(p, n00 + sigmaT * sigmaT, n01, n02, n01, n11 + sigmaT * sigmaT, n12, n02, n12, p22 + sigmaH * sigmaH);
+    }
+
+    /** Appends the current state, and the odometry step that led to it, to the history. */
+    private void push(long nanos, double dx, double dy, double dTheta) {
+        int i = hHead;
+        hStep[i * 3] = dx;
+        hStep[i * 3 + 1] = dy;
+        hStep[i * 3 + 2] = dTheta;
+        hNanos[i] = nanos;
+        saveState(i);
+        hHasZ[i] = false;
+        hHead = (hHead + 1) % HISTORY;
+        if (hSize < HISTORY) hSize++;
+    }
+
+    private void applyQueuedMeasurements() {
+        int n;
+        synchronized (queueLock) {
+            n = qSize;
+            System.arraycopy(qNanos, 0, pendingNanos, 0, n);
+            System.arraycopy(qZ, 0, pendingZ, 0, n * 3);
+            System.arraycopy(qR, 0, pendingR, 0, n * 9);
+            qSize = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            applyMeasurement(pendingNanos[i], pendingZ, i * 3, pendingR, i * 9);
+        }
+    }
+
+    /**
+     * Rewinds to the newest history entry at or before the capture time, corrects it, and
+     * replays the odometry steps (and any measurements) recorded after it.
+     */
+    private void applyMeasurement(long captureNanos, double[] z, int zo, double[] r, int ro) {
+        if (hSize == 0 || captureNanos < hNanos[slot(0)]) {
+            tooOld++;
+            return;
+        }
+        int lo = 0, hi = hSize - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (hNanos[slot(mid)] <= captureNanos) lo = mid;
+            else hi = mid - 1;
+        }
+
+        int at = slot(lo);
+        restoreState(at);
+        double limit = consecutiveRejections < maxConsecutiveRejections ? gate : Double.POSITIVE_INFINITY;
+        boolean applied = correct(z, zo, r, ro, limit);
+        lastMahalanobis = Math.sqrt(mahalanobis2);
+        if (!applied) {
+            // Rejected: put the newest state back.
+            restoreState(slot(hSize - 1));
+            rejected++;
+            consecutiveRejections++;
+            return;
+        }
+        accepted++;
+        consecutiveRejections = 0;
+        storeMeasurement(at, z, zo, r, ro);
+        saveState(at);
+
+        for (int i = lo + 1; i < hSize; i++) {
+            int h = slot(i);
+            double dt = (hNanos[h] - hNanos[slot(i - 1)]) / 1e9;
+            predict(hStep[h * 3], hStep[h * 3 + 1], hStep[h * 3 + 2], dt);
+            if (hHasZ[h]) correct(hZ, h * 3, hR, h * 9, Double.POSITIVE_INFINITY);
+            saveState(h);
+        }
+    }
+
+    /**
+     * Kalman update of the current state with a pose measurement. Returns false, and leaves the
+     * state alone, if the squared Mahalanobis distance is over the limit.
+     */
+    private boolean correct(double[] z, int zo, double[] r, int ro, double limit) {
+        innovation[0] = z[zo] - x;
+        innovation[1] = z[zo + 1] - y;
+        innovation[2] = wrap(z[zo + 2] - heading);
+
+        for (int i = 0; i < 9; i++) s[i] = p[i] + r[ro + i];
+        if (!invert(s, sInv)) return false;
+
+        double d2 = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) d2 += innovation[i] * sInv[i * 3 + j] * innovation[j];
+        }
+        mahalanobis2 = d2;
+        if (d2 > limit) return false;
+
+        multiply(p, sInv, k); // K = P S^-1
+        for (int i = 0; i < 3; i++) {
+            double dxi = k[i * 3] * innovation[0] + k[i * 3 + 1] * innovation[1] + k[i * 3 + 2] * innovation[2];
+            if (i == 0) x += dxi;
+            else if (i == 1) y += dxi;
+            else heading += dxi;
+        }
+
+        // Joseph form: P = (I - K) P (I - K)^T + K R K^T
+        for (int i = 0; i < 9; i++) t1[i] = (i % 4 == 0 ? 1 : 0) - k[i];
+        multiply(t1, p, t2);
+        multiplyTransposed(t2, t1, p);
+        for (int i = 0; i < 9; i++) t1[i] = r[ro + i];
+        multiply(k, t1, t2);
+        multiplyTransposed(t2, k, t1);
+        for (int i = 0; i < 9; i++) p[i] += t1[i];
+        return true;
+    }
+
+    /** Stores the measurement at a history slot, merging by information weight with any already there. */
+    private void storeMeasurement(int h, double[] z, int zo, double[] r, int ro) {
+        if (!hHasZ[h]) {
+            System.arraycopy(z, zo, hZ, h * 3, 3);
+            System.arraycopy(r, ro, hR, h * 9, 9);
+            hHasZ[h] = true;
+            return;
+        }
+        double[] a = t1, b = t2;
+        System.arraycopy(hR, h * 9, s, 0, 9);
+        if (!invert(s, a)) return;
+        System.arraycopy(r, ro, s, 0, 9);
+        if (!invert(s, b)) return;
+        for (int i = 0; i < 9; i++) s[i] = a[i] + b[i];
+        if (!invert(s, k)) return; // k = combined covariance
+        double z0 = hZ[h * 3], z1 = hZ[h * 3 + 1], z2 = hZ[h * 3 + 2];
+        double w0 = z[zo], w1 = z[zo + 1], w2 = z2 + wrap(z[zo + 2] - z2);
+        for (int i = 0; i < 3; i++) {
+            combined[i] = a[i * 3] * z0 + a[i * 3 + 1] * z1 + a[i * 3 + 2] * z2
+                    + b[i * 3] * w0 + b[i * 3 + 1] * w1 + b[i * 3 + 2] * w2;
+        }
+        for (int i = 0; i < 3; i++) {
+            hZ[h * 3 + i] = k[i * 3] * combined[0] + k[i * 3 + 1] * combined[1] + k[i * 3 + 2] * combined[2];
+        }
+        System.arraycopy(k, 0, hR, h * 9, 9);
+    }
+
+    private void saveState(int h) {
+        hState[h * 3] = x;
+        hState[h * 3 + 1] = y;
+        hState[h * 3 + 2] = heading;
+        System.arraycopy(p, 0, hP, h * 9, 9);
+    }
+
+    private void restoreState(int h) {
+        x = hState[h * 3];
+        y = hState[h * 3 + 1];
+        heading = hState[h * 3 + 2];
+        System.arraycopy(hP, h * 9, p, 0, 9);
+    }
+
+    private int slot(int i) {
+        return (hHead - hSize + i + HISTORY) % HISTORY;
+    }
+
+    private void resetCovariance() {
+        set(p, 1, 0, 0, 0, 1, 0, 0, 0, Math.toRadians(2) * Math.toRadians(2));
+    }
+
+    @Override
+    public Pose getPose() {
+        return pose;
+    }
+
+    @Override
+    public Pose getVelocity() {
+        return velocity;
+    }
+
+    @Override
+    public Vector getVelocityVector() {
+        return new Vector(Math.hypot(velocity.getX(), velocity.getY()),
+                Math.atan2(velocity.getY(), velocity.getX()));
+    }
+
+    @Override
+    public void setStartPose(Pose setStart) {
+        setPose(setStart);
+    }
+
+    /** Resets the filter to the pose, with a small uncertainty, and forgets its history. */
+    @Override
+    public void setPose(Pose setPose) {
+        odometry.setPose(setPose);
+        x = setPose.getX();
+        y = setPose.getY();
+        heading = setPose.getHeading();
+        resetCovariance();
+        hSize = 0;
+        hHead = 0;
+        synchronized (queueLock) {
+            qSize = 0;
+        }
+        previousOdometry = setPose;
+        pose = setPose;
+        previousHeading = heading;
+        poseHistory.clear();
+    }
+
+    @Override
+    public double getTotalHeading() {
+        return totalHeading;
+    }
+
+    @Override
+    public double getForwardMultiplier() {
+        return odometry.getForwardMultiplier();
+    }
+
+    @Override
+    public double getLateralMultiplier() {
+        return odometry.getLateralMultiplier();
+    }
+
+    @Override
+    public double getTurningMultiplier() {
+        return odometry.getTurningMultiplier();
+    }
+
+    @Override
+    public void resetIMU() throws InterruptedException {
+        odometry.resetIMU();
+    }
+
+    @Override
+    public double getIMUHeading() {
+        return odometry.getIMUHeading();
+    }
+
+    @Override
+    public boolean isNAN() {
+        return Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(heading) || odometry.isNAN();
+    }
+
+    /** Fused poses with their odometry timestamps, for matching against vision frames. */
+    public PoseHistoryBuffer getPoseHistory() {
+        return poseHistory;
+    }
+
+    /** Copies the current 3x3 covariance (x, y, heading; row-major) into out. */
+    public void getCovariance(double[] out) {
+        System.arraycopy(p, 0, out, 0, 9);
+    }
+
+    /** 1-sigma position uncertainty, in, from the larger eigenvalue of the x/y covariance. */
+    public double getPositionSigma() {
+        double a = p[0], b = p[1], d = p[4];
+        double mean = (a + d) / 2, diff = Math.sqrt((a - d) * (a - d) / 4 + b * b);
+        return Math.sqrt(mean + diff);
+    }
+
+    public double getHeadingSigma() {
+        return Math.sqrt(p[8]);
+    }
+
+    public int getAcceptedCount() {
+        return accepted;
+    }
+
+    public int getRejectedCount() {
+        return rejected;
+    }
+
+    /** Measurements older than the history, which could not be applied. */
+    public int getTooOldCount() {
+        return tooOld;
+    }
+
+    /** Mahalanobis distance of the last measurement gated, accepted or not. */
+    public double getLastMahalanobis() {
+        return lastMahalanobis;
+    }
+
+    public Localizer getOdometry() {
+        return odometry;
+    }
+
+    private static void set(double[] m, double a, double b, double c, double d, double e, double f,
+                            double g, double h, double i) {
+        m[0] = a; m[1] = b; m[2] = c;
+        m[3] = d; m[4] = e; m[5] = f;
+        m[6] = g; m[7] = h; m[8] = i;
+    }
+
+    private static void multiply(double[] a, double[] b, double[] out) {
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                out[i * 3 + j] = a[i * 3] * b[j] + a[i * 3 + 1] * b[3 + j] + a[i * 3 + 2] * b[6 + j];
+            }
+        }
+    }
+
+    /** out = a * b^T */
+    private static void multiplyTransposed(double[] a, double[] b, double[] out) {
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                out[i * 3 + j] = a[i * 3] * b[j * 3] + a[i * 3 + 1] * b[j * 3 + 1] + a[i * 3 + 2] * b[j * 3 + 2];
+            }
+        }
+    }
+
+    private static boolean invert(double[] m, double[] out) {
+        double c00 = m[4] * m[8] - m[5] * m[7];
+        double c01 = m[5] * m[6] - m[3] * m[8];
+        double c02 = m[3] * m[7] - m[4] * m[6];
+        double det = m[0] * c00 + m[1] * c01 + m[2] * c02;
+        if (Math.abs(det) < 1e-18) return false;
+        double inv = 1 / det;
+        out[0] = c00 * inv;
+        out[1] = (m[2] * m[7] - m[1] * m[8]) * inv;
+        out[2] = (m[1] * m[5] - m[2] * m[4]) * inv;
+        out[3] = c01 * inv;
+        out[4] = (m[0] * m[8] - m[2] * m[6]) * inv;
+        out[5] = (m[2] * m[3] - m[0] * m[5]) * inv;
+        out[6] = c02 * inv;
+        out[7] = (m[1] * m[6] - m[0] * m[7]) * inv;
+        out[8] = (m[0] * m[4] - m[1] * m[3]) * inv;
+        return true;
+    }
+
+    private static double wrap(double angle) {
+        return Math.IEEEremainder(angle, 2 * Math.PI);
+    }
+}
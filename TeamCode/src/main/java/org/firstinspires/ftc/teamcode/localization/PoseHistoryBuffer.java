@@ -0,0 +1,139 @@
+package org.firstinspires.ftc.teamcode.localization;
+
+/**
+ * This is the PoseHistoryBuffer class. It keeps the last few seconds of timestamped robot poses
+ * and velocities in fixed primitive arrays, so a measurement that was captured some time ago (an
+ * AprilTag detection from a frame 40 ms old, a Limelight botpose with its reported latency) can be
+ * compared with the pose the robot actually had when it was captured, not the pose it has now.
+ *
+ * {@link #getAt(long, Sample)} binary searches the buffer, O(log n), and interpolates linearly
+ * between the two samples around the requested time, taking the short way round for heading (the
+ * result stays in the same range as the earlier sample's heading). Adding a sample and querying
+ * allocate nothing. Timestamps are System.nanoTime() values and must be added in order; a sample
+ * older than the newest one is ignored.
+ */
+public class PoseHistoryBuffer {
+    /** One pose and velocity at a point in time. Reused by the caller to avoid allocation. */
+    public static class Sample {
+        public long nanos;
+        public double x, y, heading;
+        public double vx, vy, omega;
+    }
+
+    private final long[] nanos;
+    private final double[] x, y, heading, vx, vy, omega;
+    private int head; // Slot the next sample goes in
+    private int size;
+
+    /** How far past the newest sample {@link #getAt} will extrapolate using its velocity. */
+    public long maxExtrapolationNanos = 50_000_000L;
+
+    public PoseHistoryBuffer(int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity must be at least 2");
+        nanos = new long[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        heading = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        omega = new double[capacity];
+    }
+
+    /** Adds a sample. Returns false if it is not newer than the newest sample already held. */
+    public boolean add(long timeNanos, double x, double y, double heading, double vx, double vy, double omega) {
+        if (size > 0 && timeNanos <= nanos[slot(size - 1)]) return false;
+        nanos[head] = timeNanos;
+        this.x[head] = x;
+        this.y[head] = y;
+        this.heading[head] = heading;
+        this.vx[head] = vx;
+        this.vy[head] = vy;
+        this.omega[head] = omega;
+        head = (head + 1) % nanos.length;
+        if (size < nanos.length) size++;
+        return true;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getOldestNanos() {
+        return size == 0 ? Long.MIN_VALUE : nanos[slot(0)];
+    }
+
+    public long getNewestNanos() {
+        return size == 0 ? Long.MIN_VALUE : nanos[slot(size - 1)];
+    }
+
+    /** Copies the i-th sample, 0 being the oldest, into out. */
+    public void get(int i, Sample out) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        copy(slot(i), out);
+    }
+
+    /**
+     * Fills out with the pose at the given time, interpolated between the samples either side of
+     * it, or extrapolated from the newest sample by up to maxExtrapolationNanos. Returns false,
+     * leaving out untouched, if the time is older than the buffer or too far past its end.
+     */
+    public boolean getAt(long timeNanos, Sample out) {
+        if (size == 0 || timeNanos < nanos[slot(0)]) return false;
+
+        int newest = slot(size - 1);
+        if (timeNanos >= nanos[newest]) {
+            long ahead = timeNanos - nanos[newest];
+            if (ahead > maxExtrapolationNanos) return false;
+            double dt = ahead / 1e9;
+            copy(newest, out);
+            out.nanos = timeNanos;
+            out.x += vx[newest] * dt;
+            out.y += vy[newest] * dt;
+            out.heading += omega[newest] * dt;
+            return true;
+        }
+
+        // Last sample at or before the time; the one after it is strictly after.
+        int lo = 0, hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (nanos[slot(mid)] <= timeNanos) lo = mid;
+            else hi = mid - 1;
+        }
+        int a = slot(lo), b = slot(lo + 1);
+        double f = (double) (timeNanos - nanos[a]) / (nanos[b] - nanos[a]);
+        out.nanos = timeNanos;
+        out.x = x[a] + f * (x[b] - x[a]);
+        out.y = y[a] + f * (y[b] - y[a]);
+        out.heading = heading[a] + f * wrap(heading[b] - heading[a]);
+        out.vx = vx[a] + f * (vx[b] - vx[a]);
+        out.vy = vy[a] + f * (vy[b] - vy[a]);
+        out.omega = omega[a] + f * (omega[b] - omega[a]);
+        return true;
+    }
+
+    private void copy(int slot, Sample out) {
+        out.nanos = nanos[slot];
+        out.x = x[slot];
+        out.y = y[slot];
+        out.heading = heading[slot];
+        out.vx = vx[slot];
+        out.vy = vy[slot];
+        out.omega = omega[slot];
+    }
+
+    /** Physical slot of the i-th oldest sample. */
+    private int slot(int i) {
+        int capacity = nanos.length;
+        return (head - size + i + capacity) % capacity;
+    }
+
+    private static double wrap(double angle) {
+        return Math.IEEEremainder(angle, 2 * Math.PI);
+    }
+}
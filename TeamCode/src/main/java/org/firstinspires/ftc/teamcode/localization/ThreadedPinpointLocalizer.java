@@ -0,0 +1,174 @@
+package org.firstinspires.ftc.teamcode.localization;
+
+import com.pedropathing.ftc.localization.constants.PinpointConstants;
+import com.pedropathing.geometry.Pose;
+import com.pedropathing.localization.Localizer;
+import com.pedropathing.math.Vector;
+import com.qualcomm.hardware.gobilda.GoBildaPinpointDriver;
+
+import org.firstinspires.ftc.teamcode.hardware.SensorReader;
+import org.firstinspires.ftc.teamcode.hardware.SensorSnapshot;
+
+/**
+ * This is the ThreadedPinpointLocalizer class. It is a drop-in replacement for Pedro's
+ * PinpointLocalizer that takes its readings from a {@link SensorReader} snapshot instead of
+ * talking to the Pinpoint over I2C, so follower.update() no longer blocks on the read.
+ *
+ * The Pinpoint is configured from the same PinpointConstants and reset once at construction.
+ * After that only resetIMU() writes to it, and it does so on the reader thread through
+ * {@link SensorReader#runOnReader}, between two reads. setPose() is handled here by remembering
+ * which raw reading corresponds to which field pose, so the OpMode thread never moves the
+ * Pinpoint's origin under the reader thread.
+ */
+public class ThreadedPinpointLocalizer implements Localizer {
+    private final SensorReader reader;
+    private final GoBildaPinpointDriver pinpoint;
+    private final SensorSnapshot snapshot;
+
+    // Field pose at the last setPose(), and the raw reading we had then.
+    private Pose origin = new Pose();
+    private double rawX0, rawY0, rawHeading0;
+
+    private Pose pose = new Pose();
+    private Pose velocity = new Pose();
+    private double totalHeading;
+    private double previousHeading;
+
+    private final PoseHistoryBuffer history = new PoseHistoryBuffer(250);
+    private long lastSequence;
+
+    public ThreadedPinpointLocalizer(SensorReader reader, final PinpointConstants constants) {
+        this.reader = reader;
+        pinpoint = reader.getPinpoint();
+        if (pinpoint == null) {
+            throw new IllegalArgumentException("The SensorReader must read a Pinpoint");
+        }
+        snapshot = reader.newSnapshot();
+
+        // Right away if the reader hasn't started yet, otherwise between two of its reads.
+        reader.runOnReader(new Runnable() {
+            @Override
+            public void run() {
+                pinpoint.setOffsets(constants.forwardPodY, constants.strafePodX, constants.distanceUnit);
+                pinpoint.setEncoderResolution(constants.encoderResolution);
+                pinpoint.setEncoderDirections(constants.forwardEncoderDirection, constants.strafeEncoderDirection);
+                pinpoint.resetPosAndIMU();
+            }
+        });
+    }
+
+    /** The snapshot the current pose came from, for reporting its age. */
+    public SensorSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public void update() {
+        reader.copyLatest(snapshot);
+        double rotation = origin.getHeading() - rawHeading0;
+        double cos = Math.cos(rotation), sin = Math.sin(rotation);
+
+        double dx = snapshot.pinpointX - rawX0;
+        double dy = snapshot.pinpointY - rawY0;
+        double heading = origin.getHeading() + snapshot.pinpointHeading - rawHeading0;
+        pose = new Pose(
+                origin.getX() + dx * cos - dy * sin,
+                origin.getY() + dx * sin + dy * cos,
+                heading);
+        velocity = new Pose(
+                snapshot.pinpointVelX * cos - snapshot.pinpointVelY * sin,
+                snapshot.pinpointVelX * sin + snapshot.pinpointVelY * cos,
+                snapshot.pinpointOmega);
+
+        totalHeading += Math.IEEEremainder(heading - previousHeading, 2 * Math.PI);
+        previousHeading = heading;
+
+        if (snapshot.sequence != lastSequence) {
+            lastSequence = snapshot.sequence;
+            history.add(snapshot.timestampNanos, pose.getX(), pose.getY(), heading,
+                    velocity.getX(), velocity.getY(), velocity.getHeading());
+        }
+    }
+
+    /**
+     * Field poses stamped with when the Pinpoint was read, one per new snapshot, for matching up
+     * vision measurements with where the robot was when the frame was captured.
+     */
+    public PoseHistoryBuffer getHistory() {
+        return history;
+    }
+
+    @Override
+    public Pose getPose() {
+        return pose;
+    }
+
+    @Override
+    public Pose getVelocity() {
+        return velocity;
+    }
+
+    @Override
+    public Vector getVelocityVector() {
+        return new Vector(Math.hypot(velocity.getX(), velocity.getY()),
+                Math.atan2(velocity.getY(), velocity.getX()));
+    }
+
+    @Override
+    public void setStartPose(Pose setStart) {
+        setPose(setStart);
+    }
+
+    @Override
+    public void setPose(Pose setPose) {
+        reader.copyLatest(snapshot);
+        origin = setPose;
+        rawX0 = snapshot.pinpointX;
+        rawY0 = snapshot.pinpointY;
+        rawHeading0 = snapshot.pinpointHeading;
+        pose = setPose;
+        previousHeading = setPose.getHeading();
+        history.clear(); // Old entries are in the previous frame
+    }
+
+    @Override
+    public double getTotalHeading() {
+        return totalHeading;
+    }
+
+    @Override
+    public double getForwardMultiplier() {
+        return 1;
+    }
+
+    @Override
+    public double getLateralMultiplier() {
+        return 1;
+    }
+
+    @Override
+    public double getTurningMultiplier() {
+        return 1;
+    }
+
+    /** Queues the recalibration on the reader thread; the heading settles over the next reads. */
+    @Override
+    public void resetIMU() throws InterruptedException {
+        reader.runOnReader(new Runnable() {
+            @Override
+            public void run() {
+                pinpoint.recalibrateIMU();
+            }
+        });
+    }
+
+    @Override
+    public double getIMUHeading() {
+        return snapshot.pinpointHeading;
+    }
+
+    @Override
+    public boolean isNAN() {
+        return Double.isNaN(pose.getX()) || Double.isNaN(pose.getY()) || Double.isNaN(pose.getHeading());
+    }
+}
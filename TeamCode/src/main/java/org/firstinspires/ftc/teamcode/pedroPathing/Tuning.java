@@ -25,6 +25,9 @@ import com.pedropathing.util.*;
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
 
+import org.firstinspires.ftc.teamcode.util.DoubleRingBuffer;
+import org.firstinspires.ftc.teamcode.util.LinearFit;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -329,9 +332,11 @@ class TurnTuner extends OpMode {
  * @version 1.0, 3/13/2024
  */
 class ForwardVelocityTuner extends OpMode {
-    private final ArrayList<Double> velocities = new ArrayList<>();
+    private DoubleRingBuffer velocities;
     public static double DISTANCE = 48;
     public static double RECORD_NUMBER = 10;
+    /** Velocities further than this many robust standard deviations from the median are dropped. */
+    public static double OUTLIER_SIGMAS = 3;
 
     private boolean end;
 
@@ -356,9 +361,7 @@ class ForwardVelocityTuner extends OpMode {
     /** This starts the OpMode by setting the drive motors to run forward at full power. */
     @Override
     public void start() {
-        for (int i = 0; i < RECORD_NUMBER; i++) {
-            velocities.add(0.0);
-        }
+        velocities = new DoubleRingBuffer(Math.max(1, (int) RECORD_NUMBER));
         follower.startTeleopDrive(true);
         follower.update();
         end = false;
@@ -368,7 +371,7 @@ class ForwardVelocityTuner extends OpMode {
      * This runs the OpMode. At any point during the running of the OpMode, pressing B on
      * game pad 1 will stop the OpMode. This continuously records the RECORD_NUMBER most recent
      * velocities, and when the robot has run forward enough, these last velocities recorded are
-     * averaged and printed.
+     * averaged, ignoring outliers, and printed.
      */
     @Override
     public void loop() {
@@ -390,16 +393,12 @@ class ForwardVelocityTuner extends OpMode {
                 //double currentVelocity = Math.abs(follower.getVelocity().getXComponent());
                 double currentVelocity = Math.abs(follower.poseTracker.getLocalizer().getVelocity().getX());
                 velocities.add(currentVelocity);
-                velocities.remove(0);
             }
         } else {
             stopRobot();
-            double average = 0;
-            for (double velocity : velocities) {
-                average += velocity;
-            }
-            average /= velocities.size();
+            double average = velocities.getRobustMean(OUTLIER_SIGMAS);
             telemetryM.debug("Forward Velocity: " + average);
+            telemetryM.debug("Spread: " + velocities.getStdDev() + " (" + velocities.countOutliers(OUTLIER_SIGMAS) + " outliers dropped)");
             telemetryM.debug("\n");
             telemetryM.debug("Press A to set the Forward Velocity temporarily (while robot remains on).");
 
@@ -435,10 +434,13 @@ class ForwardVelocityTuner extends OpMode {
  * @version 1.0, 3/13/2024
  */
 class LateralVelocityTuner extends OpMode {
-    private final ArrayList<Double> velocities = new ArrayList<>();
+    private DoubleRingBuffer velocities;
+    private final Vector lateral = new Vector(1, Math.PI / 2); // Unit +y, dotted with the velocity every loop
 
     public static double DISTANCE = 48;
     public static double RECORD_NUMBER = 10;
+    /** Velocities further than this many robust standard deviations from the median are dropped. */
+    public static double OUTLIER_SIGMAS = 3;
 
     private boolean end;
 
@@ -465,9 +467,7 @@ class LateralVelocityTuner extends OpMode {
     /** This starts the OpMode by setting the drive motors to run left at full power. */
     @Override
     public void start() {
-        for (int i = 0; i < RECORD_NUMBER; i++) {
-            velocities.add(0.0);
-        }
+        velocities = new DoubleRingBuffer(Math.max(1, (int) RECORD_NUMBER));
         follower.startTeleopDrive(true);
         follower.update();
     }
@@ -476,7 +476,7 @@ class LateralVelocityTuner extends OpMode {
      * This runs the OpMode. At any point during the running of the OpMode, pressing B on
      * game pad1 will stop the OpMode. This continuously records the RECORD_NUMBER most recent
      * velocities, and when the robot has run sideways enough, these last velocities recorded are
-     * averaged and printed.
+     * averaged, ignoring outliers, and printed.
      */
     @Override
     public void loop() {
@@ -494,19 +494,15 @@ class LateralVelocityTuner extends OpMode {
                 stopRobot();
             } else {
                 follower.setTeleOpDrive(0,1,0,true);
-                double currentVelocity = Math.abs(follower.getVelocity().dot(new Vector(1, Math.PI / 2)));
+                double currentVelocity = Math.abs(follower.getVelocity().dot(lateral));
                 velocities.add(currentVelocity);
-                velocities.remove(0);
             }
         } else {
             stopRobot();
-            double average = 0;
-            for (double velocity : velocities) {
-                average += velocity;
-            }
-            average /= velocities.size();
+            double average = velocities.getRobustMean(OUTLIER_SIGMAS);
 
             telemetryM.debug("Strafe Velocity: " + average);
+            telemetryM.debug("Spread: " + velocities.getStdDev() + " (" + velocities.countOutliers(OUTLIER_SIGMAS) + " outliers dropped)");
             telemetryM.debug("\n");
             telemetryM.debug("Press A to set the Lateral Velocity temporarily (while robot remains on).");
             telemetryM.update(telemetry);
@@ -524,10 +520,11 @@ class LateralVelocityTuner extends OpMode {
  * This is the ForwardZeroPowerAccelerationTuner autonomous follower OpMode. This runs the robot
  * forward until a specified velocity is achieved. Then, the robot cuts power to the motors, setting
  * them to zero power. The deceleration, or negative acceleration, is then measured until the robot
- * stops. The accelerations across the entire time the robot is slowing down is then averaged and
- * that number is then printed. This is used to determine how the robot will decelerate in the
- * forward direction when power is cut, making the estimations used in the calculations for the
- * drive Vector more accurate and giving better braking at the end of Paths.
+ * stops. A straight line is fitted through the velocity against time while the robot is slowing
+ * down, ignoring outlying samples, and its slope is printed along with how well it fits. This is
+ * used to determine how the robot will decelerate in the forward direction when power is cut,
+ * making the estimations used in the calculations for the drive Vector more accurate and giving
+ * better braking at the end of Paths.
  *
  * @author Anyi Lin - 10158 Scott's Bots
  * @author Baron Henderson - 20077 The Indubitables
@@ -536,11 +533,13 @@ class LateralVelocityTuner extends OpMode {
  * @version 1.0, 3/13/2024
  */
 class ForwardZeroPowerAccelerationTuner extends OpMode {
-    private final ArrayList<Double> accelerations = new ArrayList<>();
+    /** Velocity against seconds since power was cut; ten seconds of loops, far longer than a coast. */
+    private final LinearFit coast = new LinearFit(1000);
     public static double VELOCITY = 30;
+    /** Samples further than this many robust standard deviations from the fitted line are dropped. */
+    public static double OUTLIER_SIGMAS = 3;
 
-    private double previousVelocity;
-    private long previousTimeNano;
+    private long stopTimeNano;
 
     private boolean stopping;
     private boolean end;
@@ -572,10 +571,10 @@ class ForwardZeroPowerAccelerationTuner extends OpMode {
     }
 
     /**
-     * This runs the OpMode. At any point during the running of the OpMode, pressing B on
-     * game pad 1 will stop the OpMode. When the robot hits the specified velocity, the robot will
-     * record its deceleration / negative acceleration until it stops. Then, it will average all the
-     * recorded deceleration / negative acceleration and print that value.
+     * This runs the OpMode. At any point during the running of the OpMode, pressing B on game pad 1
+     * will stop the OpMode. When the robot hits the specified velocity, the robot will record its
+     * velocity until it stops. Then, it will fit the deceleration / negative acceleration to the
+     * recorded velocities and print that value with its 95% confidence interval.
      */
     @Override
     public void loop() {
@@ -591,28 +590,31 @@ class ForwardZeroPowerAccelerationTuner extends OpMode {
         if (!end) {
             if (!stopping) {
                 if (follower.getVelocity().dot(heading) > VELOCITY) {
-                    previousVelocity = follower.getVelocity().dot(heading);
-                    previousTimeNano = System.nanoTime();
+                    coast.clear();
+                    stopTimeNano = System.nanoTime();
                     stopping = true;
                     follower.setTeleOpDrive(0,0,0,true);
                 }
             } else {
                 double currentVelocity = follower.getVelocity().dot(heading);
-                accelerations.add((currentVelocity - previousVelocity) / ((System.nanoTime() - previousTimeNano) / Math.pow(10.0, 9)));
-                previousVelocity = currentVelocity;
-                previousTimeNano = System.nanoTime();
-                if (currentVelocity < follower.getConstraints().getVelocityConstraint()) {
+                coast.add((System.nanoTime() - stopTimeNano) / 1e9, currentVelocity);
+                if (currentVelocity < follower.getConstraints().getVelocityConstraint() || coast.isFull()) {
                     end = true;
+                    coast.fit(OUTLIER_SIGMAS, 5);
                 }
             }
         } else {
-            double average = 0;
-            for (double acceleration : accelerations) {
-                average += acceleration;
+            if (!coast.isValid()) {
+                telemetryM.debug("Not enough samples to fit a deceleration. Try a higher VELOCITY.");
+                telemetryM.update(telemetry);
+                return;
             }
-            average /= accelerations.size();
+            double average = coast.getSlope();
 
             telemetryM.debug("Forward Zero Power Acceleration (Deceleration): " + average);
+            telemetryM.debug("95% confidence: +/- " + coast.getSlopeConfidence95());
+            telemetryM.debug("Fit R^2: " + coast.getRSquared() + ", residual " + coast.getResidualStdDev() + " in/s");
+            telemetryM.debug("Samples: " + coast.getUsedCount() + " used, " + coast.getRejectedCount() + " rejected as outliers");
             telemetryM.debug("\n");
             telemetryM.debug("Press A to set the Forward Zero Power Acceleration temporarily (while robot remains on).");
             telemetryM.update(telemetry);
@@ -627,13 +629,14 @@ class ForwardZeroPowerAccelerationTuner extends OpMode {
 }
 
 /**
- * This is the LateralZeroPowerAccelerationTuner autonomous follower OpMode. This runs the robot
- * to the left until a specified velocity is achieved. Then, the robot cuts power to the motors, setting
- * them to zero power. The deceleration, or negative acceleration, is then measured until the robot
- * stops. The accelerations across the entire time the robot is slowing down is then averaged and
- * that number is then printed. This is used to determine how the robot will decelerate in the
- * forward direction when power is cut, making the estimations used in the calculations for the
- * drive Vector more accurate and giving better braking at the end of Paths.
+ * This is the LateralZeroPowerAccelerationTuner autonomous follower OpMode. This runs the robot to
+ * the left until a specified velocity is achieved. Then, the robot cuts power to the motors,
+ * setting them to zero power. The deceleration, or negative acceleration, is then measured until
+ * the robot stops. A straight line is fitted through the velocity against time while the robot is
+ * slowing down, ignoring outlying samples, and its slope is printed along with how well it fits.
+ * This is used to determine how the robot will decelerate in the forward direction when power is
+ * cut, making the estimations used in the calculations for the drive Vector more accurate and
+ * giving better braking at the end of Paths.
  *
  * @author Anyi Lin - 10158 Scott's Bots
  * @author Aaron Yang - 10158 Scott's Bots
@@ -642,10 +645,12 @@ class ForwardZeroPowerAccelerationTuner extends OpMode {
  * @version 1.0, 3/13/2024
  */
 class LateralZeroPowerAccelerationTuner extends OpMode {
-    private final ArrayList<Double> accelerations = new ArrayList<>();
+    /** Velocity against seconds since power was cut; ten seconds of loops, far longer than a coast. */
+    private final LinearFit coast = new LinearFit(1000);
     public static double VELOCITY = 30;
-    private double previousVelocity;
-    private long previousTimeNano;
+    /** Samples further than this many robust standard deviations from the fitted line are dropped. */
+    public static double OUTLIER_SIGMAS = 3;
+    private long stopTimeNano;
     private boolean stopping;
     private boolean end;
 
@@ -676,10 +681,10 @@ class LateralZeroPowerAccelerationTuner extends OpMode {
     }
 
     /**
-     * This runs the OpMode. At any point during the running of the OpMode, pressing B on
-     * game pad 1 will stop the OpMode. When the robot hits the specified velocity, the robot will
-     * record its deceleration / negative acceleration until it stops. Then, it will average all the
-     * recorded deceleration / negative acceleration and print that value.
+     * This runs the OpMode. At any point during the running of the OpMode, pressing B on game pad 1
+     * will stop the OpMode. When the robot hits the specified velocity, the robot will record its
+     * velocity until it stops. Then, it will fit the deceleration / negative acceleration to the
+     * recorded velocities and print that value with its 95% confidence interval.
      */
     @Override
     public void loop() {
@@ -695,28 +700,31 @@ class LateralZeroPowerAccelerationTuner extends OpMode {
         if (!end) {
             if (!stopping) {
                 if (Math.abs(follower.getVelocity().dot(heading)) > VELOCITY) {
-                    previousVelocity = Math.abs(follower.getVelocity().dot(heading));
-                    previousTimeNano = System.nanoTime();
+                    coast.clear();
+                    stopTimeNano = System.nanoTime();
                     stopping = true;
                     follower.setTeleOpDrive(0,0,0,true);
                 }
             } else {
                 double currentVelocity = Math.abs(follower.getVelocity().dot(heading));
-                accelerations.add((currentVelocity - previousVelocity) / ((System.nanoTime() - previousTimeNano) / Math.pow(10.0, 9)));
-                previousVelocity = currentVelocity;
-                previousTimeNano = System.nanoTime();
-                if (currentVelocity < follower.getConstraints().getVelocityConstraint()) {
+                coast.add((System.nanoTime() - stopTimeNano) / 1e9, currentVelocity);
+                if (currentVelocity < follower.getConstraints().getVelocityConstraint() || coast.isFull()) {
                     end = true;
+                    coast.fit(OUTLIER_SIGMAS, 5);
                 }
             }
         } else {
-            double average = 0;
-            for (double acceleration : accelerations) {
-                average += acceleration;
+            if (!coast.isValid()) {
+                telemetryM.debug("Not enough samples to fit a deceleration. Try a higher VELOCITY.");
+                telemetryM.update(telemetry);
+                return;
             }
-            average /= accelerations.size();
+            double average = coast.getSlope();
 
             telemetryM.debug("Lateral Zero Power Acceleration (Deceleration): " + average);
+            telemetryM.debug("95% confidence: +/- " + coast.getSlopeConfidence95());
+            telemetryM.debug("Fit R^2: " + coast.getRSquared() + ", residual " + coast.getResidualStdDev() + " in/s");
+            telemetryM.debug("Samples: " + coast.getUsedCount() + " used, " + coast.getRejectedCount() + " rejected as outliers");
             telemetryM.debug("\n");
             telemetryM.debug("Press A to set the Lateral Zero Power Acceleration temporarily (while robot remains on).");
             telemetryM.update(telemetry);
@@ -0,0 +1,211 @@
+package org.firstinspires.ftc.teamcode.recording;
+
+import static org.firstinspires.ftc.teamcode.recording.FlightRecorder.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * This is the FlightLog class. It reads a file written by {@link FlightRecorder} into one array
+ * per field, so a whole match can be plotted, diffed or replayed, and writes it back out as CSV or
+ * as a columnar dump.
+ *
+ * The columnar dump is a directory with one little-endian binary file per column plus a
+ * schema.csv listing each column's file, type and length, so numpy.fromfile or any dataframe
+ * library can load a column without parsing text.
+ */
+public class FlightLog {
+    public final String tag;
+    public final long startMillis;
+    public final String[] pathNames;
+    public final String[] motorNames;
+    public final int count;
+
+    public final long[] nanos;
+    public final int[] loop, pathState, path, chainIndex;
+    public final double[] x, y, heading, vx, vy, t, voltage;
+    /** Indexed [motor][record]. */
+    public final float[][] power;
+    public final int[][] position;
+
+    private FlightLog(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(H_MAGIC) != MAGIC) throw new IOException("Not a flight log");
+        int version = buffer.getInt(H_VERSION);
+        if (version != VERSION) throw new IOException("Unsupported flight log version " + version);
+        int headerBytes = buffer.getInt(H_HEADER_BYTES);
+        int recordBytes = buffer.getInt(H_RECORD_BYTES);
+        int motors = buffer.getInt(H_MOTORS);
+        startMillis = buffer.getLong(H_START_MILLIS);
+
+        buffer.position(H_STRINGS);
+        tag = getString(buffer);
+        pathNames = new String[buffer.getInt()];
+        for (int i = 0; i < pathNames.length; i++) pathNames[i] = getString(buffer);
+        motorNames = new String[motors];
+        for (int i = 0; i < motors; i++) motorNames[i] = getString(buffer);
+
+        // Trust the header count, but not past the end of a truncated file.
+        long available = (buffer.limit() - headerBytes) / recordBytes;
+        count = (int) Math.min(buffer.getLong(H_COUNT), available);
+
+        nanos = new long[count];
+        loop = new int[count];
+        pathState = new int[count];
+        path = new int[count];
+        chainIndex = new int[count];
+        x = new double[count];
+        y = new double[count];
+        heading = new double[count];
+        vx = new double[count];
+        vy = new double[count];
+        t = new double[count];
+        voltage = new double[count];
+        power = new float[motors][count];
+        position = new int[motors][count];
+
+        for (int r = 0; r < count; r++) {
+            int p = headerBytes + r * recordBytes;
+            nanos[r] = buffer.getLong(p + R_NANOS);
+            loop[r] = buffer.getInt(p + R_LOOP);
+            pathState[r] = buffer.getInt(p + R_PATH_STATE);
+            x[r] = buffer.getDouble(p + R_X);
+            y[r] = buffer.getDouble(p + R_Y);
+            heading[r] = buffer.getDouble(p + R_HEADING);
+            vx[r] = buffer.getDouble(p + R_VX);
+            vy[r] = buffer.getDouble(p + R_VY);
+            path[r] = buffer.getInt(p + R_PATH);
+            chainIndex[r] = buffer.getInt(p + R_CHAIN_INDEX);
+            t[r] = buffer.getDouble(p + R_T);
+            voltage[r] = buffer.getDouble(p + R_VOLTAGE);
+            int powers = p + R_MOTORS, encoders = powers + 4 * motors;
+            for (int m = 0; m < motors; m++) {
+                power[m][r] = buffer.getFloat(powers + 4 * m);
+                position[m][r] = buffer.getInt(encoders + 4 * m);
+            }
+        }
+    }
+
+    public static FlightLog read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new FlightLog(buffer);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Seconds since the first record. */
+    public double getSeconds(int record) {
+        return count == 0 ? 0 : (nanos[record] - nanos[0]) / 1e9;
+    }
+
+    /** Name of the path the record was on, or "" for none. */
+    public String getPathName(int record) {
+        int index = path[record];
+        if (index < 0) return "";
+        return index < pathNames.length ? pathNames[index] : Integer.toString(index);
+    }
+
+    public int indexOfMotor(String name) {
+        for (int i = 0; i < motorNames.length; i++) {
+            if (motorNames[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    public void writeCsv(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.print("seconds,loop,pathState,path,chainIndex,t,x,y,heading,vx,vy,voltage");
+        for (String name : motorNames) out.print("," + name + ".power");
+        for (String name : motorNames) out.print("," + name + ".position");
+        out.println();
+        for (int r = 0; r < count; r++) {
+            out.print(String.format(Locale.US, "%.6f,%d,%d,%s,%d,%.4f,%.4f,%.4f,%.5f,%.3f,%.3f,%.3f",
+                    getSeconds(r), loop[r], pathState[r], getPathName(r), chainIndex[r], t[r],
+                    x[r], y[r], heading[r], vx[r], vy[r], voltage[r]));
+            for (float[] motor : power) out.print(String.format(Locale.US, ",%.4f", motor[r]));
+            for (int[] motor : position) out.print("," + motor[r]);
+            out.println();
+        }
+        out.flush();
+    }
+
+    /** Writes one binary file per column into the directory, plus schema.csv describing them. */
+    public void writeColumns(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        try (PrintWriter schema = new PrintWriter(new File(directory, "schema.csv"), "UTF-8")) {
+            schema.println("column,file,type,count");
+            writeColumn(directory, schema, "nanos", nanos);
+            writeColumn(directory, schema, "loop", loop);
+            writeColumn(directory, schema, "pathState", pathState);
+            writeColumn(directory, schema, "path", path);
+            writeColumn(directory, schema, "chainIndex", chainIndex);
+            writeColumn(directory, schema, "t", t);
+            writeColumn(directory, schema, "x", x);
+            writeColumn(directory, schema, "y", y);
+            writeColumn(directory, schema, "heading", heading);
+            writeColumn(directory, schema, "vx", vx);
+            writeColumn(directory, schema, "vy", vy);
+            writeColumn(directory, schema, "voltage", voltage);
+            for (int m = 0; m < motorNames.length; m++) {
+                writeColumn(directory, schema, motorNames[m] + ".power", power[m]);
+                writeColumn(directory, schema, motorNames[m] + ".position", position[m]);
+            }
+        }
+    }
+
+    private static void writeColumn(File directory, PrintWriter schema, String name, Object column)
+            throws IOException {
+        String fileName = name + ".bin";
+        String type;
+        int length;
+        ByteBuffer bytes;
+        if (column instanceof long[]) {
+            long[] values = (long[]) column;
+            type = "int64";
+            length = values.length;
+            bytes = ByteBuffer.allocate(8 * length).order(ByteOrder.LITTLE_ENDIAN);
+            for (long v : values) bytes.putLong(v);
+        } else if (column instanceof double[]) {
+            double[] values = (double[]) column;
+            type = "float64";
+            length = values.length;
+            bytes = ByteBuffer.allocate(8 * length).order(ByteOrder.LITTLE_ENDIAN);
+            for (double v : values) bytes.putDouble(v);
+        } else if (column instanceof float[]) {
+            float[] values = (float[]) column;
+            type = "float32";
+            length = values.length;
+            bytes = ByteBuffer.allocate(4 * length).order(ByteOrder.LITTLE_ENDIAN);
+            for (float v : values) bytes.putFloat(v);
+        } else {
+            int[] values = (int[]) column;
+            type = "int32";
+            length = values.length;
+            bytes = ByteBuffer.allocate(4 * length).order(ByteOrder.LITTLE_ENDIAN);
+            for (int v : values) bytes.putInt(v);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(directory, fileName)))) {
+            out.write(bytes.array());
+        }
+        schema.println(name + "," + fileName + "," + type + "," + length);
+    }
+}
@@ -0,0 +1,271 @@
+package org.firstinspires.ftc.teamcode.recording;
+
+import com.pedropathing.follower.Follower;
+import com.pedropathing.geometry.Pose;
+import com.pedropathing.math.Vector;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.teamcode.hardware.CommandedPowerMotor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is the FlightRecorder class. It writes one fixed-width binary record per control loop to a
+ * preallocated, memory-mapped file: timestamp, follower pose and velocity, current path and T
+ * value, state machine state, battery voltage, and the power and encoder position of every motor
+ * added to it. {@link FlightLog} reads the files back on a PC.
+ *
+ * Recording a loop is a handful of absolute puts into the mapped buffer. Nothing is allocated and
+ * nothing waits on the file system; the kernel writes the pages back in its own time, and because
+ * the record count in the header is updated after every record, a log survives the app being
+ * killed mid-match. Motors are added as {@link CommandedPowerMotor}s and their powers recorded are
+ * what the wrapper was last told, since getPower() on a Lynx motor is a transaction of its own.
+ * Encoder positions come from the bulk cache, so put the hubs in AUTO or MANUAL caching.
+ *
+ * <pre>
+ * FlightRecorder recorder = new FlightRecorder(file, 36000)
+ *         .tag("blueAutoClose")
+ *         .pathNames(Paths.NAMES)
+ *         .addMotor("leftFront", CommandedPowerMotor.install(hardwareMap, "leftFront"))
+ *         .voltageSensor(hardwareMap.voltageSensor.iterator().next())
+ *         .open();
+ * ...
+ * if (recorder.begin(System.nanoTime())) {
+ *     recorder.follower(follower);
+ *     recorder.path(pathIndex, pathState);
+ *     recorder.commit();
+ * }
+ * </pre>
+ */
+public class FlightRecorder {
+    static final int MAGIC = 0x46524543; // "FREC"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4096;
+
+    // Header fields
+    static final int H_MAGIC = 0, H_VERSION = 4, H_HEADER_BYTES = 8, H_RECORD_BYTES = 12,
+            H_CAPACITY = 16, H_MOTORS = 20, H_COUNT = 24, H_START_MILLIS = 32, H_STRINGS = 40;
+
+    // Record fields. Motor powers (float) and then encoder positions (int) follow R_MOTORS.
+    static final int R_NANOS = 0, R_LOOP = 8, R_PATH_STATE = 12, R_X = 16, R_Y = 24,
+            R_HEADING = 32, R_VX = 40, R_VY = 48, R_PATH = 56, R_CHAIN_INDEX = 60, R_T = 64,
+            R_VOLTAGE = 72, R_MOTORS = 80;
+
+    private final File file;
+    private final int capacity;
+    private String tag = "";
+    private String[] pathNames = new String[0];
+    private final List<String> motorNames = new ArrayList<>();
+    private final List<CommandedPowerMotor> motorList = new ArrayList<>();
+    private VoltageSensor voltageSensor;
+
+    private CommandedPowerMotor[] motors;
+    private int recordBytes;
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private int count;
+    private int position = -1;
+    private long dropped;
+    private double voltage = Double.NaN;
+
+    /** Voltage is a separate transaction, so only read it every this many records. */
+    public int voltageEvery = 10;
+
+    /**
+     * @param file     log to create, replacing any file already there
+     * @param capacity records to preallocate room for; once full, further loops are dropped
+     */
+    public FlightRecorder(File file, int capacity) {
+        this.file = file;
+        this.capacity = capacity;
+    }
+
+    /** Free-form name stored in the header, e.g. the OpMode. */
+    public FlightRecorder tag(String tag) {
+        this.tag = tag;
+        return this;
+    }
+
+    /** Names for the path indices passed to {@link #path(int, int)}, stored in the header. */
+    public FlightRecorder pathNames(String... pathNames) {
+        this.pathNames = pathNames.clone();
+        return this;
+    }
+
+    /** Install the wrapper before whatever drives the motor looks it up, or its powers aren't seen. */
+    public FlightRecorder addMotor(String name, CommandedPowerMotor motor) {
+        checkNotOpen();
+        motorNames.add(name);
+        motorList.add(motor);
+        return this;
+    }
+
+    public FlightRecorder voltageSensor(VoltageSensor voltageSensor) {
+        this.voltageSensor = voltageSensor;
+        return this;
+    }
+
+    /** Creates and maps the file and writes the header. */
+    public FlightRecorder open() throws IOException {
+        checkNotOpen();
+        motors = motorList.toArray(new CommandedPowerMotor[0]);
+        recordBytes = recordBytes(motors.length);
+        long size = HEADER_BYTES + (long) recordBytes * capacity;
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            raf.close();
+            raf = null;
+            throw e;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(H_MAGIC, MAGIC);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putInt(H_HEADER_BYTES, HEADER_BYTES);
+        buffer.putInt(H_RECORD_BYTES, recordBytes);
+        buffer.putInt(H_CAPACITY, capacity);
+        buffer.putInt(H_MOTORS, motors.length);
+        buffer.putLong(H_COUNT, 0);
+        buffer.putLong(H_START_MILLIS, System.currentTimeMillis());
+        buffer.position(H_STRINGS);
+        putString(tag);
+        buffer.putInt(pathNames.length);
+        for (String name : pathNames) putString(name);
+        for (String name : motorNames) putString(name);
+        return this;
+    }
+
+    static int recordBytes(int motorCount) {
+        return (R_MOTORS + 8 * motorCount + 7) & ~7;
+    }
+
+    private void putString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (buffer.position() + 2 + bytes.length > HEADER_BYTES) {
+            throw new IOException("Flight log header is too long");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Starts a record. Returns false, and the setters below do nothing, if the recorder isn't
+     * open or the file is full.
+     */
+    public boolean begin(long nanos) {
+        if (buffer == null || count >= capacity) {
+            position = -1;
+            if (buffer != null) dropped++;
+            return false;
+        }
+        position = HEADER_BYTES + count * recordBytes;
+        buffer.putLong(position + R_NANOS, nanos);
+        buffer.putInt(position + R_LOOP, count);
+        buffer.putInt(position + R_PATH_STATE, -1);
+        buffer.putInt(position + R_PATH, -1);
+        return true;
+    }
+
+    public void pose(double x, double y, double heading) {
+        if (position < 0) return;
+        buffer.putDouble(position + R_X, x);
+        buffer.putDouble(position + R_Y, y);
+        buffer.putDouble(position + R_HEADING, heading);
+    }
+
+    public void velocity(double vx, double vy) {
+        if (position < 0) return;
+        buffer.putDouble(position + R_VX, vx);
+        buffer.putDouble(position + R_VY, vy);
+    }
+
+    /** Index into the path names (-1 for none) and the OpMode's state machine state. */
+    public void path(int pathIndex, int pathState) {
+        if (position < 0) return;
+        buffer.putInt(position + R_PATH, pathIndex);
+        buffer.putInt(position + R_PATH_STATE, pathState);
+    }
+
+    /** Pose, velocity, and the index and T value of the segment the follower is on. */
+    public void follower(Follower follower) {
+        if (position < 0) return;
+        Pose pose = follower.getPose();
+        pose(pose.getX(), pose.getY(), pose.getHeading());
+        Vector velocity = follower.getVelocity();
+        velocity(velocity.getXComponent(), velocity.getYComponent());
+        buffer.putInt(position + R_CHAIN_INDEX, follower.getChainIndex());
+        buffer.putDouble(position + R_T, follower.getCurrentTValue());
+    }
+
+    /** Reads the motors (and every voltageEvery records the battery) and publishes the record. */
+    public void commit() {
+        if (position < 0) return;
+        int powers = position + R_MOTORS;
+        int encoders = powers + 4 * motors.length;
+        for (int i = 0; i < motors.length; i++) {
+            buffer.putFloat(powers + 4 * i, (float) motors[i].getCommandedPower());
+            buffer.putInt(encoders + 4 * i, motors[i].getCurrentPosition());
+        }
+        if (voltageSensor != null && count % Math.max(1, voltageEvery) == 0) {
+            voltage = voltageSensor.getVoltage();
+        }
+        buffer.putDouble(position + R_VOLTAGE, voltage);
+
+        count++;
+        buffer.putLong(H_COUNT, count);
+        position = -1;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Loops that were not recorded because the file was full. */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Flushes the mapped pages to storage and closes the file. */
+    public void close() {
+        if (buffer == null) return;
+        try {
+            buffer.force();
+            raf.close();
+        } catch (IOException e) {
+            RobotLog.ee("FlightRecorder", e, "Could not close %s", file);
+        }
+        RobotLog.ii("FlightRecorder", "%s: %d records, %d dropped", file, count, dropped);
+        buffer = null;
+        raf = null;
+    }
+
+    private void checkNotOpen() {
+        if (buffer != null) throw new IllegalStateException("FlightRecorder is already open");
+    }
+}
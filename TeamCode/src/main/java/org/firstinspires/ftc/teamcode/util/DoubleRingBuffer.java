@@ -0,0 +1,224 @@
+package org.firstinspires.ftc.teamcode.util;
+
+import java.util.Arrays;
+
+/**
+ * This is the DoubleRingBuffer class. It keeps the most recent samples of a signal in a fixed,
+ * preallocated array of primitive doubles and maintains their statistics as samples come and go,
+ * so a tuning loop can add a sample every cycle without allocating or boxing.
+ *
+ * Mean, variance, min and max of the window are O(1) per sample (min and max are amortized, using
+ * monotonic queues). The EWMA runs over every sample ever added, not just the window. Median, MAD
+ * and the robust mean sort a copy of the window in a preallocated scratch array, so they are
+ * O(n log n) and meant to be read once at the end of a run or at telemetry rate, not every sample.
+ */
+public class DoubleRingBuffer {
+    /** Scales a MAD to the standard deviation it would be for normally distributed samples. */
+    public static final double MAD_TO_SIGMA = 1.4826;
+
+    private final double[] samples;
+    private final double[] scratch;
+    /** Absolute sample numbers of the min and max candidates, oldest first. */
+    private final long[] minQueue, maxQueue;
+    private int minHead, minSize, maxHead, maxSize;
+
+    private long added;
+    private int size;
+    private double mean, m2;
+
+    private double ewmaAlpha = 0.1;
+    private double ewma = Double.NaN;
+
+    public DoubleRingBuffer(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        samples = new double[capacity];
+        scratch = new double[capacity];
+        minQueue = new long[capacity];
+        maxQueue = new long[capacity];
+    }
+
+    /** Sets the EWMA weight of each new sample, from 0 (ignore new samples) to 1 (no smoothing). */
+    public DoubleRingBuffer setEwmaAlpha(double alpha) {
+        this.ewmaAlpha = Math.max(0, Math.min(1, alpha));
+        return this;
+    }
+
+    /** Adds a sample, dropping the oldest one if the buffer is full. */
+    public void add(double value) {
+        int capacity = samples.length;
+        int slot = (int) (added % capacity);
+        if (size == capacity) {
+            // Sliding-window Welford: replace the oldest sample in place.
+            double old = samples[slot];
+            double oldMean = mean;
+            mean += (value - old) / size;
+            m2 += (value - old) * (value - mean + old - oldMean);
+            if (m2 < 0) m2 = 0;
+        } else {
+            size++;
+            double delta = value - mean;
+            mean += delta / size;
+            m2 += delta * (value - mean);
+        }
+        samples[slot] = value;
+
+        long oldest = added - size + 1;
+        if (minSize > 0 && minQueue[minHead] < oldest) {
+            minHead = (minHead + 1) % capacity;
+            minSize--;
+        }
+        while (minSize > 0 && samples[slotOf(minQueue[(minHead + minSize - 1) % capacity])] >= value) {
+            minSize--;
+        }
+        minQueue[(minHead + minSize++) % capacity] = added;
+
+        if (maxSize > 0 && maxQueue[maxHead] < oldest) {
+            maxHead = (maxHead + 1) % capacity;
+            maxSize--;
+        }
+        while (maxSize > 0 && samples[slotOf(maxQueue[(maxHead + maxSize - 1) % capacity])] <= value) {
+            maxSize--;
+        }
+        maxQueue[(maxHead + maxSize++) % capacity] = added;
+
+        ewma = Double.isNaN(ewma) ? value : ewma + ewmaAlpha * (value - ewma);
+        added++;
+    }
+
+    /** Empties the buffer and the EWMA without reallocating. */
+    public void clear() {
+        added = 0;
+        size = 0;
+        mean = 0;
+        m2 = 0;
+        minHead = minSize = maxHead = maxSize = 0;
+        ewma = Double.NaN;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+
+    public boolean isFull() {
+        return size == samples.length;
+    }
+
+    /** Total samples added since the last clear, including ones that have since been dropped. */
+    public long getTotalAdded() {
+        return added;
+    }
+
+    /** Returns the i-th sample in the window, 0 being the oldest. */
+    public double get(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        return samples[slotOf(added - size + i)];
+    }
+
+    /** Returns the most recent sample, or NaN if empty. */
+    public double getLast() {
+        return size == 0 ? Double.NaN : samples[slotOf(added - 1)];
+    }
+
+    public double getMean() {
+        return size == 0 ? Double.NaN : mean;
+    }
+
+    /** Sample variance of the window (n - 1 denominator); zero with fewer than two samples. */
+    public double getVariance() {
+        return size < 2 ? 0 : m2 / (size - 1);
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getMin() {
+        return size == 0 ? Double.NaN : samples[slotOf(minQueue[minHead])];
+    }
+
+    public double getMax() {
+        return size == 0 ? Double.NaN : samples[slotOf(maxQueue[maxHead])];
+    }
+
+    /** Exponentially weighted moving average of every sample since the last clear, NaN if none. */
+    public double getEwma() {
+        return ewma;
+    }
+
+    public double getMedian() {
+        if (size == 0) return Double.NaN;
+        sortWindowIntoScratch();
+        return medianOfScratch(size);
+    }
+
+    /** Median absolute deviation from the median. */
+    public double getMad() {
+        if (size == 0) return Double.NaN;
+        sortWindowIntoScratch();
+        double median = medianOfScratch(size);
+        for (int i = 0; i < size; i++) scratch[i] = Math.abs(scratch[i] - median);
+        Arrays.sort(scratch, 0, size);
+        return medianOfScratch(size);
+    }
+
+    /**
+     * Returns whether the value is more than k robust standard deviations (MAD x 1.4826) from the
+     * window's median. With a zero MAD, anything different from the median is an outlier.
+     */
+    public boolean isOutlier(double value, double k) {
+        if (size == 0) return false;
+        double median = getMedian();
+        double sigma = getMad() * MAD_TO_SIGMA;
+        return Math.abs(value - median) > k * sigma;
+    }
+
+    /**
+     * Mean of the samples within k robust standard deviations of the median, so a few wild readings
+     * (a wheel slipping, an odometry glitch) don't drag the result. Falls back to the median if
+     * everything is rejected.
+     */
+    public double getRobustMean(double k) {
+        if (size == 0) return Double.NaN;
+        double median = getMedian();
+        double limit = k * getMad() * MAD_TO_SIGMA;
+        double sum = 0;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            double value = samples[slotOf(added - size + i)];
+            if (Math.abs(value - median) <= limit) {
+                sum += value;
+                kept++;
+            }
+        }
+        return kept == 0 ? median : sum / kept;
+    }
+
+    /** How many samples in the window {@link #getRobustMean(double)} would reject. */
+    public int countOutliers(double k) {
+        if (size == 0) return 0;
+        double median = getMedian();
+        double limit = k * getMad() * MAD_TO_SIGMA;
+        int rejected = 0;
+        for (int i = 0; i < size; i++) {
+            if (Math.abs(samples[slotOf(added - size + i)] - median) > limit) rejected++;
+        }
+        return rejected;
+    }
+
+    private int slotOf(long sampleNumber) {
+        return (int) (sampleNumber % samples.length);
+    }
+
+    private void sortWindowIntoScratch() {
+        for (int i = 0; i < size; i++) scratch[i] = samples[slotOf(added - size + i)];
+        Arrays.sort(scratch, 0, size);
+    }
+
+    private double medianOfScratch(int n) {
+        return n % 2 == 1 ? scratch[n / 2] : 0.5 * (scratch[n / 2 - 1] + scratch[n / 2]);
+    }
+}
@@ -0,0 +1,94 @@
+package org.firstinspires.ftc.teamcode.util;
+
+/**
+ * This is the LatencyHistogram class. It records durations in nanoseconds into a fixed set of
+ * log-scale buckets so percentiles can be read back without storing samples or allocating.
+ *
+ * Each power of two is split into 8 linear sub-buckets, so a reported percentile is never more
+ * than 12.5% away from the true value. The first 8 buckets hold 0 to 7 ns, one each, and the
+ * other 39 rows of 8 are the octaves from 8 ns up to 2^42 ns (about 73 minutes); anything longer
+ * lands in the last bucket. The exact maximum, mean and count are kept separately.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int OCTAVES = 40; // Rows of 8 buckets: 0-7 ns, then 2^3 up to 2^42 ns
+    private static final int BUCKETS = OCTAVES * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[bucketOf(nanos)]++;
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts[i] = 0;
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public double getMeanNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Returns the upper edge of the bucket holding the given percentile (0 to 100), capped at the
+     * recorded maximum. Zero if nothing has been recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperEdge(i), maxNanos);
+        }
+        return maxNanos;
+    }
+
+    public double getPercentileMillis(double percentile) {
+        return getPercentileNanos(percentile) / 1e6;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    public double getMeanMillis() {
+        return getMeanNanos() / 1e6;
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int octave = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (octave - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        int bucket = (octave - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /** Largest duration that falls in the given bucket. */
+    static long upperEdge(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int octave = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long width = 1L << (octave - SUB_BUCKET_BITS);
+        return (1L << octave) + (sub + 1) * width - 1;
+    }
+}
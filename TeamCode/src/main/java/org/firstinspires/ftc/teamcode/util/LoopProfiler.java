@@ -0,0 +1,141 @@
+package org.firstinspires.ftc.teamcode.util;
+
+import com.bylazar.telemetry.TelemetryManager;
+import com.qualcomm.robotcore.util.RobotLog;
+
+import java.util.Locale;
+
+/**
+ * This is the LoopProfiler class. It times the named phases of an OpMode loop and keeps a
+ * {@link LatencyHistogram} for each, plus one for the whole loop period, so we can see which phase
+ * blows the loop budget.
+ *
+ * Phases are fixed when the profiler is built, and timing a loop only reads System.nanoTime() and
+ * bumps a counter, so it is safe to leave in competition code:
+ *
+ * <pre>
+ * profiler.startLoop();
+ * follower.update();
+ * profiler.lap(FOLLOWER);
+ * pathState = autonomousPathUpdate();
+ * profiler.lap(STATE_MACHINE);
+ * </pre>
+ *
+ * {@link #publish(TelemetryManager)} sends p50/p95/p99/max to Panels every loop, recomputing them
+ * at most every publishIntervalMillis, and {@link #dump()} writes the full table to the robot log
+ * at stop.
+ */
+public class LoopProfiler {
+    private final String tag;
+    private final String[] names;
+    private final LatencyHistogram[] phases;
+    private final LatencyHistogram loop = new LatencyHistogram();
+    private final String[] labels;
+    private final String[] lines;
+
+    private long loopStart;
+    private long lapStart;
+    private long lastPublish;
+
+    public long publishIntervalMillis = 500;
+
+    /** Builds a profiler for the given phases. Phase ids are their index in this list. */
+    public LoopProfiler(String tag, String... phaseNames) {
+        this.tag = tag;
+        names = phaseNames.clone();
+        phases = new LatencyHistogram[names.length];
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+        labels = new String[names.length + 1];
+        lines = new String[names.length + 1];
+        labels[0] = "Loop (ms)";
+        for (int i = 0; i < names.length; i++) {
+            labels[i + 1] = names[i] + " (ms)";
+        }
+    }
+
+    /** Marks the top of the loop. The time since the previous call is recorded as the loop period. */
+    public void startLoop() {
+        long now = System.nanoTime();
+        if (loopStart != 0) loop.record(now - loopStart);
+        loopStart = now;
+        lapStart = now;
+    }
+
+    /** Records the time since the previous lap (or startLoop) against the given phase. */
+    public void lap(int phase) {
+        long now = System.nanoTime();
+        phases[phase].record(now - lapStart);
+        lapStart = now;
+    }
+
+    /** Restarts the lap timer without recording, to leave code out of every phase. */
+    public void skip() {
+        lapStart = System.nanoTime();
+    }
+
+    public LatencyHistogram getPhase(int phase) {
+        return phases[phase];
+    }
+
+    public LatencyHistogram getLoop() {
+        return loop;
+    }
+
+    public void reset() {
+        for (LatencyHistogram phase : phases) phase.reset();
+        loop.reset();
+        loopStart = 0;
+    }
+
+    /**
+     * Adds one line per phase to Panels. Panels clears its lines on every update, so call this
+     * every loop; only the percentiles are recomputed no more than every publishIntervalMillis.
+     */
+    public void publish(TelemetryManager telemetry) {
+        long now = System.nanoTime();
+        if (lines[0] == null || now - lastPublish >= publishIntervalMillis * 1_000_000L) {
+            lastPublish = now;
+            lines[0] = summary(loop);
+            for (int i = 0; i < phases.length; i++) {
+                lines[i + 1] = summary(phases[i]);
+            }
+        }
+        for (int i = 0; i < lines.length; i++) {
+            telemetry.debug(labels[i], lines[i]);
+        }
+    }
+
+    /** Writes the full table to the robot log. */
+    public void dump() {
+        for (String line : table().split("\n")) {
+            RobotLog.ii(tag, line);
+        }
+    }
+
+    /** Returns a table of count, mean, p50, p95, p99 and max in milliseconds for every phase. */
+    public String table() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%-16s %8s %8s %8s %8s %8s %8s%n",
+                "phase", "count", "mean", "p50", "p95", "p99", "max"));
+        row(builder, "loop", loop);
+        for (int i = 0; i < phases.length; i++) {
+            row(builder, names[i], phases[i]);
+        }
+        return builder.toString();
+    }
+
+    private static void row(StringBuilder builder, String name, LatencyHistogram histogram) {
+        builder.append(String.format(Locale.US, "%-16s %8d %8.2f %8.2f %8.2f %8.2f %8.2f%n",
+                name, histogram.getCount(), histogram.getMeanMillis(),
+                histogram.getPercentileMillis(50), histogram.getPercentileMillis(95),
+                histogram.getPercentileMillis(99), histogram.getMaxMillis()));
+    }
+
+    private static String summary(LatencyHistogram histogram) {
+        return String.format(Locale.US, "p50 %.2f  p95 %.2f  p99 %.2f  max %.2f",
+                histogram.getPercentileMillis(50), histogram.getPercentileMillis(95),
+                histogram.getPercentileMillis(99), histogram.getMaxMillis());
+    }
+}
@@ -0,0 +1,242 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import com.qualcomm.hardware.limelightvision.LLResult;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+
+import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.Pose3D;
+import org.firstinspires.ftc.robotcore.external.navigation.Position;
+import org.firstinspires.ftc.robotcore.external.navigation.YawPitchRollAngles;
+import org.firstinspires.ftc.teamcode.localization.FusedLocalizer;
+import org.firstinspires.ftc.vision.VisionPortal;
+import org.firstinspires.ftc.vision.VisionProcessor;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagGameDatabase;
+import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
+
+import java.util.List;
+
+/**
+ * This is the AprilTagFusion class. It feeds the robot poses that the AprilTag processor (set up
+ * as in ConceptAprilTagLocalization) or a Limelight compute from field tags into a
+ * {@link FusedLocalizer}, stamped with when the frame was captured and with an uncertainty that
+ * grows with distance to the tag.
+ *
+ * Both report poses in the FTC field frame (origin at the field center, inches or meters); they
+ * are converted here to Pedro's frame (origin in a corner, 0 to 144 in). With a
+ * {@link RoiAprilTagProcessor} the fused pose is also fed back to predict where tags will appear.
+ *
+ * When the lens intrinsics are known (an ROI processor reads them from the camera calibration;
+ * otherwise set them on {@link #getMultiTagSolver()}), all field tags in a frame are solved
+ * together by a {@link MultiTagPoseSolver} and sent as one pose with its full covariance. The
+ * per-tag poses and the range-based sigmas above are the fallback.
+ */
+public class AprilTagFusion {
+    /** Where the camera is on the robot, as in ConceptAprilTagLocalization. */
+    public static Position CAMERA_POSITION = new Position(DistanceUnit.INCH, 0, 0, 0, 0);
+    public static YawPitchRollAngles CAMERA_ORIENTATION = new YawPitchRollAngles(AngleUnit.DEGREES, 0, -90, 0, 0);
+
+    /** Position uncertainty (1 sigma) of a tag pose: a floor plus a part per inch of range. */
+    public double sigmaXY = 0.5, sigmaXYPerInch = 0.02;
+    /** Heading uncertainty (1 sigma), radians, likewise. */
+    public double sigmaHeading = Math.toRadians(2), sigmaHeadingPerInch = Math.toRadians(0.05);
+    /** Detections with a lower decision margin are ignored. */
+    public double minDecisionMargin = 20;
+    /** Solve all tags in a frame together when the lens intrinsics are known. */
+    public boolean multiTag = true;
+
+    private final AprilTagProcessor aprilTag;
+    private final RoiAprilTagProcessor roi;
+    private final MultiTagPoseSolver solver = new MultiTagPoseSolver(CAMERA_POSITION, CAMERA_ORIENTATION);
+    private final MultiTagPoseSolver.Result solved = new MultiTagPoseSolver.Result();
+    private final double[] intrinsics = new double[4];
+    private VisionPortal visionPortal;
+    private VisionScheduler.Task task;
+    private MotionGate gate;
+    private int measurements;
+
+    public AprilTagFusion(AprilTagProcessor aprilTag) {
+        this.aprilTag = aprilTag;
+        roi = aprilTag instanceof RoiAprilTagProcessor ? (RoiAprilTagProcessor) aprilTag : null;
+    }
+
+    /**
+     * Builds the AprilTag processor with the camera pose above and a portal on the webcam, in the
+     * stream mode {@link StreamBenchmark} found best for it if it has been benchmarked. With roi
+     * set it is a {@link RoiAprilTagProcessor} on the current game's tags.
+     */
+    public static AprilTagFusion create(HardwareMap hardwareMap, String webcamName, boolean roi) {
+        return create(hardwareMap, webcamName, roi, null);
+    }
+
+    /**
+     * As above, with the processor run as a "tags" task of the scheduler, if there is one; give it
+     * a rate in the scheduler's phases with {@link #getSchedulerTask()}.
+     */
+    public static AprilTagFusion create(HardwareMap hardwareMap, String webcamName, boolean roi,
+                                        VisionScheduler scheduler) {
+        return create(hardwareMap, webcamName, roi, scheduler, false);
+    }
+
+    /**
+     * As above, with a {@link MotionGate} in front of the processor if motionGate is set, fed the
+     * fused pose's turn rate by {@link #update}.
+     */
+    public static AprilTagFusion create(HardwareMap hardwareMap, String webcamName, boolean roi,
+                                        VisionScheduler scheduler, boolean motionGate) {
+        AprilTagProcessor aprilTag = newProcessor(roi);
+        AprilTagFusion fusion = new AprilTagFusion(aprilTag);
+        VisionProcessor processor = aprilTag;
+        if (motionGate) processor = fusion.gate = new MotionGate(aprilTag);
+        if (scheduler != null) processor = fusion.task = scheduler.task("tags", processor);
+        VisionPortal.Builder builder = new VisionPortal.Builder()
+                .setCamera(hardwareMap.get(WebcamName.class, webcamName))
+                .addProcessor(processor);
+        fusion.visionPortal = StreamBenchmark.applyBest(builder, hardwareMap, webcamName).build();
+        if (scheduler != null) scheduler.attach(fusion.visionPortal, fusion.task);
+        return fusion;
+    }
+
+    /** The processor create() builds, on its own; StreamBenchmark measures the same one. */
+    public static AprilTagProcessor newProcessor(boolean roi) {
+        return roi
+                ? new RoiAprilTagProcessor(AprilTagGameDatabase.getCurrentGameTagLibrary(), CAMERA_POSITION, CAMERA_ORIENTATION)
+                : new AprilTagProcessor.Builder().setCameraPose(CAMERA_POSITION, CAMERA_ORIENTATION).build();
+    }
+
+    public AprilTagProcessor getProcessor() {
+        return aprilTag;
+    }
+
+    /** Sends every new tag pose to the localizer. Call once per loop; returns how many were sent. */
+    public int update(FusedLocalizer localizer) {
+        if (roi != null) {
+            roi.setRobotPose(localizer.getPoseHistory());
+            if (!solver.isCalibrated() && roi.getLensIntrinsics(intrinsics)) {
+                solver.setLensIntrinsics(intrinsics[0], intrinsics[1], intrinsics[2], intrinsics[3]);
+            }
+        }
+        if (gate != null) gate.setRobotPose(localizer.getPoseHistory());
+        List<AprilTagDetection> detections = aprilTag.getFreshDetections();
+        if (detections == null) return 0;
+        if (multiTag && solver.solve(detections, solved)) {
+            // FTC to Pedro turns the field a quarter turn: (x, y) -> (y, -x), heading unchanged.
+            double[] c = solved.covariance;
+            localizer.addPoseMeasurement(solved.nanos, toPedroX(solved.x, solved.y), toPedroY(solved.x, solved.y),
+                    toPedroHeading(solved.yaw + Math.PI / 2),
+                    c[4], -c[3], c[5],
+                    -c[1], c[0], -c[2],
+                    c[7], -c[6], c[8]);
+            measurements++;
+            return 1;
+        }
+        int sent = 0;
+        for (AprilTagDetection detection : detections) {
+            // robotPose is only solved for tags in the library with a known field position.
+            if (detection.metadata == null || detection.robotPose == null) continue;
+            if (detection.decisionMargin < minDecisionMargin) continue;
+            Position position = detection.robotPose.getPosition().toUnit(DistanceUnit.INCH);
+            // The SDK's robot frame has y forward, so yaw 0 faces FTC +y.
+            double yaw = detection.robotPose.getOrientation().getYaw(AngleUnit.RADIANS) + Math.PI / 2;
+            double range = detection.ftcPose != null ? detection.ftcPose.range : 0;
+            localizer.addPoseMeasurement(detection.frameAcquisitionNanoTime,
+                    toPedroX(position.x, position.y), toPedroY(position.x, position.y), toPedroHeading(yaw),
+                    sigmaXY + sigmaXYPerInch * range, sigmaHeading + sigmaHeadingPerInch * range);
+            sent++;
+        }
+        measurements += sent;
+        return sent;
+    }
+
+    /**
+     * Sends a Limelight MegaTag botpose to the localizer, using the Limelight's own standard
+     * deviations when it reports them. The capture time is when the result reached the hub, less
+     * the Limelight's capture and processing latency. Returns whether it was sent.
+     */
+    public boolean addLimelight(LLResult result, FusedLocalizer localizer) {
+        if (result == null || !result.isValid() || result.getBotposeTagCount() == 0) return false;
+        Pose3D botpose = result.getBotpose();
+        if (botpose == null) return false;
+        Position position = botpose.getPosition().toUnit(DistanceUnit.INCH);
+        double yaw = botpose.getOrientation().getYaw(AngleUnit.RADIANS); // Limelight: x forward
+        long latencyNanos = (long) ((result.getCaptureLatency() + result.getTargetingLatency()) * 1e6);
+        long captureNanos = result.getControlHubTimeStampNanos() - latencyNanos;
+
+        double range = DistanceUnit.METER.toInches(result.getBotposeAvgDist());
+        double sXY = sigmaXY + sigmaXYPerInch * range, sH = sigmaHeading + sigmaHeadingPerInch * range;
+        double[] stddev = result.getStddevMt1();
+        if (stddev != null && stddev.length >= 6 && stddev[0] > 0) {
+            sXY = DistanceUnit.METER.toInches(Math.max(stddev[0], stddev[1]));
+            sH = Math.toRadians(stddev[5]);
+        }
+        localizer.addPoseMeasurement(captureNanos, toPedroX(position.x, position.y),
+                toPedroY(position.x, position.y), toPedroHeading(yaw), sXY, sH);
+        measurements++;
+        return true;
+    }
+
+    /** Tag poses sent so far. */
+    public int getMeasurementCount() {
+        return measurements;
+    }
+
+    public MultiTagPoseSolver getMultiTagSolver() {
+        return solver;
+    }
+
+    /** The last multi-tag solve; its tags count and rmsError show how well the frame fit. */
+    public MultiTagPoseSolver.Result getLastMultiTagResult() {
+        return solved;
+    }
+
+    /** The portal the processor runs on, for camera controls; null if this fusion didn't build it. */
+    public VisionPortal getVisionPortal() {
+        return visionPortal;
+    }
+
+    /** The scheduler task running the processor, or null if it isn't scheduled. */
+    public VisionScheduler.Task getSchedulerTask() {
+        return task;
+    }
+
+    /** The motion gate in front of the processor, or null if there isn't one. */
+    public MotionGate getMotionGate() {
+        return gate;
+    }
+
+    /** The ROI processor, or null if this fusion runs the plain one. */
+    public RoiAprilTagProcessor getRoiProcessor() {
+        return roi;
+    }
+
+    public void close() {
+        if (visionPortal != null) {
+            visionPortal.close();
+        }
+    }
+
+    // FTC field frame to Pedro's: Pedro x runs along FTC y, Pedro y against FTC x, both shifted so
+    // the field spans 0 to 144 (the blue goal tag, FTC (-58, -56), lands at Pedro (16, 130)).
+    // Headings are the direction the robot faces, from the frame's +x axis.
+    public static double toPedroX(double ftcX, double ftcY) {
+        return ftcY + 72;
+    }
+
+    public static double toPedroY(double ftcX, double ftcY) {
+        return 72 - ftcX;
+    }
+
+    public static double toPedroHeading(double ftcHeading) {
+        return ftcHeading - Math.PI / 2;
+    }
+
+    public static double toFtcX(double pedroX, double pedroY) {
+        return 72 - pedroY;
+    }
+
+    public static double toFtcY(double pedroX, double pedroY) {
+        return pedroX - 72;
+    }
+}
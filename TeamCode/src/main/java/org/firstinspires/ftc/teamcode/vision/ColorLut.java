@@ -0,0 +1,392 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import com.qualcomm.robotcore.hardware.NormalizedRGBA;
+
+import org.firstinspires.ftc.vision.opencv.ColorRange;
+import org.firstinspires.ftc.vision.opencv.ColorSpace;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This is the ColorLut class. It classifies a color with a single table lookup: RGB is quantized
+ * to {@code bits} bits per channel (5 by default, a 32 KB table) and the cell holds the class, 0
+ * being {@link #NONE}. It replaces the per-pixel ColorRange comparisons of ColorBlobLocatorProcessor
+ * and ConceptVisionColorSensor, and unlike a box in one color space a cell can hold any shape of
+ * region, so it can be trained on real pixels.
+ *
+ * A {@link Builder} fills the table from ColorRanges (each cell's center color converted to the
+ * range's color space exactly as OpenCV would), from labeled samples such as pixels painted over
+ * in captured frames (sim.ColorLutBuild does this from UtilityCameraFrameCapture PNGs), or both;
+ * samples overrule ranges in the cells they reach. The table is saved to a small file and loaded
+ * on the robot.
+ *
+ * The table is never changed after it is built, so one instance can be shared by processors on
+ * different threads.
+ * <pre>
+ * ColorLut lut = new ColorLut.Builder()
+ *         .addRange("purple", ColorRange.ARTIFACT_PURPLE)
+ *         .addRange("green", ColorRange.ARTIFACT_GREEN)
+ *         .build();
+ * int purple = lut.getClassId("purple");
+ * lut.mask(frame, purple, mask);                 // In a processor, instead of cvtColor + inRange
+ * lut.classify(colorSensor.getNormalizedColors()); // From a color sensor
+ * </pre>
+ */
+public class ColorLut {
+    public static final int NONE = 0;
+    static final int MAGIC = 0x434c5554; // "CLUT"
+    static final int VERSION = 1;
+
+    private final int bits;
+    private final int shift;
+    private final byte[] table;
+    private final String[] names;
+
+    private static final ThreadLocal<byte[][]> SCRATCH = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[2][0];
+        }
+    };
+
+    ColorLut(int bits, byte[] table, String[] names) {
+        this.bits = bits;
+        this.shift = 8 - bits;
+        this.table = table;
+        this.names = names;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    /** Class names by ID; index 0 is "none". */
+    public String[] getClassNames() {
+        return names.clone();
+    }
+
+    /** The ID of a class by name, or -1. */
+    public int getClassId(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /** Class of an 8-bit RGB color. */
+    public int classify(int r, int g, int b) {
+        return table[((r & 0xff) >> shift << (2 * bits)) | ((g & 0xff) >> shift << bits) | ((b & 0xff) >> shift)] & 0xff;
+    }
+
+    /**
+     * Class of a color sensor reading. Channels are scaled to 0-255 as they are, so build the
+     * table from readings taken with the same gain.
+     */
+    public int classify(NormalizedRGBA color) {
+        return classify(toByte(color.red), toByte(color.green), toByte(color.blue));
+    }
+
+    private static int toByte(float channel) {
+        return Math.max(0, Math.min(255, Math.round(channel * 255)));
+    }
+
+    /** Classes of every pixel of an RGBA (or RGB) frame, into a CV_8UC1 Mat of class IDs. */
+    public void classify(Mat rgba, Mat classes) {
+        lookup(rgba, classes, -1);
+    }
+
+    /**
+     * A CV_8UC1 mask, 255 where an RGBA (or RGB) frame's pixels are of the class, 0 elsewhere: what
+     * Core.inRange gives ColorBlobLocatorProcessor.
+     */
+    public void mask(Mat rgba, int classId, Mat mask) {
+        lookup(rgba, mask, classId);
+    }
+
+    private void lookup(Mat rgba, Mat out, int classId) {
+        int rows = rgba.rows(), cols = rgba.cols(), channels = rgba.channels();
+        int pixels = rows * cols;
+        byte[][] scratch = SCRATCH.get();
+        if (scratch[0].length < pixels * channels) scratch[0] = new byte[pixels * channels];
+        if (scratch[1].length < pixels) scratch[1] = new byte[pixels];
+        byte[] in = scratch[0], result = scratch[1];
+        rgba.get(0, 0, in);
+        int b2 = 2 * bits;
+        for (int p = 0, i = 0; p < pixels; p++, i += channels) {
+            int cell = ((in[i] & 0xff) >> shift << b2) | ((in[i + 1] & 0xff) >> shift << bits) | ((in[i + 2] & 0xff) >> shift);
+            int c = table[cell] & 0xff;
+            result[p] = (byte) (classId < 0 ? c : c == classId ? 255 : 0);
+        }
+        out.create(rows, cols, CvType.CV_8UC1);
+        out.put(0, 0, result);
+    }
+
+    /** Fraction of the table's cells given to each class. */
+    public double[] getCoverage() {
+        double[] coverage = new double[names.length];
+        for (byte c : table) coverage[c & 0xff]++;
+        for (int i = 0; i < coverage.length; i++) coverage[i] /= table.length;
+        return coverage;
+    }
+
+    public void save(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(bits);
+            out.writeInt(names.length);
+            for (String name : names) out.writeUTF(name);
+            out.write(table);
+        }
+    }
+
+    public static ColorLut load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not a color table");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported color table version " + version);
+            int bits = in.readInt();
+            if (bits < 1 || bits > 8) throw new IOException("Bad bits " + bits);
+            String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++) names[i] = in.readUTF();
+            byte[] table = new byte[1 << (3 * bits)];
+            in.readFully(table);
+            for (byte c : table) {
+                if ((c & 0xff) >= names.length) throw new IOException("Bad class " + (c & 0xff));
+            }
+            return new ColorLut(bits, table, names);
+        }
+    }
+
+    // OpenCV's 8-bit conversions (cvtColor RGB2YCrCb and RGB2HSV), for matching ColorRanges. These
+    // follow its fixed-point arithmetic, not the float formulas, so every value lands where OpenCV
+    // puts it, including hue wrapping to 0 rather than rounding up to 180.
+    private static final int YUV_SHIFT = 14, HSV_SHIFT = 12;
+    private static final int[] SATURATION_DIV = new int[256], HUE_DIV = new int[256];
+    static {
+        for (int i = 1; i < 256; i++) {
+            SATURATION_DIV[i] = (int) Math.round((255 << HSV_SHIFT) / (double) i);
+            HUE_DIV[i] = (int) Math.round((180 << HSV_SHIFT) / (6.0 * i));
+        }
+    }
+
+    static void toYCrCb(int r, int g, int b, int[] out) {
+        int y = descale(4899 * r + 9617 * g + 1868 * b, YUV_SHIFT);
+        out[0] = y;
+        out[1] = clampByte(descale((r - y) * 11682 + (128 << YUV_SHIFT), YUV_SHIFT));
+        out[2] = clampByte(descale((b - y) * 9241 + (128 << YUV_SHIFT), YUV_SHIFT));
+    }
+
+    static void toHsv(int r, int g, int b, int[] out) {
+        int v = Math.max(r, Math.max(g, b));
+        int delta = v - Math.min(r, Math.min(g, b));
+        int h;
+        if (v == r) h = g - b;
+        else if (v == g) h = b - r + 2 * delta;
+        else h = r - g + 4 * delta;
+        h = descale(h * HUE_DIV[delta], HSV_SHIFT);
+        if (h < 0) h += 180;
+        out[0] = h;
+        out[1] = descale(delta * SATURATION_DIV[v], HSV_SHIFT);
+        out[2] = v;
+    }
+
+    /** OpenCV's CV_DESCALE: x / 2^shift, rounded half up. */
+    private static int descale(int x, int shift) {
+        return (x + (1 << (shift - 1))) >> shift;
+    }
+
+    private static int clampByte(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * This is the Builder class. It assigns table cells to classes from ranges and samples. Later
+     * ranges win where they overlap earlier ones; cells with samples take the class most of their
+     * samples have, as long as there are minSamples of them, and cells without samples within
+     * fillRadius cells of sampled ones take the vote of those neighbors.
+     */
+    public static class Builder {
+        private int bits = 5;
+        private int minSamples = 1;
+        private int fillRadius = 1;
+        private final List<String> names = new ArrayList<>();
+        private final List<int[]> ranges = new ArrayList<>(); // class, space, min[3], max[3]
+        private int[][] counts; // [class][cell], allocated with the first sample
+
+        public Builder() {
+            names.add("none");
+        }
+
+        /** Bits kept per channel, 1 to 8; 5 makes a 32 KB table. Set before adding samples. */
+        public Builder setBits(int bits) {
+            if (bits < 1 || bits > 8) throw new IllegalArgumentException("bits must be 1 to 8");
+            if (counts != null) throw new IllegalStateException("Set bits before adding samples");
+            this.bits = bits;
+            return this;
+        }
+
+        public Builder setMinSamples(int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /** How far, in cells, samples spread into cells with none; 0 to not spread. */
+        public Builder setFillRadius(int fillRadius) {
+            this.fillRadius = fillRadius;
+            return this;
+        }
+
+        /** The ID of a class, adding it if it is new. "none" is {@link #NONE}. */
+        public int addClass(String name) {
+            int index = names.indexOf(name);
+            if (index >= 0) return index;
+            if (names.size() == 255) throw new IllegalStateException("Too many classes");
+            names.add(name);
+            return names.size() - 1;
+        }
+
+        public Builder addRange(String name, ColorRange range) {
+            return addRange(name, ColorRanges.colorSpace(range), ColorRanges.min(range), ColorRanges.max(range));
+        }
+
+        public Builder addRange(String name, ColorSpace space, Scalar min, Scalar max) {
+            ranges.add(new int[] {addClass(name), space.ordinal(),
+                    (int) min.val[0], (int) min.val[1], (int) min.val[2],
+                    (int) max.val[0], (int) max.val[1], (int) max.val[2]});
+            return this;
+        }
+
+        /** One labeled sample: an 8-bit RGB color and its class ID ({@link #NONE} for background). */
+        public Builder addSample(int classId, int r, int g, int b) {
+            if (classId < 0 || classId >= names.size()) throw new IllegalArgumentException("No class " + classId);
+            if (counts == null) counts = new int[256][];
+            if (counts[classId] == null) counts[classId] = new int[1 << (3 * bits)];
+            int shift = 8 - bits;
+            counts[classId][((r & 0xff) >> shift << (2 * bits)) | ((g & 0xff) >> shift << bits) | ((b & 0xff) >> shift)]++;
+            return this;
+        }
+
+        /**
+         * Samples from a labeled image: pixels as packed 0xAARRGGBB (java.awt and Android Bitmap
+         * order) and a class ID per pixel, negative for unlabeled.
+         */
+        public Builder addSamples(int[] argb, int[] classIds) {
+            for (int i = 0; i < argb.length; i++) {
+                if (classIds[i] >= 0) addSample(classIds[i], argb[i] >> 16, argb[i] >> 8, argb[i]);
+            }
+            return this;
+        }
+
+        public ColorLut build() {
+            int cells = 1 << (3 * bits), shift = 8 - bits;
+            byte[] table = new byte[cells];
+            int[] converted = new int[3];
+            ColorSpace[] spaces = ColorSpace.values();
+            for (int cell = 0; cell < cells; cell++) {
+                // The cell's center color.
+                int r = ((cell >> (2 * bits)) << shift) + (shift > 0 ? 1 << (shift - 1) : 0);
+                int g = (((cell >> bits) & ((1 << bits) - 1)) << shift) + (shift > 0 ? 1 << (shift - 1) : 0);
+                int b = ((cell & ((1 << bits) - 1)) << shift) + (shift > 0 ? 1 << (shift - 1) : 0);
+                for (int[] range : ranges) {
+                    ColorSpace space = spaces[range[1]];
+                    if (space == ColorSpace.YCrCb) toYCrCb(r, g, b, converted);
+                    else if (space == ColorSpace.HSV) toHsv(r, g, b, converted);
+                    else {
+                        converted[0] = r;
+                        converted[1] = g;
+                        converted[2] = b;
+                    }
+                    boolean inside = true;
+                    for (int c = 0; c < 3; c++) {
+                        inside &= converted[c] >= range[2 + c] && converted[c] <= range[5 + c];
+                    }
+                    if (inside) table[cell] = (byte) range[0];
+                }
+            }
+            if (counts != null) applySamples(table);
+            return new ColorLut(bits, table, names.toArray(new String[0]));
+        }
+
+        private void applySamples(byte[] table) {
+            int side = 1 << bits, cells = table.length;
+            int[] votes = new int[names.size()];
+            boolean[] sampled = new boolean[cells];
+            byte[] filled = table.clone();
+            for (int cell = 0; cell < cells; cell++) {
+                int best = vote(cell, votes);
+                if (best >= 0) {
+                    filled[cell] = (byte) best;
+                    sampled[cell] = true;
+                }
+            }
+            if (fillRadius > 0) {
+                for (int cell = 0; cell < cells; cell++) {
+                    if (sampled[cell] || hasSamples(cell)) continue;
+                    int r = cell >> (2 * bits), g = (cell >> bits) & (side - 1), b = cell & (side - 1);
+                    Arrays.fill(votes, 0);
+                    int total = 0;
+                    for (int dr = -fillRadius; dr <= fillRadius; dr++) {
+                        for (int dg = -fillRadius; dg <= fillRadius; dg++) {
+                            for (int db = -fillRadius; db <= fillRadius; db++) {
+                                int nr = r + dr, ng = g + dg, nb = b + db;
+                                if (nr < 0 || ng < 0 || nb < 0 || nr >= side || ng >= side || nb >= side) continue;
+                                int neighbor = (nr << (2 * bits)) | (ng << bits) | nb;
+                                for (int c = 0; c < votes.length; c++) {
+                                    if (counts[c] != null) {
+                                        votes[c] += counts[c][neighbor];
+                                        total += counts[c][neighbor];
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    if (total >= minSamples) filled[cell] = (byte) argmax(votes);
+                }
+            }
+            System.arraycopy(filled, 0, table, 0, cells);
+        }
+
+        /** The class most samples in the cell have, or -1 if it has fewer than minSamples. */
+        private int vote(int cell, int[] votes) {
+            int total = 0;
+            for (int c = 0; c < votes.length; c++) {
+                votes[c] = counts[c] != null ? counts[c][cell] : 0;
+                total += votes[c];
+            }
+            return total >= minSamples && total > 0 ? argmax(votes) : -1;
+        }
+
+        private boolean hasSamples(int cell) {
+            for (int[] count : counts) {
+                if (count != null && count[cell] > 0) return true;
+            }
+            return false;
+        }
+
+        private static int argmax(int[] votes) {
+            int best = 0;
+            for (int c = 1; c < votes.length; c++) {
+                if (votes[c] > votes[best]) best = c;
+            }
+            return best;
+        }
+    }
+}
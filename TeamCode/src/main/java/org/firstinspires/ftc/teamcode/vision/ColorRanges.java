@@ -0,0 +1,35 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import org.firstinspires.ftc.vision.opencv.ColorRange;
+import org.firstinspires.ftc.vision.opencv.ColorSpace;
+import org.opencv.core.Scalar;
+
+import java.lang.reflect.Field;
+
+/** Reads the bounds of the SDK's ColorRanges, which keeps them protected with no getters. */
+final class ColorRanges {
+    private ColorRanges() {
+    }
+
+    static ColorSpace colorSpace(ColorRange range) {
+        return (ColorSpace) field(range, "colorSpace");
+    }
+
+    static Scalar min(ColorRange range) {
+        return (Scalar) field(range, "min");
+    }
+
+    static Scalar max(ColorRange range) {
+        return (Scalar) field(range, "max");
+    }
+
+    private static Object field(ColorRange range, String name) {
+        try {
+            Field field = ColorRange.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(range);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot read ColorRange." + name, e);
+        }
+    }
+}
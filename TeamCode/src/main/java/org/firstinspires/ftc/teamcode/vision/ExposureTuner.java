@@ -0,0 +1,313 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.robotcore.external.hardware.camera.controls.ExposureControl;
+import org.firstinspires.ftc.robotcore.external.hardware.camera.controls.GainControl;
+import org.firstinspires.ftc.vision.VisionPortal;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the ExposureTuner class. It finds the shortest webcam exposure at which the AprilTag
+ * processor still reliably sees the tags in view, the automatic version of what
+ * ConceptAprilTagOptimizeExposure has the driver do with the gamepad. A short exposure means
+ * little motion blur, so tags keep detecting while the robot drives fast.
+ *
+ * With the tags in view, it first puts the camera back in automatic exposure, lets it settle, and
+ * watches a few frames to learn how many tags there are and how confidently they decode. Then it
+ * switches to manual exposure and steps up from the shortest exposure, trying each at a few gains
+ * from the highest down. The first exposure where some gain finds the tags in at least
+ * minDetectionRate of the frames, with a mean decision margin of at least marginRatio of the
+ * baseline's, is locked with the gain that decoded best there. If nothing qualifies, the camera
+ * goes back to automatic exposure.
+ *
+ * It doesn't block: call {@link #update()} every loop (init_loop is where it belongs) until
+ * {@link #isDone()}, and {@link #start()} again to re-tune when the lighting changes. While it runs
+ * it reads the processor's fresh detections, so nothing else should.
+ * <pre>
+ * ExposureTuner tuner = new ExposureTuner(portal, aprilTag);
+ * tuner.start();
+ * ...
+ * tuner.update(); // Every init_loop
+ * telemetry.addData("Exposure", tuner.getStatus());
+ * </pre>
+ */
+public class ExposureTuner {
+    /** Frames measured at each setting. */
+    public int sampleFrames = 10;
+    /** Time for a new exposure and gain to take effect before frames count. */
+    public long settleNanos = 150_000_000L;
+    /** Time for the camera's automatic exposure to converge before the baseline frames count. */
+    public long autoSettleNanos = 1_000_000_000L;
+    /** Longest wait for sampleFrames at one setting; long exposures slow the camera down. */
+    public long sampleTimeoutNanos = 1_500_000_000L;
+    /** Share of frames that must find every baseline tag. */
+    public double minDetectionRate = 0.9;
+    /** Mean decision margin needed, as a share of the baseline's. */
+    public double marginRatio = 0.8;
+    /** Longest exposure tried, microseconds; past this blur defeats the point. */
+    public long maxExposureMicros = 20_000;
+    /** Each exposure tried is this many times the one before. */
+    public double exposureStep = 1.4;
+    /** Gains tried at each exposure, evenly spaced from the highest down to the lowest. */
+    public int gainSteps = 3;
+
+    public enum State {IDLE, WAITING_FOR_CAMERA, BASELINE, SWEEPING, LOCKED, FAILED}
+
+    /** What one setting scored. */
+    public static class Trial {
+        public final long exposureMicros;
+        public final int gain;
+        public int frames, detected;
+        public double marginSum;
+
+        Trial(long exposureMicros, int gain) {
+            this.exposureMicros = exposureMicros;
+            this.gain = gain;
+        }
+
+        /** Share of frames that found every baseline tag. */
+        public double getDetectionRate() {
+            return frames == 0 ? 0 : (double) detected / frames;
+        }
+
+        /** Mean decision margin over every tag seen. */
+        public double getMeanMargin(int tagCount) {
+            return frames == 0 ? 0 : marginSum / Math.max(1, (long) frames * tagCount);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1f ms gain %d", exposureMicros / 1000.0, gain);
+        }
+    }
+
+    private final VisionPortal portal;
+    private final AprilTagProcessor aprilTag;
+    private ExposureControl exposureControl;
+    private GainControl gainControl;
+
+    private State state = State.IDLE;
+    private String failure;
+    private final List<Trial> trials = new ArrayList<>();
+    private Trial baseline, current, locked;
+    private int candidate;
+    private int tagCount;
+    private double baselineMargin;
+    private long settleUntilNanos, timeoutNanos;
+
+    public ExposureTuner(VisionPortal portal, AprilTagProcessor aprilTag) {
+        this.portal = portal;
+        this.aprilTag = aprilTag;
+    }
+
+    /** Starts a new search, dropping the last result; the camera must be able to see the tags. */
+    public void start() {
+        trials.clear();
+        baseline = current = locked = null;
+        failure = null;
+        tagCount = 0;
+        state = State.WAITING_FOR_CAMERA;
+    }
+
+    /** Stops a search in progress, locking the best setting found so far, or automatic exposure. */
+    public void cancel() {
+        if (state != State.WAITING_FOR_CAMERA && state != State.BASELINE && state != State.SWEEPING) return;
+        Trial best = state == State.SWEEPING ? best(current.exposureMicros) : null;
+        if (best != null) {
+            lock(best);
+        } else {
+            fail("cancelled");
+        }
+    }
+
+    /** Advances the search. Call every loop; the camera controls are only touched here. */
+    public void update() {
+        long now = System.nanoTime();
+        switch (state) {
+            case WAITING_FOR_CAMERA:
+                if (portal.getCameraState() != VisionPortal.CameraState.STREAMING) return;
+                exposureControl = portal.getCameraControl(ExposureControl.class);
+                gainControl = portal.getCameraControl(GainControl.class);
+                if (exposureControl == null || !exposureControl.isExposureSupported()
+                        || !exposureControl.isModeSupported(ExposureControl.Mode.Manual)) {
+                    fail("camera has no manual exposure");
+                    return;
+                }
+                // A re-run starts from the last lock; measure against what the camera picks itself.
+                if (exposureControl.isModeSupported(ExposureControl.Mode.Auto)) {
+                    exposureControl.setMode(ExposureControl.Mode.Auto);
+                }
+                baseline = new Trial(exposureControl.getExposure(TimeUnit.MICROSECONDS),
+                        gainControl != null ? gainControl.getGain() : 0);
+                measure(baseline, now, autoSettleNanos);
+                state = State.BASELINE;
+                return;
+            case BASELINE:
+                if (!sample(baseline, now)) return;
+                if (baseline.frames == 0 || tagCount == 0) {
+                    fail("no tags in view");
+                    return;
+                }
+                baselineMargin = baseline.getMeanMargin(tagCount);
+                buildCandidates();
+                if (trials.isEmpty()) {
+                    fail("no exposures to try");
+                    return;
+                }
+                exposureControl.setMode(ExposureControl.Mode.Manual);
+                candidate = 0;
+                apply(trials.get(0), now);
+                state = State.SWEEPING;
+                return;
+            case SWEEPING:
+                if (!sample(current, now)) return;
+                Trial next = ++candidate < trials.size() ? trials.get(candidate) : null;
+                if (next == null || next.exposureMicros != current.exposureMicros) {
+                    // Every gain at this exposure has been tried.
+                    Trial best = best(current.exposureMicros);
+                    if (best != null) {
+                        lock(best);
+                        return;
+                    }
+                    if (next == null) {
+                        fail("no exposure detected reliably");
+                        return;
+                    }
+                }
+                apply(next, now);
+                return;
+            default:
+        }
+    }
+
+    private void buildCandidates() {
+        long min = Math.max(1, exposureControl.getMinExposure(TimeUnit.MICROSECONDS));
+        long max = Math.min(maxExposureMicros, exposureControl.getMaxExposure(TimeUnit.MICROSECONDS));
+        int minGain = gainControl != null ? gainControl.getMinGain() : 0;
+        int maxGain = gainControl != null ? gainControl.getMaxGain() : 0;
+        int steps = gainControl != null ? Math.max(1, gainSteps) : 1;
+        long last = 0;
+        for (double e = min; e <= max; e *= exposureStep) {
+            long exposure = Math.round(e);
+            if (exposure == last) continue;
+            last = exposure;
+            int lastGain = Integer.MIN_VALUE;
+            for (int i = 0; i < steps; i++) {
+                int gain = steps == 1 ? maxGain : maxGain - (int) Math.round((double) (maxGain - minGain) * i / (steps - 1));
+                if (gain == lastGain) continue;
+                lastGain = gain;
+                trials.add(new Trial(exposure, gain));
+            }
+        }
+    }
+
+    private void apply(Trial trial, long now) {
+        exposureControl.setExposure(trial.exposureMicros, TimeUnit.MICROSECONDS);
+        if (gainControl != null) gainControl.setGain(trial.gain);
+        measure(trial, now, settleNanos);
+    }
+
+    private void measure(Trial trial, long now, long settle) {
+        current = trial;
+        settleUntilNanos = now + settle;
+        timeoutNanos = settleUntilNanos + sampleTimeoutNanos;
+        aprilTag.getFreshDetections(); // Drop anything taken before the change
+    }
+
+    /** Scores the fresh frames; true once the trial has enough of them or has timed out. */
+    private boolean sample(Trial trial, long now) {
+        List<AprilTagDetection> detections = aprilTag.getFreshDetections();
+        if (detections != null) {
+            int seen = 0;
+            double margins = 0;
+            boolean stale = false;
+            for (AprilTagDetection detection : detections) {
+                if (detection.frameAcquisitionNanoTime < settleUntilNanos) stale = true;
+                if (detection.metadata == null) continue;
+                seen++;
+                margins += detection.decisionMargin;
+            }
+            // A frame with no tags has no timestamp to check, so only count it once settled.
+            if (!stale && (seen > 0 || now >= settleUntilNanos)) {
+                if (trial == baseline) tagCount = Math.max(tagCount, seen);
+                trial.frames++;
+                trial.marginSum += margins;
+                if (seen >= tagCount) trial.detected++;
+            }
+        }
+        return trial.frames >= sampleFrames || now >= timeoutNanos;
+    }
+
+    /** The gain that decoded best at an exposure, if any passed. */
+    private Trial best(long exposureMicros) {
+        Trial best = null;
+        for (Trial trial : trials) {
+            if (trial.exposureMicros != exposureMicros || trial.frames == 0) continue;
+            if (trial.getDetectionRate() < minDetectionRate) continue;
+            if (trial.getMeanMargin(tagCount) < marginRatio * baselineMargin) continue;
+            if (best == null || trial.getMeanMargin(tagCount) > best.getMeanMargin(tagCount)) best = trial;
+        }
+        return best;
+    }
+
+    private void lock(Trial trial) {
+        exposureControl.setMode(ExposureControl.Mode.Manual);
+        exposureControl.setExposure(trial.exposureMicros, TimeUnit.MICROSECONDS);
+        if (gainControl != null) gainControl.setGain(trial.gain);
+        locked = trial;
+        state = State.LOCKED;
+        RobotLog.ii("ExposureTuner", "Locked %s after %d settings", trial, candidate);
+    }
+
+    private void fail(String reason) {
+        if (exposureControl != null && exposureControl.isModeSupported(ExposureControl.Mode.Auto)) {
+            exposureControl.setMode(ExposureControl.Mode.Auto);
+        }
+        failure = reason;
+        state = State.FAILED;
+        RobotLog.ww("ExposureTuner", "Automatic exposure: %s", reason);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** Whether the search has finished, locked or not. */
+    public boolean isDone() {
+        return state == State.LOCKED || state == State.FAILED;
+    }
+
+    /** The locked setting, or null. */
+    public Trial getLocked() {
+        return locked;
+    }
+
+    /** The settings tried so far, shortest exposure first. */
+    public List<Trial> getTrials() {
+        return trials;
+    }
+
+    /** One line for telemetry. */
+    public String getStatus() {
+        switch (state) {
+            case BASELINE:
+                return "measuring tags in automatic exposure";
+            case SWEEPING:
+                return String.format(Locale.US, "trying %s (%d/%d)", current, candidate + 1, trials.size());
+            case LOCKED:
+                return String.format(Locale.US, "locked %s, %.0f%% of frames, margin %.0f (auto %.0f)",
+                        locked, 100 * locked.getDetectionRate(), locked.getMeanMargin(tagCount), baselineMargin);
+            case FAILED:
+                return "automatic: " + failure;
+            default:
+                return state.toString().toLowerCase(Locale.US).replace('_', ' ');
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import com.bylazar.configurables.annotations.Configurable;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+
+import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
+import org.firstinspires.ftc.vision.VisionPortal;
+import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
+
+import java.util.Locale;
+
+/**
+ * This is the FrameCaptureOpMode class. It is UtilityCameraFrameCapture with a memory: the webcam
+ * runs the AprilTag processor and a {@link FrameRingBuffer}, X saves the last second of frames
+ * and a few after, and losing the tags for FAILURE_FRAMES frames in a row saves them on its own.
+ * The frames land in FIRST/data/framecaptures, named like event003_button_frame-05_81234.png;
+ * to run VisionBenchmark on them, set its FRAMES_DIRECTORY to FIRST/data/framecaptures and its
+ * FRAME_PREFIX to "event".
+ */
+@TeleOp(name = "FrameCapture", group = "Tuning")
+@Configurable // Panels
+public class FrameCaptureOpMode extends LinearOpMode {
+    public static String WEBCAM = "Webcam 1";
+    public static int RING_FRAMES = 30;
+    public static int SPARE_FRAMES = 30;
+    public static int POST_TRIGGER_FRAMES = 5;
+    /** Frames in a row without a tag that trigger a capture; 0 for manual only. */
+    public static int FAILURE_FRAMES = 10;
+
+    @Override
+    public void runOpMode() {
+        AprilTagProcessor aprilTag = new AprilTagProcessor.Builder().build();
+        FrameRingBuffer frames = new FrameRingBuffer(RING_FRAMES, SPARE_FRAMES);
+        frames.postTriggerFrames = POST_TRIGGER_FRAMES;
+        if (FAILURE_FRAMES > 0) frames.triggerOnFailure(FrameRingBuffer.noTags(aprilTag), FAILURE_FRAMES);
+        VisionPortal portal = new VisionPortal.Builder()
+                .setCamera(hardwareMap.get(WebcamName.class, WEBCAM))
+                .addProcessor(aprilTag)
+                .addProcessor(frames)
+                .build();
+        frames.start();
+
+        while (!isStopRequested()) {
+            if (gamepad1.xWasPressed()) frames.trigger("button");
+
+            telemetry.addLine("Press X (or Square) to save the last frames");
+            telemetry.addData("Camera", portal.getCameraState());
+            telemetry.addData("Camera FPS", "%.1f", portal.getFps());
+            telemetry.addData("Tags", aprilTag.getDetections().size());
+            telemetry.addData("Triggers", frames.getTriggerCount());
+            telemetry.addData("Frames seen/saved/dropped", "%d / %d / %d",
+                    frames.getFrameCount(), frames.getSavedFrameCount(), frames.getDroppedFrameCount());
+            telemetry.addData("Encode backlog", frames.getEncodeBacklog());
+            telemetry.addData("Copy p99 (ms)", String.format(Locale.US, "%.2f", frames.getCopyTimes().getPercentileMillis(99)));
+            telemetry.addData("Encode p50 (ms)", String.format(Locale.US, "%.1f", frames.getEncodeTimes().getPercentileMillis(50)));
+            telemetry.update();
+            sleep(20);
+        }
+
+        portal.close();
+        frames.stop(2000);
+        frames.release();
+    }
+}
@@ -0,0 +1,349 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import android.graphics.Canvas;
+import android.os.Environment;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.robotcore.internal.camera.calibration.CameraCalibration;
+import org.firstinspires.ftc.teamcode.util.LatencyHistogram;
+import org.firstinspires.ftc.vision.VisionProcessor;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This is the FrameRingBuffer class. It is a VisionProcessor that keeps copies of the last
+ * {@code capacity} camera frames, so that when vision misbehaves the frames leading up to it can
+ * be saved, not just the one after it as with portal.saveNextFrameRaw().
+ *
+ * Every frame lives in a Mat from a pool allocated in init(): the ring's slots plus some spares.
+ * On {@link #trigger(String)}, or when a {@link FailureCheck} fails for long enough, the ring's
+ * slots are handed to an encoder thread, the ring carries on with spares, and the next
+ * postTriggerFrames frames follow them. The encoder writes PNGs (or JPEGs) to
+ * FIRST/data/framecaptures and returns the slots to the pool. The vision thread only ever copies
+ * into a free slot and never waits for the encoder; if none is free the frame isn't kept and is
+ * counted as dropped.
+ *
+ * The portal runs processors in the order they were added, so add this one after the processors
+ * a FailureCheck looks at:
+ * <pre>
+ * FrameRingBuffer frames = new FrameRingBuffer(30, 30)
+ *         .triggerOnFailure(FrameRingBuffer.noTags(aprilTag), 15);
+ * portal = new VisionPortal.Builder().setCamera(webcam).addProcessor(aprilTag).addProcessor(frames).build();
+ * frames.start();
+ * ...
+ * if (gamepad1.x) frames.trigger("driver");
+ * </pre>
+ */
+public class FrameRingBuffer implements VisionProcessor, Runnable {
+    /** Says whether the current frame counts as a vision failure. Called on the vision thread. */
+    public interface FailureCheck {
+        boolean failed();
+    }
+
+    /** A failure check that fails while the AprilTag processor sees no tags. */
+    public static FailureCheck noTags(final AprilTagProcessor aprilTag) {
+        return new FailureCheck() {
+            @Override
+            public boolean failed() {
+                List<AprilTagDetection> detections = aprilTag.getDetections();
+                return detections == null || detections.isEmpty();
+            }
+        };
+    }
+
+    private static class Slot {
+        Mat rgba;
+        long nanos;
+        int event;
+        int offset; // Frames relative to the trigger, negative before it
+        String reason;
+    }
+
+    private final int capacity;
+    private final int spares;
+    private final File directory;
+
+    /** Frames saved after a trigger, on top of the ones before it. */
+    public int postTriggerFrames = 5;
+    /** Image format the encoder writes, ".png" or ".jpg". */
+    public String extension = ".png";
+
+    private Slot[] pool;
+    private Slot[] ring;
+    private int head, size;
+    private ArrayBlockingQueue<Slot> free;
+    private ArrayBlockingQueue<Slot> encode;
+    private final AtomicReference<String> pendingTrigger = new AtomicReference<>();
+    private int postRemaining;
+    private int event;
+    private String eventReason;
+    private int eventOffset;
+
+    private FailureCheck failureCheck;
+    private int failureFrames;
+    private int consecutiveFailures;
+    private int framesSinceTrigger;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile long frames, dropped, saved, triggers;
+    private volatile int encodeErrors;
+    private final LatencyHistogram copyTimes = new LatencyHistogram();
+    private final LatencyHistogram encodeTimes = new LatencyHistogram();
+
+    /**
+     * @param capacity frames kept before a trigger
+     * @param spares   extra frames the ring can use while the encoder still holds the last event's
+     */
+    public FrameRingBuffer(int capacity, int spares) {
+        this(capacity, spares, new File(Environment.getExternalStorageDirectory(), "FIRST/data/framecaptures"));
+    }
+
+    public FrameRingBuffer(int capacity, int spares, File directory) {
+        this.capacity = capacity;
+        this.spares = spares;
+        this.directory = directory;
+        framesSinceTrigger = capacity;
+    }
+
+    /**
+     * Triggers after failureFrames frames in a row fail the check. A failure trigger is only armed
+     * again once the ring has filled with new frames, so one long outage is saved once.
+     */
+    public FrameRingBuffer triggerOnFailure(FailureCheck check, int failureFrames) {
+        this.failureCheck = check;
+        this.failureFrames = failureFrames;
+        return this;
+    }
+
+    @Override
+    public void init(int width, int height, CameraCalibration calibration) {
+        int total = capacity + spares;
+        ring = new Slot[capacity];
+        free = new ArrayBlockingQueue<>(total);
+        encode = new ArrayBlockingQueue<>(total);
+        pool = new Slot[total];
+        for (int i = 0; i < total; i++) {
+            pool[i] = new Slot();
+            pool[i].rgba = new Mat(height, width, CvType.CV_8UC4);
+            free.add(pool[i]);
+        }
+    }
+
+    /** Starts the encoder thread. */
+    public synchronized void start() {
+        if (thread != null) return;
+        running = true;
+        thread = new Thread(this, "FrameRingBuffer");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the encoder thread once it has written what it was given, waiting up to timeoutMillis
+     * (0 for as long as it takes). Frames it had not got to by then are lost; the one it is writing
+     * is finished, and this only returns once the thread has exited, so the pool can be released.
+     */
+    public synchronized void stop(long timeoutMillis) {
+        Thread t = thread;
+        if (t == null) return;
+        running = false;
+        boolean interrupted = false;
+        try {
+            t.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        t.interrupt(); // Ends the wait for the next slot; cvtColor and imwrite run to completion
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        thread = null;
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Saves the frames in the ring and the next postTriggerFrames. Safe to call from any thread. */
+    public void trigger(String reason) {
+        pendingTrigger.compareAndSet(null, reason);
+    }
+
+    @Override
+    public Object processFrame(Mat frame, long captureTimeNanos) {
+        if (ring == null) return null;
+        frames++;
+        if (framesSinceTrigger < capacity) framesSinceTrigger++;
+
+        if (failureCheck != null && framesSinceTrigger >= capacity) {
+            consecutiveFailures = failureCheck.failed() ? consecutiveFailures + 1 : 0;
+            if (consecutiveFailures >= failureFrames) {
+                consecutiveFailures = 0;
+                trigger("failure");
+            }
+        }
+        String reason = pendingTrigger.getAndSet(null);
+        if (reason != null) flush(reason);
+
+        long start = System.nanoTime();
+        Slot slot;
+        if (postRemaining > 0) {
+            slot = free.poll();
+            if (slot == null) {
+                dropped++;
+                postRemaining--;
+                eventOffset++;
+                return null;
+            }
+            copy(frame, captureTimeNanos, slot);
+            slot.event = event;
+            slot.reason = eventReason;
+            slot.offset = eventOffset++;
+            encode.add(slot); // Never full: it holds at most every slot there is
+            postRemaining--;
+        } else {
+            if (size == capacity) {
+                slot = ring[head]; // Reuse the oldest
+                size--;
+            } else {
+                slot = free.poll();
+                if (slot == null) {
+                    dropped++;
+                    return null;
+                }
+            }
+            copy(frame, captureTimeNanos, slot);
+            ring[head] = slot;
+            head = (head + 1) % capacity;
+            size++;
+        }
+        copyTimes.record(System.nanoTime() - start);
+        return null;
+    }
+
+    private void copy(Mat frame, long nanos, Slot slot) {
+        frame.copyTo(slot.rgba); // Same size and type, so no allocation
+        slot.nanos = nanos;
+    }
+
+    /** Hands the ring, oldest first, to the encoder. Vision thread only. */
+    private void flush(String reason) {
+        triggers++;
+        event++;
+        eventReason = reason.replaceAll("[^A-Za-z0-9_-]", "_");
+        for (int i = 0; i < size; i++) {
+            Slot slot = ring[(head - size + i + capacity) % capacity];
+            slot.event = event;
+            slot.reason = eventReason;
+            slot.offset = i - size;
+            encode.add(slot);
+        }
+        size = 0;
+        head = 0;
+        eventOffset = 0;
+        postRemaining = postTriggerFrames;
+        framesSinceTrigger = 0;
+    }
+
+    @Override
+    public void run() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            RobotLog.ee("FrameRingBuffer", "Could not create " + directory);
+        }
+        Mat bgr = new Mat();
+        try {
+            while (running || !encode.isEmpty()) {
+                Slot slot;
+                try {
+                    slot = encode.poll(50, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (slot == null) continue;
+                long start = System.nanoTime();
+                try {
+                    Imgproc.cvtColor(slot.rgba, bgr, Imgproc.COLOR_RGBA2BGR);
+                    File file = new File(directory, String.format(Locale.US, "event%03d_%s_frame%+04d_%d%s",
+                            slot.event, slot.reason, slot.offset, slot.nanos / 1_000_000L, extension));
+                    if (Imgcodecs.imwrite(file.getPath(), bgr)) saved++;
+                    else encodeErrors++;
+                } catch (RuntimeException e) {
+                    encodeErrors++;
+                    RobotLog.ee("FrameRingBuffer", e, "Could not save frame");
+                }
+                encodeTimes.record(System.nanoTime() - start);
+                free.add(slot);
+            }
+        } finally {
+            bgr.release();
+        }
+    }
+
+    /**
+     * Frees the frame pool. Call after the portal is closed. If the encoder is still running it is
+     * stopped first, after it has written everything queued, since it reads the pool's Mats.
+     */
+    public synchronized void release() {
+        stop(0);
+        if (pool == null) return;
+        for (Slot slot : pool) slot.rgba.release();
+        pool = null;
+        ring = null;
+    }
+
+    @Override
+    public void onDrawFrame(Canvas canvas, int onscreenWidth, int onscreenHeight,
+                            float scaleBmpPxToCanvasPx, float scaleCanvasDensity, Object userContext) {
+    }
+
+    /** Frames the portal has passed through. */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /** Frames not kept because every slot was waiting on the encoder. */
+    public long getDroppedFrameCount() {
+        return dropped;
+    }
+
+    public long getSavedFrameCount() {
+        return saved;
+    }
+
+    public long getTriggerCount() {
+        return triggers;
+    }
+
+    public int getEncodeErrorCount() {
+        return encodeErrors;
+    }
+
+    /** Frames handed to the encoder and not yet written. */
+    public int getEncodeBacklog() {
+        return encode == null ? 0 : encode.size();
+    }
+
+    /** Time the vision thread spends copying a frame. Updated by the vision thread. */
+    public LatencyHistogram getCopyTimes() {
+        return copyTimes;
+    }
+
+    /** Time to convert and write one frame. Updated by the encoder thread. */
+    public LatencyHistogram getEncodeTimes() {
+        return encodeTimes;
+    }
+}
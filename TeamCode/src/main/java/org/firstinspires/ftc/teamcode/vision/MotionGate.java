@@ -0,0 +1,205 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import android.graphics.Canvas;
+
+import org.firstinspires.ftc.robotcore.internal.camera.calibration.CameraCalibration;
+import org.firstinspires.ftc.teamcode.hardware.SensorReader;
+import org.firstinspires.ftc.teamcode.hardware.SensorSnapshot;
+import org.firstinspires.ftc.teamcode.localization.PoseHistoryBuffer;
+import org.firstinspires.ftc.vision.VisionProcessor;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
+import org.opencv.core.Mat;
+
+import java.util.List;
+
+/**
+ * This is the MotionGate class. It is a VisionProcessor that sits in front of another and holds
+ * back frames taken while the robot was turning fast: they are smeared sideways, tags in them
+ * decode badly or into wrong poses, and processing them costs as much as any other frame.
+ *
+ * The turn rate at each frame's capture time comes from the robot's pose history
+ * ({@link #setRobotPose}, from the OpMode thread) or straight from a {@link SensorReader}'s
+ * snapshots, Pinpoint or IMU, read on the camera thread. Above decimateOmega an AprilTag processor
+ * runs at fastDecimation, which a blurred tag loses nothing to; above dropOmega the frame isn't
+ * processed at all. Frames whose turn rate isn't known go through untouched.
+ *
+ * It keeps count of the frames held back and estimates what they saved: the processor's measured
+ * time per frame for a dropped frame, and the difference to a decimated frame's time for those.
+ * Poses rejected are the tags the last processed frame saw, once for each frame dropped after it.
+ * <pre>
+ * MotionGate gate = new MotionGate(aprilTag);
+ * portal = new VisionPortal.Builder().setCamera(webcam).addProcessor(gate).build();
+ * ...
+ * gate.setRobotPose(fusedLocalizer.getPoseHistory()); // Every loop
+ * </pre>
+ */
+public class MotionGate implements VisionProcessor {
+    /** Turn rate above which an AprilTag processor decimates more, rad/s. */
+    public double decimateOmega = Math.toRadians(90);
+    /** Turn rate above which frames are dropped, rad/s. */
+    public double dropOmega = Math.toRadians(180);
+    /** Decimation for frames above decimateOmega. */
+    public float fastDecimation = 3;
+    /** Decimation restored afterwards on a plain AprilTag processor; the samples use 2. */
+    public float decimation = 2;
+    /** Turn rates further than this from the capture time aren't used. */
+    public long maxSampleAgeNanos = 100_000_000L;
+
+    public final VisionProcessor processor;
+    private final AprilTagProcessor aprilTag;
+    private final RoiAprilTagProcessor roi;
+    private SensorReader reader;
+    private SensorSnapshot snapshot;
+
+    private final Object historyLock = new Object();
+    private final PoseHistoryBuffer history = new PoseHistoryBuffer(64);
+    private final PoseHistoryBuffer.Sample newest = new PoseHistoryBuffer.Sample();
+
+    // Camera thread only.
+    private final PoseHistoryBuffer.Sample atCapture = new PoseHistoryBuffer.Sample();
+    private int lastTagCount;
+    private double fullCostNanos;
+
+    private volatile long frames, decimated, dropped, unknown, rejectedPoses;
+    private volatile double savedNanos;
+    private volatile double lastOmega;
+
+    public MotionGate(VisionProcessor processor) {
+        this.processor = processor;
+        aprilTag = processor instanceof AprilTagProcessor ? (AprilTagProcessor) processor : null;
+        roi = processor instanceof RoiAprilTagProcessor ? (RoiAprilTagProcessor) processor : null;
+    }
+
+    /** Reads the turn rate from the reader's Pinpoint and IMU instead of the pose history. */
+    public MotionGate setSensorReader(SensorReader reader) {
+        this.reader = reader;
+        snapshot = reader.newSnapshot();
+        return this;
+    }
+
+    /** Records the newest pose's turn rate. Call every loop from the OpMode thread. */
+    public void setRobotPose(PoseHistoryBuffer poses) {
+        if (poses.size() == 0) return;
+        poses.get(poses.size() - 1, newest);
+        addOmega(newest.nanos, newest.omega);
+    }
+
+    /** Records a turn rate, rad/s, at the given System.nanoTime(). */
+    public void addOmega(long nanos, double omega) {
+        synchronized (historyLock) {
+            history.add(nanos, 0, 0, 0, 0, 0, omega);
+        }
+    }
+
+    @Override
+    public void init(int width, int height, CameraCalibration calibration) {
+        processor.init(width, height, calibration);
+    }
+
+    @Override
+    public Object processFrame(Mat frame, long captureTimeNanos) {
+        frames++;
+        if (reader != null && reader.copyLatest(snapshot) != 0) {
+            // Whichever of the two is fitted; the other reads zero.
+            double omega = Math.abs(snapshot.pinpointOmega) > Math.abs(snapshot.imuYawRate)
+                    ? snapshot.pinpointOmega : snapshot.imuYawRate;
+            addOmega(snapshot.timestampNanos, omega);
+        }
+        double omega;
+        synchronized (historyLock) {
+            history.maxExtrapolationNanos = maxSampleAgeNanos;
+            omega = history.getAt(captureTimeNanos, atCapture) ? Math.abs(atCapture.omega) : Double.NaN;
+        }
+        lastOmega = omega;
+
+        if (Double.isNaN(omega)) {
+            unknown++;
+        } else if (omega > dropOmega) {
+            dropped++;
+            rejectedPoses += lastTagCount;
+            savedNanos += fullCostNanos;
+            return null;
+        }
+        boolean fast = omega > decimateOmega && aprilTag != null;
+        float fullFrameDecimation = roi != null ? roi.fullFrameDecimation : decimation;
+        float minDecimation = roi != null ? roi.minDecimation : 1;
+        if (fast) {
+            setDecimation(fastDecimation, fastDecimation);
+            decimated++;
+        }
+        long start = System.nanoTime();
+        Object context;
+        try {
+            context = processor.processFrame(frame, captureTimeNanos);
+        } finally {
+            if (fast) setDecimation(fullFrameDecimation, minDecimation);
+        }
+        long nanos = System.nanoTime() - start;
+        if (fast) {
+            savedNanos += Math.max(0, fullCostNanos - nanos);
+        } else {
+            fullCostNanos = fullCostNanos == 0 ? nanos : 0.9 * fullCostNanos + 0.1 * nanos;
+        }
+        if (aprilTag != null) lastTagCount = countTags(aprilTag.getDetections());
+        return context;
+    }
+
+    // The ROI processor takes setDecimation for its full frames and picks its own for regions.
+    private void setDecimation(float fullFrame, float region) {
+        aprilTag.setDecimation(fullFrame);
+        if (roi != null) roi.minDecimation = region;
+    }
+
+    private static int countTags(List<AprilTagDetection> detections) {
+        if (detections == null) return 0;
+        int count = 0;
+        for (AprilTagDetection detection : detections) {
+            if (detection.metadata != null) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void onDrawFrame(Canvas canvas, int onscreenWidth, int onscreenHeight,
+                            float scaleBmpPxToCanvasPx, float scaleCanvasDensity, Object userContext) {
+        if (userContext != null) {
+            processor.onDrawFrame(canvas, onscreenWidth, onscreenHeight, scaleBmpPxToCanvasPx,
+                    scaleCanvasDensity, userContext);
+        }
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /** Frames processed at fastDecimation. */
+    public long getDecimatedCount() {
+        return decimated;
+    }
+
+    /** Frames not processed at all. */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /** Frames passed through because the turn rate at capture wasn't known. */
+    public long getUnknownCount() {
+        return unknown;
+    }
+
+    /** Estimated tag poses the dropped frames would have produced. */
+    public long getRejectedPoseCount() {
+        return rejectedPoses;
+    }
+
+    /** Estimated processing time saved, ms. */
+    public double getSavedMillis() {
+        return savedNanos * 1e-6;
+    }
+
+    /** Turn rate at the last frame's capture, rad/s, NaN if unknown. */
+    public double getLastOmega() {
+        return lastOmega;
+    }
+}
@@ -0,0 +1,498 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import org.firstinspires.ftc.robotcore.external.matrices.MatrixF;
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.Position;
+import org.firstinspires.ftc.robotcore.external.navigation.YawPitchRollAngles;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagMetadata;
+import org.opencv.core.Point;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is the MultiTagPoseSolver class. It solves one camera pose from the corners of every field
+ * tag seen in a frame together, instead of taking each tag's own pose and picking one, and turns
+ * it into a robot pose with a covariance.
+ *
+ * The solve is a Levenberg-Marquardt least squares fit of the reprojection error of all corners
+ * over the camera's 6-DOF pose, started from the best single-tag robotPose the SDK already
+ * computed. Corners are weighted with a Huber loss. If the fit is still poor, each tag is checked
+ * against a solve from the others, and one that disagrees is dropped. The covariance comes from the
+ * fit's Jacobian, scaled by the residual (but never below pixelSigma), and carried through to robot
+ * x, y and yaw, so a single small tag far away reports a large uncertainty and two tags far apart a
+ * small one.
+ *
+ * Corners are matched to the tag's field corners in the same order as the SDK's own pose solve,
+ * and the camera pose on the robot is interpreted exactly as AprilTagProcessor.Builder's, so the
+ * result is in the same FTC field frame and units (inches, yaw 0 facing +y) as robotPose.
+ * Everything is plain Java on preallocated arrays; nothing here calls into OpenCV.
+ */
+public class MultiTagPoseSolver {
+    /** A solved robot pose. Reused by the caller to avoid allocation. */
+    public static class Result {
+        public long nanos;
+        /** FTC field frame, inches and radians, as robotPose. */
+        public double x, y, z, yaw;
+        /** Row-major over (x, y, yaw). */
+        public final double[] covariance = new double[9];
+        public int tags;
+        /** RMS reprojection error of the corners used, pixels. */
+        public double rmsError;
+    }
+
+    /** Corner detection noise, pixels. The covariance is never scaled below this. */
+    public double pixelSigma = 1;
+    /** Corners further than this from their reprojection are down-weighted. */
+    public double huberPixels = 2;
+    /** Fits with an RMS corner error above this, pixels, are checked for a tag that doesn't fit. */
+    public double maxRmsError = 1.5;
+    /** A tag whose corners miss a solve from the other tags by more than this, RMS pixels, is dropped. */
+    public double maxTagError = 4;
+    public int maxIterations = 20;
+    /** Detections with a lower decision margin are ignored. */
+    public double minDecisionMargin = 20;
+
+    private final double[] cameraRotation = new double[9]; // Camera axes in robot axes, as columns
+    private final double[] cameraOffset = new double[3];   // Camera position in the robot, inches
+    private final double[] mountOffset = new double[3];    // The same, in camera axes
+    private double fx, fy, cx, cy;
+    private boolean calibrated;
+
+    private final Map<Integer, double[]> corners = new HashMap<>();
+
+    // Scratch, grown as needed.
+    private double[] world = new double[0], image = new double[0];
+    private int[] tagOf = new int[0];
+    private AprilTagDetection[] used = new AprilTagDetection[0];
+    private final double[] rotation = new double[9], center = new double[3];
+    private final double[] trialRotation = new double[9], trialCenter = new double[3];
+    private final double[] jtj = new double[36], jtr = new double[6], step = new double[6];
+    private final double[] system = new double[36], inverse = new double[36];
+    private final double[] exp = new double[9], rr = new double[9], p = new double[3];
+    private final double[] jacobian = new double[12], pose = new double[3], perturbed = new double[3];
+    private final double[] g = new double[18];
+    private final double[] savedRotation = new double[9], savedCenter = new double[3];
+    private final double[] bestRotation = new double[9], bestCenter = new double[3];
+    private boolean[] keep = new boolean[0];
+    private double robotZ;
+
+    public MultiTagPoseSolver(Position cameraPosition, YawPitchRollAngles cameraOrientation) {
+        RoiAprilTagProcessor.cameraRotation(cameraOrientation, cameraRotation);
+        Position position = cameraPosition.toUnit(DistanceUnit.INCH);
+        cameraOffset[0] = position.x;
+        cameraOffset[1] = position.y;
+        cameraOffset[2] = position.z;
+        // Q^Tt: where the camera sits relative to the robot center, in the camera's axes.
+        for (int i = 0; i < 3; i++) {
+            mountOffset[i] = cameraRotation[i] * cameraOffset[0] + cameraRotation[3 + i] * cameraOffset[1]
+                    + cameraRotation[6 + i] * cameraOffset[2];
+        }
+    }
+
+    /** Focal lengths and principal point in pixels, from the camera calibration. */
+    public MultiTagPoseSolver setLensIntrinsics(double fx, double fy, double cx, double cy) {
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        calibrated = fx > 0 && fy > 0;
+        return this;
+    }
+
+    public boolean isCalibrated() {
+        return calibrated;
+    }
+
+    /**
+     * Solves the robot pose from every usable detection in the list, which should all be from the
+     * same frame. Returns false, leaving out untouched, if there is no field tag to solve from,
+     * the lens intrinsics aren't set or the solve fails.
+     */
+    public boolean solve(List<AprilTagDetection> detections, Result out) {
+        if (!calibrated || detections == null) return false;
+
+        int tags = 0;
+        AprilTagDetection start = null;
+        if (used.length < detections.size()) used = new AprilTagDetection[detections.size()];
+        for (AprilTagDetection detection : detections) {
+            if (detection.metadata == null || detection.metadata.fieldPosition == null) continue;
+            if (detection.corners == null || detection.corners.length != 4) continue;
+            if (detection.decisionMargin < minDecisionMargin) continue;
+            used[tags++] = detection;
+            if (detection.robotPose != null && (start == null || detection.decisionMargin > start.decisionMargin)) {
+                start = detection;
+            }
+        }
+        if (tags == 0 || start == null) return false;
+        if (keep.length < tags) keep = new boolean[tags];
+        for (int t = 0; t < tags; t++) keep[t] = true;
+
+        int n = 4 * tags;
+        if (world.length < 3 * n) {
+            world = new double[3 * n];
+            image = new double[2 * n];
+            tagOf = new int[n];
+        }
+        for (int t = 0; t < tags; t++) {
+            double[] field = fieldCorners(used[t].metadata);
+            System.arraycopy(field, 0, world, 12 * t, 12);
+            for (int c = 0; c < 4; c++) {
+                Point corner = used[t].corners[c];
+                image[8 * t + 2 * c] = corner.x;
+                image[8 * t + 2 * c + 1] = corner.y;
+                tagOf[4 * t + c] = t;
+            }
+        }
+
+        // Start from the SDK's single-tag robot pose, assuming the robot is level.
+        Position position = start.robotPose.getPosition().toUnit(DistanceUnit.INCH);
+        double yaw = start.robotPose.getOrientation().getYaw(AngleUnit.RADIANS);
+        cameraFromRobot(position.x, position.y, position.z, yaw);
+
+        if (!fit(n)) return false;
+        int active = tags;
+        while (active > 1 && rmsError(n) > maxRmsError) {
+            // Leave each tag out in turn; drop the one the others predict worst, if it's bad enough.
+            System.arraycopy(rotation, 0, savedRotation, 0, 9);
+            System.arraycopy(center, 0, savedCenter, 0, 3);
+            int worst = -1;
+            double worstError = maxTagError;
+            for (int t = 0; t < tags; t++) {
+                if (!keep[t]) continue;
+                keep[t] = false;
+                System.arraycopy(savedRotation, 0, rotation, 0, 9);
+                System.arraycopy(savedCenter, 0, center, 0, 3);
+                if (fit(n)) {
+                    double error = tagRmsError(t);
+                    if (error > worstError) {
+                        worst = t;
+                        worstError = error;
+                        System.arraycopy(rotation, 0, bestRotation, 0, 9);
+                        System.arraycopy(center, 0, bestCenter, 0, 3);
+                    }
+                }
+                keep[t] = true;
+            }
+            if (worst < 0) {
+                System.arraycopy(savedRotation, 0, rotation, 0, 9);
+                System.arraycopy(savedCenter, 0, center, 0, 3);
+                break;
+            }
+            keep[worst] = false;
+            active--;
+            System.arraycopy(bestRotation, 0, rotation, 0, 9);
+            System.arraycopy(bestCenter, 0, center, 0, 3);
+        }
+
+        // Covariance of the 6 pose parameters: sigma^2 (J^TWJ)^-1, with sigma^2 from the residual.
+        double cost = normalEquations(n, rotation, center);
+        int points = 4 * active;
+        double variance = pixelSigma * pixelSigma;
+        if (2 * points > 6) variance = Math.max(variance, cost / (2 * points - 6));
+        System.arraycopy(jtj, 0, system, 0, 36);
+        if (!invert(system, inverse, 6)) return false;
+
+        robotPose(rotation, center, pose);
+        double z = robotZ;
+        // Pose Jacobian: x and y move one for one with the camera center; the rotation terms,
+        // including all of yaw, are taken numerically.
+        for (int i = 0; i < 18; i++) g[i] = 0;
+        g[3] = 1;
+        g[6 + 4] = 1;
+        double eps = 1e-6;
+        for (int k = 0; k < 3; k++) {
+            step[0] = step[1] = step[2] = 0;
+            step[k] = eps;
+            rodrigues(step, exp);
+            multiply(exp, rotation, trialRotation);
+            robotPose(trialRotation, center, perturbed);
+            g[k] = (perturbed[0] - pose[0]) / eps;
+            g[6 + k] = (perturbed[1] - pose[1]) / eps;
+            g[12 + k] = Math.IEEEremainder(perturbed[2] - pose[2], 2 * Math.PI) / eps;
+        }
+        for (int a = 0; a < 3; a++) {
+            for (int b = 0; b < 3; b++) {
+                double s = 0;
+                for (int i = 0; i < 6; i++) {
+                    for (int j = 0; j < 6; j++) s += g[6 * a + i] * inverse[6 * i + j] * g[6 * b + j];
+                }
+                out.covariance[3 * a + b] = variance * s;
+            }
+        }
+
+        out.nanos = start.frameAcquisitionNanoTime;
+        out.x = pose[0];
+        out.y = pose[1];
+        out.yaw = pose[2];
+        out.z = z;
+        out.tags = active;
+        out.rmsError = rmsError(n);
+        return true;
+    }
+
+    /** Levenberg-Marquardt on rotation and center, in place, over the kept tags. */
+    private boolean fit(int n) {
+        double lambda = 1e-3;
+        double cost = normalEquations(n, rotation, center);
+        if (Double.isNaN(cost)) return false;
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            System.arraycopy(jtj, 0, system, 0, 36);
+            for (int i = 0; i < 6; i++) system[7 * i] += lambda * Math.max(jtj[7 * i], 1e-9);
+            if (!solveLinear(system, jtr, step, 6)) return false;
+
+            rodrigues(step, exp);
+            multiply(exp, rotation, trialRotation);
+            for (int i = 0; i < 3; i++) trialCenter[i] = center[i] + step[3 + i];
+            double trial = cost(n, trialRotation, trialCenter);
+            if (trial < cost) {
+                System.arraycopy(trialRotation, 0, rotation, 0, 9);
+                System.arraycopy(trialCenter, 0, center, 0, 3);
+                double improvement = cost - trial;
+                cost = normalEquations(n, rotation, center);
+                lambda = Math.max(lambda / 10, 1e-9);
+                if (improvement < 1e-10 * (1 + cost)) break;
+            } else {
+                lambda *= 10;
+                if (lambda > 1e8) break;
+            }
+        }
+        return !Double.isNaN(cost) && !Double.isInfinite(cost);
+    }
+
+    /**
+     * Fills jtj and jtr for the current pose with Huber weights and returns the weighted cost.
+     * Parameters are a small rotation applied on the left of R (world to camera) and the camera
+     * center C, so a point projects through p = R (X - C).
+     */
+    private double normalEquations(int n, double[] r, double[] c) {
+        for (int i = 0; i < 36; i++) jtj[i] = 0;
+        for (int i = 0; i < 6; i++) jtr[i] = 0;
+        double cost = 0;
+        for (int i = 0; i < n; i++) {
+            if (!keep[tagOf[i]]) continue;
+            if (!transform(i, r, c)) return Double.POSITIVE_INFINITY;
+            double iz = 1 / p[2];
+            double eu = image[2 * i] - (cx + fx * p[0] * iz);
+            double ev = image[2 * i + 1] - (cy + fy * p[1] * iz);
+            double w = huberWeight(Math.hypot(eu, ev));
+            cost += w * (eu * eu + ev * ev);
+
+            // d(u, v)/dp, then through p: d/dd = -(a x p), d/dC = -a R.
+            double au0 = fx * iz, au2 = -fx * p[0] * iz * iz;
+            double av1 = fy * iz, av2 = -fy * p[1] * iz * iz;
+            jacobian[0] = -(0 * p[2] - au2 * p[1]);
+            jacobian[1] = -(au2 * p[0] - au0 * p[2]);
+            jacobian[2] = -(au0 * p[1] - 0 * p[0]);
+            jacobian[6] = -(av1 * p[2] - av2 * p[1]);
+            jacobian[7] = -(av2 * p[0] - 0 * p[2]);
+            jacobian[8] = -(0 * p[1] - av1 * p[0]);
+            for (int k = 0; k < 3; k++) {
+                jacobian[3 + k] = -(au0 * r[k] + au2 * r[6 + k]);
+                jacobian[9 + k] = -(av1 * r[3 + k] + av2 * r[6 + k]);
+            }
+            for (int a = 0; a < 6; a++) {
+                jtr[a] += w * (jacobian[a] * eu + jacobian[6 + a] * ev);
+                for (int b = 0; b < 6; b++) {
+                    jtj[6 * a + b] += w * (jacobian[a] * jacobian[b] + jacobian[6 + a] * jacobian[6 + b]);
+                }
+            }
+        }
+        return cost;
+    }
+
+    private double cost(int n, double[] r, double[] c) {
+        double cost = 0;
+        for (int i = 0; i < n; i++) {
+            if (!keep[tagOf[i]]) continue;
+            double e2 = residualSquared(i, r, c);
+            if (Double.isInfinite(e2)) return e2;
+            cost += huberWeight(Math.sqrt(e2)) * e2;
+        }
+        return cost;
+    }
+
+    private double residualSquared(int i, double[] r, double[] c) {
+        if (!transform(i, r, c)) return Double.POSITIVE_INFINITY;
+        double eu = image[2 * i] - (cx + fx * p[0] / p[2]);
+        double ev = image[2 * i + 1] - (cy + fy * p[1] / p[2]);
+        return eu * eu + ev * ev;
+    }
+
+    /** p = R (X_i - C); false if the point is behind the camera. */
+    private boolean transform(int i, double[] r, double[] c) {
+        double dx = world[3 * i] - c[0], dy = world[3 * i + 1] - c[1], dz = world[3 * i + 2] - c[2];
+        p[0] = r[0] * dx + r[1] * dy + r[2] * dz;
+        p[1] = r[3] * dx + r[4] * dy + r[5] * dz;
+        p[2] = r[6] * dx + r[7] * dy + r[8] * dz;
+        return p[2] > 1e-3;
+    }
+
+    private double huberWeight(double error) {
+        return error <= huberPixels ? 1 : huberPixels / error;
+    }
+
+    /** RMS corner error of the kept tags at the current pose. */
+    private double rmsError(int n) {
+        double sumSquares = 0;
+        int points = 0;
+        for (int i = 0; i < n; i++) {
+            if (!keep[tagOf[i]]) continue;
+            sumSquares += residualSquared(i, rotation, center);
+            points++;
+        }
+        return Math.sqrt(sumSquares / points);
+    }
+
+    /** RMS corner error of one tag at the current pose, whether it is kept or not. */
+    private double tagRmsError(int tag) {
+        double sumSquares = 0;
+        for (int i = 4 * tag; i < 4 * tag + 4; i++) sumSquares += residualSquared(i, rotation, center);
+        return Math.sqrt(sumSquares / 4);
+    }
+
+    /** Sets rotation and center from a level robot at the given field pose. */
+    private void cameraFromRobot(double x, double y, double z, double yaw) {
+        // Robot rotation Rz(yaw); camera axes in the world are Rz Q, and R is their transpose.
+        double cos = Math.cos(yaw), sin = Math.sin(yaw);
+        double[] q = cameraRotation;
+        for (int col = 0; col < 3; col++) {
+            double qx = q[col], qy = q[3 + col], qz = q[6 + col];
+            rotation[3 * col] = cos * qx - sin * qy;
+            rotation[3 * col + 1] = sin * qx + cos * qy;
+            rotation[3 * col + 2] = qz;
+        }
+        double[] t = cameraOffset;
+        center[0] = x + cos * t[0] - sin * t[1];
+        center[1] = y + sin * t[0] + cos * t[1];
+        center[2] = z + t[2];
+    }
+
+    /** Robot x, y and yaw for a camera with world-to-camera rotation r and center c. */
+    private void robotPose(double[] r, double[] c, double[] out) {
+        // Robot rotation Rr = R^T Q^T; robot center = C - R^T (Q^T t).
+        double[] q = cameraRotation;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                rr[3 * i + j] = r[i] * q[3 * j] + r[3 + i] * q[3 * j + 1] + r[6 + i] * q[3 * j + 2];
+            }
+        }
+        double[] s = mountOffset;
+        out[0] = c[0] - (r[0] * s[0] + r[3] * s[1] + r[6] * s[2]);
+        out[1] = c[1] - (r[1] * s[0] + r[4] * s[1] + r[7] * s[2]);
+        robotZ = c[2] - (r[2] * s[0] + r[5] * s[1] + r[8] * s[2]);
+        out[2] = Math.atan2(rr[3], rr[0]);
+    }
+
+    /** The tag's corners in the field, inches, in the order the SDK's pose solve uses. */
+    private double[] fieldCorners(AprilTagMetadata tag) {
+        double[] field = corners.get(tag.id);
+        if (field != null) return field;
+        double toInches = tag.distanceUnit.toInches(1);
+        double s = tag.tagsize * toInches / 2;
+        double[][] local = {{-s, s}, {s, s}, {s, -s}, {-s, -s}};
+        MatrixF m = tag.fieldOrientation.toMatrix();
+        field = new double[12];
+        for (int c = 0; c < 4; c++) {
+            for (int i = 0; i < 3; i++) {
+                field[3 * c + i] = tag.fieldPosition.get(i) * toInches
+                        + m.get(i, 0) * local[c][0] + m.get(i, 1) * local[c][1];
+            }
+        }
+        corners.put(tag.id, field);
+        return field;
+    }
+
+    private static void rodrigues(double[] v, double[] out) {
+        double theta = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        double a, b;
+        if (theta < 1e-9) {
+            a = 1;
+            b = 0.5;
+        } else {
+            a = Math.sin(theta) / theta;
+            b = (1 - Math.cos(theta)) / (theta * theta);
+        }
+        double x = v[0], y = v[1], z = v[2];
+        out[0] = 1 - b * (y * y + z * z);
+        out[1] = -a * z + b * x * y;
+        out[2] = a * y + b * x * z;
+        out[3] = a * z + b * x * y;
+        out[4] = 1 - b * (x * x + z * z);
+        out[5] = -a * x + b * y * z;
+        out[6] = -a * y + b * x * z;
+        out[7] = a * x + b * y * z;
+        out[8] = 1 - b * (x * x + y * y);
+    }
+
+    private static void multiply(double[] a, double[] b, double[] out) {
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                out[3 * i + j] = a[3 * i] * b[j] + a[3 * i + 1] * b[3 + j] + a[3 * i + 2] * b[6 + j];
+            }
+        }
+    }
+
+    /** Solves a x = b for a symmetric positive definite a by Cholesky; a is overwritten. */
+    private static boolean solveLinear(double[] a, double[] b, double[] x, int n) {
+        for (int j = 0; j < n; j++) {
+            double d = a[n * j + j];
+            for (int k = 0; k < j; k++) d -= a[n * j + k] * a[n * j + k];
+            if (d <= 0) return false;
+            d = Math.sqrt(d);
+            a[n * j + j] = d;
+            for (int i = j + 1; i < n; i++) {
+                double s = a[n * i + j];
+                for (int k = 0; k < j; k++) s -= a[n * i + k] * a[n * j + k];
+                a[n * i + j] = s / d;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            double s = b[i];
+            for (int k = 0; k < i; k++) s -= a[n * i + k] * x[k];
+            x[i] = s / a[n * i + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double s = x[i];
+            for (int k = i + 1; k < n; k++) s -= a[n * k + i] * x[k];
+            x[i] = s / a[n * i + i];
+        }
+        return true;
+    }
+
+    /** Inverts the n x n matrix a by Gauss-Jordan with partial pivoting; a is overwritten. */
+    private static boolean invert(double[] a, double[] out, int n) {
+        for (int i = 0; i < n * n; i++) out[i] = (i / n == i % n) ? 1 : 0;
+        for (int c = 0; c < n; c++) {
+            int pivot = c;
+            for (int r = c + 1; r < n; r++) {
+                if (Math.abs(a[n * r + c]) > Math.abs(a[n * pivot + c])) pivot = r;
+            }
+            if (Math.abs(a[n * pivot + c]) < 1e-12) return false;
+            if (pivot != c) {
+                for (int k = 0; k < n; k++) {
+                    double t = a[n * c + k]; a[n * c + k] = a[n * pivot + k]; a[n * pivot + k] = t;
+                    t = out[n * c + k]; out[n * c + k] = out[n * pivot + k]; out[n * pivot + k] = t;
+                }
+            }
+            double d = a[n * c + c];
+            for (int k = 0; k < n; k++) {
+                a[n * c + k] /= d;
+                out[n * c + k] /= d;
+            }
+            for (int r = 0; r < n; r++) {
+                if (r == c) continue;
+                double f = a[n * r + c];
+                if (f == 0) continue;
+                for (int k = 0; k < n; k++) {
+                    a[n * r + k] -= f * a[n * c + k];
+                    out[n * r + k] -= f * out[n * c + k];
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,271 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import android.graphics.Canvas;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.robotcore.internal.camera.calibration.CameraCalibration;
+import org.firstinspires.ftc.teamcode.util.LatencyHistogram;
+import org.firstinspires.ftc.vision.VisionProcessor;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This is the ProcessorGroup class. It is a VisionProcessor that runs several child processors on
+ * each frame at the same time rather than one after another, so a portal with an AprilTag
+ * processor and a color blob locator runs at the speed of the slower one instead of the two
+ * together.
+ *
+ * The first child runs on the camera thread; every other child has its own worker thread, woken
+ * for each frame. processFrame returns only when every child is done with the frame, so the
+ * portal never hands out a frame a child is still reading. Children share the frame, so they must
+ * only read it; a child added with copy set gets its own copy, for processors that draw on the
+ * frame or otherwise change it.
+ *
+ * Per child it keeps processing times, errors (logged and counted, the other children carry on)
+ * and overruns: frames the child took longer than the camera's frame period, each of which costs
+ * the camera a frame. {@link #getDroppedFrameCount()} counts the camera frames lost overall. A
+ * child that throws an Error, such as a missing native library or running out of memory, is
+ * disabled and the Error kept for {@link Child#getFailure()}; the frame still completes.
+ * <pre>
+ * ProcessorGroup group = new ProcessorGroup()
+ *         .add(aprilTag)
+ *         .add(colorLocator);
+ * portal = new VisionPortal.Builder().setCamera(webcam).addProcessor(group).build();
+ * ...
+ * group.close(); // After portal.close()
+ * </pre>
+ */
+public class ProcessorGroup implements VisionProcessor {
+    /** One child processor and what it has cost. */
+    public static class Child implements Runnable {
+        public final VisionProcessor processor;
+        public final boolean copy;
+        private final LatencyHistogram processTimes = new LatencyHistogram();
+        private volatile boolean enabled = true;
+        private volatile long frames, overruns, errors;
+        private volatile Throwable failure;
+
+        // Handed over under the semaphores.
+        private final Semaphore start = new Semaphore(0);
+        private Semaphore done;
+        private Mat frame, copied;
+        private long captureTimeNanos;
+        private Object userContext;
+        private long nanos;
+        private Thread thread;
+        private volatile boolean running;
+
+        Child(VisionProcessor processor, boolean copy) {
+            this.processor = processor;
+            this.copy = copy;
+        }
+
+        void process() {
+            if (!enabled) {
+                userContext = null;
+                nanos = 0;
+                return;
+            }
+            long begin = System.nanoTime();
+            try {
+                Mat input = frame;
+                if (copy) {
+                    frame.copyTo(copied);
+                    input = copied;
+                }
+                userContext = processor.processFrame(input, captureTimeNanos);
+            } catch (RuntimeException e) {
+                userContext = null;
+                errors++;
+                RobotLog.ee("ProcessorGroup", e, processor.getClass().getSimpleName() + " failed");
+            } catch (Error e) {
+                userContext = null;
+                errors++;
+                failure = e;
+                enabled = false; // It would only fail again on the next frame
+                RobotLog.ee("ProcessorGroup", e, processor.getClass().getSimpleName() + " failed, disabled");
+            }
+            nanos = System.nanoTime() - begin;
+            processTimes.record(nanos);
+            frames++;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    start.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running) return;
+                try {
+                    process();
+                } finally {
+                    done.release(); // Whatever happens, the camera thread must not wait forever
+                }
+            }
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /** Frames this child has processed. */
+        public long getFrameCount() {
+            return frames;
+        }
+
+        /** Frames this child took longer than the camera's frame period on. */
+        public long getOverrunCount() {
+            return overruns;
+        }
+
+        public long getErrorCount() {
+            return errors;
+        }
+
+        /** The Error that disabled this child, or null if none has. */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /** Time per frame. Written by the child's thread, so reads elsewhere are approximate. */
+        public LatencyHistogram getProcessTimes() {
+            return processTimes;
+        }
+    }
+
+    private final List<Child> children = new ArrayList<>();
+    private Child[] array;
+    private final Semaphore done = new Semaphore(0);
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private long lastCaptureNanos;
+    private long minIntervalNanos = Long.MAX_VALUE;
+    private volatile long frames, dropped;
+
+    /** Adds a child that only reads the frame. */
+    public ProcessorGroup add(VisionProcessor processor) {
+        return add(processor, false);
+    }
+
+    /** Adds a child; with copy set it is given its own copy of every frame. */
+    public ProcessorGroup add(VisionProcessor processor, boolean copy) {
+        if (array != null) throw new IllegalStateException("Add processors before the portal starts");
+        children.add(new Child(processor, copy));
+        return this;
+    }
+
+    public List<Child> getChildren() {
+        return children;
+    }
+
+    /** The child wrapping a processor, or null. */
+    public Child getChild(VisionProcessor processor) {
+        for (Child child : children) {
+            if (child.processor == processor) return child;
+        }
+        return null;
+    }
+
+    @Override
+    public void init(int width, int height, CameraCalibration calibration) {
+        array = children.toArray(new Child[0]);
+        for (int i = 0; i < array.length; i++) {
+            Child child = array[i];
+            child.processor.init(width, height, calibration);
+            if (child.copy && child.copied == null) child.copied = new Mat();
+            child.done = done;
+            if (i > 0 && child.thread == null) {
+                child.running = true;
+                child.thread = new Thread(child, "ProcessorGroup-" + child.processor.getClass().getSimpleName());
+                child.thread.setDaemon(true);
+                child.thread.setPriority(Thread.currentThread().getPriority());
+                child.thread.start();
+            }
+        }
+    }
+
+    @Override
+    public Object processFrame(Mat frame, long captureTimeNanos) {
+        long begin = System.nanoTime();
+        for (Child child : array) {
+            child.frame = frame;
+            child.captureTimeNanos = captureTimeNanos;
+        }
+        for (int i = 1; i < array.length; i++) array[i].start.release();
+        if (array.length > 0) array[0].process();
+        done.acquireUninterruptibly(array.length - 1);
+
+        // The shortest gap between frames is the camera's own period; a longer one means frames
+        // were dropped while the children were busy.
+        if (lastCaptureNanos != 0) {
+            long interval = captureTimeNanos - lastCaptureNanos;
+            if (interval > 0 && interval < minIntervalNanos) minIntervalNanos = interval;
+            if (minIntervalNanos != Long.MAX_VALUE) {
+                dropped += Math.max(0, Math.round((double) interval / minIntervalNanos) - 1);
+            }
+        }
+        lastCaptureNanos = captureTimeNanos;
+        Object[] userContexts = new Object[array.length];
+        for (int i = 0; i < array.length; i++) {
+            Child child = array[i];
+            if (minIntervalNanos != Long.MAX_VALUE && child.nanos > minIntervalNanos) child.overruns++;
+            userContexts[i] = child.userContext;
+            child.frame = null;
+        }
+        frames++;
+        frameTimes.record(System.nanoTime() - begin);
+        return userContexts;
+    }
+
+    @Override
+    public void onDrawFrame(Canvas canvas, int onscreenWidth, int onscreenHeight,
+                            float scaleBmpPxToCanvasPx, float scaleCanvasDensity, Object userContext) {
+        if (!(userContext instanceof Object[])) return;
+        Object[] userContexts = (Object[]) userContext;
+        for (int i = 0; i < userContexts.length && i < array.length; i++) {
+            if (userContexts[i] != null) {
+                array[i].processor.onDrawFrame(canvas, onscreenWidth, onscreenHeight,
+                        scaleBmpPxToCanvasPx, scaleCanvasDensity, userContexts[i]);
+            }
+        }
+    }
+
+    /** Stops the worker threads and frees the frame copies. Call after the portal is closed. */
+    public void close() {
+        for (Child child : children) {
+            child.running = false;
+            if (child.thread != null) {
+                child.thread.interrupt();
+                child.thread = null;
+            }
+            if (child.copied != null) {
+                child.copied.release();
+                child.copied = null;
+            }
+        }
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /** Camera frames lost while the group was busy, judged from gaps in the capture times. */
+    public long getDroppedFrameCount() {
+        return dropped;
+    }
+
+    /** Time per frame for the whole group: the slowest child plus the hand-off. */
+    public LatencyHistogram getFrameTimes() {
+        return frameTimes;
+    }
+}
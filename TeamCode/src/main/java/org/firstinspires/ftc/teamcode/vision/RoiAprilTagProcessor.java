@@ -0,0 +1,381 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import android.graphics.Canvas;
+
+import org.firstinspires.ftc.robotcore.external.matrices.OpenGLMatrix;
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.AxesOrder;
+import org.firstinspires.ftc.robotcore.external.navigation.AxesReference;
+import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.Orientation;
+import org.firstinspires.ftc.robotcore.external.navigation.Position;
+import org.firstinspires.ftc.robotcore.external.navigation.YawPitchRollAngles;
+import org.firstinspires.ftc.robotcore.internal.camera.calibration.CameraCalibration;
+import org.firstinspires.ftc.teamcode.localization.PoseHistoryBuffer;
+import org.firstinspires.ftc.teamcode.util.LatencyHistogram;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagLibrary;
+import org.firstinspires.ftc.vision.apriltag.AprilTagMetadata;
+import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is the RoiAprilTagProcessor class. It wraps the SDK's AprilTag processor and, instead of
+ * scanning every frame in full at a fixed decimation, uses the robot's pose to predict where each
+ * field tag in the library should appear, and only lets the detector see padded regions around
+ * those spots. Decimation is picked per frame from the smallest predicted tag size, so a close
+ * tag is found on a heavily decimated image and a far one at full resolution.
+ *
+ * The SDK detector has no region-of-interest option and solves tag poses with the full frame's
+ * lens intrinsics, so the frame isn't cropped: the regions are copied into a flat gray frame of
+ * the same size. Flat areas produce no edges, which is where the detector spends its time, and
+ * every pixel keeps its coordinates, so tag poses and robotPose are exactly as without the
+ * wrapper.
+ *
+ * When no field tag is predicted to be in view the frame is skipped entirely. The full frame is
+ * still scanned on a timer, after a few region frames in a row find nothing, and whenever there
+ * is no recent pose or no lens calibration, so tags without a field position (and tags the pose
+ * prediction missed) are still found.
+ *
+ * It extends AprilTagProcessor, so it can be added to a VisionPortal and read exactly like the
+ * processor it wraps. Call {@link #setRobotPose} every loop from the OpMode thread.
+ */
+public class RoiAprilTagProcessor extends AprilTagProcessor {
+    /** Extra margin around a predicted tag for pose error, inches at the tag and degrees of heading. */
+    public double paddingInches = 4, paddingDegrees = 3;
+    /** Smallest tag side, in decimated pixels, a region frame is decimated down to. */
+    public double minTagPixels = 20;
+    public int maxDecimation = 3;
+    /** Region frames are never decimated less than this; a {@link MotionGate} raises it during fast turns. */
+    public float minDecimation = 1;
+    /** Decimation for full-frame scans; the samples use 2. */
+    public float fullFrameDecimation = 2;
+    /** How often the whole frame is scanned regardless. */
+    public long fullFrameIntervalNanos = 1_000_000_000L;
+    /** Region frames in a row with no detection before falling back to a full frame. */
+    public int maxMissedFrames = 3;
+    /** Poses older than this, relative to the frame, aren't trusted for prediction. */
+    public long maxPoseAgeNanos = 300_000_000L;
+
+    private static final Scalar GRAY = new Scalar(128, 128, 128, 255);
+
+    private final AprilTagProcessor aprilTag;
+    private final AprilTagMetadata[] tags;
+    // Camera in the robot frame; see cameraRotation.
+    private final double[] cameraRotation = new double[9];
+    private final double cameraX, cameraY, cameraZ;
+
+    private double fx, fy, cx, cy;
+    private boolean calibrated;
+
+    private final Object poseLock = new Object();
+    private final PoseHistoryBuffer.Sample pose = new PoseHistoryBuffer.Sample();
+    private final PoseHistoryBuffer.Sample newest = new PoseHistoryBuffer.Sample();
+    private boolean hasPose;
+
+    // Vision thread only.
+    private final PoseHistoryBuffer.Sample framePose = new PoseHistoryBuffer.Sample();
+    private final Rect[] rois;
+    private final double[] projection = new double[4];
+    private Mat masked;
+    private float decimation = -1;
+    private long lastFullFrameNanos, lastFrameNanos;
+    private int missedFrames;
+    private final LatencyHistogram processTimes = new LatencyHistogram();
+
+    private volatile long frames, roiFrames, fullFrames, skippedFrames;
+    private volatile double frameIntervalNanos;
+
+    public RoiAprilTagProcessor(AprilTagLibrary library, Position cameraPosition, YawPitchRollAngles cameraOrientation) {
+        this(new AprilTagProcessor.Builder(), library, cameraPosition, cameraOrientation);
+    }
+
+    /** Wraps the processor the builder makes, after setting its tag library and camera pose. */
+    public RoiAprilTagProcessor(AprilTagProcessor.Builder builder, AprilTagLibrary library,
+                                Position cameraPosition, YawPitchRollAngles cameraOrientation) {
+        aprilTag = builder
+                .setTagLibrary(library)
+                .setCameraPose(cameraPosition, cameraOrientation)
+                .build();
+
+        List<AprilTagMetadata> placed = new ArrayList<>();
+        for (AprilTagMetadata tag : library.getAllTags()) {
+            if (tag.fieldPosition != null) placed.add(tag);
+        }
+        tags = placed.toArray(new AprilTagMetadata[0]);
+        rois = new Rect[tags.length];
+        for (int i = 0; i < rois.length; i++) rois[i] = new Rect();
+
+        cameraRotation(cameraOrientation, cameraRotation);
+        Position position = cameraPosition.toUnit(DistanceUnit.INCH);
+        cameraX = position.x;
+        cameraY = position.y;
+        cameraZ = position.z;
+    }
+
+    /** Uses the newest pose in the history for the next frames. Call from the OpMode thread. */
+    public void setRobotPose(PoseHistoryBuffer history) {
+        if (history.size() == 0) return;
+        history.get(history.size() - 1, newest);
+        setRobotPose(newest.nanos, newest.x, newest.y, newest.heading, newest.vx, newest.vy, newest.omega);
+    }
+
+    /** Pose and velocity in Pedro coordinates (inches, radians) at the given System.nanoTime(). */
+    public void setRobotPose(long nanos, double x, double y, double heading, double vx, double vy, double omega) {
+        synchronized (poseLock) {
+            pose.nanos = nanos;
+            pose.x = x;
+            pose.y = y;
+            pose.heading = heading;
+            pose.vx = vx;
+            pose.vy = vy;
+            pose.omega = omega;
+            hasPose = true;
+        }
+    }
+
+    @Override
+    public void init(int width, int height, CameraCalibration calibration) {
+        aprilTag.init(width, height, calibration);
+        calibrated = calibration != null && !calibration.isDegenerate();
+        if (calibrated) {
+            fx = calibration.focalLengthX;
+            fy = calibration.focalLengthY;
+            cx = calibration.principalPointX;
+            cy = calibration.principalPointY;
+        }
+    }
+
+    @Override
+    public Object processFrame(Mat frame, long captureTimeNanos) {
+        long start = System.nanoTime();
+        if (lastFrameNanos != 0) {
+            double interval = captureTimeNanos - lastFrameNanos;
+            frameIntervalNanos = frameIntervalNanos == 0 ? interval : 0.9 * frameIntervalNanos + 0.1 * interval;
+        }
+        lastFrameNanos = captureTimeNanos;
+        frames++;
+
+        int count = -1;
+        boolean fullFrameDue = captureTimeNanos - lastFullFrameNanos >= fullFrameIntervalNanos
+                || missedFrames >= maxMissedFrames;
+        if (!fullFrameDue && calibrated && predictPose(captureTimeNanos)) {
+            count = predictRois(frame.cols(), frame.rows());
+        }
+
+        Object detections;
+        if (count < 0) {
+            setInnerDecimation(fullFrameDecimation);
+            detections = aprilTag.processFrame(frame, captureTimeNanos);
+            lastFullFrameNanos = captureTimeNanos;
+            missedFrames = 0;
+            fullFrames++;
+        } else if (count == 0) {
+            skippedFrames++;
+            return null;
+        } else {
+            if (masked == null || masked.cols() != frame.cols() || masked.rows() != frame.rows()
+                    || masked.type() != frame.type()) {
+                if (masked != null) masked.release();
+                masked = new Mat(frame.rows(), frame.cols(), frame.type());
+            }
+            masked.setTo(GRAY);
+            for (int i = 0; i < count; i++) {
+                Mat source = frame.submat(rois[i]), target = masked.submat(rois[i]);
+                source.copyTo(target);
+                source.release();
+                target.release();
+            }
+            detections = aprilTag.processFrame(masked, captureTimeNanos);
+            if (detections instanceof List && ((List<?>) detections).isEmpty()) missedFrames++;
+            else missedFrames = 0;
+            roiFrames++;
+        }
+        processTimes.record(System.nanoTime() - start);
+        return detections;
+    }
+
+    /** Moves the latest pose forward to the frame's capture time. False if there's none recent. */
+    private boolean predictPose(long captureTimeNanos) {
+        synchronized (poseLock) {
+            if (!hasPose) return false;
+            framePose.nanos = pose.nanos;
+            framePose.x = pose.x;
+            framePose.y = pose.y;
+            framePose.heading = pose.heading;
+            framePose.vx = pose.vx;
+            framePose.vy = pose.vy;
+            framePose.omega = pose.omega;
+        }
+        long age = captureTimeNanos - framePose.nanos;
+        if (Math.abs(age) > maxPoseAgeNanos) return false;
+        double dt = age / 1e9;
+        framePose.x += framePose.vx * dt;
+        framePose.y += framePose.vy * dt;
+        framePose.heading += framePose.omega * dt;
+        return true;
+    }
+
+    /**
+     * Fills rois with the padded boxes of the tags predicted in view and sets the decimation for
+     * the smallest of them. Returns how many there are.
+     */
+    private int predictRois(int frameWidth, int frameHeight) {
+        int count = 0;
+        double smallest = Double.MAX_VALUE;
+        double headingPadding = fx * Math.tan(Math.toRadians(paddingDegrees));
+        for (AprilTagMetadata tag : tags) {
+            if (!project(framePose.x, framePose.y, framePose.heading, tag, projection)) continue;
+            double depth = projection[3];
+            double half = projection[2] / 2 + fx * paddingInches / depth + headingPadding;
+            int x0 = (int) Math.max(0, Math.floor(projection[0] - half));
+            int y0 = (int) Math.max(0, Math.floor(projection[1] - half));
+            int x1 = (int) Math.min(frameWidth, Math.ceil(projection[0] + half));
+            int y1 = (int) Math.min(frameHeight, Math.ceil(projection[1] + half));
+            if (x1 - x0 < 2 || y1 - y0 < 2) continue;
+            Rect roi = rois[count++];
+            roi.x = x0;
+            roi.y = y0;
+            roi.width = x1 - x0;
+            roi.height = y1 - y0;
+            smallest = Math.min(smallest, projection[2]);
+        }
+        if (count > 0) {
+            int d = (int) Math.floor(smallest / minTagPixels);
+            setInnerDecimation(Math.max(Math.max(1, minDecimation), Math.min(maxDecimation, d)));
+        }
+        return count;
+    }
+
+    /**
+     * Projects a field tag's center into the image for a robot at the given Pedro pose. Fills out
+     * with pixel x, pixel y, tag side in pixels and depth in inches, and returns false if the tag
+     * is behind the camera or the lens calibration isn't known yet.
+     */
+    public boolean project(double x, double y, double heading, AprilTagMetadata tag, double[] out) {
+        if (!calibrated || tag.fieldPosition == null) return false;
+        double toInches = tag.distanceUnit.toInches(1);
+        // Tag relative to the robot in the FTC field frame, then in the robot frame (x right,
+        // y forward). AprilTag robotPose yaw is 0 facing FTC +y, which is Pedro heading 0.
+        double dx = tag.fieldPosition.get(0) * toInches - AprilTagFusion.toFtcX(x, y);
+        double dy = tag.fieldPosition.get(1) * toInches - AprilTagFusion.toFtcY(x, y);
+        double dz = tag.fieldPosition.get(2) * toInches;
+        double cos = Math.cos(heading), sin = Math.sin(heading);
+        double rx = cos * dx + sin * dy - cameraX;
+        double ry = -sin * dx + cos * dy - cameraY;
+        double rz = dz - cameraZ;
+
+        double[] r = cameraRotation;
+        double px = r[0] * rx + r[3] * ry + r[6] * rz;
+        double py = r[1] * rx + r[4] * ry + r[7] * rz;
+        double pz = r[2] * rx + r[5] * ry + r[8] * rz;
+        if (pz < 1) return false;
+        out[0] = cx + fx * px / pz;
+        out[1] = cy + fy * py / pz;
+        out[2] = fx * tag.tagsize * toInches / pz;
+        out[3] = pz;
+        return true;
+    }
+
+    /**
+     * Fills out, row-major, with the camera's rotation on the robot, built the same way as
+     * AprilTagProcessor.Builder.setCameraPose: its columns are the camera's x (image right),
+     * y (image down) and z (optical axis) in robot axes (x right, y forward, z up).
+     */
+    static void cameraRotation(YawPitchRollAngles cameraOrientation, double[] out) {
+        OpenGLMatrix rotation = new Orientation(AxesReference.INTRINSIC, AxesOrder.ZXZ, AngleUnit.DEGREES,
+                (float) cameraOrientation.getYaw(AngleUnit.DEGREES),
+                (float) cameraOrientation.getPitch(AngleUnit.DEGREES),
+                (float) cameraOrientation.getRoll(AngleUnit.DEGREES), 0).getRotationMatrix();
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) out[3 * r + c] = rotation.get(r, c);
+        }
+    }
+
+    /** Lens focal lengths and principal point, {fx, fy, cx, cy}, once the camera has started. */
+    public boolean getLensIntrinsics(double[] out) {
+        if (!calibrated) return false;
+        out[0] = fx;
+        out[1] = fy;
+        out[2] = cx;
+        out[3] = cy;
+        return true;
+    }
+
+    private void setInnerDecimation(float decimation) {
+        if (decimation != this.decimation) {
+            aprilTag.setDecimation(decimation);
+            this.decimation = decimation;
+        }
+    }
+
+    @Override
+    public void onDrawFrame(Canvas canvas, int onscreenWidth, int onscreenHeight,
+                            float scaleBmpPxToCanvasPx, float scaleCanvasDensity, Object userContext) {
+        if (userContext == null) return;
+        aprilTag.onDrawFrame(canvas, onscreenWidth, onscreenHeight, scaleBmpPxToCanvasPx, scaleCanvasDensity, userContext);
+    }
+
+    /** Sets the decimation used for full-frame scans; region frames pick their own. */
+    @Override
+    public void setDecimation(float decimation) {
+        fullFrameDecimation = decimation;
+    }
+
+    @Override
+    public void setPoseSolver(PoseSolver poseSolver) {
+        aprilTag.setPoseSolver(poseSolver);
+    }
+
+    @Override
+    public int getPerTagAvgPoseSolveTime() {
+        return aprilTag.getPerTagAvgPoseSolveTime();
+    }
+
+    @Override
+    public ArrayList<AprilTagDetection> getDetections() {
+        return aprilTag.getDetections();
+    }
+
+    @Override
+    public ArrayList<AprilTagDetection> getFreshDetections() {
+        return aprilTag.getFreshDetections();
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public long getRoiFrameCount() {
+        return roiFrames;
+    }
+
+    public long getFullFrameCount() {
+        return fullFrames;
+    }
+
+    /** Frames not scanned at all because no field tag was predicted in view. */
+    public long getSkippedFrameCount() {
+        return skippedFrames;
+    }
+
+    public float getDecimation() {
+        return decimation;
+    }
+
+    /** Camera frame rate, smoothed over about ten frames. */
+    public double getFps() {
+        double interval = frameIntervalNanos;
+        return interval > 0 ? 1e9 / interval : 0;
+    }
+
+    /** Time spent per scanned frame. Written on the vision thread, so reads elsewhere are approximate. */
+    public LatencyHistogram getProcessTimes() {
+        return processTimes;
+    }
+}
@@ -0,0 +1,424 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.graphics.Canvas;
+import android.graphics.ImageFormat;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.os.Environment;
+import android.util.Size;
+
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.util.RobotLog;
+import com.qualcomm.robotcore.util.SerialNumber;
+
+import org.firstinspires.ftc.robotcore.external.hardware.camera.CameraCharacteristics;
+import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
+import org.firstinspires.ftc.robotcore.internal.camera.calibration.CameraCalibration;
+import org.firstinspires.ftc.robotcore.internal.usb.VendorProductSerialNumber;
+import org.firstinspires.ftc.teamcode.util.LatencyHistogram;
+import org.firstinspires.ftc.vision.VisionPortal;
+import org.firstinspires.ftc.vision.VisionProcessor;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
+import org.opencv.core.Mat;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * This is the StreamBenchmark class. It tries a webcam at each resolution and stream format worth
+ * trying, running the AprilTag processor on what it delivers, and remembers which did best for
+ * that model of camera (its USB vendor and product ids), so OpModes can build their portal with it
+ * instead of guessing between 320x240 and 640x480, YUY2 and MJPEG.
+ *
+ * The resolutions tried are the ones teamwebcamcalibrations.xml lists for the camera plus
+ * DEFAULT_SIZES, less any the camera doesn't offer; MJPEG is only tried where the camera offers it.
+ * Each mode runs the processor {@link AprilTagFusion#create} would build (see {@link #roi}),
+ * measuring the frames processed per second, the time from capture to detections, and the share of
+ * frames with a tag in them, so tags must be in view. The best is the one with the freshest poses
+ * (latency plus half a frame period) among those within detectionTolerance of the best detection
+ * rate, preferring sizes with a lens calibration, which tag poses need.
+ *
+ * Trials don't block: {@link #open} starts the camera, {@link Trial#update()} says when it is
+ * done, and {@link Trial#close()} gives the result. {@link StreamBenchmarkOpMode} runs them all.
+ * <pre>
+ * VisionPortal.Builder builder = new VisionPortal.Builder().setCamera(webcam);
+ * StreamBenchmark.applyBest(builder, hardwareMap, "Webcam 1"); // Leaves the SDK default if untested
+ * </pre>
+ */
+public class StreamBenchmark {
+    /** Best mode per camera model, by vendor and product id. */
+    public static final File CACHE = new File(Environment.getExternalStorageDirectory(), "FIRST/data/webcam_streams.properties");
+    /** Tried as well as the calibrated sizes, if the camera offers them. */
+    public static final Size[] DEFAULT_SIZES = {new Size(320, 240), new Size(640, 360), new Size(640, 480), new Size(800, 600)};
+
+    /** Longest wait for the camera to start streaming in a mode. */
+    public long openTimeoutNanos = 5_000_000_000L;
+    /** Frames ignored after the stream starts, while exposure settles. */
+    public long warmupNanos = 1_000_000_000L;
+    /** How long each mode is measured. */
+    public long measureNanos = 3_000_000_000L;
+    /** Detection rates within this of the best count as equally good. */
+    public double detectionTolerance = 0.1;
+    /** Larger sizes aren't tried; the Control Hub can't decode them at a useful rate. */
+    public int maxPixels = 1280 * 720;
+    /** Measure a {@link RoiAprilTagProcessor}, as AprilTagFusion.create builds with roi set. */
+    public boolean roi = false;
+
+    /** A resolution and stream format. */
+    public static class Mode {
+        public final Size size;
+        public final VisionPortal.StreamFormat format;
+
+        public Mode(Size size, VisionPortal.StreamFormat format) {
+            this.size = size;
+            this.format = format;
+        }
+
+        @Override
+        public String toString() {
+            return size.getWidth() + "x" + size.getHeight() + " " + format;
+        }
+
+        /** Parses toString() back, or returns null. */
+        public static Mode parse(String text) {
+            if (text == null) return null;
+            String[] parts = text.trim().split("[x ]+");
+            if (parts.length != 3) return null;
+            try {
+                return new Mode(new Size(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])),
+                        VisionPortal.StreamFormat.valueOf(parts[2]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * How one mode did. The probe updates it on the camera thread while holding its lock, so read
+     * it through the methods here, or hold the lock as well, until the trial is closed.
+     */
+    public static class Result {
+        public final Mode mode;
+        public final LatencyHistogram latency = new LatencyHistogram();
+        public long frames, detectedFrames;
+        public double marginSum;
+        public double seconds;
+        /** Whether the SDK had a lens calibration for the size, needed for tag poses. */
+        public boolean calibrated;
+        public String error;
+
+        Result(Mode mode) {
+            this.mode = mode;
+        }
+
+        public synchronized long getFrames() {
+            return frames;
+        }
+
+        public synchronized double getFps() {
+            return seconds > 0 ? frames / seconds : 0;
+        }
+
+        /** Share of frames with at least one known tag. */
+        public synchronized double getDetectionRate() {
+            return frames == 0 ? 0 : (double) detectedFrames / frames;
+        }
+
+        public synchronized double getMeanMargin() {
+            return detectedFrames == 0 ? 0 : marginSum / detectedFrames;
+        }
+
+        /** How old a pose is on average when it arrives: capture to detections plus half a frame. */
+        public synchronized double getPoseAgeMillis() {
+            double fps = getFps();
+            return fps > 0 ? latency.getPercentileMillis(50) + 500 / fps : Double.MAX_VALUE;
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (error != null) return mode + ": " + error;
+            return String.format(Locale.US, "%s: %.1f fps, p50 %.0f ms, tags %.0f%% margin %.0f%s",
+                    mode, getFps(), latency.getPercentileMillis(50), 100 * getDetectionRate(),
+                    getMeanMargin(), calibrated ? "" : ", uncalibrated");
+        }
+    }
+
+    /** Passes frames to the AprilTag processor, timing it from capture and counting tags found. */
+    static class Probe implements VisionProcessor {
+        final AprilTagProcessor aprilTag;
+        volatile Result result;
+        volatile boolean calibrated;
+
+        Probe(AprilTagProcessor aprilTag) {
+            this.aprilTag = aprilTag;
+        }
+
+        @Override
+        public void init(int width, int height, CameraCalibration calibration) {
+            calibrated = calibration != null && !calibration.isFake();
+            aprilTag.init(width, height, calibration);
+        }
+
+        @Override
+        public Object processFrame(Mat frame, long captureTimeNanos) {
+            Object context = aprilTag.processFrame(frame, captureTimeNanos);
+            Result r = result;
+            if (r == null) return context;
+            long latencyNanos = System.nanoTime() - captureTimeNanos;
+            int seen = 0;
+            double margins = 0;
+            for (AprilTagDetection detection : aprilTag.getDetections()) {
+                if (detection.metadata == null) continue;
+                seen++;
+                margins += detection.decisionMargin;
+            }
+            synchronized (r) {
+                r.latency.record(latencyNanos);
+                r.frames++;
+                if (seen > 0) {
+                    r.detectedFrames++;
+                    r.marginSum += margins / seen;
+                }
+            }
+            return context;
+        }
+
+        @Override
+        public void onDrawFrame(Canvas canvas, int onscreenWidth, int onscreenHeight,
+                                float scaleBmpPxToCanvasPx, float scaleCanvasDensity, Object userContext) {
+        }
+    }
+
+    /** One mode being measured. */
+    public class Trial {
+        public final Result result;
+        private final VisionPortal portal;
+        private final Probe probe;
+        private final long openedNanos;
+        private long streamingNanos, measuringNanos;
+
+        Trial(WebcamName webcam, Mode mode) {
+            result = new Result(mode);
+            probe = new Probe(AprilTagFusion.newProcessor(roi));
+            portal = new VisionPortal.Builder()
+                    .setCamera(webcam)
+                    .setCameraResolution(mode.size)
+                    .setStreamFormat(mode.format)
+                    .enableLiveView(false)
+                    .addProcessor(probe)
+                    .build();
+            openedNanos = System.nanoTime();
+        }
+
+        /** Moves the trial along; true once it is done and should be closed. */
+        public boolean update() {
+            long now = System.nanoTime();
+            if (result.error != null) return true;
+            if (streamingNanos == 0) {
+                if (portal.getCameraState() == VisionPortal.CameraState.STREAMING) {
+                    streamingNanos = now;
+                } else if (now - openedNanos > openTimeoutNanos) {
+                    result.error = "did not stream (" + portal.getCameraState() + ")";
+                    return true;
+                }
+                return false;
+            }
+            if (measuringNanos == 0) {
+                if (now - streamingNanos < warmupNanos) return false;
+                measuringNanos = now;
+                probe.result = result;
+                return false;
+            }
+            return now - measuringNanos >= measureNanos;
+        }
+
+        /** Closes the camera and returns the result. */
+        public Result close() {
+            probe.result = null;
+            synchronized (result) {
+                if (measuringNanos != 0) result.seconds = (System.nanoTime() - measuringNanos) * 1e-9;
+                result.calibrated = probe.calibrated;
+            }
+            portal.close();
+            return result;
+        }
+    }
+
+    /** Opens the webcam in a mode and starts measuring it. */
+    public Trial open(WebcamName webcam, Mode mode) {
+        return new Trial(webcam, mode);
+    }
+
+    /** The modes worth trying on this webcam, smallest first, YUY2 before MJPEG. */
+    public List<Mode> modes(HardwareMap hardwareMap, String webcamName) {
+        WebcamName webcam = hardwareMap.get(WebcamName.class, webcamName);
+        List<Size> sizes = new ArrayList<>();
+        int[] ids = identify(hardwareMap, webcam);
+        if (ids != null) {
+            for (Size size : calibratedSizes(hardwareMap.appContext, ids[0], ids[1])) addSize(sizes, size);
+        }
+        for (Size size : DEFAULT_SIZES) addSize(sizes, size);
+
+        CameraCharacteristics characteristics = webcam.getCameraCharacteristics();
+        List<Mode> modes = new ArrayList<>();
+        for (Size size : sizes) {
+            if ((long) size.getWidth() * size.getHeight() > maxPixels) continue;
+            for (VisionPortal.StreamFormat format : VisionPortal.StreamFormat.values()) {
+                int androidFormat = format == VisionPortal.StreamFormat.MJPEG ? ImageFormat.JPEG : ImageFormat.YUY2;
+                if (characteristics != null && !offers(characteristics, androidFormat, size)) continue;
+                modes.add(new Mode(size, format));
+            }
+        }
+        return modes;
+    }
+
+    private static void addSize(List<Size> sizes, Size size) {
+        for (int i = 0; i < sizes.size(); i++) {
+            Size s = sizes.get(i);
+            if (s.getWidth() == size.getWidth() && s.getHeight() == size.getHeight()) return;
+            if ((long) s.getWidth() * s.getHeight() > (long) size.getWidth() * size.getHeight()) {
+                sizes.add(i, size);
+                return;
+            }
+        }
+        sizes.add(size);
+    }
+
+    private static boolean offers(CameraCharacteristics characteristics, int androidFormat, Size size) {
+        for (CameraCharacteristics.CameraMode mode : characteristics.getAllCameraModes()) {
+            if (mode.androidFormat == androidFormat && mode.size.getWidth() == size.getWidth()
+                    && mode.size.getHeight() == size.getHeight()) return true;
+        }
+        return false;
+    }
+
+    /** The best of the results as described above, or null if none worked. */
+    public Result best(List<Result> results) {
+        double bestRate = 0;
+        boolean anyCalibrated = false;
+        for (Result r : results) {
+            if (r.error != null || r.getFrames() == 0) continue;
+            bestRate = Math.max(bestRate, r.getDetectionRate());
+            anyCalibrated |= r.calibrated;
+        }
+        Result best = null;
+        for (Result r : results) {
+            if (r.error != null || r.getFrames() == 0) continue;
+            if (r.getDetectionRate() < bestRate - detectionTolerance) continue;
+            if (anyCalibrated && !r.calibrated) continue;
+            if (best == null || r.getPoseAgeMillis() < best.getPoseAgeMillis()) best = r;
+        }
+        return best;
+    }
+
+    /**
+     * The webcam's USB vendor and product ids, from its serial number or, for webcams with a
+     * serial number of their own, from the USB device it is attached as. Null if unknown.
+     */
+    public static int[] identify(HardwareMap hardwareMap, WebcamName webcam) {
+        SerialNumber serial = webcam.getSerialNumber();
+        if (serial instanceof VendorProductSerialNumber) {
+            VendorProductSerialNumber vp = (VendorProductSerialNumber) serial;
+            return new int[] {vp.getVendorId(), vp.getProductId()};
+        }
+        String deviceName = webcam.getUsbDeviceNameIfAttached();
+        UsbManager usb = (UsbManager) hardwareMap.appContext.getSystemService(Context.USB_SERVICE);
+        if (deviceName == null || usb == null) return null;
+        UsbDevice device = usb.getDeviceList().get(deviceName);
+        return device == null ? null : new int[] {device.getVendorId(), device.getProductId()};
+    }
+
+    /** The cache key for a camera model. */
+    public static String key(int vid, int pid) {
+        return String.format(Locale.US, "%04x:%04x", vid, pid);
+    }
+
+    /** The sizes teamwebcamcalibrations.xml has calibrations for on this camera model. */
+    static List<Size> calibratedSizes(Context context, int vid, int pid) {
+        List<Size> sizes = new ArrayList<>();
+        int id = context.getResources().getIdentifier("teamwebcamcalibrations", "xml", context.getPackageName());
+        if (id == 0) return sizes;
+        XmlResourceParser parser = context.getResources().getXml(id);
+        try {
+            boolean match = false;
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event != XmlPullParser.START_TAG) continue;
+                if ("Camera".equals(parser.getName())) {
+                    match = parseId(parser.getAttributeValue(null, "vid")) == vid
+                            && parseId(parser.getAttributeValue(null, "pid")) == pid;
+                } else if (match && "Calibration".equals(parser.getName())) {
+                    String[] wh = String.valueOf(parser.getAttributeValue(null, "size")).trim().split("[ ,]+");
+                    if (wh.length == 2) sizes.add(new Size(Integer.parseInt(wh[0]), Integer.parseInt(wh[1])));
+                }
+            }
+        } catch (Exception e) {
+            RobotLog.ee("StreamBenchmark", e, "Could not read teamwebcamcalibrations.xml");
+        } finally {
+            parser.close();
+        }
+        return sizes;
+    }
+
+    // The calibration file names the two common vendors instead of giving their ids.
+    private static int parseId(String text) {
+        if (text == null) return -1;
+        if ("Logitech".equalsIgnoreCase(text)) return 0x046D;
+        if ("Microsoft".equalsIgnoreCase(text)) return 0x045E;
+        try {
+            return Integer.decode(text.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Remembers the best mode for a camera model, with what it measured. */
+    public static void save(int vid, int pid, Result best) {
+        Properties cache = readCache();
+        cache.setProperty(key(vid, pid), best.mode.toString());
+        cache.setProperty(key(vid, pid) + ".measured", best.toString());
+        CACHE.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(CACHE)) {
+            cache.store(out, "Best webcam stream modes, written by StreamBenchmarkOpMode");
+        } catch (IOException e) {
+            RobotLog.ee("StreamBenchmark", e, "Could not write " + CACHE);
+        }
+    }
+
+    /** The remembered mode for this webcam's model, or null if it hasn't been benchmarked. */
+    public static Mode load(HardwareMap hardwareMap, String webcamName) {
+        int[] ids = identify(hardwareMap, hardwareMap.get(WebcamName.class, webcamName));
+        return ids == null ? null : Mode.parse(readCache().getProperty(key(ids[0], ids[1])));
+    }
+
+    /** Sets the remembered mode on the builder, if there is one; returns the builder. */
+    public static VisionPortal.Builder applyBest(VisionPortal.Builder builder, HardwareMap hardwareMap, String webcamName) {
+        Mode mode = load(hardwareMap, webcamName);
+        if (mode != null) {
+            builder.setCameraResolution(mode.size).setStreamFormat(mode.format);
+        }
+        return builder;
+    }
+
+    private static Properties readCache() {
+        Properties cache = new Properties();
+        if (!CACHE.exists()) return cache;
+        try (InputStream in = new FileInputStream(CACHE)) {
+            cache.load(in);
+        } catch (IOException e) {
+            RobotLog.ee("StreamBenchmark", e, "Could not read " + CACHE);
+        }
+        return cache;
+    }
+}
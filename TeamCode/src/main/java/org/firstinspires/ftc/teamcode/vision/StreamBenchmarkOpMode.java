@@ -0,0 +1,71 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import com.bylazar.configurables.annotations.Configurable;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+
+import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is the StreamBenchmarkOpMode class. It runs {@link StreamBenchmark} on the webcam, one
+ * resolution and stream format after another, and saves the best to
+ * FIRST/data/webcam_streams.properties for that model of camera, where
+ * {@link StreamBenchmark#applyBest} finds it. Point the camera at field tags first, from about
+ * where the robot will see them; it takes a few seconds per mode.
+ */
+@TeleOp(name = "StreamBenchmark", group = "Tuning")
+@Configurable // Panels
+public class StreamBenchmarkOpMode extends LinearOpMode {
+    public static String WEBCAM = "Webcam 1";
+    public static double MEASURE_SECONDS = 3;
+    public static boolean ROI = true; // As the roi flag passed to AprilTagFusion.create (blueAutoClose.APRILTAG_ROI)
+
+    @Override
+    public void runOpMode() {
+        StreamBenchmark benchmark = new StreamBenchmark();
+        benchmark.measureNanos = (long) (MEASURE_SECONDS * 1e9);
+        benchmark.roi = ROI;
+        WebcamName webcam = hardwareMap.get(WebcamName.class, WEBCAM);
+        int[] ids = StreamBenchmark.identify(hardwareMap, webcam);
+        List<StreamBenchmark.Mode> modes = benchmark.modes(hardwareMap, WEBCAM);
+        StreamBenchmark.Mode cached = StreamBenchmark.load(hardwareMap, WEBCAM);
+
+        telemetry.addData("Camera", ids == null ? "unknown vid:pid, results won't be saved" : StreamBenchmark.key(ids[0], ids[1]));
+        telemetry.addData("Modes", modes.size());
+        telemetry.addData("Current best", cached == null ? "none" : cached);
+        telemetry.addLine("Point the camera at tags and press start");
+        telemetry.update();
+        waitForStart();
+
+        List<StreamBenchmark.Result> results = new ArrayList<>();
+        for (StreamBenchmark.Mode mode : modes) {
+            if (isStopRequested()) break;
+            StreamBenchmark.Trial trial = benchmark.open(webcam, mode);
+            while (!trial.update() && !isStopRequested()) {
+                telemetry.addData("Running", mode);
+                telemetry.addData("Done", results.size() + "/" + modes.size());
+                telemetry.update();
+                sleep(20);
+            }
+            results.add(trial.close());
+        }
+
+        StreamBenchmark.Result best = benchmark.best(results);
+        for (StreamBenchmark.Result r : results) {
+            telemetry.addLine((r == best ? "* " : "  ") + r);
+        }
+        if (best == null) {
+            telemetry.addData("Best", "none worked");
+        } else if (ids != null && results.size() == modes.size()) {
+            StreamBenchmark.save(ids[0], ids[1], best);
+            telemetry.addData("Saved", best.mode + " to " + StreamBenchmark.CACHE.getPath());
+        }
+        telemetry.update();
+        while (opModeIsActive()) {
+            sleep(50);
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import com.qualcomm.robotcore.util.SortOrder;
+
+import org.firstinspires.ftc.robotcore.internal.camera.calibration.CameraCalibration;
+import org.firstinspires.ftc.teamcode.util.LatencyHistogram;
+import org.firstinspires.ftc.vision.opencv.Circle;
+import org.firstinspires.ftc.vision.opencv.ColorBlobLocatorProcessor;
+import org.firstinspires.ftc.vision.opencv.ColorRange;
+import org.firstinspires.ftc.vision.opencv.ColorSpace;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is the TrackingBlobLocatorProcessor class. It finds the same blobs as the SDK's
+ * ColorBlobLocatorProcessor set up as in ConceptVisionColorLocator_Circle (color threshold, then a
+ * closing to fill the blobs out, then external contours), but does the expensive full-resolution
+ * work only where a blob is.
+ *
+ * A search frame shrinks the region of interest down an image pyramid (pyramidLevels halvings,
+ * whose Gaussian smoothing stands in for the blur), thresholds and closes it there with a
+ * correspondingly smaller kernel, and takes the bounding box of every coarse blob. A tracking
+ * frame instead takes a window around where each blob found in the last frame should be, from its
+ * circle fit and its motion since the frame before. Either way only those windows, padded and
+ * merged, are thresholded, closed and traced at full resolution, so the blobs reported have the
+ * same contours and fits as the SDK's. Tracking frames run until a blob is lost or for
+ * searchInterval frames, so blobs entering the view are picked up within that many frames.
+ *
+ * It extends ColorBlobLocatorProcessor, so filters, sorting, getBlobs() and
+ * ColorBlobLocatorProcessor.Util work exactly as with the SDK's. {@link #getProcessTimes()} and
+ * {@link #getFps()} show what it costs; VisionBenchmark runs it next to the SDK's.
+ */
+public class TrackingBlobLocatorProcessor extends ColorBlobLocatorProcessor {
+    /** Halvings of the search image: 1 searches at half resolution, 2 at a quarter. */
+    public int pyramidLevels = 2;
+    /** Closing (dilate, then erode) kernel at full resolution, pixels; the sample uses 15. */
+    public int morphSize = 15;
+    /** Blur kernel for the full-resolution windows, 0 for none; the sample uses 5. */
+    public int blurSize = 5;
+    /** Coarse blobs smaller than this, in full-resolution pixels, aren't refined. */
+    public int minSearchArea = 50;
+    /** Margin around a window, pixels; should be at least morphSize so closing sees the same pixels. */
+    public int windowPadding = 16;
+    /** A tracking window is this many circle radii wide on each side, plus the expected motion. */
+    public double trackRadii = 1.5;
+    /** Longest run of tracking frames before a search frame. */
+    public int searchInterval = 10;
+    /** Blobs to track; more than this and the frame is a search frame anyway. */
+    public int maxTracks = 6;
+
+    private final ColorSpace colorSpace;
+    private final Scalar min, max;
+    private double roiLeft = -1, roiTop = 1, roiRight = 1, roiBottom = -1;
+    private ColorLut lut;
+    private int lutClass;
+
+    private final Object lockFilters = new Object();
+    private final List<BlobFilter> filters = new ArrayList<>();
+    private volatile BlobSort sort = new BlobSort(BlobCriteria.BY_CONTOUR_AREA, SortOrder.DESCENDING);
+    private volatile List<Blob> userBlobs = new ArrayList<>();
+
+    // Vision thread only.
+    private Rect roi;
+    private int conversion;
+    private Mat coarseKernel, kernel;
+    private final Mat pyramid = new Mat(), pyramidNext = new Mat();
+    private final Mat converted = new Mat(), mask = new Mat(), hierarchy = new Mat();
+    private final List<Rect> windows = new ArrayList<>();
+    private final List<Track> tracks = new ArrayList<>();
+    private int framesSinceSearch;
+    private long lastFrameNanos;
+
+    private final LatencyHistogram processTimes = new LatencyHistogram();
+    private final Paint circlePaint = new Paint();
+    private volatile long frames, searchFrames, trackingFrames;
+    private volatile double frameIntervalNanos;
+
+    private static class Track {
+        double x, y, radius, vx, vy;
+        boolean matched;
+    }
+
+    /** Uses the color space and bounds of one of the SDK's ranges, e.g. ColorRange.ARTIFACT_PURPLE. */
+    public TrackingBlobLocatorProcessor(ColorRange range) {
+        this(ColorRanges.colorSpace(range), ColorRanges.min(range), ColorRanges.max(range));
+    }
+
+    public TrackingBlobLocatorProcessor(ColorSpace colorSpace, Scalar min, Scalar max) {
+        this.colorSpace = colorSpace;
+        this.min = min;
+        this.max = max;
+        circlePaint.setColor(Color.rgb(255, 255, 0));
+        circlePaint.setStyle(Paint.Style.STROKE);
+        circlePaint.setAntiAlias(true);
+    }
+
+    /** Region of interest in unity center coordinates, as ImageRegion.asUnityCenterCoordinates. */
+    public TrackingBlobLocatorProcessor setRoi(double left, double top, double right, double bottom) {
+        roiLeft = left;
+        roiTop = top;
+        roiRight = right;
+        roiBottom = bottom;
+        return this;
+    }
+
+    /**
+     * Classifies pixels with a {@link ColorLut} instead of the color range: a pixel is part of a
+     * blob if the table gives it the class. Set before the portal starts.
+     */
+    public TrackingBlobLocatorProcessor setColorLut(ColorLut lut, int classId) {
+        this.lut = lut;
+        this.lutClass = classId;
+        return this;
+    }
+
+    @Override
+    public void init(int width, int height, CameraCalibration calibration) {
+        int x = clamp((int) Math.round((roiLeft + 1) / 2 * width), 0, width - 1);
+        int y = clamp((int) Math.round((1 - roiTop) / 2 * height), 0, height - 1);
+        int right = clamp((int) Math.round((roiRight + 1) / 2 * width), x + 1, width);
+        int bottom = clamp((int) Math.round((1 - roiBottom) / 2 * height), y + 1, height);
+        roi = new Rect(x, y, right - x, bottom - y);
+
+        conversion = colorSpace == ColorSpace.YCrCb ? Imgproc.COLOR_RGB2YCrCb
+                : colorSpace == ColorSpace.HSV ? Imgproc.COLOR_RGB2HSV : Imgproc.COLOR_RGBA2RGB;
+        kernel = structuringElement(morphSize);
+        coarseKernel = structuringElement(morphSize >> pyramidLevels);
+        tracks.clear();
+    }
+
+    private static Mat structuringElement(int size) {
+        if (size < 1) return null;
+        return Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(size, size));
+    }
+
+    @Override
+    public Object processFrame(Mat frame, long captureTimeNanos) {
+        long start = System.nanoTime();
+        if (lastFrameNanos != 0) {
+            double interval = captureTimeNanos - lastFrameNanos;
+            frameIntervalNanos = frameIntervalNanos == 0 ? interval : 0.9 * frameIntervalNanos + 0.1 * interval;
+        }
+        lastFrameNanos = captureTimeNanos;
+        frames++;
+
+        windows.clear();
+        boolean search = tracks.isEmpty() || tracks.size() > maxTracks || framesSinceSearch >= searchInterval;
+        if (search) {
+            searchWindows(frame);
+            framesSinceSearch = 0;
+            searchFrames++;
+        } else {
+            trackWindows();
+            framesSinceSearch++;
+            trackingFrames++;
+        }
+        mergeWindows();
+
+        List<Blob> blobs = new ArrayList<>();
+        for (Rect window : windows) refine(frame, window, blobs);
+
+        synchronized (lockFilters) {
+            for (BlobFilter filter : filters) {
+                Util.filterByCriteria(filter.criteria, filter.minValue, filter.maxValue, blobs);
+            }
+        }
+        BlobSort sort = this.sort;
+        if (sort != null) Util.sortByCriteria(sort.criteria, sort.sortOrder, blobs);
+
+        // A lost blob means the next frame searches again.
+        if (updateTracks(blobs) && !search) framesSinceSearch = searchInterval;
+        userBlobs = blobs;
+        processTimes.record(System.nanoTime() - start);
+        return blobs;
+    }
+
+    /** Windows around every blob in the shrunken region of interest. */
+    private void searchWindows(Mat frame) {
+        Mat source = frame.submat(roi);
+        Mat level = source;
+        for (int i = 0; i < pyramidLevels; i++) {
+            Mat next = level == pyramid ? pyramidNext : pyramid;
+            Imgproc.pyrDown(level, next);
+            level = next;
+        }
+        if (lut != null) {
+            lut.mask(level, lutClass, mask);
+        } else {
+            Imgproc.cvtColor(level, converted, conversion);
+            Core.inRange(converted, min, max, mask);
+        }
+        if (coarseKernel != null) {
+            Imgproc.dilate(mask, mask, coarseKernel);
+            Imgproc.erode(mask, mask, coarseKernel);
+        }
+        List<MatOfPoint> contours = new ArrayList<>();
+        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        source.release();
+
+        int scale = 1 << pyramidLevels;
+        for (MatOfPoint contour : contours) {
+            Rect box = Imgproc.boundingRect(contour);
+            contour.release();
+            if ((double) box.area() * scale * scale < minSearchArea) continue;
+            addWindow(roi.x + box.x * scale, roi.y + box.y * scale, box.width * scale, box.height * scale);
+        }
+    }
+
+    /** Windows where the tracked blobs should be in this frame. */
+    private void trackWindows() {
+        for (Track track : tracks) {
+            double x = track.x + track.vx, y = track.y + track.vy;
+            double half = track.radius * trackRadii + Math.hypot(track.vx, track.vy);
+            addWindow((int) (x - half), (int) (y - half), (int) (2 * half), (int) (2 * half));
+        }
+    }
+
+    private void addWindow(int x, int y, int width, int height) {
+        int left = Math.max(roi.x, x - windowPadding);
+        int top = Math.max(roi.y, y - windowPadding);
+        int right = Math.min(roi.x + roi.width, x + width + windowPadding);
+        int bottom = Math.min(roi.y + roi.height, y + height + windowPadding);
+        if (right > left && bottom > top) windows.add(new Rect(left, top, right - left, bottom - top));
+    }
+
+    /** Merges overlapping windows so no blob is traced twice. */
+    private void mergeWindows() {
+        for (int i = 0; i < windows.size(); i++) {
+            Rect a = windows.get(i);
+            for (int j = i + 1; j < windows.size(); j++) {
+                Rect b = windows.get(j);
+                if (a.x < b.x + b.width && b.x < a.x + a.width && a.y < b.y + b.height && b.y < a.y + a.height) {
+                    int left = Math.min(a.x, b.x), top = Math.min(a.y, b.y);
+                    int right = Math.max(a.x + a.width, b.x + b.width), bottom = Math.max(a.y + a.height, b.y + b.height);
+                    windows.set(i, new Rect(left, top, right - left, bottom - top));
+                    windows.remove(j);
+                    i = -1; // The grown window may now overlap one already passed
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Thresholds, closes and traces one window at full resolution. */
+    private void refine(Mat frame, Rect window, List<Blob> blobs) {
+        Mat source = frame.submat(window);
+        if (lut != null) {
+            // The table works on RGB, so blur before the lookup rather than after the conversion.
+            if (blurSize > 0) {
+                Imgproc.GaussianBlur(source, converted, new Size(blurSize, blurSize), 0);
+                lut.mask(converted, lutClass, mask);
+            } else {
+                lut.mask(source, lutClass, mask);
+            }
+        } else {
+            Imgproc.cvtColor(source, converted, conversion);
+            if (blurSize > 0) Imgproc.GaussianBlur(converted, converted, new Size(blurSize, blurSize), 0);
+            Core.inRange(converted, min, max, mask);
+        }
+        source.release();
+        if (kernel != null) {
+            Imgproc.dilate(mask, mask, kernel);
+            Imgproc.erode(mask, mask, kernel);
+        }
+        List<MatOfPoint> contours = new ArrayList<>();
+        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        Scalar offset = new Scalar(window.x, window.y);
+        for (MatOfPoint contour : contours) {
+            Core.add(contour, offset, contour);
+            blobs.add(new TrackedBlob(contour));
+        }
+    }
+
+    /** Matches blobs to tracks by nearest circle center. Returns whether a track was lost. */
+    private boolean updateTracks(List<Blob> blobs) {
+        for (Track track : tracks) track.matched = false;
+        List<Track> next = new ArrayList<>();
+        for (Blob blob : blobs) {
+            Circle circle = blob.getCircle();
+            Track best = null;
+            double bestDistance = Double.MAX_VALUE;
+            for (Track track : tracks) {
+                if (track.matched) continue;
+                double reach = track.radius * trackRadii + Math.hypot(track.vx, track.vy) + windowPadding;
+                double distance = Math.hypot(circle.getX() - track.x - track.vx, circle.getY() - track.y - track.vy);
+                if (distance < reach && distance < bestDistance) {
+                    best = track;
+                    bestDistance = distance;
+                }
+            }
+            Track track = best != null ? best : new Track();
+            if (best != null) {
+                best.matched = true;
+                track.vx = circle.getX() - track.x;
+                track.vy = circle.getY() - track.y;
+            }
+            track.x = circle.getX();
+            track.y = circle.getY();
+            track.radius = circle.getRadius();
+            next.add(track);
+        }
+        boolean lost = false;
+        for (Track track : tracks) lost |= !track.matched;
+        tracks.clear();
+        tracks.addAll(next);
+        return lost;
+    }
+
+    private static int clamp(int value, int low, int high) {
+        return Math.max(low, Math.min(high, value));
+    }
+
+    @Override
+    public void onDrawFrame(Canvas canvas, int onscreenWidth, int onscreenHeight,
+                            float scaleBmpPxToCanvasPx, float scaleCanvasDensity, Object userContext) {
+        if (!(userContext instanceof List)) return;
+        circlePaint.setStrokeWidth(2 * scaleCanvasDensity);
+        for (Object o : (List<?>) userContext) {
+            Circle circle = ((Blob) o).getCircle();
+            canvas.drawCircle(circle.getX() * scaleBmpPxToCanvasPx, circle.getY() * scaleBmpPxToCanvasPx,
+                    circle.getRadius() * scaleBmpPxToCanvasPx, circlePaint);
+        }
+    }
+
+    @Override
+    public void addFilter(BlobFilter filter) {
+        synchronized (lockFilters) {
+            filters.add(filter);
+        }
+    }
+
+    @Override
+    public void removeFilter(BlobFilter filter) {
+        synchronized (lockFilters) {
+            filters.remove(filter);
+        }
+    }
+
+    @Override
+    public void removeAllFilters() {
+        synchronized (lockFilters) {
+            filters.clear();
+        }
+    }
+
+    @Override
+    public void setSort(BlobSort sort) {
+        this.sort = sort;
+    }
+
+    @Override
+    public List<Blob> getBlobs() {
+        return new ArrayList<>(userBlobs);
+    }
+
+    /** Frames seen; search frames plus tracking frames. */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public long getSearchFrameCount() {
+        return searchFrames;
+    }
+
+    public long getTrackingFrameCount() {
+        return trackingFrames;
+    }
+
+    /** Camera frames per second the processor is being given, from capture timestamps. */
+    public double getFps() {
+        double interval = frameIntervalNanos;
+        return interval > 0 ? 1e9 / interval : 0;
+    }
+
+    /** Time spent per frame. Written on the vision thread, so reads elsewhere are approximate. */
+    public LatencyHistogram getProcessTimes() {
+        return processTimes;
+    }
+
+    /** A blob with the same measures as the SDK's, computed on first use. */
+    private static class TrackedBlob extends Blob {
+        private final MatOfPoint contour;
+        private Point[] points;
+        private MatOfPoint2f contourAsFloat;
+        private int area = -1;
+        private double density = -1, aspectRatio = -1, arcLength = -1;
+        private RotatedRect boxFit;
+        private Circle circle;
+
+        TrackedBlob(MatOfPoint contour) {
+            this.contour = contour;
+        }
+
+        @Override
+        public MatOfPoint getContour() {
+            return contour;
+        }
+
+        @Override
+        public Point[] getContourPoints() {
+            if (points == null) points = contour.toArray();
+            return points;
+        }
+
+        @Override
+        public MatOfPoint2f getContourAsFloat() {
+            if (contourAsFloat == null) contourAsFloat = new MatOfPoint2f(getContourPoints());
+            return contourAsFloat;
+        }
+
+        @Override
+        public int getContourArea() {
+            if (area < 0) area = Math.max(1, (int) Imgproc.contourArea(contour));
+            return area;
+        }
+
+        @Override
+        public double getDensity() {
+            if (density < 0) {
+                Point[] points = getContourPoints();
+                MatOfInt hull = new MatOfInt();
+                Imgproc.convexHull(contour, hull);
+                int[] indices = hull.toArray();
+                hull.release();
+                Point[] hullPoints = new Point[indices.length];
+                for (int i = 0; i < indices.length; i++) hullPoints[i] = points[indices[i]];
+                MatOfPoint hullContour = new MatOfPoint(hullPoints);
+                density = getContourArea() / Math.max(1, Imgproc.contourArea(hullContour));
+                hullContour.release();
+            }
+            return density;
+        }
+
+        @Override
+        public double getAspectRatio() {
+            if (aspectRatio < 0) {
+                RotatedRect box = getBoxFit();
+                double longSide = Math.max(box.size.width, box.size.height);
+                double shortSide = Math.max(1, Math.min(box.size.width, box.size.height));
+                aspectRatio = longSide / shortSide;
+            }
+            return aspectRatio;
+        }
+
+        @Override
+        public RotatedRect getBoxFit() {
+            if (boxFit == null) boxFit = Imgproc.minAreaRect(getContourAsFloat());
+            return boxFit;
+        }
+
+        @Override
+        public double getArcLength() {
+            if (arcLength < 0) arcLength = Imgproc.arcLength(getContourAsFloat(), true);
+            return arcLength;
+        }
+
+        @Override
+        public double getCircularity() {
+            return 4 * Math.PI * getContourArea() / Math.pow(getArcLength(), 2);
+        }
+
+        @Override
+        public Circle getCircle() {
+            if (circle == null) {
+                Point center = new Point();
+                float[] radius = new float[1];
+                Imgproc.minEnclosingCircle(getContourAsFloat(), center, radius);
+                circle = new Circle(center, radius[0]);
+            }
+            return circle;
+        }
+    }
+}
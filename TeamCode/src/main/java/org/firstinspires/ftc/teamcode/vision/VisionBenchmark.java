@@ -0,0 +1,375 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import org.firstinspires.ftc.teamcode.util.LatencyHistogram;
+import org.firstinspires.ftc.vision.VisionProcessor;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagProcessor;
+import org.firstinspires.ftc.vision.opencv.ColorBlobLocatorProcessor;
+import org.firstinspires.ftc.vision.opencv.ColorRange;
+import org.firstinspires.ftc.vision.opencv.ImageRegion;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This is the VisionBenchmark class. It runs AprilTag and color blob processor configurations over
+ * a directory of frames saved by UtilityCameraFrameCapture, the same RGBA frames a VisionPortal
+ * would hand them, and reports per-frame processing time percentiles alongside what each
+ * configuration found, so decimation, blur, erode/dilate, ROI and resolution can be chosen from
+ * data rather than by watching the camera stream.
+ *
+ * If the directory holds a labels.csv, detections are scored against it. Each line is
+ * <pre>
+ * file,tags,blobs
+ * VisionPortal-CameraFrameCapture-000003.png,20 24,2
+ * </pre>
+ * with the tag IDs really in the frame (space separated, - for none) and the number of blobs of
+ * the target color. Tag IDs found that aren't listed are false positives, listed ones not found
+ * are misses; for blobs the count is compared. Frames without a line, or with a field left blank,
+ * aren't scored on it.
+ *
+ * It only needs OpenCV and the processors' natives, so it runs on the Control Hub from
+ * {@link VisionBenchmarkOpMode}, and on a Linux machine from sim.VisionBench given desktop builds
+ * of them.
+ */
+public class VisionBenchmark {
+    public enum Kind { TAGS, BLOBS }
+
+    /** Makes a fresh processor for one configuration. */
+    public interface ProcessorFactory {
+        VisionProcessor create();
+    }
+
+    /** A processor configuration, run at a given resolution (0 for the frames' own). */
+    public static class Config {
+        public final String name;
+        public final Kind kind;
+        public final int width, height;
+        public final ProcessorFactory factory;
+
+        public Config(String name, Kind kind, int width, int height, ProcessorFactory factory) {
+            this.name = name;
+            this.kind = kind;
+            this.width = width;
+            this.height = height;
+            this.factory = factory;
+        }
+    }
+
+    /** A captured frame and, if labeled, what is really in it. */
+    public static class Frame {
+        public final String name;
+        public final Mat rgba;
+        /** Tag IDs in the frame, or null if not labeled. */
+        public Set<Integer> tags;
+        /** Target-color blobs in the frame, or -1 if not labeled. */
+        public int blobs = -1;
+
+        public Frame(String name, Mat rgba) {
+            this.name = name;
+            this.rgba = rgba;
+        }
+    }
+
+    /** What one configuration did over all the frames. */
+    public static class Result {
+        public final Config config;
+        public final LatencyHistogram latency = new LatencyHistogram();
+        public int frames, framesWithDetections, detections;
+        public int scoredFrames, truePositives, falsePositives, misses;
+        /** Why the configuration couldn't run, or null. */
+        public String error;
+
+        Result(Config config) {
+            this.config = config;
+        }
+
+        public double getFps() {
+            double mean = latency.getMeanMillis();
+            return mean > 0 ? 1000 / mean : 0;
+        }
+    }
+
+    /** Passes over the frames before timing starts, so caches and the JIT are warm. */
+    public int warmupPasses = 1;
+    /** Timed passes over the frames; detections are counted on the first. */
+    public int passes = 3;
+
+    private final List<Frame> frames = new ArrayList<>();
+    private final Map<String, List<Mat>> resized = new HashMap<>();
+
+    public List<Frame> getFrames() {
+        return frames;
+    }
+
+    /**
+     * Loads every .png and .jpg in the directory whose name starts with prefix (empty for all),
+     * sorted by name, plus labels.csv if there is one. Returns how many frames were loaded.
+     */
+    public int loadFrames(File directory, String prefix) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) throw new IOException("Cannot list " + directory);
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            String lower = name.toLowerCase(Locale.US);
+            if (!name.startsWith(prefix) || !(lower.endsWith(".png") || lower.endsWith(".jpg"))) continue;
+            Mat bgr = Imgcodecs.imread(file.getPath());
+            if (bgr.empty()) {
+                bgr.release();
+                continue;
+            }
+            Mat rgba = new Mat();
+            Imgproc.cvtColor(bgr, rgba, Imgproc.COLOR_BGR2RGBA);
+            bgr.release();
+            frames.add(new Frame(name, rgba));
+        }
+        File labels = new File(directory, "labels.csv");
+        if (labels.exists()) loadLabels(labels);
+        return frames.size();
+    }
+
+    private void loadLabels(File file) throws IOException {
+        Map<String, Frame> byName = new HashMap<>();
+        for (Frame frame : frames) byName.put(frame.name, frame);
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",", -1);
+                Frame frame = byName.get(fields[0].trim());
+                if (frame == null) continue; // Header, or a frame that wasn't loaded
+                if (fields.length > 1 && !fields[1].trim().isEmpty()) {
+                    frame.tags = new HashSet<>();
+                    if (!fields[1].trim().equals("-")) {
+                        for (String id : fields[1].trim().split("\\s+")) frame.tags.add(Integer.parseInt(id));
+                    }
+                }
+                if (fields.length > 2 && !fields[2].trim().isEmpty()) frame.blobs = Integer.parseInt(fields[2].trim());
+            }
+        }
+    }
+
+    /** Runs one configuration over all loaded frames. */
+    public Result run(Config config) {
+        Result result = new Result(config);
+        if (frames.isEmpty()) {
+            result.error = "no frames";
+            return result;
+        }
+        List<Mat> mats = framesAt(config.width, config.height);
+        int width = mats.get(0).cols(), height = mats.get(0).rows();
+        try {
+            VisionProcessor processor = config.factory.create();
+            processor.init(width, height, null);
+            long nanos = 0;
+            for (int pass = 0; pass < warmupPasses; pass++) {
+                for (Mat mat : mats) processor.processFrame(mat, nanos += 33_000_000L);
+            }
+            for (int pass = 0; pass < passes; pass++) {
+                for (int f = 0; f < mats.size(); f++) {
+                    long start = System.nanoTime();
+                    Object detections = processor.processFrame(mats.get(f), nanos += 33_000_000L);
+                    result.latency.record(System.nanoTime() - start);
+                    if (pass == 0) score(result, frames.get(f), processor, detections);
+                }
+            }
+        } catch (RuntimeException | LinkageError e) {
+            // Typically missing natives off-robot; report it and carry on with the others.
+            result.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        return result;
+    }
+
+    public List<Result> runAll(List<Config> configs) {
+        List<Result> results = new ArrayList<>();
+        for (Config config : configs) results.add(run(config));
+        return results;
+    }
+
+    private void score(Result result, Frame frame, VisionProcessor processor, Object detections) {
+        result.frames++;
+        if (result.config.kind == Kind.TAGS) {
+            Set<Integer> found = new HashSet<>();
+            if (detections instanceof List) {
+                for (Object detection : (List<?>) detections) {
+                    if (detection instanceof AprilTagDetection) found.add(((AprilTagDetection) detection).id);
+                }
+            }
+            result.detections += found.size();
+            if (!found.isEmpty()) result.framesWithDetections++;
+            if (frame.tags != null) {
+                result.scoredFrames++;
+                for (int id : found) {
+                    if (frame.tags.contains(id)) result.truePositives++;
+                    else result.falsePositives++;
+                }
+                for (int id : frame.tags) {
+                    if (!found.contains(id)) result.misses++;
+                }
+            }
+        } else {
+            int found = ((ColorBlobLocatorProcessor) processor).getBlobs().size();
+            result.detections += found;
+            if (found > 0) result.framesWithDetections++;
+            if (frame.blobs >= 0) {
+                result.scoredFrames++;
+                result.truePositives += Math.min(found, frame.blobs);
+                result.falsePositives += Math.max(0, found - frame.blobs);
+                result.misses += Math.max(0, frame.blobs - found);
+            }
+        }
+    }
+
+    /** The frames at the given resolution, resized once and kept. */
+    private List<Mat> framesAt(int width, int height) {
+        String key = width + "x" + height;
+        List<Mat> mats = resized.get(key);
+        if (mats != null) return mats;
+        mats = new ArrayList<>();
+        for (Frame frame : frames) {
+            if (width <= 0 || (frame.rgba.cols() == width && frame.rgba.rows() == height)) {
+                mats.add(frame.rgba);
+            } else {
+                Mat mat = new Mat();
+                Imgproc.resize(frame.rgba, mat, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+                mats.add(mat);
+            }
+        }
+        resized.put(key, mats);
+        return mats;
+    }
+
+    public void release() {
+        for (List<Mat> mats : resized.values()) {
+            for (Mat mat : mats) mat.release();
+        }
+        for (Frame frame : frames) frame.rgba.release();
+        resized.clear();
+        frames.clear();
+    }
+
+    public static Config aprilTag(final float decimation, int width, int height) {
+        String name = String.format(Locale.US, "apriltag dec %.0f %s", decimation, resolution(width, height));
+        return new Config(name, Kind.TAGS, width, height, new ProcessorFactory() {
+            @Override
+            public VisionProcessor create() {
+                AprilTagProcessor processor = new AprilTagProcessor.Builder().build();
+                processor.setDecimation(decimation);
+                return processor;
+            }
+        });
+    }
+
+    public static Config colorBlob(final ColorRange range, final int blur, final int erode, final int dilate,
+                                   final ImageRegion roi, String roiName, int width, int height) {
+        String name = String.format(Locale.US, "blob blur %d close %d/%d roi %s %s",
+                blur, erode, dilate, roiName, resolution(width, height));
+        return new Config(name, Kind.BLOBS, width, height, new ProcessorFactory() {
+            @Override
+            public VisionProcessor create() {
+                return new ColorBlobLocatorProcessor.Builder()
+                        .setTargetColorRange(range)
+                        .setContourMode(ColorBlobLocatorProcessor.ContourMode.EXTERNAL_ONLY)
+                        .setRoi(roi)
+                        .setBlurSize(blur)
+                        .setErodeSize(erode)
+                        .setDilateSize(dilate)
+                        .setMorphOperationType(ColorBlobLocatorProcessor.MorphOperationType.CLOSING)
+                        .build();
+            }
+        });
+    }
+
+    /** A {@link TrackingBlobLocatorProcessor} with the given pyramid levels and the sample's kernels. */
+    public static Config trackingBlob(final ColorRange range, final int pyramidLevels, int width, int height) {
+        String name = String.format(Locale.US, "tracking blob levels %d %s", pyramidLevels, resolution(width, height));
+        return new Config(name, Kind.BLOBS, width, height, new ProcessorFactory() {
+            @Override
+            public VisionProcessor create() {
+                TrackingBlobLocatorProcessor processor = new TrackingBlobLocatorProcessor(range);
+                processor.pyramidLevels = pyramidLevels;
+                return processor;
+            }
+        });
+    }
+
+    /**
+     * The standard sweep: AprilTag decimation 1 to 3 at the captured resolution and half of it,
+     * color blob blur, erode/dilate and ROI (whole frame or the middle half) likewise, and the
+     * tracking blob locator against the sample's blur 5, 15 px closing setup.
+     */
+    public static List<Config> defaultSuite(ColorRange blobColor, int width, int height) {
+        List<Config> configs = new ArrayList<>();
+        int[][] resolutions = {{0, 0}, {width / 2, height / 2}};
+        for (int[] r : resolutions) {
+            for (int decimation = 1; decimation <= 3; decimation++) configs.add(aprilTag(decimation, r[0], r[1]));
+        }
+        ImageRegion middle = ImageRegion.asUnityCenterCoordinates(-0.5, 0.5, 0.5, -0.5);
+        for (int[] r : resolutions) {
+            for (int blur : new int[] {0, 5}) {
+                for (int morph : new int[] {0, 5}) {
+                    configs.add(colorBlob(blobColor, blur, morph, morph, ImageRegion.entireFrame(), "full", r[0], r[1]));
+                    configs.add(colorBlob(blobColor, blur, morph, morph, middle, "middle", r[0], r[1]));
+                }
+            }
+            configs.add(colorBlob(blobColor, 5, 15, 15, ImageRegion.entireFrame(), "full", r[0], r[1]));
+            for (int levels = 1; levels <= 2; levels++) configs.add(trackingBlob(blobColor, levels, r[0], r[1]));
+        }
+        return configs;
+    }
+
+    private static String resolution(int width, int height) {
+        return width <= 0 ? "native" : width + "x" + height;
+    }
+
+    public static void printReport(List<Result> results, PrintStream out) {
+        out.println(String.format(Locale.US, "%-48s %7s %7s %7s %7s %6s %6s %5s %5s %5s",
+                "config", "p50 ms", "p90 ms", "p99 ms", "max ms", "fps", "found", "tp", "fp", "miss"));
+        for (Result r : results) {
+            if (r.error != null) {
+                out.println(String.format(Locale.US, "%-48s skipped: %s", r.config.name, r.error));
+                continue;
+            }
+            out.println(String.format(Locale.US, "%-48s %7.2f %7.2f %7.2f %7.2f %6.1f %6d %5s %5s %5s",
+                    r.config.name, r.latency.getPercentileMillis(50), r.latency.getPercentileMillis(90),
+                    r.latency.getPercentileMillis(99), r.latency.getMaxMillis(), r.getFps(), r.detections,
+                    scored(r, r.truePositives), scored(r, r.falsePositives), scored(r, r.misses)));
+        }
+    }
+
+    private static String scored(Result r, int value) {
+        return r.scoredFrames == 0 ? "-" : Integer.toString(value);
+    }
+
+    public static void writeCsv(List<Result> results, Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("config,kind,width,height,frames,p50_ms,p90_ms,p99_ms,max_ms,mean_ms,"
+                + "detections,frames_with_detections,scored_frames,true_positives,false_positives,misses,error");
+        for (Result r : results) {
+            out.println(String.format(Locale.US, "\"%s\",%s,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%d,%d,%d,\"%s\"",
+                    r.config.name, r.config.kind, r.config.width, r.config.height, r.frames,
+                    r.latency.getPercentileMillis(50), r.latency.getPercentileMillis(90),
+                    r.latency.getPercentileMillis(99), r.latency.getMaxMillis(), r.latency.getMeanMillis(),
+                    r.detections, r.framesWithDetections, r.scoredFrames, r.truePositives, r.falsePositives,
+                    r.misses, r.error == null ? "" : r.error.replace('"', '\'')));
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,88 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import android.os.Environment;
+
+import com.bylazar.configurables.annotations.Configurable;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.vision.opencv.ColorRange;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This is the VisionBenchmarkOpMode class. It runs {@link VisionBenchmark#defaultSuite} on the
+ * Control Hub over the frames UtilityCameraFrameCapture saved, with no camera open so nothing else
+ * competes for the CPU. It shows progress, then every configuration's latency and detections, and
+ * writes the full table to FIRST/data/vision_benchmark.csv. Put a labels.csv next to the frames to
+ * score detections.
+ */
+@TeleOp(name = "VisionBenchmark", group = "Tuning")
+@Configurable // Panels
+public class VisionBenchmarkOpMode extends LinearOpMode {
+    /** Where the frames are, under /sdcard; empty for the root, where the capture utility saves. */
+    public static String FRAMES_DIRECTORY = "";
+    public static String FRAME_PREFIX = "VisionPortal-CameraFrameCapture";
+    public static int PASSES = 3;
+    public static boolean PURPLE_BLOBS = true; // Blob color: ARTIFACT_PURPLE, or ARTIFACT_GREEN if false
+
+    @Override
+    public void runOpMode() {
+        File directory = new File(Environment.getExternalStorageDirectory(), FRAMES_DIRECTORY);
+        VisionBenchmark benchmark = new VisionBenchmark();
+        benchmark.passes = PASSES;
+        int loaded;
+        try {
+            loaded = benchmark.loadFrames(directory, FRAME_PREFIX);
+        } catch (IOException e) {
+            telemetry.addData("Error", e.getMessage());
+            telemetry.update();
+            waitForStart();
+            return;
+        }
+        telemetry.addData("Frames", loaded + " in " + directory);
+        telemetry.addLine("Press start to run");
+        telemetry.update();
+        waitForStart();
+        if (loaded == 0) return;
+
+        int width = benchmark.getFrames().get(0).rgba.cols(), height = benchmark.getFrames().get(0).rgba.rows();
+        List<VisionBenchmark.Config> configs = VisionBenchmark.defaultSuite(
+                PURPLE_BLOBS ? ColorRange.ARTIFACT_PURPLE : ColorRange.ARTIFACT_GREEN, width, height);
+        List<VisionBenchmark.Result> results = new ArrayList<>();
+        for (VisionBenchmark.Config config : configs) {
+            if (isStopRequested()) break;
+            telemetry.addData("Running", config.name);
+            telemetry.addData("Done", results.size() + "/" + configs.size());
+            telemetry.update();
+            results.add(benchmark.run(config));
+        }
+        benchmark.release();
+
+        File csv = new File(Environment.getExternalStorageDirectory(), "FIRST/data/vision_benchmark.csv");
+        try (Writer writer = new FileWriter(csv)) {
+            VisionBenchmark.writeCsv(results, writer);
+        } catch (IOException e) {
+            RobotLog.ee("VisionBenchmark", e, "Could not write " + csv);
+        }
+
+        for (VisionBenchmark.Result r : results) {
+            telemetry.addLine(r.error != null ? r.config.name + ": " + r.error : String.format(Locale.US,
+                    "%s: p50 %.1f p99 %.1f ms, %d found, fp %d miss %d", r.config.name,
+                    r.latency.getPercentileMillis(50), r.latency.getPercentileMillis(99),
+                    r.detections, r.falsePositives, r.misses));
+        }
+        telemetry.addData("Saved", csv.getPath());
+        telemetry.update();
+        while (opModeIsActive()) {
+            sleep(50);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import android.graphics.Canvas;
+
+import org.firstinspires.ftc.robotcore.internal.camera.calibration.CameraCalibration;
+import org.firstinspires.ftc.vision.VisionPortal;
+import org.firstinspires.ftc.vision.VisionProcessor;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This is the VisionScheduler class. It shares a CPU budget between the vision processors on one
+ * or more VisionPortals according to what the OpMode is doing: each phase (say "score" and
+ * "intake" in an autonomous) gives every processor a target frame rate and a priority, and the
+ * scheduler hands out frame rates in priority order until the budget is spent.
+ *
+ * Each processor is wrapped in a {@link Task}, which is what gets added to the portal. A task
+ * passes frames to its processor at its allotted rate and skips the rest, and measures what a
+ * frame costs it. A task allotted nothing is disabled with setProcessorEnabled; a portal with no
+ * enabled task stops streaming, and resumes when a phase needs it again. The cost of a task is
+ * its measured time per frame (initialCostMillis until it has run) times its rate, plus
+ * portalCores for each portal streaming at all.
+ * <pre>
+ * VisionScheduler scheduler = new VisionScheduler();
+ * VisionScheduler.Task tags = scheduler.task("tags", aprilTag);
+ * VisionScheduler.Task blobs = scheduler.task("blobs", colorLocator);
+ * portal = new VisionPortal.Builder().setCamera(webcam).addProcessor(tags).addProcessor(blobs).build();
+ * scheduler.attach(portal, tags, blobs);
+ * scheduler.phase("score").run(tags, 30, 2).run(blobs, 5, 1);
+ * scheduler.phase("intake").run(blobs, 30, 2).run(tags, 10, 1);
+ * scheduler.setPhase("score");
+ * ...
+ * scheduler.update(); // Every loop
+ * </pre>
+ */
+public class VisionScheduler {
+    /** CPU the scheduled processors may use, in cores; the Control Hub has four. */
+    public double budgetCores = 1.0;
+    /** What a streaming portal costs before any processor runs (decoding, conversion), in cores. */
+    public double portalCores = 0.1;
+    /** Cost assumed for a task that hasn't run yet, ms per frame. */
+    public double initialCostMillis = 15;
+    /** A task allotted less than this is disabled instead. */
+    public double minFps = 2;
+    /** Stop streaming portals with nothing enabled. Restarting takes a few hundred ms. */
+    public boolean stopIdlePortals = true;
+    /** How often rates are recomputed from the measured costs. */
+    public long rebalanceNanos = 250_000_000L;
+
+    /**
+     * This is the Task class. It is the VisionProcessor added to the portal in place of the one it
+     * wraps, and runs it at the rate the scheduler allots.
+     */
+    public static class Task implements VisionProcessor {
+        public final String name;
+        public final VisionProcessor processor;
+        VisionPortal portal;
+
+        private volatile double allottedFps;
+        private volatile double costNanos;
+        private volatile long runs, skips;
+        // Camera thread only.
+        private double credit;
+        private long lastCaptureNanos;
+        private Object lastContext;
+
+        // OpMode thread only.
+        boolean enabled = true;
+        double targetFps;
+        int priority;
+        private long lastRuns;
+        private double achievedFps;
+
+        Task(String name, VisionProcessor processor) {
+            this.name = name;
+            this.processor = processor;
+        }
+
+        @Override
+        public void init(int width, int height, CameraCalibration calibration) {
+            processor.init(width, height, calibration);
+        }
+
+        @Override
+        public Object processFrame(Mat frame, long captureTimeNanos) {
+            double fps = allottedFps;
+            double dt = lastCaptureNanos == 0 ? 1 : (captureTimeNanos - lastCaptureNanos) * 1e-9;
+            lastCaptureNanos = captureTimeNanos;
+            // Earn a frame's worth of credit every 1/fps seconds, at most one frame ahead.
+            credit = Math.min(1, credit + fps * dt);
+            if (fps <= 0 || credit < 1) {
+                skips++;
+                return lastContext;
+            }
+            credit -= 1;
+            long start = System.nanoTime();
+            lastContext = processor.processFrame(frame, captureTimeNanos);
+            long nanos = System.nanoTime() - start;
+            costNanos = costNanos == 0 ? nanos : 0.9 * costNanos + 0.1 * nanos;
+            runs++;
+            return lastContext;
+        }
+
+        @Override
+        public void onDrawFrame(Canvas canvas, int onscreenWidth, int onscreenHeight,
+                                float scaleBmpPxToCanvasPx, float scaleCanvasDensity, Object userContext) {
+            if (userContext != null) {
+                processor.onDrawFrame(canvas, onscreenWidth, onscreenHeight, scaleBmpPxToCanvasPx,
+                        scaleCanvasDensity, userContext);
+            }
+        }
+
+        /** Frame rate the scheduler currently allows, 0 if disabled. */
+        public double getAllottedFps() {
+            return allottedFps;
+        }
+
+        /** Frames processed per second over the last rebalance period. */
+        public double getAchievedFps() {
+            return achievedFps;
+        }
+
+        /** Smoothed processing time per frame, ms; 0 before the first frame. */
+        public double getCostMillis() {
+            return costNanos * 1e-6;
+        }
+
+        public long getRunCount() {
+            return runs;
+        }
+
+        public long getSkipCount() {
+            return skips;
+        }
+    }
+
+    /** This is the Phase class. It holds a target frame rate and priority for some of the tasks. */
+    public static class Phase {
+        public final String name;
+        final Map<Task, double[]> plans = new HashMap<>();
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        /** Runs the task at up to targetFps in this phase; higher priorities are served first. */
+        public Phase run(Task task, double targetFps, int priority) {
+            plans.put(task, new double[] {targetFps, priority});
+            return this;
+        }
+    }
+
+    private final List<Task> tasks = new ArrayList<>();
+    private final List<VisionPortal> portals = new ArrayList<>();
+    private final Map<VisionPortal, Boolean> streaming = new HashMap<>();
+    private final Map<String, Phase> phases = new HashMap<>();
+    private Phase phase;
+    private long lastRebalanceNanos;
+    private double plannedCores;
+
+    /** Wraps a processor; add the returned task to the portal instead of the processor. */
+    public Task task(String name, VisionProcessor processor) {
+        Task task = new Task(name, processor);
+        tasks.add(task);
+        return task;
+    }
+
+    /** Tells the scheduler which portal the tasks were added to. */
+    public VisionScheduler attach(VisionPortal portal, Task... portalTasks) {
+        for (Task task : portalTasks) task.portal = portal;
+        if (!portals.contains(portal)) {
+            portals.add(portal);
+            streaming.put(portal, true);
+        }
+        return this;
+    }
+
+    /** The phase with this name, created empty if new. Tasks a phase doesn't run are disabled in it. */
+    public Phase phase(String name) {
+        Phase p = phases.get(name);
+        if (p == null) {
+            p = new Phase(name);
+            phases.put(name, p);
+        }
+        return p;
+    }
+
+    /** Switches phase and reallocates at once. Unknown names disable everything. */
+    public void setPhase(String name) {
+        Phase next = phase(name);
+        if (next == phase) return;
+        phase = next;
+        rebalance(System.nanoTime());
+    }
+
+    public String getPhase() {
+        return phase == null ? null : phase.name;
+    }
+
+    /** Measures achieved rates and, every rebalanceNanos, reallocates. Call every loop. */
+    public void update() {
+        long now = System.nanoTime();
+        if (now - lastRebalanceNanos >= rebalanceNanos) rebalance(now);
+    }
+
+    private void rebalance(long now) {
+        double seconds = lastRebalanceNanos == 0 ? 0 : (now - lastRebalanceNanos) * 1e-9;
+        lastRebalanceNanos = now;
+        for (Task task : tasks) {
+            long runs = task.runs;
+            if (seconds > 0) task.achievedFps = (runs - task.lastRuns) / seconds;
+            task.lastRuns = runs;
+            task.targetFps = 0;
+            task.priority = Integer.MIN_VALUE;
+            if (phase != null) {
+                double[] plan = phase.plans.get(task);
+                if (plan != null) {
+                    task.targetFps = plan[0];
+                    task.priority = (int) plan[1];
+                }
+            }
+        }
+
+        List<Task> order = new ArrayList<>(tasks);
+        Collections.sort(order, new Comparator<Task>() {
+            @Override
+            public int compare(Task a, Task b) {
+                return Integer.compare(b.priority, a.priority);
+            }
+        });
+        double remaining = budgetCores;
+        Map<VisionPortal, Boolean> used = new HashMap<>();
+        for (Task task : order) {
+            double fps = 0;
+            if (task.targetFps > 0 && task.portal != null) {
+                double target = task.targetFps;
+                float cameraFps = task.portal.getFps();
+                if (cameraFps > 0) target = Math.min(target, cameraFps);
+                double portalCost = used.containsKey(task.portal) ? 0 : portalCores;
+                double cost = task.costNanos > 0 ? task.costNanos * 1e-9 : initialCostMillis * 1e-3;
+                fps = Math.min(target, (remaining - portalCost) / cost);
+                if (fps < minFps) {
+                    fps = 0;
+                } else {
+                    remaining -= portalCost + fps * cost;
+                    used.put(task.portal, true);
+                }
+            }
+            task.allottedFps = fps;
+        }
+        plannedCores = budgetCores - remaining;
+
+        for (Task task : tasks) {
+            boolean enable = task.allottedFps > 0;
+            if (task.portal != null && enable != task.enabled) {
+                task.portal.setProcessorEnabled(task, enable);
+                task.enabled = enable;
+            }
+        }
+        for (VisionPortal portal : portals) {
+            boolean needed = used.containsKey(portal) || !stopIdlePortals;
+            if (needed == streaming.get(portal)) continue;
+            // The portal throws if asked while the camera is still opening; try again next time.
+            VisionPortal.CameraState state = portal.getCameraState();
+            boolean running = state == VisionPortal.CameraState.STREAMING || state == VisionPortal.CameraState.STARTING_STREAM;
+            boolean stopped = state == VisionPortal.CameraState.CAMERA_DEVICE_READY || state == VisionPortal.CameraState.STOPPING_STREAM;
+            if (!running && !stopped) continue;
+            if (needed && stopped) portal.resumeStreaming();
+            if (!needed && running) portal.stopStreaming();
+            streaming.put(portal, needed);
+        }
+    }
+
+    public List<Task> getTasks() {
+        return tasks;
+    }
+
+    /** Cores the current allocation is expected to use. */
+    public double getPlannedCores() {
+        return plannedCores;
+    }
+
+    /** Cores actually used by the tasks over the last period, from achieved rates and costs. */
+    public double getMeasuredCores() {
+        double cores = 0;
+        for (Task task : tasks) cores += task.achievedFps * task.costNanos * 1e-9;
+        return cores;
+    }
+
+    /** One line per task: allotted and achieved frame rates and cost per frame. */
+    public String describe() {
+        StringBuilder out = new StringBuilder();
+        for (Task task : tasks) {
+            out.append(String.format(Locale.US, "%s %.0f/%.0f fps %.1f ms%n",
+                    task.name, task.achievedFps, task.allottedFps, task.getCostMillis()));
+        }
+        return out.toString();
+    }
+}
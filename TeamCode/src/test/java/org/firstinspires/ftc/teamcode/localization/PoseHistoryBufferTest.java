@@ -0,0 +1,109 @@
+package org.firstinspires.ftc.teamcode.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PoseHistoryBufferTest {
+    private static final double EPSILON = 1e-9;
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void interpolatesBetweenSamples() {
+        PoseHistoryBuffer buffer = new PoseHistoryBuffer(8);
+        buffer.add(100 * MS, 0, 0, 0, 10, 0, 0);
+        buffer.add(110 * MS, 1, 2, 0.2, 20, 40, 1);
+        PoseHistoryBuffer.Sample out = new PoseHistoryBuffer.Sample();
+
+        assertTrue(buffer.getAt(102 * MS + MS / 2, out));
+        assertEquals(102 * MS + MS / 2, out.nanos);
+        assertEquals(0.25, out.x, EPSILON);
+        assertEquals(0.5, out.y, EPSILON);
+        assertEquals(0.05, out.heading, EPSILON);
+        assertEquals(12.5, out.vx, EPSILON);
+        assertEquals(10, out.vy, EPSILON);
+        assertEquals(0.25, out.omega, EPSILON);
+
+        // Exactly on a sample gives that sample.
+        assertTrue(buffer.getAt(100 * MS, out));
+        assertEquals(0, out.x, EPSILON);
+        assertTrue(buffer.getAt(110 * MS, out));
+        assertEquals(1, out.x, EPSILON);
+    }
+
+    @Test
+    public void headingTakesTheShortWayRound() {
+        PoseHistoryBuffer buffer = new PoseHistoryBuffer(4);
+        buffer.add(0, 0, 0, Math.toRadians(170), 0, 0, 0);
+        buffer.add(10 * MS, 0, 0, Math.toRadians(-170), 0, 0, 0);
+        PoseHistoryBuffer.Sample out = new PoseHistoryBuffer.Sample();
+
+        // Through 180, not back through 0; the result stays near the earlier heading's range.
+        assertTrue(buffer.getAt(5 * MS, out));
+        assertEquals(Math.toRadians(180), out.heading, EPSILON);
+        assertTrue(buffer.getAt(2 * MS + MS / 2, out));
+        assertEquals(Math.toRadians(175), out.heading, EPSILON);
+
+        buffer.clear();
+        buffer.add(0, 0, 0, Math.toRadians(-10), 0, 0, 0);
+        buffer.add(10 * MS, 0, 0, Math.toRadians(350), 0, 0, 0); // The same heading
+        assertTrue(buffer.getAt(5 * MS, out));
+        assertEquals(Math.toRadians(-10), out.heading, EPSILON);
+    }
+
+    @Test
+    public void findsTheRightPairAfterWrapAround() {
+        PoseHistoryBuffer buffer = new PoseHistoryBuffer(5);
+        for (int i = 0; i < 13; i++) {
+            buffer.add(i * 10 * MS, i, -i, 0, 0, 0, 0);
+        }
+        assertEquals(5, buffer.size());
+        assertEquals(80 * MS, buffer.getOldestNanos());
+        assertEquals(120 * MS, buffer.getNewestNanos());
+
+        PoseHistoryBuffer.Sample out = new PoseHistoryBuffer.Sample();
+        for (long t = 80 * MS; t <= 120 * MS; t += 3 * MS) {
+            assertTrue(buffer.getAt(t, out));
+            assertEquals("x at " + t, t / (10.0 * MS), out.x, EPSILON);
+            assertEquals("y at " + t, -t / (10.0 * MS), out.y, EPSILON);
+        }
+        assertFalse(buffer.getAt(79 * MS, out)); // Dropped out of the buffer
+
+        buffer.get(0, out);
+        assertEquals(8, out.x, EPSILON);
+        buffer.get(4, out);
+        assertEquals(12, out.x, EPSILON);
+    }
+
+    @Test
+    public void extrapolatesOnlyALittlePastTheNewest() {
+        PoseHistoryBuffer buffer = new PoseHistoryBuffer(4);
+        buffer.maxExtrapolationNanos = 50 * MS;
+        buffer.add(0, 0, 0, 0, 0, 0, 0);
+        buffer.add(100 * MS, 1, 2, 0.5, 10, -20, 2);
+        PoseHistoryBuffer.Sample out = new PoseHistoryBuffer.Sample();
+
+        assertTrue(buffer.getAt(120 * MS, out));
+        assertEquals(1 + 10 * 0.02, out.x, EPSILON);
+        assertEquals(2 - 20 * 0.02, out.y, EPSILON);
+        assertEquals(0.5 + 2 * 0.02, out.heading, EPSILON);
+        assertEquals(10, out.vx, EPSILON);
+
+        out.x = 42;
+        assertFalse(buffer.getAt(151 * MS, out));
+        assertEquals(42, out.x, 0); // Untouched
+    }
+
+    @Test
+    public void outOfOrderSamplesAreIgnored() {
+        PoseHistoryBuffer buffer = new PoseHistoryBuffer(4);
+        assertTrue(buffer.add(10 * MS, 1, 0, 0, 0, 0, 0));
+        assertFalse(buffer.add(10 * MS, 2, 0, 0, 0, 0, 0));
+        assertFalse(buffer.add(5 * MS, 3, 0, 0, 0, 0, 0));
+        assertEquals(1, buffer.size());
+        PoseHistoryBuffer.Sample out = new PoseHistoryBuffer.Sample();
+        assertFalse(new PoseHistoryBuffer(2).getAt(0, out));
+    }
+}
@@ -0,0 +1,294 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.pedropathing.geometry.Pose;
+import com.pedropathing.paths.PathConstraints;
+
+import org.firstinspires.ftc.teamcode.blueAutoClose;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This is the AutoTimingOptimizer class. It searches for a faster blueAutoClose by generating
+ * variants of blueAutoClose.Plan (moved lineup and score waypoints, different score and intake headings,
+ * shorter shooting dwells and different PathConstraints), running each one through
+ * {@link AutonomousSim} for a batch of noisy Monte-Carlo trials, and reporting the Pareto front of
+ * mean cycle time against mean park error.
+ *
+ * Every variant runs the same trial seeds, so two variants are compared on identical noise. Trials
+ * are independent simulations and run on a ForkJoinPool with one worker per core. A variant only
+ * counts if every trial finished and no shot was fired while the robot was still driving.
+ *
+ * The winner is the fastest variant on the front whose park error is no worse than the baseline's
+ * (or maxError, whichever is larger). It is printed as Plan field initializers ready to paste into
+ * blueAutoClose.
+ */
+public class AutoTimingOptimizer {
+
+    /* ---------------- search space ---------------- */
+
+    public int variants = 64;
+    public int trials = 16;
+    public long seed = 1;
+    /** Standard deviation of waypoint moves, in. Intake points only move along the wall. */
+    public double waypointSigma = 3;
+    /** Largest change to the score and intake headings, deg. */
+    public double headingRange = 5;
+    /** Shortest time we allow between opening and closing the shooting window, s. */
+    public double minFireSeconds = 2;
+    public double maxShootStartSeconds = 8;
+    /** Park error we accept from the winner even if the baseline parks more precisely, in. */
+    public double maxError = 2;
+    /** Trials are cut off here; anything longer than 30 s misses the end of autonomous anyway. */
+    public double maxSeconds = 45;
+    public double pinpointNoise = 0.05;
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    /** One candidate plan and how it did. */
+    public static class Variant {
+        public final int id;
+        public final blueAutoClose.Plan plan;
+        /** PathConstraints arguments, or NaN for Constants.pathConstraints. */
+        public double tValue = Double.NaN, timeout, brakingStrength, brakingStart;
+
+        public int runs, completed, shotsWhileMoving;
+        public double meanSeconds, maxSeconds, meanError, maxError;
+        public boolean pareto;
+
+        Variant(int id, blueAutoClose.Plan plan) {
+            this.id = id;
+            this.plan = plan;
+        }
+
+        public boolean isFeasible() {
+            return completed == runs && shotsWhileMoving == 0;
+        }
+
+        void add(AutonomousSim.Result result) {
+            runs++;
+            if (result.completed) completed++;
+            shotsWhileMoving += result.shotsWhileMoving;
+            meanSeconds += (result.seconds - meanSeconds) / runs;
+            meanError += (result.poseError - meanError) / runs;
+            maxSeconds = Math.max(maxSeconds, result.seconds);
+            maxError = Math.max(maxError, result.poseError);
+        }
+    }
+
+    /** Builds the baseline plus variants - 1 seeded perturbations of it. */
+    public List<Variant> generate() {
+        Random random = new Random(seed);
+        blueAutoClose.Plan base = blueAutoClose.PLAN;
+        List<Variant> list = new ArrayList<>();
+        list.add(new Variant(0, base.copy()));
+
+        for (int id = 1; id < variants; id++) {
+            blueAutoClose.Plan plan = base.copy();
+            plan.score = move(plan.score, random, true);
+            plan.score2 = move(plan.score2, random, true);
+            plan.lineup1 = move(plan.lineup1, random, true);
+            plan.lineup2 = move(plan.lineup2, random, true);
+            plan.intake1 = move(plan.intake1, random, false);
+            plan.intake2 = move(plan.intake2, random, false);
+            plan.scoreHeadingDeg = round(base.scoreHeadingDeg + (2 * random.nextDouble() - 1) * headingRange, 1);
+            plan.intakeHeadingDeg = round(base.intakeHeadingDeg + (2 * random.nextDouble() - 1) * headingRange, 1);
+
+            plan.shootStartSeconds = round(1 + random.nextDouble() * (maxShootStartSeconds - 1), 2);
+            double window = Math.max(minFireSeconds, base.shootEndSeconds - base.shootStartSeconds);
+            plan.shootEndSeconds = round(plan.shootStartSeconds
+                    + minFireSeconds + random.nextDouble() * (window - minFireSeconds), 2);
+
+            Variant variant = new Variant(id, plan);
+            variant.tValue = round(0.95 + random.nextDouble() * 0.045, 3);
+            variant.timeout = Math.round(50 + random.nextDouble() * 250);
+            variant.brakingStrength = round(0.5 + random.nextDouble(), 2);
+            variant.brakingStart = round(0.5 + random.nextDouble(), 2);
+            plan.pathConstraints = new PathConstraints(
+                    variant.tValue, variant.timeout, variant.brakingStrength, variant.brakingStart);
+            list.add(variant);
+        }
+        return list;
+    }
+
+    /** Runs every trial of every variant and marks the Pareto front. */
+    public void evaluate(final List<Variant> list) throws InterruptedException {
+        final AutonomousSim sim = new AutonomousSim();
+        sim.maxSeconds = maxSeconds;
+        sim.pinpointNoise = pinpointNoise;
+
+        List<Callable<AutonomousSim.Result>> tasks = new ArrayList<>();
+        for (final Variant variant : list) {
+            for (int trial = 0; trial < trials; trial++) {
+                final long trialSeed = trial;
+                tasks.add(new Callable<AutonomousSim.Result>() {
+                    @Override
+                    public AutonomousSim.Result call() {
+                        return sim.run(variant.plan, trialSeed);
+                    }
+                });
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<AutonomousSim.Result>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                list.get(i / trials).add(futures.get(i).get());
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Simulation failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        for (Variant a : list) {
+            a.pareto = a.isFeasible();
+            for (Variant b : list) {
+                if (a.pareto && b != a && b.isFeasible() && dominates(b, a)) {
+                    a.pareto = false;
+                }
+            }
+        }
+    }
+
+    /** Front first, then feasible, then the rest; each group fastest first. */
+    public static List<Variant> rank(List<Variant> list) {
+        List<Variant> ranked = new ArrayList<>(list);
+        Collections.sort(ranked, new Comparator<Variant>() {
+            @Override
+            public int compare(Variant a, Variant b) {
+                int group = Integer.compare(group(a), group(b));
+                return group != 0 ? group : Double.compare(a.meanSeconds, b.meanSeconds);
+            }
+        });
+        return ranked;
+    }
+
+    /** The fastest front variant that parks as well as the baseline, or null. */
+    public Variant pickWinner(List<Variant> list) {
+        Variant baseline = list.get(0);
+        double errorLimit = Math.max(maxError, baseline.isFeasible() ? baseline.meanError : 0);
+        Variant winner = null;
+        for (Variant variant : list) {
+            if (variant.pareto && variant.meanError <= errorLimit
+                    && (winner == null || variant.meanSeconds < winner.meanSeconds)) {
+                winner = variant;
+            }
+        }
+        return winner;
+    }
+
+    public static void printTable(List<Variant> ranked) {
+        System.out.println(" rank   id  front  done   early  mean s   max s  err in  max in  dwell s    score/intake deg  constraints");
+        int rank = 1;
+        for (Variant v : ranked) {
+            System.out.println(String.format(Locale.US,
+                    "%5d %4d  %5s %3d/%-3d %5d %7.2f %7.2f %7.2f %7.2f  %4.1f-%-4.1f %8.1f/%-8.1f  %s",
+                    rank++, v.id, v.pareto ? "*" : "", v.completed, v.runs, v.shotsWhileMoving,
+                    v.meanSeconds, v.maxSeconds, v.meanError, v.maxError,
+                    v.plan.shootStartSeconds, v.plan.shootEndSeconds, v.plan.scoreHeadingDeg, v.plan.intakeHeadingDeg,
+                    constraints(v)));
+        }
+    }
+
+    /** Prints the plan as blueAutoClose.Plan field initializers. */
+    public static void printPlan(Variant v) {
+        blueAutoClose.Plan plan = v.plan;
+        System.out.println("// blueAutoClose.Plan, variant " + v.id);
+        printPose("score", plan.score);
+        printPose("lineup1", plan.lineup1);
+        printPose("intake1", plan.intake1);
+        printPose("lineup2", plan.lineup2);
+        printPose("intake2", plan.intake2);
+        printPose("score2", plan.score2);
+        System.out.println(String.format(Locale.US, "public double scoreHeadingDeg = %s;", plan.scoreHeadingDeg));
+        System.out.println(String.format(Locale.US, "public double intakeHeadingDeg = %s;", plan.intakeHeadingDeg));
+        System.out.println(String.format(Locale.US, "public double shootStartSeconds = %s;", plan.shootStartSeconds));
+        System.out.println(String.format(Locale.US, "public double shootEndSeconds = %s;", plan.shootEndSeconds));
+        System.out.println("public PathConstraints pathConstraints = " + constraints(v) + ";");
+    }
+
+    private static void printPose(String name, Pose pose) {
+        System.out.println(String.format(Locale.US, "public Pose %s = new Pose(%.3f, %.3f);",
+                name, pose.getX(), pose.getY()));
+    }
+
+    private static String constraints(Variant v) {
+        if (Double.isNaN(v.tValue)) return "Constants.pathConstraints";
+        return String.format(Locale.US, "new PathConstraints(%s, %s, %s, %s)",
+                v.tValue, (long) v.timeout, v.brakingStrength, v.brakingStart);
+    }
+
+    private static int group(Variant v) {
+        if (v.pareto) return 0;
+        return v.isFeasible() ? 1 : 2;
+    }
+
+    /** True if a is at least as good as b on both objectives and better on one. */
+    private static boolean dominates(Variant a, Variant b) {
+        return a.meanSeconds <= b.meanSeconds && a.meanError <= b.meanError
+                && (a.meanSeconds < b.meanSeconds || a.meanError < b.meanError);
+    }
+
+    private Pose move(Pose pose, Random random, boolean both) {
+        double x = pose.getX() + random.nextGaussian() * waypointSigma;
+        double y = both ? pose.getY() + random.nextGaussian() * waypointSigma : pose.getY();
+        return new Pose(round(x, 3), round(y, 3));
+    }
+
+    private static double round(double value, int places) {
+        double scale = Math.pow(10, places);
+        return Math.round(value * scale) / scale;
+    }
+
+    private static final String USAGE =
+            "AutoTimingOptimizer [--variants n] [--trials n] [--seed n] [--noise in] [--threads n]";
+
+    public static void main(String[] args) throws InterruptedException {
+        AutoTimingOptimizer optimizer = new AutoTimingOptimizer();
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) { // Every option takes a value
+                System.out.println(USAGE);
+                return;
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--variants": optimizer.variants = Integer.parseInt(value); break;
+                case "--trials": optimizer.trials = Integer.parseInt(value); break;
+                case "--seed": optimizer.seed = Long.parseLong(value); break;
+                case "--noise": optimizer.pinpointNoise = Double.parseDouble(value); break;
+                case "--threads": optimizer.threads = Integer.parseInt(value); break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.out.println(USAGE);
+                    return;
+            }
+        }
+
+        long hostStart = System.nanoTime();
+        List<Variant> list = optimizer.generate();
+        optimizer.evaluate(list);
+        System.out.println(String.format(Locale.US, "%d variants x %d trials on %d threads in %.1f s",
+                list.size(), optimizer.trials, optimizer.threads, (System.nanoTime() - hostStart) / 1e9));
+
+        printTable(rank(list));
+        System.out.println();
+
+        Variant winner = optimizer.pickWinner(list);
+        if (winner == null) {
+            System.out.println("No variant on the front parks within the baseline's error.");
+        } else if (winner.id == 0) {
+            System.out.println("The current plan is already the fastest that parks this well.");
+        } else {
+            printPlan(winner);
+        }
+    }
+}
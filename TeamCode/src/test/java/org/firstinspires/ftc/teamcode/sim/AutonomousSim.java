@@ -0,0 +1,202 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.bylazar.telemetry.TelemetryManager;
+import com.pedropathing.util.Timer;
+
+import org.firstinspires.ftc.teamcode.blueAutoClose;
+import org.firstinspires.ftc.teamcode.recording.FlightRecorder;
+
+import java.io.File;
+
+import java.util.Locale;
+
+/**
+ * This is the AutonomousSim class. It runs blueAutoClose end to end against {@link SimRobot} and
+ * {@link MecanumDriveSim}: Constants.createFollower builds the real Follower on the fake hardware,
+ * the state machine's timers run on simulated time, and a full 30 s autonomous finishes in well
+ * under a second of host time.
+ *
+ * Pedro's Follower and its PIDF controllers still read System.nanoTime() for their timing and
+ * derivative terms, and that can't be redirected to the sim clock. A run is therefore only
+ * repeatable given the same wall-clock step timing: how fast the host gets through each step
+ * nudges the D terms, and so the path. Our gains are almost pure P so the spread is tiny, but
+ * compare plans over many seeds rather than trusting one run to the last digit, and pass
+ * --realtime to HeadlessRun if you are tuning D terms.
+ */
+public class AutonomousSim {
+    /** The outcome of one simulated autonomous. */
+    public static class Result {
+        public long seed;
+        /** Simulated seconds from start() to requestOpModeStop(), or the time limit. */
+        public double seconds;
+        public boolean completed;
+        public int finalPathState;
+        /** True final pose of the simulated robot. */
+        public double x, y, heading;
+        /** Distance from the park pose, in. */
+        public double poseError;
+        public double headingError;
+        /** Shooting windows that opened while the follower was still driving to the score pose. */
+        public int shotsWhileMoving;
+        public double meanLoopMs;
+        public double hostMillis;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "seed %d: %s in %.2f s, state %d, pose (%.1f, %.1f, %.0f deg), error %.2f in / %.1f deg, %d early shots, loop %.2f ms, host %.0f ms",
+                    seed, completed ? "finished" : "timed out", seconds, finalPathState,
+                    x, y, Math.toDegrees(heading), poseError, Math.toDegrees(headingError), shotsWhileMoving, meanLoopMs, hostMillis);
+        }
+    }
+
+    public double maxSeconds = 30;
+    public SimLatencies latencies = new SimLatencies();
+    public double pinpointNoise = 0;
+    /** If set, blueAutoClose's flight recorder logs each run here, on simulated time. */
+    public File flightLog;
+
+    /** Runs the plan blueAutoClose ships with. */
+    public Result run(long seed) {
+        return run(blueAutoClose.PLAN, seed);
+    }
+
+    /**
+     * Runs one autonomous following the given plan. The robot starts at plan.startPose and is
+     * scored against plan.park. The seed fixes the simulated noise; the result can still vary
+     * slightly between runs with host timing, as described above.
+     */
+    public Result run(blueAutoClose.Plan plan, long seed) {
+        long hostStart = System.nanoTime();
+        SimClock clock = new SimClock();
+        SimRobot robot = new SimRobot(clock, latencies);
+        MecanumDriveSim drive = new MecanumDriveSim(robot, seed);
+        drive.pinpointNoise = pinpointNoise;
+        drive.setPose(plan.startPose.getX(), plan.startPose.getY(), plan.startPose.getHeading());
+
+        SimulatedAuto auto = new SimulatedAuto(clock, plan);
+        auto.flightLog = flightLog;
+        OpModeHarness harness = new OpModeHarness(auto, robot.hardwareMap).addPlant(drive);
+        harness.init();
+        harness.start();
+        double startSeconds = clock.seconds();
+        while (!harness.isStopRequested() && clock.seconds() - startSeconds < maxSeconds) {
+            harness.loop();
+        }
+        harness.stop();
+
+        Result result = new Result();
+        result.seed = seed;
+        result.seconds = clock.seconds() - startSeconds;
+        result.completed = harness.isStopRequested();
+        result.finalPathState = auto.lastPathState;
+        result.shotsWhileMoving = auto.shotsWhileMoving;
+        result.x = drive.getX();
+        result.y = drive.getY();
+        result.heading = drive.getHeading();
+        double parkHeading = Math.toRadians(plan.scoreHeadingDeg);
+        result.poseError = Math.hypot(plan.park.getX() - result.x, plan.park.getY() - result.y);
+        result.headingError = Math.abs(Math.IEEEremainder(parkHeading - result.heading, 2 * Math.PI));
+        result.meanLoopMs = harness.getMeanSimLoopMs();
+        result.hostMillis = (System.nanoTime() - hostStart) / 1e6;
+        return result;
+    }
+
+    /** blueAutoClose with its timers on simulated time and its own plan. */
+    static class SimulatedAuto extends blueAutoClose {
+        private final SimClock clock;
+        File flightLog;
+        int lastPathState = -1;
+        int shotsWhileMoving;
+        private double stateStartSeconds;
+        private boolean shotChecked;
+
+        SimulatedAuto(SimClock clock, Plan plan) {
+            this.clock = clock;
+            this.plan = plan;
+        }
+
+        /** Its own telemetry that goes nowhere; the Panels one is shared by every sim running. */
+        @Override
+        protected TelemetryManager newTelemetry() {
+            return Inert.construct(TelemetryManager.class);
+        }
+
+        @Override
+        protected Timer newTimer() {
+            return new SimTimer(clock);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return clock.nanoTime();
+        }
+
+        /** Only records when asked to; the optimizer runs thousands of these. */
+        @Override
+        protected boolean recordsFlight() {
+            return flightLog != null;
+        }
+
+        @Override
+        protected FlightRecorder newFlightRecorder() {
+            return openFlightRecorder(flightLog);
+        }
+
+        @Override
+        public int autonomousPathUpdate() {
+            int state = super.autonomousPathUpdate();
+            if (state != lastPathState) {
+                lastPathState = state;
+                stateStartSeconds = clock.seconds();
+                shotChecked = false;
+            }
+            // States 0, 4 and 8 drive to the score pose and fire once shootStartSeconds has passed.
+            boolean shooting = state == 0 || state == 4 || state == 8;
+            if (shooting && !shotChecked && clock.seconds() - stateStartSeconds > plan.shootStartSeconds) {
+                shotChecked = true;
+                if (follower.isBusy()) shotsWhileMoving++;
+            }
+            return state;
+        }
+    }
+
+    private static final String USAGE = "AutonomousSim [trials] [--noise inches] [--log file]";
+
+    /**
+     * AutonomousSim [trials] [--noise inches] [--log file]
+     *
+     * With --log, the first trial's flight log is written to the file.
+     */
+    public static void main(String[] args) {
+        int trials = 1;
+        AutonomousSim sim = new AutonomousSim();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 == args.length) { // Both options take a value
+                System.out.println(USAGE);
+                return;
+            }
+            if ("--noise".equals(args[i])) sim.pinpointNoise = Double.parseDouble(args[++i]);
+            else if ("--log".equals(args[i])) sim.flightLog = new File(args[++i]);
+            else trials = Integer.parseInt(args[i]);
+        }
+
+        long hostStart = System.nanoTime();
+        int completed = 0;
+        double totalSeconds = 0, totalError = 0;
+        for (int seed = 0; seed < trials; seed++) {
+            Result result = sim.run(seed);
+            sim.flightLog = null;
+            if (trials <= 20) {
+                System.out.println(result);
+            }
+            if (result.completed) completed++;
+            totalSeconds += result.seconds;
+            totalError += result.poseError;
+        }
+        System.out.println(String.format(Locale.US,
+                "%d trials, %d finished, mean %.2f s, mean park error %.2f in, %.1f ms host per trial",
+                trials, completed, totalSeconds / trials, totalError / trials,
+                (System.nanoTime() - hostStart) / 1e6 / trials));
+    }
+}
@@ -0,0 +1,136 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import org.firstinspires.ftc.teamcode.vision.ColorLut;
+import org.firstinspires.ftc.vision.opencv.ColorRange;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * This is the ColorLutBuild class. It builds a {@link ColorLut} from labeled frames: for every
+ * frame.png with a frame_labels.png next to it, each label pixel painted in a class color marks the
+ * frame pixel under it as that class. Paint artifacts magenta (purple) or green (green); paint
+ * white over things that must not match (floor, field walls, alliance elements, robots). Anything
+ * else is unlabeled.
+ *
+ * <pre>
+ * ColorLutBuild framesDir [--bits 5] [--fill 1] [--min 1] [--ranges] [--out colorlut.bin]
+ * </pre>
+ *
+ * --ranges starts from the SDK's ARTIFACT_PURPLE and ARTIFACT_GREEN ranges, so colors the labels
+ * never reach keep those. Every fifth frame is held out of training to report how well the table
+ * does on pixels it hasn't seen. Copy the table to /sdcard/FIRST/data/colorlut.bin.
+ */
+public class ColorLutBuild {
+    static final String[] CLASSES = {"none", "purple", "green"};
+    static final int[] LABEL_COLORS = {0xffffff, 0xff00ff, 0x00ff00};
+
+    private static final String USAGE =
+            "ColorLutBuild framesDir [--bits 5] [--fill 1] [--min 1] [--ranges] [--out colorlut.bin]";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println(USAGE);
+            return;
+        }
+        File directory = new File(args[0]);
+        File out = new File("colorlut.bin");
+        ColorLut.Builder builder = new ColorLut.Builder();
+        boolean ranges = false;
+        for (int i = 1; i < args.length; i++) {
+            if (!"--ranges".equals(args[i]) && i + 1 == args.length) { // Every other option takes a value
+                System.out.println(USAGE);
+                return;
+            }
+            if ("--bits".equals(args[i])) builder.setBits(Integer.parseInt(args[++i]));
+            else if ("--fill".equals(args[i])) builder.setFillRadius(Integer.parseInt(args[++i]));
+            else if ("--min".equals(args[i])) builder.setMinSamples(Integer.parseInt(args[++i]));
+            else if ("--ranges".equals(args[i])) ranges = true;
+            else if ("--out".equals(args[i])) out = new File(args[++i]);
+        }
+        for (String name : CLASSES) builder.addClass(name);
+        if (ranges) {
+            builder.addRange("purple", ColorRange.ARTIFACT_PURPLE)
+                    .addRange("green", ColorRange.ARTIFACT_GREEN);
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) throw new IOException("Cannot list " + directory);
+        Arrays.sort(files);
+        int frames = 0;
+        long[] trained = new long[CLASSES.length];
+        List<int[][]> heldOut = new ArrayList<>();
+        for (File labels : files) {
+            String name = labels.getName();
+            if (!name.endsWith("_labels.png")) continue;
+            File frame = new File(directory, name.substring(0, name.length() - "_labels.png".length()) + ".png");
+            if (!frame.exists()) {
+                System.out.println("no frame for " + name);
+                continue;
+            }
+            int[][] samples = read(frame, labels);
+            if (samples == null) continue;
+            if (frames++ % 5 == 4) {
+                heldOut.add(samples);
+                continue;
+            }
+            builder.addSamples(samples[0], samples[1]);
+            for (int id : samples[1]) {
+                if (id >= 0) trained[id]++;
+            }
+        }
+        System.out.println(frames + " labeled frames, " + heldOut.size() + " held out");
+        for (int c = 0; c < CLASSES.length; c++) {
+            System.out.println(String.format(Locale.US, "  %-7s %9d training pixels", CLASSES[c], trained[c]));
+        }
+
+        ColorLut lut = builder.build();
+        double[] coverage = lut.getCoverage();
+        long[] correct = new long[CLASSES.length], total = new long[CLASSES.length];
+        for (int[][] samples : heldOut) {
+            for (int i = 0; i < samples[0].length; i++) {
+                int id = samples[1][i];
+                if (id < 0) continue;
+                int argb = samples[0][i];
+                total[id]++;
+                if (lut.classify(argb >> 16, argb >> 8, argb) == id) correct[id]++;
+            }
+        }
+        System.out.println("class   table share  held-out recall");
+        for (int c = 0; c < CLASSES.length; c++) {
+            System.out.println(String.format(Locale.US, "  %-7s %9.2f%%  %s", CLASSES[c], 100 * coverage[c],
+                    total[c] == 0 ? "-" : String.format(Locale.US, "%.1f%% of %d", 100.0 * correct[c] / total[c], total[c])));
+        }
+        lut.save(out);
+        System.out.println("wrote " + out + " (" + (1 << (3 * lut.getBits())) + " cells)");
+    }
+
+    /** The frame's pixels and a class per pixel (-1 unlabeled), or null if the sizes differ. */
+    static int[][] read(File frame, File labels) throws IOException {
+        BufferedImage image = ImageIO.read(frame), label = ImageIO.read(labels);
+        if (image == null || label == null) return null;
+        int width = image.getWidth(), height = image.getHeight();
+        if (label.getWidth() != width || label.getHeight() != height) {
+            System.out.println(labels.getName() + " is not the size of its frame");
+            return null;
+        }
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        int[] painted = label.getRGB(0, 0, width, height, null, 0, width);
+        int[] ids = new int[painted.length];
+        for (int i = 0; i < painted.length; i++) {
+            ids[i] = -1;
+            if ((painted[i] >>> 24) < 128) continue; // Transparent
+            for (int c = 0; c < LABEL_COLORS.length; c++) {
+                if ((painted[i] & 0xffffff) == LABEL_COLORS[c]) ids[i] = c;
+            }
+        }
+        return new int[][] {pixels, ids};
+    }
+}
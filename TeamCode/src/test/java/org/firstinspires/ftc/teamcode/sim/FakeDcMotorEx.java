@@ -0,0 +1,413 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.qualcomm.robotcore.hardware.DcMotorController;
+import com.qualcomm.robotcore.hardware.DcMotorEx;
+import com.qualcomm.robotcore.hardware.PIDCoefficients;
+import com.qualcomm.robotcore.hardware.PIDFCoefficients;
+import com.qualcomm.robotcore.hardware.configuration.typecontainers.MotorConfigurationType;
+import com.qualcomm.robotcore.util.Range;
+
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.CurrentUnit;
+
+import java.util.EnumMap;
+
+/**
+ * This is the FakeDcMotorEx class. It records everything an OpMode writes to a motor, charges each
+ * write as one Lynx command on its {@link FakeLynxModule}, and serves encoder reads through the
+ * hub's bulk cache.
+ *
+ * The motor has no physics of its own. A plant (the drivetrain or flywheel simulator) reads the
+ * effective output with {@link #updateOutput(double)} and feeds the resulting shaft motion back with
+ * {@link #setSimulatedState(double, double)}. Output and state are in the motor's own shaft frame;
+ * the configured Direction is applied here, just like the SDK does.
+ */
+public class FakeDcMotorEx implements DcMotorEx {
+    /** Hub PIDF coefficients are scaled so that an output of 32767 is full power. */
+    private static final double HUB_OUTPUT_SCALE = 32767.0;
+
+    private final String name;
+    private final FakeLynxModule hub;
+    private final int port;
+
+    private MotorConfigurationType motorType = motorType(537.7, 312);
+    private Direction direction = Direction.FORWARD;
+    private RunMode mode = RunMode.RUN_WITHOUT_ENCODER;
+    private ZeroPowerBehavior zeroPowerBehavior = ZeroPowerBehavior.FLOAT;
+    private final EnumMap<RunMode, PIDFCoefficients> pidf = new EnumMap<>(RunMode.class);
+
+    private double power;
+    private double targetVelocity;
+    private boolean velocityControl;
+    private int targetPosition;
+    private int targetPositionTolerance = 5;
+    private boolean enabled = true;
+    private double currentAlert = 5.0;
+
+    private double livePosition, liveVelocity, liveCurrent;
+    private double latchedPosition, latchedVelocity, latchedCurrent;
+    private int positionGeneration = -1, velocityGeneration = -1, currentGeneration = -1;
+    private double positionOffset;
+    private double integral;
+    private double previousError;
+
+    public FakeDcMotorEx(String name, FakeLynxModule hub, int port) {
+        this.name = name;
+        this.hub = hub;
+        this.port = port;
+        pidf.put(RunMode.RUN_USING_ENCODER, new PIDFCoefficients(10, 3, 0, 0));
+        pidf.put(RunMode.RUN_TO_POSITION, new PIDFCoefficients(5, 0, 0, 0));
+        hub.attach(this);
+    }
+
+    /**
+     * Builds a motor type without going through the SDK's ConfigurationTypeManager, which scans
+     * the Android app and is unavailable off-robot.
+     */
+    public static MotorConfigurationType motorType(double ticksPerRev, double maxRpm) {
+        MotorConfigurationType type = new MotorConfigurationType();
+        type.setTicksPerRev(ticksPerRev);
+        type.setGearing(1);
+        type.setMaxRPM(maxRpm);
+        type.setAchieveableMaxRPMFraction(0.85);
+        return type;
+    }
+
+    /* ---------------- plant interface ---------------- */
+
+    /**
+     * Runs the hub-side controller for one physics step and returns the voltage fraction the
+     * H-bridge applies, in [-1, 1], in the shaft frame.
+     *
+     * @param dtSeconds the length of the physics step
+     */
+    public double updateOutput(double dtSeconds) {
+        if (!enabled) {
+            return 0;
+        }
+        double sign = direction == Direction.REVERSE ? -1 : 1;
+        double velocity = sign * liveVelocity;
+        switch (mode) {
+            case RUN_USING_ENCODER: {
+                double target = velocityControl ? targetVelocity : power * maxTicksPerSecond();
+                PIDFCoefficients c = pidf.get(RunMode.RUN_USING_ENCODER);
+                double error = target - velocity;
+                integral = Range.clip(integral + error * dtSeconds, -HUB_OUTPUT_SCALE, HUB_OUTPUT_SCALE);
+                double derivative = dtSeconds > 0 ? (error - previousError) / dtSeconds : 0;
+                previousError = error;
+                double out = (c.p * error + c.i * integral + c.d * derivative + c.f * target) / HUB_OUTPUT_SCALE;
+                return sign * Range.clip(out, -1, 1);
+            }
+            case RUN_TO_POSITION: {
+                double error = targetPosition - (sign * livePosition - positionOffset);
+                double out = pidf.get(RunMode.RUN_TO_POSITION).p * error / maxTicksPerSecond();
+                return sign * Range.clip(out, -Math.abs(power), Math.abs(power));
+            }
+            case STOP_AND_RESET_ENCODER:
+                return 0;
+            default:
+                return sign * power;
+        }
+    }
+
+    /**
+     * Sets the shaft position and velocity as the plant computed them.
+     *
+     * @param positionTicks    absolute shaft position, encoder ticks
+     * @param velocityTicksSec shaft velocity, encoder ticks per second
+     */
+    public void setSimulatedState(double positionTicks, double velocityTicksSec) {
+        livePosition = positionTicks;
+        liveVelocity = velocityTicksSec;
+    }
+
+    public void setSimulatedCurrent(double amps) {
+        liveCurrent = amps;
+    }
+
+    /** The last power written, without any controller applied. */
+    public double getCommandedPower() {
+        return power;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void latch() {
+        latchedPosition = livePosition;
+        latchedVelocity = liveVelocity;
+        latchedCurrent = liveCurrent;
+    }
+
+    private double maxTicksPerSecond() {
+        double max = motorType.getAchieveableMaxTicksPerSecond();
+        return max > 0 ? max : 2800;
+    }
+
+    private double sign() {
+        return direction == Direction.REVERSE ? -1 : 1;
+    }
+
+    /* ---------------- DcMotorSimple ---------------- */
+
+    @Override
+    public void setDirection(Direction direction) {
+        this.direction = direction;
+    }
+
+    @Override
+    public Direction getDirection() {
+        return direction;
+    }
+
+    @Override
+    public void setPower(double power) {
+        hub.command();
+        this.power = Range.clip(power, -1, 1);
+        velocityControl = false;
+    }
+
+    @Override
+    public double getPower() {
+        hub.command(); // A read of the hub's register, like on a robot
+        return power;
+    }
+
+    /* ---------------- DcMotor ---------------- */
+
+    @Override
+    public MotorConfigurationType getMotorType() {
+        return motorType;
+    }
+
+    @Override
+    public void setMotorType(MotorConfigurationType motorType) {
+        this.motorType = motorType;
+    }
+
+    @Override
+    public DcMotorController getController() {
+        return null;
+    }
+
+    @Override
+    public int getPortNumber() {
+        return port;
+    }
+
+    @Override
+    public void setZeroPowerBehavior(ZeroPowerBehavior zeroPowerBehavior) {
+        hub.command();
+        this.zeroPowerBehavior = zeroPowerBehavior;
+    }
+
+    @Override
+    public ZeroPowerBehavior getZeroPowerBehavior() {
+        return zeroPowerBehavior;
+    }
+
+    @Override
+    @Deprecated
+    public void setPowerFloat() {
+        setZeroPowerBehavior(ZeroPowerBehavior.FLOAT);
+        setPower(0);
+    }
+
+    @Override
+    public boolean getPowerFloat() {
+        return zeroPowerBehavior == ZeroPowerBehavior.FLOAT && power == 0;
+    }
+
+    @Override
+    public void setTargetPosition(int position) {
+        hub.command();
+        targetPosition = position;
+    }
+
+    @Override
+    public int getTargetPosition() {
+        return targetPosition;
+    }
+
+    @Override
+    public boolean isBusy() {
+        return mode == RunMode.RUN_TO_POSITION
+                && Math.abs(getCurrentPosition() - targetPosition) > targetPositionTolerance;
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        int generation = hub.read(positionGeneration);
+        positionGeneration = generation;
+        double raw = generation < 0 ? livePosition : latchedPosition;
+        return (int) Math.round(sign() * raw - positionOffset);
+    }
+
+    @Override
+    public void setMode(RunMode mode) {
+        hub.command();
+        if (mode == RunMode.STOP_AND_RESET_ENCODER) {
+            positionOffset = sign() * livePosition;
+            power = 0;
+        }
+        this.mode = mode;
+        integral = 0;
+        previousError = 0;
+    }
+
+    @Override
+    public RunMode getMode() {
+        return mode;
+    }
+
+    /* ---------------- DcMotorEx ---------------- */
+
+    @Override
+    public void setMotorEnable() {
+        hub.command();
+        enabled = true;
+    }
+
+    @Override
+    public void setMotorDisable() {
+        hub.command();
+        enabled = false;
+    }
+
+    @Override
+    public boolean isMotorEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setVelocity(double angularRate) {
+        hub.command();
+        targetVelocity = angularRate;
+        velocityControl = true;
+        power = Range.clip(angularRate / maxTicksPerSecond(), -1, 1);
+    }
+
+    @Override
+    public void setVelocity(double angularRate, AngleUnit unit) {
+        double radiansPerSecond = unit.toRadians(angularRate);
+        setVelocity(radiansPerSecond / (2 * Math.PI) * motorType.getTicksPerRev());
+    }
+
+    @Override
+    public double getVelocity() {
+        int generation = hub.read(velocityGeneration);
+        velocityGeneration = generation;
+        return sign() * (generation < 0 ? liveVelocity : latchedVelocity);
+    }
+
+    @Override
+    public double getVelocity(AngleUnit unit) {
+        double revolutionsPerSecond = getVelocity() / motorType.getTicksPerRev();
+        return unit.fromRadians(revolutionsPerSecond * 2 * Math.PI);
+    }
+
+    @Override
+    @Deprecated
+    public void setPIDCoefficients(RunMode mode, PIDCoefficients pidCoefficients) {
+        setPIDFCoefficients(mode, new PIDFCoefficients(pidCoefficients));
+    }
+
+    @Override
+    public void setPIDFCoefficients(RunMode mode, PIDFCoefficients pidfCoefficients) {
+        hub.command();
+        pidf.put(mode, new PIDFCoefficients(pidfCoefficients));
+    }
+
+    @Override
+    public void setVelocityPIDFCoefficients(double p, double i, double d, double f) {
+        setPIDFCoefficients(RunMode.RUN_USING_ENCODER, new PIDFCoefficients(p, i, d, f));
+    }
+
+    @Override
+    public void setPositionPIDFCoefficients(double p) {
+        setPIDFCoefficients(RunMode.RUN_TO_POSITION, new PIDFCoefficients(p, 0, 0, 0));
+    }
+
+    @Override
+    @Deprecated
+    public PIDCoefficients getPIDCoefficients(RunMode mode) {
+        PIDFCoefficients c = getPIDFCoefficients(mode);
+        return new PIDCoefficients(c.p, c.i, c.d);
+    }
+
+    @Override
+    public PIDFCoefficients getPIDFCoefficients(RunMode mode) {
+        hub.command();
+        PIDFCoefficients c = pidf.get(mode);
+        return c == null ? new PIDFCoefficients() : new PIDFCoefficients(c);
+    }
+
+    @Override
+    public void setTargetPositionTolerance(int tolerance) {
+        hub.command();
+        targetPositionTolerance = tolerance;
+    }
+
+    @Override
+    public int getTargetPositionTolerance() {
+        return targetPositionTolerance;
+    }
+
+    @Override
+    public double getCurrent(CurrentUnit unit) {
+        int generation = hub.read(currentGeneration);
+        currentGeneration = generation;
+        return unit.convert(generation < 0 ? liveCurrent : latchedCurrent, CurrentUnit.AMPS);
+    }
+
+    @Override
+    public double getCurrentAlert(CurrentUnit unit) {
+        return unit.convert(currentAlert, CurrentUnit.AMPS);
+    }
+
+    @Override
+    public void setCurrentAlert(double current, CurrentUnit unit) {
+        hub.command();
+        currentAlert = CurrentUnit.AMPS.convert(current, unit);
+    }
+
+    @Override
+    public boolean isOverCurrent() {
+        return getCurrent(CurrentUnit.AMPS) > currentAlert;
+    }
+
+    /* ---------------- HardwareDevice ---------------- */
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return Manufacturer.Other;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Fake DC Motor " + name;
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return hub.getConnectionInfo() + "; port " + port;
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+        direction = Direction.FORWARD;
+        mode = RunMode.RUN_WITHOUT_ENCODER;
+        zeroPowerBehavior = ZeroPowerBehavior.FLOAT;
+        power = 0;
+        velocityControl = false;
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,174 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.HardwareDevice;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+import com.qualcomm.robotcore.util.SerialNumber;
+
+import org.firstinspires.ftc.teamcode.hardware.CommandedPowerMotor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is the FakeHardwareMap class. It is a real SDK HardwareMap, so OpModes can call
+ * get(), getAll() and the typed mappings unchanged, that is populated with fake devices instead
+ * of a robot configuration file. All devices share one {@link SimClock} and one set of
+ * {@link SimLatencies}.
+ *
+ * Lookups are answered from our own name table. The SDK's versions go through AppUtil, which
+ * needs a running Android app.
+ */
+public class FakeHardwareMap extends HardwareMap {
+    public final SimClock clock;
+    public final SimLatencies latencies;
+
+    private final List<FakeLynxModule> hubs = new ArrayList<>();
+    private final Map<String, List<HardwareDevice>> devices = new LinkedHashMap<>();
+
+    public FakeHardwareMap(SimClock clock, SimLatencies latencies) {
+        super(null, null);
+        this.clock = clock;
+        this.latencies = latencies;
+    }
+
+    /**
+     * Adds a Control Hub or Expansion Hub.
+     *
+     * @param name     configuration name, e.g. "Control Hub"
+     * @param isParent true for the hub the phone/Control Hub talks to directly
+     */
+    public FakeLynxModule addHub(String name, boolean isParent) {
+        FakeLynxModule hub = new FakeLynxModule(clock, latencies, isParent ? 173 : 2 + hubs.size(), isParent);
+        hubs.add(hub);
+        put(name, hub);
+        return hub;
+    }
+
+    /**
+     * Adds a motor on the given hub.
+     *
+     * @param ticksPerRev encoder ticks per output shaft revolution
+     * @param maxRpm      free speed of the output shaft
+     */
+    public FakeDcMotorEx addMotor(String name, FakeLynxModule hub, int port, double ticksPerRev, double maxRpm) {
+        FakeDcMotorEx motor = new FakeDcMotorEx(name, hub, port);
+        motor.setMotorType(FakeDcMotorEx.motorType(ticksPerRev, maxRpm));
+        dcMotor.putLocal(name, motor);
+        put(name, motor);
+        return motor;
+    }
+
+    public FakeVoltageSensor addVoltageSensor(String name) {
+        FakeVoltageSensor sensor = new FakeVoltageSensor(clock, latencies);
+        voltageSensor.putLocal(name, sensor);
+        put(name, sensor);
+        return sensor;
+    }
+
+    public FakePinpoint addPinpoint(String name) {
+        FakePinpoint pinpoint = new FakePinpoint(clock, latencies);
+        put(name, pinpoint);
+        return pinpoint;
+    }
+
+    public <T extends HardwareDevice> T add(String name, T device) {
+        put(name, device);
+        return device;
+    }
+
+    // put() and the typed mappings' put() both come through here, and their removes through remove().
+    @Override
+    protected void internalPut(SerialNumber serialNumber, String deviceName, HardwareDevice device) {
+        super.internalPut(serialNumber, deviceName, device);
+        deviceName = deviceName.trim();
+        List<HardwareDevice> named = devices.get(deviceName);
+        if (named == null) {
+            named = new ArrayList<>();
+            devices.put(deviceName, named);
+        }
+        named.add(device);
+    }
+
+    @Override
+    public boolean remove(SerialNumber serialNumber, String deviceName, HardwareDevice device) {
+        boolean removed = super.remove(serialNumber, deviceName, device);
+        List<HardwareDevice> named = devices.get(deviceName.trim());
+        if (named != null && named.remove(device)) {
+            removed = true;
+            if (named.isEmpty()) devices.remove(deviceName.trim());
+        }
+        return removed;
+    }
+
+    @Override
+    public <T> T get(Class<? extends T> classOrInterface, String deviceName) {
+        T device = tryGet(classOrInterface, deviceName);
+        if (device == null) {
+            throw new IllegalArgumentException(String.format("Unable to find a hardware device with name \"%s\" and type %s",
+                    deviceName, classOrInterface.getSimpleName()));
+        }
+        return device;
+    }
+
+    @Override
+    public <T> T tryGet(Class<? extends T> classOrInterface, String deviceName) {
+        List<HardwareDevice> named = devices.get(deviceName.trim());
+        if (named != null) {
+            for (HardwareDevice device : named) {
+                if (classOrInterface.isInstance(device)) {
+                    return classOrInterface.cast(device);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public <T> List<T> getAll(Class<? extends T> classOrInterface) {
+        List<T> result = new ArrayList<>();
+        for (List<HardwareDevice> named : devices.values()) {
+            for (HardwareDevice device : named) {
+                if (classOrInterface.isInstance(device) && !result.contains(device)) {
+                    result.add(classOrInterface.cast(device));
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<FakeLynxModule> getHubs() {
+        return hubs;
+    }
+
+    /** Lynx commands plus bulk reads across every hub since the map was created. */
+    public long getLynxTransactionCount() {
+        long total = 0;
+        for (FakeLynxModule hub : hubs) {
+            total += hub.getCommandCount() + hub.getBulkReadCount();
+        }
+        for (VoltageSensor sensor : voltageSensor) {
+            if (sensor instanceof FakeVoltageSensor) {
+                total += ((FakeVoltageSensor) sensor).getReadCount();
+            }
+        }
+        return total;
+    }
+
+    /** Every fake motor in the map, in insertion order. */
+    public List<FakeDcMotorEx> getMotors() {
+        List<FakeDcMotorEx> motors = new ArrayList<>();
+        for (DcMotor motor : dcMotor) {
+            if (motor instanceof CommandedPowerMotor) {
+                motor = ((CommandedPowerMotor) motor).getMotor();
+            }
+            if (motor instanceof FakeDcMotorEx) {
+                motors.add((FakeDcMotorEx) motor);
+            }
+        }
+        return motors;
+    }
+}
@@ -0,0 +1,136 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.hardware.lynx.LynxUsbDevice;
+import com.qualcomm.robotcore.util.SerialNumber;
+
+import org.firstinspires.ftc.robotcore.external.navigation.VoltageUnit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is the FakeLynxModule class. It stands in for a Control or Expansion Hub and owns the
+ * bulk-cache bookkeeping for the {@link FakeDcMotorEx}s attached to it. The three caching modes
+ * follow the SDK semantics described in ConceptMotorBulkRead:
+ * <ul>
+ *     <li>OFF: every encoder or velocity read is its own Lynx command.</li>
+ *     <li>AUTO: reads are served from the cache until the same value is read twice, which
+ *     triggers a new bulk read.</li>
+ *     <li>MANUAL: the cache is refreshed on the first read after {@link #clearBulkCache()}.</li>
+ * </ul>
+ * Every transaction is counted and its latency is charged to the {@link SimClock}.
+ */
+public class FakeLynxModule extends LynxModule {
+    private final SimClock clock;
+    private final SimLatencies latencies;
+    private final List<FakeDcMotorEx> motors = new ArrayList<>();
+
+    private BulkCachingMode mode = BulkCachingMode.OFF;
+    private int generation;
+    private boolean cacheValid;
+
+    private long commands;
+    private long bulkReads;
+    private double inputVoltage = 12.5;
+
+    public FakeLynxModule(SimClock clock, SimLatencies latencies, int moduleAddress, boolean isParent) {
+        super(Inert.of(LynxUsbDevice.class, (method, args) ->
+                "getSerialNumber".equals(method) ? SerialNumber.createFake() : null), moduleAddress, isParent, true);
+        this.clock = clock;
+        this.latencies = latencies;
+    }
+
+    void attach(FakeDcMotorEx motor) {
+        motors.add(motor);
+    }
+
+    @Override
+    public BulkCachingMode getBulkCachingMode() {
+        return mode;
+    }
+
+    @Override
+    public void setBulkCachingMode(BulkCachingMode mode) {
+        this.mode = mode;
+        cacheValid = false;
+    }
+
+    @Override
+    public void clearBulkCache() {
+        cacheValid = false;
+    }
+
+    @Override
+    public double getInputVoltage(VoltageUnit unit) {
+        command();
+        return unit.convert(inputVoltage, VoltageUnit.VOLTS);
+    }
+
+    public void setSimulatedInputVoltage(double volts) {
+        inputVoltage = volts;
+    }
+
+    /** Charges one non-bulk Lynx command, e.g. a motor write. */
+    void command() {
+        commands++;
+        clock.advance(latencies.lynxCommandNanos);
+    }
+
+    /**
+     * Called by a motor before it returns a sensor value.
+     *
+     * @param lastGeneration the cache generation in which the motor last returned this quantity
+     * @return the generation the value is served from, or -1 if it must be read live
+     */
+    int read(int lastGeneration) {
+        switch (mode) {
+            case OFF:
+                command();
+                return -1;
+            case AUTO:
+                if (!cacheValid || lastGeneration == generation) {
+                    refresh();
+                }
+                return generation;
+            default:
+                if (!cacheValid) {
+                    refresh();
+                }
+                return generation;
+        }
+    }
+
+    private void refresh() {
+        bulkReads++;
+        clock.advance(latencies.bulkReadNanos);
+        generation++;
+        cacheValid = true;
+        for (FakeDcMotorEx motor : motors) {
+            motor.latch();
+        }
+    }
+
+    /** Number of individual Lynx commands (writes and uncached reads) sent so far. */
+    public long getCommandCount() {
+        return commands;
+    }
+
+    /** Number of bulk reads sent so far. */
+    public long getBulkReadCount() {
+        return bulkReads;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Fake Lynx Module " + getModuleAddress();
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return "sim; module " + getModuleAddress();
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,247 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.qualcomm.hardware.gobilda.GoBildaPinpointDriver;
+import com.qualcomm.robotcore.hardware.I2cDeviceSynchSimple;
+
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.Pose2D;
+import org.firstinspires.ftc.robotcore.external.navigation.UnnormalizedAngleUnit;
+
+/**
+ * This is the FakePinpoint class. It replaces the goBILDA Pinpoint odometry computer. Like the real
+ * device, the values an OpMode sees only change when {@link #update()} is called; each update is
+ * one I2C transaction and is charged to the {@link SimClock}.
+ *
+ * A plant feeds the true robot-centre motion with {@link #setSimulatedState}. The pod offsets,
+ * directions and resolution are stored but not applied, since the simulator already works in the
+ * robot-centre frame the Pinpoint would report.
+ */
+public class FakePinpoint extends GoBildaPinpointDriver {
+    private final SimClock clock;
+    private final SimLatencies latencies;
+
+    // Truth, in mm, radians and per-second rates. The heading is unnormalized.
+    private double trueX, trueY, trueHeading, trueVx, trueVy, trueOmega;
+    // What the last update() latched.
+    private double x, y, heading, vx, vy, omega;
+    // Pose offset applied by setPosition() and resetPosAndIMU().
+    private double originX, originY, originHeading;
+
+    private double xOffsetMm, yOffsetMm;
+    private long updates;
+    private long lastUpdateNanos;
+    private int loopTimeMicros;
+
+    public FakePinpoint(SimClock clock, SimLatencies latencies) {
+        super(Inert.of(I2cDeviceSynchSimple.class), true);
+        this.clock = clock;
+        this.latencies = latencies;
+    }
+
+    /**
+     * Sets the true robot-centre state, in the Pinpoint's field frame.
+     *
+     * @param xInches     field X
+     * @param yInches     field Y
+     * @param headingRad  unnormalized heading
+     * @param vxInches    field X velocity, in/s
+     * @param vyInches    field Y velocity, in/s
+     * @param omegaRadSec heading rate, rad/s
+     */
+    public void setSimulatedState(double xInches, double yInches, double headingRad,
+                                  double vxInches, double vyInches, double omegaRadSec) {
+        trueX = DistanceUnit.INCH.toMm(xInches);
+        trueY = DistanceUnit.INCH.toMm(yInches);
+        trueHeading = headingRad;
+        trueVx = DistanceUnit.INCH.toMm(vxInches);
+        trueVy = DistanceUnit.INCH.toMm(vyInches);
+        trueOmega = omegaRadSec;
+    }
+
+    public long getUpdateCount() {
+        return updates;
+    }
+
+    @Override
+    public void update() {
+        updates++;
+        clock.advance(latencies.i2cReadNanos);
+        long now = clock.nanoTime();
+        loopTimeMicros = lastUpdateNanos == 0 ? 0 : (int) ((now - lastUpdateNanos) / 1000);
+        lastUpdateNanos = now;
+
+        double cos = Math.cos(-originHeading), sin = Math.sin(-originHeading);
+        double dx = trueX - originX, dy = trueY - originY;
+        x = dx * cos - dy * sin;
+        y = dx * sin + dy * cos;
+        heading = trueHeading - originHeading;
+        vx = trueVx * cos - trueVy * sin;
+        vy = trueVx * sin + trueVy * cos;
+        omega = trueOmega;
+    }
+
+    @Override
+    public void update(ReadData data) {
+        update();
+    }
+
+    @Override
+    public void resetPosAndIMU() {
+        clock.advance(latencies.i2cReadNanos);
+        originX = trueX;
+        originY = trueY;
+        originHeading = trueHeading;
+        update();
+    }
+
+    @Override
+    public void recalibrateIMU() {
+        clock.advance(latencies.i2cReadNanos);
+    }
+
+    @Override
+    public void setPosition(Pose2D pos) {
+        setPose(pos.getX(DistanceUnit.MM), pos.getY(DistanceUnit.MM), pos.getHeading(AngleUnit.RADIANS));
+    }
+
+    @Override
+    public void setPosX(double posX, DistanceUnit distanceUnit) {
+        setPose(distanceUnit.toMm(posX), y, heading);
+    }
+
+    @Override
+    public void setPosY(double posY, DistanceUnit distanceUnit) {
+        setPose(x, distanceUnit.toMm(posY), heading);
+    }
+
+    @Override
+    public void setHeading(double heading, AngleUnit angleUnit) {
+        setPose(x, y, angleUnit.toRadians(heading));
+    }
+
+    /** Chooses the origin so that the current truth reads as the given pose. */
+    private void setPose(double xMm, double yMm, double headingRad) {
+        clock.advance(latencies.i2cReadNanos);
+        originHeading = trueHeading - headingRad;
+        double cos = Math.cos(originHeading), sin = Math.sin(originHeading);
+        originX = trueX - (xMm * cos - yMm * sin);
+        originY = trueY - (xMm * sin + yMm * cos);
+        x = xMm;
+        y = yMm;
+        heading = headingRad;
+    }
+
+    @Override
+    public void setOffsets(double xOffset, double yOffset, DistanceUnit distanceUnit) {
+        xOffsetMm = distanceUnit.toMm(xOffset);
+        yOffsetMm = distanceUnit.toMm(yOffset);
+    }
+
+    @Override
+    public void setEncoderDirections(EncoderDirection xEncoder, EncoderDirection yEncoder) {}
+
+    @Override
+    public void setEncoderResolution(GoBildaOdometryPods pods) {}
+
+    @Override
+    public void setEncoderResolution(double ticksPerUnit, DistanceUnit distanceUnit) {}
+
+    @Override
+    public void setYawScalar(double yawOffset) {}
+
+    @Override
+    public DeviceStatus getDeviceStatus() {
+        return DeviceStatus.READY;
+    }
+
+    @Override
+    public int getLoopTime() {
+        return loopTimeMicros;
+    }
+
+    @Override
+    public double getFrequency() {
+        return loopTimeMicros == 0 ? 0 : 1e6 / loopTimeMicros;
+    }
+
+    @Override
+    public double getPosX(DistanceUnit distanceUnit) {
+        return distanceUnit.fromMm(x);
+    }
+
+    @Override
+    public double getPosY(DistanceUnit distanceUnit) {
+        return distanceUnit.fromMm(y);
+    }
+
+    @Override
+    public double getHeading(AngleUnit angleUnit) {
+        return angleUnit.fromRadians(heading);
+    }
+
+    @Override
+    public double getHeading(UnnormalizedAngleUnit unnormalizedAngleUnit) {
+        return unnormalizedAngleUnit.fromRadians(heading);
+    }
+
+    @Override
+    public double getVelX(DistanceUnit distanceUnit) {
+        return distanceUnit.fromMm(vx);
+    }
+
+    @Override
+    public double getVelY(DistanceUnit distanceUnit) {
+        return distanceUnit.fromMm(vy);
+    }
+
+    @Override
+    public double getHeadingVelocity(UnnormalizedAngleUnit unnormalizedAngleUnit) {
+        return unnormalizedAngleUnit.fromRadians(omega);
+    }
+
+    @Override
+    public float getXOffset(DistanceUnit distanceUnit) {
+        return (float) distanceUnit.fromMm(xOffsetMm);
+    }
+
+    @Override
+    public float getYOffset(DistanceUnit distanceUnit) {
+        return (float) distanceUnit.fromMm(yOffsetMm);
+    }
+
+    @Override
+    public Pose2D getPosition() {
+        return new Pose2D(DistanceUnit.MM, x, y, AngleUnit.RADIANS, AngleUnit.normalizeRadians(heading));
+    }
+
+    @Override
+    public int getEncoderX() {
+        return 0;
+    }
+
+    @Override
+    public int getEncoderY() {
+        return 0;
+    }
+
+    @Override
+    public int getDeviceID() {
+        return 2;
+    }
+
+    @Override
+    public int getDeviceVersion() {
+        return 1;
+    }
+
+    @Override
+    public float getYawScalar() {
+        return 1;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Fake goBILDA Pinpoint";
+    }
+}
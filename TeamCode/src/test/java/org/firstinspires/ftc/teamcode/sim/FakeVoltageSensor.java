@@ -0,0 +1,65 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+
+/**
+ * This is the FakeVoltageSensor class. It reports the battery voltage of its {@link FakeLynxModule},
+ * charging one Lynx command per read like the real hub voltage sensor.
+ */
+public class FakeVoltageSensor implements VoltageSensor {
+    private final SimClock clock;
+    private final SimLatencies latencies;
+    private double volts = 12.5;
+    private long reads;
+
+    public FakeVoltageSensor(SimClock clock, SimLatencies latencies) {
+        this.clock = clock;
+        this.latencies = latencies;
+    }
+
+    public void setSimulatedVoltage(double volts) {
+        this.volts = volts;
+    }
+
+    /** The voltage, without charging a read. For plants. */
+    public double getSimulatedVoltage() {
+        return volts;
+    }
+
+    public long getReadCount() {
+        return reads;
+    }
+
+    @Override
+    public double getVoltage() {
+        reads++;
+        clock.advance(latencies.voltageReadNanos);
+        return volts;
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return Manufacturer.Lynx;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Fake Voltage Sensor";
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return "sim";
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {}
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,60 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import org.firstinspires.ftc.teamcode.recording.FlightLog;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * This is the FlightLogExport class. It converts a flight log pulled off the robot
+ * (adb pull /sdcard/FIRST/data/flightlogs) into CSV and/or a columnar dump and prints a summary.
+ *
+ * <pre>
+ * FlightLogExport log.bin [--csv out.csv] [--columns outDir]
+ * </pre>
+ *
+ * With neither option it writes log.csv next to the log.
+ */
+public class FlightLogExport {
+    private static final String USAGE = "FlightLogExport log.bin [--csv out.csv] [--columns outDir]";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println(USAGE);
+            return;
+        }
+        File input = new File(args[0]);
+        File csv = null, columns = null;
+        for (int i = 1; i < args.length; i++) {
+            if (i + 1 == args.length) { // Both options take a value
+                System.out.println(USAGE);
+                return;
+            }
+            if ("--csv".equals(args[i])) csv = new File(args[++i]);
+            else if ("--columns".equals(args[i])) columns = new File(args[++i]);
+        }
+        if (csv == null && columns == null) {
+            csv = new File(input.getPath().replaceFirst("\\.bin$", "") + ".csv");
+        }
+
+        FlightLog log = FlightLog.read(input);
+        double seconds = log.count == 0 ? 0 : log.getSeconds(log.count - 1);
+        System.out.println(String.format(Locale.US, "%s: %s, %d records over %.2f s (%.1f Hz), %d motors",
+                input, log.tag, log.count, seconds, seconds > 0 ? (log.count - 1) / seconds : 0,
+                log.motorNames.length));
+
+        if (csv != null) {
+            try (Writer writer = new FileWriter(csv)) {
+                log.writeCsv(writer);
+            }
+            System.out.println("wrote " + csv);
+        }
+        if (columns != null) {
+            log.writeColumns(columns);
+            System.out.println("wrote " + columns + File.separator + "schema.csv");
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.DcMotorSimple;
+
+import org.firstinspires.ftc.teamcode.flywheel.Flywheel;
+import org.firstinspires.ftc.teamcode.flywheel.FlywheelAutotuner;
+import org.firstinspires.ftc.teamcode.flywheel.FlywheelController;
+import org.firstinspires.ftc.teamcode.flywheel.FlywheelGainStore;
+import org.firstinspires.ftc.teamcode.flywheel.FlywheelVelocityTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * This is the FlywheelRun class. It runs FlywheelVelocityTest against {@link FlywheelSim} on
+ * simulated time, fires a shot every shotInterval seconds once the wheel is ready, and reports
+ * spin-up and recovery times. Useful for trying gains before taking them to the robot.
+ *
+ * <pre>
+ * FlywheelRun [seconds] [--shots interval] [--target ticksPerSecond] [--autotune]
+ * </pre>
+ *
+ * With --autotune it first runs {@link FlywheelAutotuner} on the simulated wheel, prints the
+ * identified model and gains, and runs the shot test with them.
+ *
+ * The default target is below SimRobot's 2800 ticks/s free speed for a bare 6000 rpm motor.
+ */
+public class FlywheelRun {
+
+    /** FlywheelVelocityTest with the controller in the OpMode loop and on simulated time. */
+    static class SimulatedTest extends FlywheelVelocityTest {
+        private final SimClock clock;
+        private final FlywheelGainStore store;
+
+        SimulatedTest(SimClock clock, FlywheelGainStore store) {
+            this.clock = clock;
+            this.store = store;
+        }
+
+        @Override
+        protected FlywheelGainStore newGainStore() {
+            return store;
+        }
+
+        @Override
+        protected Flywheel newFlywheel() {
+            return new Flywheel(hardwareMap, "flywheel", DcMotorSimple.Direction.REVERSE) {
+                @Override
+                protected long nanoTime() {
+                    return clock.nanoTime();
+                }
+            };
+        }
+
+        FlywheelController controller() {
+            return flywheel.controller;
+        }
+    }
+
+    /**
+     * Runs the autotuner against a fresh simulated wheel, the way FlywheelPfTuner does on the
+     * robot, and saves the result to the given store. Returns false if it failed.
+     */
+    static boolean autotune(FlywheelGainStore store, double lowTarget, double highTarget) {
+        SimClock clock = new SimClock();
+        SimRobot robot = new SimRobot(clock, new SimLatencies());
+        FlywheelSim wheel = new FlywheelSim(robot);
+        FakeDcMotorEx motor = robot.flywheel;
+        motor.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
+
+        FlywheelAutotuner autotuner = new FlywheelAutotuner();
+        autotuner.lowTarget = lowTarget;
+        autotuner.highTarget = highTarget;
+        autotuner.start(clock.nanoTime());
+        long last = clock.nanoTime();
+        for (int i = 0; autotuner.isRunning(); i++) {
+            double voltage = i % 20 == 0 ? robot.voltageSensor.getVoltage() : Double.NaN;
+            motor.setPower(autotuner.update(motor.getVelocity(), voltage, clock.nanoTime()));
+            clock.advance(robot.hardwareMap.latencies.loopOverheadNanos);
+            // The hardware calls above charged their own latency; step the wheel by all of it.
+            wheel.step((clock.nanoTime() - last) / 1e9);
+            last = clock.nanoTime();
+        }
+        System.out.println(String.format(Locale.US, "autotune %s in %.1f s", autotuner.getStatus(), clock.seconds()));
+        if (autotuner.getPhase() != FlywheelAutotuner.Phase.DONE) return false;
+
+        System.out.println("  low model:  " + autotuner.getLowModel());
+        System.out.println("  high model: " + autotuner.getHighModel());
+        store.lowTarget = lowTarget;
+        store.highTarget = highTarget;
+        store.low = autotuner.getLowGains();
+        store.high = autotuner.getHighGains();
+        store.lowHubP = FlywheelAutotuner.getHubP(store.low);
+        store.lowHubF = autotuner.getHubF(lowTarget);
+        store.highHubP = FlywheelAutotuner.getHubP(store.high);
+        store.highHubF = autotuner.getHubF(highTarget);
+        System.out.println(String.format(Locale.US, "  hub PF: low P %.2f F %.2f, high P %.2f F %.2f",
+                store.lowHubP, store.lowHubF, store.highHubP, store.highHubF));
+        return store.save();
+    }
+
+    private static final String USAGE =
+            "FlywheelRun [seconds] [--shots interval] [--target ticksPerSecond] [--autotune]";
+
+    public static void main(String[] args) throws IOException {
+        double seconds = 10, shotInterval = 0.6, target = 2400;
+        boolean autotune = false;
+        for (int i = 0; i < args.length; i++) {
+            boolean takesValue = "--shots".equals(args[i]) || "--target".equals(args[i]);
+            if (takesValue && i + 1 == args.length) {
+                System.out.println(USAGE);
+                return;
+            }
+            if ("--shots".equals(args[i])) shotInterval = Double.parseDouble(args[++i]);
+            else if ("--target".equals(args[i])) target = Double.parseDouble(args[++i]);
+            else if ("--autotune".equals(args[i])) autotune = true;
+            else seconds = Double.parseDouble(args[i]);
+        }
+
+        File file = File.createTempFile("flywheel_gains", ".properties");
+        file.delete();
+        file.deleteOnExit();
+        FlywheelGainStore store = new FlywheelGainStore(file);
+        if (autotune && !autotune(store, FlywheelVelocityTest.lowVelocity, target)) {
+            return;
+        }
+
+        SimClock clock = new SimClock();
+        SimRobot robot = new SimRobot(clock, new SimLatencies());
+        FlywheelSim wheel = new FlywheelSim(robot);
+        FlywheelVelocityTest.USE_THREAD = false;
+        FlywheelVelocityTest.highVelocity = target;
+        SimulatedTest test = new SimulatedTest(clock, store);
+        OpModeHarness harness = new OpModeHarness(test, robot.hardwareMap).addPlant(wheel);
+
+        harness.init();
+        harness.start();
+        double start = clock.seconds(), lastShot = start;
+        double spinUp = Double.NaN, recoveryTotal = 0;
+        int recoveries = 0, lastShots = 0;
+        while (clock.seconds() - start < seconds) {
+            harness.loop();
+            FlywheelController controller = test.controller();
+            if (Double.isNaN(spinUp)) spinUp = controller.getLastSpinUpSeconds();
+            if (controller.isReady() && clock.seconds() - lastShot >= shotInterval) {
+                wheel.fire();
+                lastShot = clock.seconds();
+            }
+            if (controller.getShotCount() != lastShots && controller.isReady()) {
+                lastShots = controller.getShotCount();
+                recoveryTotal += controller.getLastRecoverySeconds();
+                recoveries++;
+            }
+        }
+        harness.stop();
+
+        System.out.println(String.format(Locale.US,
+                "spin-up %.3f s, %d shots, mean recovery %.3f s, loop %.2f ms, %.2f Lynx transactions per loop",
+                spinUp, recoveries, recoveries == 0 ? Double.NaN : recoveryTotal / recoveries,
+                harness.getMeanSimLoopMs(), harness.getLynxTransactionsPerLoop()));
+    }
+}
@@ -0,0 +1,64 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+/**
+ * This is the FlywheelSim class. It models the shooter flywheel on {@link SimRobot}'s "flywheel"
+ * motor: a DC motor driving a heavy wheel, which behaves like a first-order lag from power to speed
+ * with a short dead time for the hub's command and velocity reporting. {@link #fire()} takes a
+ * fraction of the wheel's speed away, like a ring or ball passing through.
+ */
+public class FlywheelSim implements OpModeHarness.Plant {
+    private final FakeDcMotorEx motor;
+    private final FakeVoltageSensor voltageSensor;
+
+    /** Free speed at full power on a nominal battery, ticks/s. 6000 rpm x 28 ticks. */
+    public double freeSpeed = SimRobot.FLYWHEEL_MAX_RPM * SimRobot.FLYWHEEL_TICKS_PER_REV / 60;
+    /** Mechanical time constant of motor plus wheel, s. */
+    public double timeConstant = 0.45;
+    /** Delay between a power command and the wheel responding, s. */
+    public double deadTime = 0.012;
+    /** Power needed just to overcome friction. */
+    public double staticPower = 0.03;
+    public double nominalVoltage = 12;
+    /** Fraction of speed lost per shot. */
+    public double shotLoss = 0.15;
+
+    private double position, velocity;
+    private final double[] delayLine = new double[256];
+    private int delayHead;
+
+    public FlywheelSim(SimRobot robot) {
+        motor = robot.flywheel;
+        voltageSensor = robot.voltageSensor;
+    }
+
+    public double getVelocity() {
+        return velocity;
+    }
+
+    public void fire() {
+        velocity *= 1 - shotLoss;
+    }
+
+    @Override
+    public void step(double dtSeconds) {
+        double commanded = motor.updateOutput(dtSeconds);
+        double applied = delay(commanded, dtSeconds);
+
+        double voltage = voltageSensor.getSimulatedVoltage();
+        double drive = Math.abs(applied) <= staticPower ? 0 : applied - Math.signum(applied) * staticPower;
+        double target = drive * freeSpeed * voltage / nominalVoltage;
+        velocity += (target - velocity) * (1 - Math.exp(-dtSeconds / timeConstant));
+        position += velocity * dtSeconds;
+        motor.setSimulatedState(position, velocity);
+    }
+
+    /** Returns the command from deadTime ago, at the resolution of the loop period. */
+    private double delay(double commanded, double dtSeconds) {
+        int steps = dtSeconds > 0 ? (int) Math.round(deadTime / dtSeconds) : 0;
+        steps = Math.max(0, Math.min(delayLine.length - 1, steps));
+        delayLine[delayHead] = commanded;
+        double delayed = delayLine[(delayHead - steps + delayLine.length) % delayLine.length];
+        delayHead = (delayHead + 1) % delayLine.length;
+        return delayed;
+    }
+}
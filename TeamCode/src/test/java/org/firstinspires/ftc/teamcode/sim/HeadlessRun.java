@@ -0,0 +1,63 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+
+import org.firstinspires.ftc.teamcode.pedroPathing.Tuning;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Runs one OpMode against {@link SimRobot} and prints its loop cost.
+ *
+ * <pre>
+ * HeadlessRun &lt;OpMode class&gt; [seconds] [--realtime] [--no-latency]
+ * </pre>
+ *
+ * The class may be fully qualified or relative to org.firstinspires.ftc.teamcode, e.g.
+ * "blueAutoClose" or "pedroPathing.ForwardVelocityTuner". Tuning sub-OpModes are package-private
+ * and depend on the follower that Tuning.onSelect() creates, so they are primed through Tuning.
+ */
+public class HeadlessRun {
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: HeadlessRun <OpMode class> [seconds] [--realtime] [--no-latency]");
+            System.exit(2);
+        }
+
+        double seconds = 30;
+        boolean realTime = false, noLatency = false;
+        for (int i = 1; i < args.length; i++) {
+            if ("--realtime".equals(args[i])) realTime = true;
+            else if ("--no-latency".equals(args[i])) noLatency = true;
+            else seconds = Double.parseDouble(args[i]);
+        }
+
+        SimClock clock = new SimClock().setRealTime(realTime);
+        SimRobot robot = new SimRobot(clock, noLatency ? SimLatencies.none() : new SimLatencies());
+
+        Class<?> type = resolve(args[0]);
+        if (type.getPackage() == Tuning.class.getPackage() && type != Tuning.class) {
+            Tuning tuning = new Tuning();
+            new OpModeHarness(tuning, robot.hardwareMap);
+            tuning.onSelect();
+        }
+
+        OpModeHarness harness = new OpModeHarness(instantiate(type), robot.hardwareMap);
+        harness.run(10, seconds);
+        harness.printSummary(System.out);
+    }
+
+    static Class<?> resolve(String name) throws ClassNotFoundException {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return Class.forName("org.firstinspires.ftc.teamcode." + name);
+        }
+    }
+
+    static OpMode instantiate(Class<?> type) throws ReflectiveOperationException {
+        Constructor<?> constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return (OpMode) constructor.newInstance();
+    }
+}
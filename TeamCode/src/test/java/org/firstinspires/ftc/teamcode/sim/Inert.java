@@ -0,0 +1,81 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Proxy;
+
+/**
+ * Creates do-nothing implementations of SDK interfaces that the fakes have to hand to SDK
+ * constructors (USB devices, I2C clients, OpMode services), and library objects built from them.
+ * Every method returns the zero value of its return type.
+ */
+final class Inert {
+    private Inert() {}
+
+    static <T> T of(Class<T> type) {
+        return of(type, null);
+    }
+
+    /**
+     * @param type     the interface to implement
+     * @param override called first for every invocation; a non-null result is returned as is
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T of(Class<T> type, Handler override) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            if (override != null) {
+                Object result = override.invoke(method.getName(), args);
+                if (result != null) {
+                    return result;
+                }
+            }
+            switch (method.getName()) {
+                case "toString": return "Inert " + type.getSimpleName();
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+            }
+            return zero(method.getReturnType());
+        });
+    }
+
+    /**
+     * Constructs a class through its shortest public constructor, passing inert implementations for
+     * interface parameters and zero values or null for the rest.
+     */
+    static <T> T construct(Class<T> type) {
+        Constructor<?> shortest = null;
+        for (Constructor<?> constructor : type.getConstructors()) {
+            if (shortest == null || constructor.getParameterCount() < shortest.getParameterCount()) {
+                shortest = constructor;
+            }
+        }
+        if (shortest == null) {
+            throw new IllegalArgumentException(type + " has no public constructor");
+        }
+        Class<?>[] parameters = shortest.getParameterTypes();
+        Object[] args = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            args[i] = parameters[i].isInterface() ? of(parameters[i]) : zero(parameters[i]);
+        }
+        try {
+            return type.cast(shortest.newInstance(args));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not construct " + type, e);
+        }
+    }
+
+    interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static Object zero(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0f;
+        return 0d;
+    }
+}
@@ -0,0 +1,327 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.pedropathing.follower.Follower;
+import com.pedropathing.geometry.Pose;
+import com.pedropathing.localization.Localizer;
+import com.pedropathing.math.Vector;
+import com.pedropathing.util.Timer;
+
+import org.firstinspires.ftc.teamcode.blueAutoClose;
+import org.firstinspires.ftc.teamcode.pedroPathing.Constants;
+import org.firstinspires.ftc.teamcode.recording.FlightLog;
+import org.firstinspires.ftc.teamcode.recording.FlightRecorder;
+import org.firstinspires.ftc.teamcode.util.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * This is the LogReplay class. It re-runs a blueAutoClose match from a {@link FlightRecorder} log
+ * through the current code: Constants.createFollower builds the real Follower on
+ * {@link SimRobot}'s fake hardware, but its localizer returns the poses the robot actually saw,
+ * loop by loop, on the recorded timestamps and battery voltage. Whatever the follower and state
+ * machine command is then compared with what the robot commanded on the field.
+ *
+ * With unchanged code the drive powers match the log to float precision, apart from Pedro's own
+ * derivative terms, which read System.nanoTime(). After a change to the follower, its constants
+ * or the state machine, the diff shows exactly where and by how much the commands moved, against
+ * real field data rather than the simulator's physics. The robot doesn't respond to the new
+ * commands, so a replay can say how a change would have reacted to that match, not where the
+ * robot would have gone.
+ *
+ * <pre>
+ * LogReplay match.bin [--out replay.bin]
+ * LogReplay --diff before.bin after.bin
+ * </pre>
+ *
+ * The first form replays the log, optionally saving the replayed commands as a new log, and
+ * prints the command diff, tracking error and loop timing. The second compares any two logs,
+ * e.g. replays of the same match before and after a change.
+ */
+public class LogReplay {
+    /** Drive power difference that counts as a changed command. */
+    public static double POWER_TOLERANCE = 1e-3;
+
+    /** A Pedro localizer that plays back the poses in a flight log. */
+    static class ReplayLocalizer implements Localizer {
+        private final FlightLog log;
+        private int record;
+        private Pose pose = new Pose();
+        private Pose velocity = new Pose();
+        private double totalHeading, previousHeading;
+
+        ReplayLocalizer(FlightLog log) {
+            this.log = log;
+        }
+
+        /** Makes the given record the current reading. */
+        void setRecord(int record) {
+            this.record = record;
+        }
+
+        @Override
+        public void update() {
+            double heading = log.heading[record];
+            double omega = 0;
+            if (record > 0) {
+                double dt = (log.nanos[record] - log.nanos[record - 1]) / 1e9;
+                if (dt > 0) omega = Math.IEEEremainder(heading - log.heading[record - 1], 2 * Math.PI) / dt;
+            }
+            pose = new Pose(log.x[record], log.y[record], heading);
+            velocity = new Pose(log.vx[record], log.vy[record], omega);
+            totalHeading += Math.IEEEremainder(heading - previousHeading, 2 * Math.PI);
+            previousHeading = heading;
+        }
+
+        @Override
+        public Pose getPose() {
+            return pose;
+        }
+
+        @Override
+        public Pose getVelocity() {
+            return velocity;
+        }
+
+        @Override
+        public Vector getVelocityVector() {
+            return new Vector(Math.hypot(velocity.getX(), velocity.getY()),
+                    Math.atan2(velocity.getY(), velocity.getX()));
+        }
+
+        /** The log is already in field coordinates, so poses set by the OpMode are ignored. */
+        @Override
+        public void setStartPose(Pose setStart) {
+            previousHeading = log.count > 0 ? log.heading[0] : setStart.getHeading();
+        }
+
+        @Override
+        public void setPose(Pose setPose) {
+        }
+
+        @Override
+        public double getTotalHeading() {
+            return totalHeading;
+        }
+
+        @Override
+        public double getForwardMultiplier() {
+            return 1;
+        }
+
+        @Override
+        public double getLateralMultiplier() {
+            return 1;
+        }
+
+        @Override
+        public double getTurningMultiplier() {
+            return 1;
+        }
+
+        @Override
+        public void resetIMU() {
+        }
+
+        @Override
+        public double getIMUHeading() {
+            return pose.getHeading();
+        }
+
+        @Override
+        public boolean isNAN() {
+            return Double.isNaN(pose.getX()) || Double.isNaN(pose.getY()) || Double.isNaN(pose.getHeading());
+        }
+    }
+
+    /** blueAutoClose on the replay localizer and the log's clock. */
+    static class ReplayAuto extends blueAutoClose {
+        private final SimClock clock;
+        private final ReplayLocalizer localizer;
+        private final File out;
+
+        ReplayAuto(SimClock clock, ReplayLocalizer localizer, File out) {
+            this.clock = clock;
+            this.localizer = localizer;
+            this.out = out;
+        }
+
+        @Override
+        protected Follower newFollower() {
+            return Constants.createFollower(hardwareMap, plan.pathConstraints, localizer);
+        }
+
+        @Override
+        protected Timer newTimer() {
+            return new SimTimer(clock);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return clock.nanoTime();
+        }
+
+        @Override
+        protected boolean recordsFlight() {
+            return out != null;
+        }
+
+        @Override
+        protected FlightRecorder newFlightRecorder() {
+            return openFlightRecorder(out);
+        }
+    }
+
+    /** Replays the log and returns the replayed log, written to out. */
+    public static FlightLog replay(FlightLog log, File out, PrintStream report) throws IOException {
+        SimClock clock = new SimClock();
+        SimRobot robot = new SimRobot(clock, new SimLatencies());
+        ReplayLocalizer localizer = new ReplayLocalizer(log);
+        ReplayAuto auto = new ReplayAuto(clock, localizer, out);
+        OpModeHarness harness = new OpModeHarness(auto, robot.hardwareMap);
+
+        LatencyHistogram replayLoops = new LatencyHistogram();
+        double trackingTotal = 0, trackingMax = 0, headingTotal = 0, headingMax = 0;
+        int records = 0;
+        try {
+            harness.init();
+            harness.start();
+            long start = clock.nanoTime();
+            for (int r = 0; r < log.count && !harness.isStopRequested(); r++) {
+                // Put the clock where the robot's was when this loop's pose was read.
+                long due = start + (log.nanos[r] - log.nanos[0]);
+                if (due > clock.nanoTime()) clock.advance(due - clock.nanoTime());
+                if (!Double.isNaN(log.voltage[r])) robot.voltageSensor.setSimulatedVoltage(log.voltage[r]);
+                localizer.setRecord(r);
+
+                long loopStart = System.nanoTime();
+                harness.loop();
+                replayLoops.record(System.nanoTime() - loopStart);
+
+                Follower follower = auto.follower;
+                if (follower.isBusy()) {
+                    double tracking = follower.getTranslationalError().getMagnitude();
+                    double heading = Math.abs(follower.getHeadingError());
+                    trackingTotal += tracking;
+                    trackingMax = Math.max(trackingMax, tracking);
+                    headingTotal += heading;
+                    headingMax = Math.max(headingMax, heading);
+                    records++;
+                }
+            }
+        } finally {
+            harness.stop();
+        }
+
+        report.println(String.format(Locale.US,
+                "tracking error while following: mean %.2f in, max %.2f in; heading mean %.1f deg, max %.1f deg",
+                records == 0 ? 0 : trackingTotal / records, trackingMax,
+                Math.toDegrees(records == 0 ? 0 : headingTotal / records), Math.toDegrees(headingMax)));
+        report.println(String.format(Locale.US,
+                "replay host time per loop: p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                replayLoops.getPercentileMillis(50), replayLoops.getPercentileMillis(99), replayLoops.getMaxMillis()));
+        return FlightLog.read(out);
+    }
+
+    /**
+     * Prints how b's commands, state machine and loop timing differ from a's, record by record.
+     * Returns the number of records whose drive commands differ by more than POWER_TOLERANCE.
+     */
+    public static int diff(FlightLog a, FlightLog b, PrintStream report) {
+        int n = Math.min(a.count, b.count);
+        if (a.count != b.count) {
+            report.println(String.format(Locale.US, "record counts differ: %d vs %d, comparing the first %d",
+                    a.count, b.count, n));
+        }
+
+        int changed = 0, firstChanged = -1;
+        for (int m = 0; m < a.motorNames.length; m++) {
+            int other = b.indexOfMotor(a.motorNames[m]);
+            if (other < 0) {
+                report.println("  " + a.motorNames[m] + ": not in the second log");
+                continue;
+            }
+            double sumSquares = 0, max = 0;
+            for (int r = 0; r < n; r++) {
+                double d = Math.abs(a.power[m][r] - b.power[other][r]);
+                sumSquares += d * d;
+                max = Math.max(max, d);
+            }
+            report.println(String.format(Locale.US, "  %-12s power diff RMS %.4f, max %.4f",
+                    a.motorNames[m], n == 0 ? 0 : Math.sqrt(sumSquares / n), max));
+        }
+        for (int r = 0; r < n; r++) {
+            for (int m = 0; m < a.motorNames.length; m++) {
+                int other = b.indexOfMotor(a.motorNames[m]);
+                if (other >= 0 && Math.abs(a.power[m][r] - b.power[other][r]) > POWER_TOLERANCE) {
+                    if (firstChanged < 0) firstChanged = r;
+                    changed++;
+                    break;
+                }
+            }
+        }
+        if (changed == 0) {
+            report.println(String.format(Locale.US, "drive commands match in all %d records", n));
+        } else {
+            report.println(String.format(Locale.US,
+                    "drive commands differ in %d of %d records, first at %.3f s (record %d, state %d, %s T %.3f)",
+                    changed, n, a.getSeconds(firstChanged), firstChanged, a.pathState[firstChanged],
+                    a.getPathName(firstChanged), a.t[firstChanged]));
+        }
+
+        for (int r = 0; r < n; r++) {
+            if (a.pathState[r] != b.pathState[r]) {
+                report.println(String.format(Locale.US, "state machine diverges at %.3f s: state %d vs %d",
+                        a.getSeconds(r), a.pathState[r], b.pathState[r]));
+                break;
+            }
+        }
+
+        report.println("loop period, first log:  " + periods(a));
+        report.println("loop period, second log: " + periods(b));
+        return changed;
+    }
+
+    private static String periods(FlightLog log) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int r = 1; r < log.count; r++) histogram.record(log.nanos[r] - log.nanos[r - 1]);
+        return String.format(Locale.US, "p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                histogram.getPercentileMillis(50), histogram.getPercentileMillis(99), histogram.getMaxMillis());
+    }
+
+    private static final String USAGE = "LogReplay match.bin [--out replay.bin]  |  LogReplay --diff a.bin b.bin";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || "--diff".equals(args[0]) && args.length != 3) {
+            System.out.println(USAGE);
+            return;
+        }
+        if ("--diff".equals(args[0])) {
+            diff(FlightLog.read(new File(args[1])), FlightLog.read(new File(args[2])), System.out);
+            return;
+        }
+
+        File input = new File(args[0]);
+        File out = null;
+        for (int i = 1; i < args.length; i++) {
+            if ("--out".equals(args[i])) {
+                if (i + 1 == args.length) {
+                    System.out.println(USAGE);
+                    return;
+                }
+                out = new File(args[++i]);
+            }
+        }
+        if (out == null) {
+            out = File.createTempFile("replay", ".bin");
+            out.deleteOnExit();
+        }
+
+        FlightLog log = FlightLog.read(input);
+        System.out.println(String.format(Locale.US, "replaying %s: %s, %d records", input, log.tag, log.count));
+        FlightLog replayed = replay(log, out, System.out);
+        diff(log, replayed, System.out);
+    }
+}
@@ -0,0 +1,247 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.qualcomm.robotcore.hardware.DcMotor;
+
+import org.firstinspires.ftc.teamcode.pedroPathing.Constants;
+
+import java.util.Random;
+
+/**
+ * This is the MecanumDriveSim class. It is a deterministic rigid-body model of our mecanum
+ * drivetrain that sits behind the fake hardware: every step it reads the four drive motors'
+ * outputs, integrates the robot's motion, and writes the result back into the motor encoders and
+ * the Pinpoint, closing the loop through the same localizer the Follower uses on the robot.
+ *
+ * The model is a first-order DC motor per wheel (force falls off linearly with speed), limited by
+ * tyre traction, plus rolling friction. With zero power and BRAKE the robot decelerates at the
+ * zero power accelerations from Constants, which is exactly what Pedro's braking model assumes.
+ * Free speeds come from the measured xVelocity/yVelocity in Constants.driveConstants and scale
+ * with battery voltage.
+ *
+ * Motor directions are not hidden from the model: the left wheels are mounted mirrored, so if
+ * Constants gets a direction wrong the simulated robot misbehaves exactly like the real one.
+ * Constants.driveConstants.maxPower is applied by the Follower before the motors see it.
+ */
+public class MecanumDriveSim implements OpModeHarness.Plant {
+    private static final double G_INCHES = 386.09;
+    private static final double METERS_TO_INCHES = 39.3701;
+    private static final double MAX_SUBSTEP = 0.001;
+
+    private final FakeDcMotorEx leftFront, leftRear, rightFront, rightRear;
+    private final FakePinpoint pinpoint;
+    private final FakeVoltageSensor voltageSensor;
+    private final FakeLynxModule[] hubs;
+
+    /* ---------------- parameters ---------------- */
+
+    /** Robot mass, kg. */
+    public double mass = Constants.followerConstants.mass;
+    /** Full-power forward and strafe speeds on a nominal battery, in/s. */
+    public double forwardFreeSpeed = Constants.driveConstants.xVelocity;
+    public double strafeFreeSpeed = Constants.driveConstants.yVelocity;
+    /** Coasting deceleration with BRAKE, in/s^2 (negative, as in FollowerConstants). */
+    public double forwardZeroPowerAcceleration = Constants.followerConstants.forwardZeroPowerAcceleration;
+    public double lateralZeroPowerAcceleration = Constants.followerConstants.lateralZeroPowerAcceleration;
+    /** Sum of the four wheels' stall force, N. goBILDA 312 rpm on 104 mm wheels is about 4 x 46 N. */
+    public double stallForce = 183;
+    /** Wheel-to-carpet friction coefficient; caps acceleration at mu * g. */
+    public double traction = 0.7;
+    /** Rolling resistance when FLOATing, in/s^2. */
+    public double rollingFriction = 6;
+    /** Half track width plus half wheelbase, in. Sets turn rate from wheel speed. */
+    public double trackRadius = 7.5;
+    /** Drive wheel radius, in. */
+    public double wheelRadius = 104 / 25.4 / 2;
+    public double nominalVoltage = 12;
+    public double batteryVoltage = 12.8;
+    /** Battery internal resistance plus wiring, ohms. */
+    public double batteryResistance = 0.06;
+    /** Current per motor at stall, A. */
+    public double stallCurrent = 9.2;
+    /** Standard deviation of noise added to the Pinpoint's pose, in and rad. Zero is exact. */
+    public double pinpointNoise = 0;
+
+    /* ---------------- state ---------------- */
+
+    // Field frame: x, y in inches, heading in radians (unnormalized).
+    private double x, y, heading;
+    // Robot frame: forward, left, counter-clockwise.
+    private double vx, vy, omega;
+    private final double[] wheelPositions = new double[4];
+    private final double[] wheelSpeeds = new double[4];
+    private final double[] outputs = new double[4];
+    private double voltage = batteryVoltage;
+    private final Random random;
+
+    public MecanumDriveSim(SimRobot robot, long seed) {
+        leftFront = robot.leftFront;
+        leftRear = robot.leftRear;
+        rightFront = robot.rightFront;
+        rightRear = robot.rightRear;
+        pinpoint = robot.pinpoint;
+        voltageSensor = robot.voltageSensor;
+        hubs = new FakeLynxModule[] {robot.controlHub, robot.expansionHub};
+        random = new Random(seed);
+        publish();
+    }
+
+    /** Places the robot. The Pinpoint keeps its own origin, so this does not move its reading. */
+    public void setPose(double xInches, double yInches, double headingRad) {
+        x = xInches;
+        y = yInches;
+        heading = headingRad;
+        vx = vy = omega = 0;
+        publish();
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getHeading() {
+        return heading;
+    }
+
+    /** Robot-frame speed, in/s. */
+    public double getSpeed() {
+        return Math.hypot(vx, vy);
+    }
+
+    public double getAngularVelocity() {
+        return omega;
+    }
+
+    public double getVoltage() {
+        return voltage;
+    }
+
+    @Override
+    public void step(double dtSeconds) {
+        int substeps = (int) Math.ceil(dtSeconds / MAX_SUBSTEP);
+        double h = dtSeconds / substeps;
+        // The hub controllers run once per step; their output is held across substeps.
+        double fl = -leftFront.updateOutput(dtSeconds);
+        double bl = -leftRear.updateOutput(dtSeconds);
+        double fr = rightFront.updateOutput(dtSeconds);
+        double br = rightRear.updateOutput(dtSeconds);
+        boolean brake = leftFront.getZeroPowerBehavior() == DcMotor.ZeroPowerBehavior.BRAKE;
+
+        for (int i = 0; i < substeps; i++) {
+            integrate(h, fl, bl, fr, br, brake);
+        }
+        publish();
+    }
+
+    private void integrate(double h, double fl, double bl, double fr, double br, boolean brake) {
+        double scale = voltage / nominalVoltage;
+        double maxAcceleration = traction * G_INCHES;
+
+        if (isZero(fl) && isZero(bl) && isZero(fr) && isZero(br)) {
+            double forwardDecel = brake ? -forwardZeroPowerAcceleration : rollingFriction;
+            double lateralDecel = brake ? -lateralZeroPowerAcceleration : rollingFriction;
+            double turnDecel = brake ? forwardDecel / trackRadius : rollingFriction / trackRadius;
+            vx = towardZero(vx, forwardDecel * h);
+            vy = towardZero(vy, lateralDecel * h);
+            omega = towardZero(omega, turnDecel * h);
+        } else {
+            double targetVx = forwardFreeSpeed * scale * (fl + bl + fr + br) / 4;
+            double targetVy = strafeFreeSpeed * scale * (-fl + bl + fr - br) / 4;
+            double targetOmega = forwardFreeSpeed * scale * (-fl - bl + fr + br) / 4 / trackRadius;
+
+            // First-order motor: a = (F_stall / (m * v_free)) * (v_target - v)
+            double freeSpeedMeters = forwardFreeSpeed / METERS_TO_INCHES;
+            double rate = stallForce / (mass * freeSpeedMeters);
+
+            double ax = rate * (targetVx - vx);
+            double ay = rate * (targetVy - vy);
+            double alpha = rate * (targetOmega - omega);
+
+            // Traction limit applies to the combined linear acceleration.
+            double linear = Math.hypot(ax, ay);
+            if (linear > maxAcceleration) {
+                ax *= maxAcceleration / linear;
+                ay *= maxAcceleration / linear;
+            }
+            alpha = clamp(alpha, maxAcceleration / trackRadius);
+
+            vx = towardZero(vx + ax * h, rollingFriction * h);
+            vy = towardZero(vy + ay * h, rollingFriction * h);
+            omega += alpha * h;
+        }
+
+        double cos = Math.cos(heading), sin = Math.sin(heading);
+        x += (vx * cos - vy * sin) * h;
+        y += (vx * sin + vy * cos) * h;
+        heading += omega * h;
+
+        updateWheelSpeeds();
+        for (int i = 0; i < 4; i++) {
+            wheelPositions[i] += wheelSpeeds[i] * h;
+        }
+
+        double current = 0;
+        outputs[0] = fl;
+        outputs[1] = bl;
+        outputs[2] = fr;
+        outputs[3] = br;
+        double freeSpeed = forwardFreeSpeed * scale;
+        for (int i = 0; i < 4; i++) {
+            // A braking motor shorts its own back-EMF; only driven motors load the battery.
+            if (!isZero(outputs[i])) {
+                current += stallCurrent * Math.abs(outputs[i] - wheelSpeeds[i] / freeSpeed);
+            }
+        }
+        voltage = batteryVoltage - batteryResistance * current;
+    }
+
+    /** Wheel surface speeds in in/s, ordered left front, left rear, right front, right rear. */
+    private void updateWheelSpeeds() {
+        double turn = omega * trackRadius;
+        wheelSpeeds[0] = vx - vy - turn;
+        wheelSpeeds[1] = vx + vy - turn;
+        wheelSpeeds[2] = vx + vy + turn;
+        wheelSpeeds[3] = vx - vy + turn;
+    }
+
+    /** Pushes the state out to the encoders, Pinpoint and voltage sensor. */
+    private void publish() {
+        double ticksPerInch = SimRobot.DRIVE_TICKS_PER_REV / (2 * Math.PI * wheelRadius);
+        updateWheelSpeeds();
+        // Left motors are mirrored, so their shafts turn backwards for forward wheel motion.
+        leftFront.setSimulatedState(-wheelPositions[0] * ticksPerInch, -wheelSpeeds[0] * ticksPerInch);
+        leftRear.setSimulatedState(-wheelPositions[1] * ticksPerInch, -wheelSpeeds[1] * ticksPerInch);
+        rightFront.setSimulatedState(wheelPositions[2] * ticksPerInch, wheelSpeeds[2] * ticksPerInch);
+        rightRear.setSimulatedState(wheelPositions[3] * ticksPerInch, wheelSpeeds[3] * ticksPerInch);
+
+        double cos = Math.cos(heading), sin = Math.sin(heading);
+        pinpoint.setSimulatedState(
+                x + noise(), y + noise(), heading + noise(),
+                vx * cos - vy * sin, vx * sin + vy * cos, omega);
+
+        voltageSensor.setSimulatedVoltage(voltage);
+        for (FakeLynxModule hub : hubs) {
+            hub.setSimulatedInputVoltage(voltage);
+        }
+    }
+
+    private double noise() {
+        return pinpointNoise == 0 ? 0 : random.nextGaussian() * pinpointNoise;
+    }
+
+    private static boolean isZero(double output) {
+        return Math.abs(output) < 1e-4;
+    }
+
+    private static double towardZero(double value, double amount) {
+        if (value > 0) return Math.max(0, value - amount);
+        return Math.min(0, value + amount);
+    }
+
+    private static double clamp(double value, double limit) {
+        return Math.max(-limit, Math.min(limit, value));
+    }
+}
@@ -0,0 +1,209 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.hardware.Gamepad;
+
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeServices;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This is the OpModeHarness class. It plays the part of the SDK's event loop for one iterative
+ * OpMode: it wires in a {@link FakeHardwareMap} and gamepads, calls init(), init_loop(), start(),
+ * loop() and stop() in order, and after every call steps the attached {@link Plant}s by however
+ * much simulated time the call cost.
+ *
+ * While it runs it measures host wall time and heap allocation per loop, which is what we use to
+ * profile OpModes on a dev box.
+ */
+public class OpModeHarness {
+    /** Something that evolves with simulated time, e.g. the drivetrain physics. */
+    public interface Plant {
+        void step(double dtSeconds);
+    }
+
+    private final OpMode opMode;
+    private final FakeHardwareMap hardwareMap;
+    private final SimClock clock;
+    private final List<Plant> plants = new ArrayList<>();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final com.sun.management.ThreadMXBean allocations;
+
+    private volatile boolean stopRequested;
+    private long lastStepNanos;
+    private long loops;
+    private long loopWallNanos;
+    private long maxLoopWallNanos;
+    private long loopAllocatedBytes;
+    private long loopSimNanos;
+    private long transactionsAtStart;
+
+    public OpModeHarness(OpMode opMode, FakeHardwareMap hardwareMap) {
+        this.opMode = opMode;
+        this.hardwareMap = hardwareMap;
+        this.clock = hardwareMap.clock;
+        allocations = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+
+        opMode.hardwareMap = hardwareMap;
+        opMode.gamepad1 = new Gamepad();
+        opMode.gamepad2 = new Gamepad();
+        installServices();
+    }
+
+    /**
+     * The SDK normally injects its OpModeServices; without them requestOpModeStop() and
+     * telemetry.update() would throw. We install our own so stop requests end the run.
+     */
+    private void installServices() {
+        OpModeServices services = Inert.of(OpModeServices.class, (method, args) -> {
+            if ("requestOpModeStop".equals(method)) {
+                stopRequested = true;
+            }
+            return null;
+        });
+        try {
+            Field field = OpMode.class.getSuperclass().getDeclaredField("internalOpModeServices");
+            field.setAccessible(true);
+            field.set(opMode, services);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to install OpMode services", e);
+        }
+    }
+
+    public OpModeHarness addPlant(Plant plant) {
+        plants.add(plant);
+        return this;
+    }
+
+    public OpMode getOpMode() {
+        return opMode;
+    }
+
+    public FakeHardwareMap getHardwareMap() {
+        return hardwareMap;
+    }
+
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    public void init() {
+        opMode.init();
+        endCycle();
+    }
+
+    public void initLoop() {
+        opMode.init_loop();
+        endCycle();
+    }
+
+    public void start() {
+        opMode.start();
+        endCycle();
+        transactionsAtStart = hardwareMap.getLynxTransactionCount();
+    }
+
+    /** Runs one loop() and records its cost. */
+    public void loop() {
+        long simBefore = clock.nanoTime();
+        long allocatedBefore = allocatedBytes();
+        long wallBefore = System.nanoTime();
+
+        opMode.loop();
+
+        long wall = System.nanoTime() - wallBefore;
+        loopAllocatedBytes += allocatedBytes() - allocatedBefore;
+        loopWallNanos += wall;
+        maxLoopWallNanos = Math.max(maxLoopWallNanos, wall);
+        loops++;
+        endCycle();
+        loopSimNanos += clock.nanoTime() - simBefore;
+    }
+
+    public void stop() {
+        opMode.stop();
+    }
+
+    /**
+     * Runs the whole OpMode lifecycle.
+     *
+     * @param initLoops      number of init_loop() calls before start()
+     * @param maxSimSeconds  simulated time after start() at which the run is cut off
+     */
+    public void run(int initLoops, double maxSimSeconds) {
+        init();
+        for (int i = 0; i < initLoops && !stopRequested; i++) {
+            initLoop();
+        }
+        start();
+        long end = clock.nanoTime() + (long) (maxSimSeconds * 1e9);
+        while (!stopRequested && clock.nanoTime() < end) {
+            loop();
+        }
+        stop();
+    }
+
+    private void endCycle() {
+        clock.advance(hardwareMap.latencies.loopOverheadNanos);
+        long now = clock.nanoTime();
+        if (lastStepNanos == 0) {
+            lastStepNanos = now;
+            return;
+        }
+        double dt = (now - lastStepNanos) / 1e9;
+        lastStepNanos = now;
+        if (dt > 0) {
+            for (Plant plant : plants) {
+                plant.step(dt);
+            }
+        }
+    }
+
+    private long allocatedBytes() {
+        return allocations == null ? 0 : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public long getLoopCount() {
+        return loops;
+    }
+
+    /** Mean simulated loop period, i.e. what the robot's loop time would be, in milliseconds. */
+    public double getMeanSimLoopMs() {
+        return loops == 0 ? 0 : loopSimNanos / 1e6 / loops;
+    }
+
+    /** Mean host time spent inside loop(), in milliseconds. */
+    public double getMeanWallLoopMs() {
+        return loops == 0 ? 0 : loopWallNanos / 1e6 / loops;
+    }
+
+    public double getMaxWallLoopMs() {
+        return maxLoopWallNanos / 1e6;
+    }
+
+    /** Mean heap allocation per loop(), in bytes; zero if the JVM can't report it. */
+    public double getMeanAllocatedBytesPerLoop() {
+        return loops == 0 ? 0 : (double) loopAllocatedBytes / loops;
+    }
+
+    public double getLynxTransactionsPerLoop() {
+        return loops == 0 ? 0 : (double) (hardwareMap.getLynxTransactionCount() - transactionsAtStart) / loops;
+    }
+
+    public void printSummary(PrintStream out) {
+        out.println(opMode.getClass().getSimpleName() + ": " + loops + " loops, "
+                + String.format(Locale.US, "%.2f", clock.seconds()) + " s simulated");
+        out.println(String.format(Locale.US, "  simulated loop time  %8.3f ms", getMeanSimLoopMs()));
+        out.println(String.format(Locale.US, "  host loop time       %8.3f ms mean, %.3f ms max", getMeanWallLoopMs(), getMaxWallLoopMs()));
+        out.println(String.format(Locale.US, "  allocation           %8.0f bytes/loop", getMeanAllocatedBytesPerLoop()));
+        out.println(String.format(Locale.US, "  Lynx transactions    %8.2f per loop", getLynxTransactionsPerLoop()));
+    }
+}
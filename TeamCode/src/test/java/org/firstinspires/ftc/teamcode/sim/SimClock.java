@@ -0,0 +1,50 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+/**
+ * This is the SimClock class. It is the single source of time for the headless harness. Every
+ * simulated hardware transaction charges its latency to this clock instead of sleeping, so an
+ * OpMode can be stepped as fast as the host allows while still "paying" for its I/O.
+ *
+ * If real time is enabled, charged latencies are also spun off on the wall clock. That is slower,
+ * but it lets code that reads System.nanoTime() directly (Pedro's internal timers, OpMode.time)
+ * see the same loop period a Control Hub would.
+ */
+public class SimClock {
+    private long nanos;
+    private boolean realTime;
+
+    public long nanoTime() {
+        return nanos;
+    }
+
+    public double seconds() {
+        return nanos / 1e9;
+    }
+
+    public boolean isRealTime() {
+        return realTime;
+    }
+
+    public SimClock setRealTime(boolean realTime) {
+        this.realTime = realTime;
+        return this;
+    }
+
+    /**
+     * Moves simulated time forward.
+     *
+     * @param deltaNanos the time to charge, in nanoseconds; non-positive values are ignored
+     */
+    public void advance(long deltaNanos) {
+        if (deltaNanos <= 0) {
+            return;
+        }
+        nanos += deltaNanos;
+        if (realTime) {
+            long end = System.nanoTime() + deltaNanos;
+            while (System.nanoTime() < end) {
+                // spin; Thread.sleep() is far too coarse for sub-millisecond latencies
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+/**
+ * This is the SimLatencies class. It holds the per-transaction I/O costs charged to the
+ * {@link SimClock} by the fake hardware. The defaults are ballpark figures for a Control Hub talking
+ * to its own Lynx module; override them with the fluent setters, the same way Constants configures
+ * the real robot.
+ */
+public class SimLatencies {
+    /** A single Lynx command, e.g. setPower or an uncached getCurrentPosition. */
+    public long lynxCommandNanos = 1_300_000;
+    /** A bulk data read that refreshes every encoder and velocity on one hub. */
+    public long bulkReadNanos = 2_500_000;
+    /** One Pinpoint update() over I2C. */
+    public long i2cReadNanos = 1_700_000;
+    /** Battery voltage read. */
+    public long voltageReadNanos = 1_300_000;
+    /** Fixed overhead the event loop adds between two calls to loop(). */
+    public long loopOverheadNanos = 300_000;
+
+    public SimLatencies lynxCommand(long nanos) {
+        lynxCommandNanos = nanos;
+        return this;
+    }
+
+    public SimLatencies bulkRead(long nanos) {
+        bulkReadNanos = nanos;
+        return this;
+    }
+
+    public SimLatencies i2cRead(long nanos) {
+        i2cReadNanos = nanos;
+        return this;
+    }
+
+    public SimLatencies voltageRead(long nanos) {
+        voltageReadNanos = nanos;
+        return this;
+    }
+
+    public SimLatencies loopOverhead(long nanos) {
+        loopOverheadNanos = nanos;
+        return this;
+    }
+
+    /** Every transaction is free; useful for measuring pure compute time of an OpMode. */
+    public static SimLatencies none() {
+        return new SimLatencies().lynxCommand(0).bulkRead(0).i2cRead(0).voltageRead(0).loopOverhead(0);
+    }
+}
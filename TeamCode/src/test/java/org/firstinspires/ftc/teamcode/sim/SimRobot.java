@@ -0,0 +1,41 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import org.firstinspires.ftc.teamcode.pedroPathing.Constants;
+
+/**
+ * This is the SimRobot class. It builds a {@link FakeHardwareMap} that matches our robot
+ * configuration: the four drive motors and Pinpoint named in Constants, the flywheel on the
+ * Expansion Hub, and the hub voltage sensor.
+ */
+public class SimRobot {
+    /** goBILDA 5203 312 rpm drive motors. */
+    public static final double DRIVE_TICKS_PER_REV = 537.7, DRIVE_MAX_RPM = 312;
+    /** goBILDA 5203 6000 rpm bare motor on the flywheel. */
+    public static final double FLYWHEEL_TICKS_PER_REV = 28, FLYWHEEL_MAX_RPM = 6000;
+
+    public final FakeHardwareMap hardwareMap;
+    public final FakeLynxModule controlHub, expansionHub;
+    public final FakeDcMotorEx leftFront, leftRear, rightFront, rightRear, flywheel;
+    public final FakePinpoint pinpoint;
+    public final FakeVoltageSensor voltageSensor;
+
+    public SimRobot(SimClock clock, SimLatencies latencies) {
+        hardwareMap = new FakeHardwareMap(clock, latencies);
+        controlHub = hardwareMap.addHub("Control Hub", true);
+        expansionHub = hardwareMap.addHub("Expansion Hub 2", false);
+
+        leftFront = hardwareMap.addMotor(Constants.driveConstants.leftFrontMotorName, controlHub, 0, DRIVE_TICKS_PER_REV, DRIVE_MAX_RPM);
+        leftRear = hardwareMap.addMotor(Constants.driveConstants.leftRearMotorName, controlHub, 1, DRIVE_TICKS_PER_REV, DRIVE_MAX_RPM);
+        rightFront = hardwareMap.addMotor(Constants.driveConstants.rightFrontMotorName, controlHub, 2, DRIVE_TICKS_PER_REV, DRIVE_MAX_RPM);
+        rightRear = hardwareMap.addMotor(Constants.driveConstants.rightRearMotorName, controlHub, 3, DRIVE_TICKS_PER_REV, DRIVE_MAX_RPM);
+
+        flywheel = hardwareMap.addMotor("flywheel", expansionHub, 0, FLYWHEEL_TICKS_PER_REV, FLYWHEEL_MAX_RPM);
+
+        pinpoint = hardwareMap.addPinpoint(Constants.localizerConstants.hardwareMapName);
+        voltageSensor = hardwareMap.addVoltageSensor("Control Hub");
+    }
+
+    public SimRobot() {
+        this(new SimClock(), new SimLatencies());
+    }
+}
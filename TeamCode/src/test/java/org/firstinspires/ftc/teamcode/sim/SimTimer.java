@@ -0,0 +1,35 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import com.pedropathing.util.Timer;
+
+/**
+ * A Pedro Pathing Timer that reads {@link SimClock} instead of the wall clock, so state-machine
+ * dwell times elapse in simulated time.
+ */
+public class SimTimer extends Timer {
+    private final SimClock clock;
+    private long startNanos;
+
+    public SimTimer(SimClock clock) {
+        this.clock = clock;
+        resetTimer();
+    }
+
+    @Override
+    public void resetTimer() {
+        // Timer's constructor calls this before our clock is assigned.
+        if (clock != null) {
+            startNanos = clock.nanoTime();
+        }
+    }
+
+    @Override
+    public long getElapsedTime() {
+        return (clock.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    @Override
+    public double getElapsedTimeSeconds() {
+        return (clock.nanoTime() - startNanos) / 1e9;
+    }
+}
@@ -0,0 +1,76 @@
+package org.firstinspires.ftc.teamcode.sim;
+
+import org.firstinspires.ftc.teamcode.vision.VisionBenchmark;
+import org.firstinspires.ftc.vision.opencv.ColorRange;
+import org.opencv.core.Core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * This is the VisionBench class. It runs {@link VisionBenchmark#defaultSuite} over frames captured
+ * with UtilityCameraFrameCapture (adb pull the PNGs off /sdcard) and prints the latency and
+ * detection table.
+ *
+ * <pre>
+ * VisionBench framesDir [--prefix p] [--passes n] [--green] [--csv out.csv]
+ * </pre>
+ *
+ * The blob configurations look for purple artifacts, or green ones with --green.
+ *
+ * The processors need OpenCV and the AprilTag detector built for the host, on java.library.path.
+ * The SDK only ships them for the Control Hub, so without desktop builds every configuration is
+ * reported as skipped; run VisionBenchmarkOpMode on the robot instead.
+ */
+public class VisionBench {
+    private static final String USAGE = "VisionBench framesDir [--prefix p] [--passes n] [--green] [--csv out.csv]";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println(USAGE);
+            return;
+        }
+        File directory = new File(args[0]);
+        String prefix = "";
+        File csv = null;
+        ColorRange color = ColorRange.ARTIFACT_PURPLE;
+        VisionBenchmark benchmark = new VisionBenchmark();
+        for (int i = 1; i < args.length; i++) {
+            if (!"--green".equals(args[i]) && i + 1 == args.length) { // Every other option takes a value
+                System.out.println(USAGE);
+                return;
+            }
+            if ("--prefix".equals(args[i])) prefix = args[++i];
+            else if ("--passes".equals(args[i])) benchmark.passes = Integer.parseInt(args[++i]);
+            else if ("--green".equals(args[i])) color = ColorRange.ARTIFACT_GREEN;
+            else if ("--csv".equals(args[i])) csv = new File(args[++i]);
+        }
+
+        try {
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        } catch (UnsatisfiedLinkError e) {
+            System.out.println("OpenCV natives (" + Core.NATIVE_LIBRARY_NAME + ") not found on java.library.path: "
+                    + e.getMessage());
+            return;
+        }
+
+        int loaded = benchmark.loadFrames(directory, prefix);
+        System.out.println(loaded + " frames from " + directory);
+        if (loaded == 0) return;
+        VisionBenchmark.Frame first = benchmark.getFrames().get(0);
+        List<VisionBenchmark.Result> results = benchmark.runAll(
+                VisionBenchmark.defaultSuite(color, first.rgba.cols(), first.rgba.rows()));
+        benchmark.release();
+
+        VisionBenchmark.printReport(results, System.out);
+        if (csv != null) {
+            try (Writer writer = new FileWriter(csv)) {
+                VisionBenchmark.writeCsv(results, writer);
+            }
+            System.out.println("wrote " + csv);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.firstinspires.ftc.teamcode.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DoubleRingBufferTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void slidingStatisticsMatchTheWindowAfterWrapAround() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(7);
+        Random random = new Random(3);
+        double[] history = new double[100];
+        for (int n = 0; n < history.length; n++) {
+            // An offset and a spread that change over time, so stale samples would show.
+            history[n] = 1000 + n * 0.5 + random.nextGaussian() * (1 + n % 13);
+            buffer.add(history[n]);
+
+            int size = Math.min(n + 1, 7);
+            assertEquals(size, buffer.size());
+            double mean = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = n + 1 - size; i <= n; i++) {
+                mean += history[i];
+                min = Math.min(min, history[i]);
+                max = Math.max(max, history[i]);
+            }
+            mean /= size;
+            double variance = 0;
+            for (int i = n + 1 - size; i <= n; i++) {
+                variance += (history[i] - mean) * (history[i] - mean);
+            }
+            variance = size < 2 ? 0 : variance / (size - 1);
+
+            assertEquals("mean at " + n, mean, buffer.getMean(), 1e-9);
+            assertEquals("variance at " + n, variance, buffer.getVariance(), 1e-7);
+            assertEquals("min at " + n, min, buffer.getMin(), 0);
+            assertEquals("max at " + n, max, buffer.getMax(), 0);
+            assertEquals(history[n + 1 - size], buffer.get(0), 0);
+            assertEquals(history[n], buffer.getLast(), 0);
+        }
+    }
+
+    @Test
+    public void minAndMaxExpireOutOfTheWindow() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(4);
+        // Rising: the min is always the oldest sample and has to expire every add.
+        for (int i = 0; i < 10; i++) {
+            buffer.add(i);
+            assertEquals(Math.max(0, i - 3), buffer.getMin(), 0);
+            assertEquals(i, buffer.getMax(), 0);
+        }
+        // Falling from 20: now the max is the oldest and the min the newest.
+        for (int i = 0; i < 10; i++) {
+            buffer.add(20 - i);
+            assertEquals(i < 3 ? 7 + i : 20 - i, buffer.getMin(), 0);
+            assertEquals(20 - Math.max(0, i - 3), buffer.getMax(), 0);
+        }
+    }
+
+    @Test
+    public void equalSamplesKeepTheNewestCandidate() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(3);
+        buffer.add(5);
+        buffer.add(1);
+        buffer.add(1);
+        buffer.add(2); // The first 1 drops out, the second is still in the window
+        assertEquals(1, buffer.getMin(), 0);
+        buffer.add(3);
+        assertEquals(1, buffer.getMin(), 0);
+        buffer.add(4);
+        assertEquals(2, buffer.getMin(), 0);
+        assertEquals(4, buffer.getMax(), 0);
+    }
+
+    @Test
+    public void clearStartsOver() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(3);
+        for (int i = 0; i < 5; i++) buffer.add(100 + i);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertTrue(Double.isNaN(buffer.getMean()));
+        assertTrue(Double.isNaN(buffer.getEwma()));
+        buffer.add(1);
+        buffer.add(3);
+        assertEquals(2, buffer.getMean(), EPSILON);
+        assertEquals(2, buffer.getVariance(), EPSILON);
+        assertEquals(1, buffer.getMin(), 0);
+        assertEquals(3, buffer.getMax(), 0);
+        assertFalse(buffer.isFull());
+    }
+
+    @Test
+    public void robustMeanIgnoresOutliers() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(9);
+        double[] samples = {10.1, 9.9, 10.0, 10.2, 9.8, 10.0, 55.0, 10.1, 9.9};
+        for (double sample : samples) buffer.add(sample);
+        assertEquals(10.0, buffer.getMedian(), EPSILON);
+        assertEquals(0.1, buffer.getMad(), EPSILON);
+        assertEquals(1, buffer.countOutliers(3));
+        assertEquals(10.0, buffer.getRobustMean(3), EPSILON);
+        assertTrue(buffer.isOutlier(55.0, 3));
+        assertFalse(buffer.isOutlier(10.2, 3));
+    }
+}
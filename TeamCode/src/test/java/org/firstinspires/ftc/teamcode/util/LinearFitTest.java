@@ -0,0 +1,84 @@
+package org.firstinspires.ftc.teamcode.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LinearFitTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void exactLineHasNoUncertainty() {
+        LinearFit fit = new LinearFit(10);
+        for (int i = 0; i < 10; i++) fit.add(i, 3 - 2.5 * i);
+        assertTrue(fit.fit(3, 5));
+        assertEquals(-2.5, fit.getSlope(), EPSILON);
+        assertEquals(3, fit.getIntercept(), EPSILON);
+        assertEquals(0, fit.getSlopeStdError(), EPSILON);
+        assertEquals(1, fit.getRSquared(), EPSILON);
+        assertEquals(0, fit.getRejectedCount());
+    }
+
+    @Test
+    public void slopeAndConfidenceIntervalOnKnownData() {
+        // x = 1..5, y = 2.2 2.8 4.5 3.7 5.5: slope 0.75, intercept 1.49, SSE 1.307, SST 6.932,
+        // residual sd sqrt(1.307 / 3), slope SE that / sqrt(10), t(0.975, 3) = 3.182.
+        LinearFit fit = new LinearFit(5);
+        double[] ys = {2.2, 2.8, 4.5, 3.7, 5.5};
+        for (int i = 0; i < ys.length; i++) fit.add(i + 1, ys[i]);
+        assertTrue(fit.fit(100, 0));
+        assertEquals(0.75, fit.getSlope(), EPSILON);
+        assertEquals(1.49, fit.getIntercept(), EPSILON);
+        double residualStdDev = Math.sqrt(1.307 / 3);
+        assertEquals(residualStdDev, fit.getResidualStdDev(), EPSILON);
+        assertEquals(residualStdDev / Math.sqrt(10), fit.getSlopeStdError(), EPSILON);
+        assertEquals(1 - 1.307 / 6.932, fit.getRSquared(), EPSILON);
+        assertEquals(3.182 * fit.getSlopeStdError(), fit.getSlopeConfidence95(), 0.01 * fit.getSlopeConfidence95());
+    }
+
+    @Test
+    public void studentTMatchesTables() {
+        assertEquals(12.706, LinearFit.studentT95(1), 1e-3);
+        assertEquals(3.182, LinearFit.studentT95(3), 0.01 * 3.182);
+        assertEquals(2.228, LinearFit.studentT95(10), 0.01 * 2.228);
+        assertEquals(2.042, LinearFit.studentT95(30), 0.005 * 2.042);
+        assertTrue(Double.isInfinite(LinearFit.studentT95(0)));
+    }
+
+    @Test
+    public void outliersAreRejected() {
+        LinearFit fit = new LinearFit(20);
+        for (int i = 0; i < 20; i++) {
+            double noise = (i % 2 == 0 ? 0.05 : -0.05) * (1 + i % 3);
+            double y = 10 + 0.5 * i + noise;
+            if (i == 4 || i == 13) y += 25; // A glitched reading each
+            fit.add(i, y);
+        }
+        assertTrue(fit.fit(3, 5));
+        assertEquals(2, fit.getRejectedCount());
+        assertEquals(18, fit.getUsedCount());
+        assertEquals(0.5, fit.getSlope(), 0.01);
+        assertEquals(10, fit.getIntercept(), 0.1);
+        assertTrue(fit.getRSquared() > 0.99);
+
+        // Without rejection the glitches bend the line.
+        assertTrue(fit.fit(3, 0));
+        assertEquals(0, fit.getRejectedCount());
+        assertTrue(Math.abs(fit.getIntercept() - 10) > 1);
+    }
+
+    @Test
+    public void tooFewPointsOrNoSpreadIsInvalid() {
+        LinearFit fit = new LinearFit(4);
+        fit.add(1, 1);
+        fit.add(2, 2);
+        assertFalse(fit.fit(3, 5));
+        fit.clear();
+        for (int i = 0; i < 4; i++) fit.add(7, i);
+        assertFalse(fit.fit(3, 5));
+        assertFalse(fit.isValid());
+        assertFalse(fit.add(8, 0)); // Full
+    }
+}
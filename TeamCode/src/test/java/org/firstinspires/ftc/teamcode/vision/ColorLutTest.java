@@ -0,0 +1,48 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class ColorLutTest {
+    // R, G, B, then what OpenCV 4's cvtColor gives for them in 8 bits: Y, Cr, Cb and H, S, V.
+    private static final int[][] OPENCV = {
+            {255, 0, 0, 76, 255, 85, 0, 255, 255},
+            {0, 255, 0, 150, 21, 43, 60, 255, 255},
+            {0, 0, 255, 29, 107, 255, 120, 255, 255},
+            {255, 255, 255, 255, 128, 128, 0, 0, 255},
+            {0, 0, 0, 0, 128, 128, 0, 0, 0},
+            {128, 128, 128, 128, 128, 128, 0, 0, 128},
+            {200, 120, 40, 135, 174, 74, 15, 204, 200},
+            {90, 40, 160, 69, 143, 179, 133, 191, 160},
+            {60, 180, 90, 134, 75, 103, 68, 170, 180},
+            // Where rounding the float formulas lands one off OpenCV's fixed point.
+            {0, 3, 217, 27, 109, 235, 120, 255, 217},
+            {0, 0, 5, 1, 127, 130, 120, 255, 5},
+            {0, 0, 1, 0, 128, 129, 120, 255, 1},
+            {3, 3, 90, 13, 121, 171, 120, 246, 90},
+            // Hue just short of 360 degrees wraps to 0; it never reads 180.
+            {60, 0, 1, 18, 158, 118, 0, 255, 60},
+            {255, 0, 1, 76, 255, 86, 0, 255, 255},
+    };
+
+    @Test
+    public void yCrCbMatchesOpenCv() {
+        int[] out = new int[3];
+        for (int[] row : OPENCV) {
+            ColorLut.toYCrCb(row[0], row[1], row[2], out);
+            assertArrayEquals(Arrays.toString(row), Arrays.copyOfRange(row, 3, 6), out);
+        }
+    }
+
+    @Test
+    public void hsvMatchesOpenCv() {
+        int[] out = new int[3];
+        for (int[] row : OPENCV) {
+            ColorLut.toHsv(row[0], row[1], row[2], out);
+            assertArrayEquals(Arrays.toString(row), Arrays.copyOfRange(row, 6, 9), out);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.firstinspires.ftc.teamcode.vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.firstinspires.ftc.robotcore.external.matrices.MatrixF;
+import org.firstinspires.ftc.robotcore.external.matrices.VectorF;
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
+import org.firstinspires.ftc.robotcore.external.navigation.Pose3D;
+import org.firstinspires.ftc.robotcore.external.navigation.Position;
+import org.firstinspires.ftc.robotcore.external.navigation.Quaternion;
+import org.firstinspires.ftc.robotcore.external.navigation.YawPitchRollAngles;
+import org.firstinspires.ftc.vision.apriltag.AprilTagDetection;
+import org.firstinspires.ftc.vision.apriltag.AprilTagMetadata;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Round trips through MultiTagPoseSolver: corners are projected from a known robot pose through a
+ * pinhole camera, the way the solver models it, and the solve has to find the pose again.
+ */
+public class MultiTagPoseSolverTest {
+    private static final double FX = 600, FY = 600, CX = 320, CY = 240;
+    private static final Position CAMERA_POSITION = new Position(DistanceUnit.INCH, 2, 6, 8, 0);
+    private static final YawPitchRollAngles CAMERA_ORIENTATION =
+            new YawPitchRollAngles(AngleUnit.DEGREES, 0, -90, 0, 0);
+
+    // Robot at (10, -20) turned 5 degrees left; tags on a wall ahead at y = 60, facing -y.
+    private static final double ROBOT_X = 10, ROBOT_Y = -20, ROBOT_YAW = Math.toRadians(5);
+
+    private MultiTagPoseSolver solver;
+    private AprilTagMetadata left, right, middle;
+
+    @Before
+    public void setUp() {
+        solver = new MultiTagPoseSolver(CAMERA_POSITION, CAMERA_ORIENTATION).setLensIntrinsics(FX, FY, CX, CY);
+        left = wallTag(1, -14, 6);
+        right = wallTag(2, 34, 10);
+        middle = wallTag(3, 10, 14);
+    }
+
+    @Test
+    public void recoversThePoseFromTwoTags() {
+        List<AprilTagDetection> detections = new ArrayList<>();
+        detections.add(detect(left, 0, 0));
+        detections.add(detect(right, 0, 0));
+        MultiTagPoseSolver.Result result = new MultiTagPoseSolver.Result();
+
+        assertTrue(solver.solve(detections, result));
+        assertEquals(2, result.tags);
+        assertEquals(ROBOT_X, result.x, 1e-4);
+        assertEquals(ROBOT_Y, result.y, 1e-4);
+        assertEquals(ROBOT_YAW, result.yaw, 1e-6);
+        assertEquals(0, result.z, 1e-4);
+        assertEquals(0, result.rmsError, 1e-6);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(result.covariance[4 * i] > 0);
+        }
+        assertEquals(result.covariance[1], result.covariance[3], 1e-12);
+    }
+
+    @Test
+    public void twoTagsApartAreMoreCertainThanOne() {
+        MultiTagPoseSolver.Result one = new MultiTagPoseSolver.Result();
+        List<AprilTagDetection> detections = new ArrayList<>();
+        detections.add(detect(left, 0.5, 1));
+        assertTrue(solver.solve(detections, one));
+        assertWithinReportedSigma(one);
+
+        MultiTagPoseSolver.Result two = new MultiTagPoseSolver.Result();
+        detections.add(detect(right, 0.5, 2));
+        assertTrue(solver.solve(detections, two));
+        assertWithinReportedSigma(two);
+        assertTrue(two.covariance[0] < one.covariance[0]);
+        assertTrue(two.covariance[8] < one.covariance[8]);
+    }
+
+    @Test
+    public void dropsATagThatDisagrees() {
+        List<AprilTagDetection> detections = new ArrayList<>();
+        detections.add(detect(left, 0, 0));
+        detections.add(detect(right, 0, 0));
+        AprilTagDetection moved = detect(middle, 0, 0);
+        for (Point corner : moved.corners) corner.x += 30; // A mislabeled or misplaced tag
+        detections.add(moved);
+        MultiTagPoseSolver.Result result = new MultiTagPoseSolver.Result();
+
+        assertTrue(solver.solve(detections, result));
+        assertEquals(2, result.tags);
+        assertEquals(ROBOT_X, result.x, 1e-3);
+        assertEquals(ROBOT_Y, result.y, 1e-3);
+        assertEquals(ROBOT_YAW, result.yaw, 1e-5);
+    }
+
+    @Test
+    public void needsIntrinsicsAndAFieldTag() {
+        List<AprilTagDetection> detections = new ArrayList<>();
+        detections.add(detect(left, 0, 0));
+        MultiTagPoseSolver.Result result = new MultiTagPoseSolver.Result();
+        assertFalse(new MultiTagPoseSolver(CAMERA_POSITION, CAMERA_ORIENTATION).solve(detections, result));
+
+        detections.clear();
+        assertFalse(solver.solve(detections, result));
+        assertFalse(solver.solve(null, result));
+    }
+
+    /** The pose error is no more than three of the standard deviations the solver reports. */
+    private static void assertWithinReportedSigma(MultiTagPoseSolver.Result result) {
+        assertEquals(ROBOT_X, result.x, 3 * Math.sqrt(result.covariance[0]));
+        assertEquals(ROBOT_Y, result.y, 3 * Math.sqrt(result.covariance[4]));
+        assertEquals(ROBOT_YAW, result.yaw, 3 * Math.sqrt(result.covariance[8]));
+    }
+
+    /** A 6.5 in tag standing on the y = 60 wall, centered at (x, 60, z), facing -y. */
+    private static AprilTagMetadata wallTag(int id, double x, double z) {
+        float half = (float) Math.sqrt(0.5);
+        Quaternion upright = new Quaternion(half, half, 0, 0, 0); // Tag y up, tag z toward -y
+        return new AprilTagMetadata(id, "Tag " + id, 6.5, new VectorF((float) x, 60, (float) z),
+                DistanceUnit.INCH, upright);
+    }
+
+    /**
+     * Projects the tag's corners from the robot pose, adding a deterministic pattern of up to
+     * noise pixels, and starts the solver from a robot pose 2 in and 3 degrees off.
+     */
+    private static AprilTagDetection detect(AprilTagMetadata tag, double noise, int seed) {
+        double[] q = new double[9];
+        RoiAprilTagProcessor.cameraRotation(CAMERA_ORIENTATION, q);
+        double cos = Math.cos(ROBOT_YAW), sin = Math.sin(ROBOT_YAW);
+        // World-to-camera rotation R = (Rz Q)^T and the camera center.
+        double[] r = new double[9];
+        for (int col = 0; col < 3; col++) {
+            r[3 * col] = cos * q[col] - sin * q[3 + col];
+            r[3 * col + 1] = sin * q[col] + cos * q[3 + col];
+            r[3 * col + 2] = q[6 + col];
+        }
+        double[] c = {
+                ROBOT_X + cos * CAMERA_POSITION.x - sin * CAMERA_POSITION.y,
+                ROBOT_Y + sin * CAMERA_POSITION.x + cos * CAMERA_POSITION.y,
+                CAMERA_POSITION.z};
+
+        double s = tag.tagsize / 2;
+        double[][] local = {{-s, s}, {s, s}, {s, -s}, {-s, -s}};
+        MatrixF m = tag.fieldOrientation.toMatrix();
+        Point[] corners = new Point[4];
+        for (int k = 0; k < 4; k++) {
+            double[] d = new double[3];
+            for (int i = 0; i < 3; i++) {
+                d[i] = tag.fieldPosition.get(i) + m.get(i, 0) * local[k][0] + m.get(i, 1) * local[k][1] - c[i];
+            }
+            double px = r[0] * d[0] + r[1] * d[1] + r[2] * d[2];
+            double py = r[3] * d[0] + r[4] * d[1] + r[5] * d[2];
+            double pz = r[6] * d[0] + r[7] * d[1] + r[8] * d[2];
+            assertTrue("corner behind the camera", pz > 0);
+            double u = CX + FX * px / pz, v = CY + FY * py / pz;
+            assertTrue("corner off the image", u > 0 && u < 2 * CX && v > 0 && v < 2 * CY);
+            corners[k] = new Point(u + noise * pattern(seed, 2 * k), v + noise * pattern(seed, 2 * k + 1));
+        }
+        Point center = new Point((corners[0].x + corners[2].x) / 2, (corners[0].y + corners[2].y) / 2);
+        Pose3D start = new Pose3D(new Position(DistanceUnit.INCH, ROBOT_X + 2, ROBOT_Y - 2, 0, 0),
+                new YawPitchRollAngles(AngleUnit.RADIANS, ROBOT_YAW + Math.toRadians(3), 0, 0, 0));
+        return new AprilTagDetection(tag.id, 0, 50, center, corners, tag, null, null, start, 1000);
+    }
+
+    private static double pattern(int seed, int i) {
+        return Math.sin(12.9898 * (i + 1) + 78.233 * (seed + 1));
+    }
+}